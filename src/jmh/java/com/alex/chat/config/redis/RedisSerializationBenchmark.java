@@ -0,0 +1,91 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialización JSON ({@link GenericJackson2JsonRedisSerializer}) que usan hoy
+ * {@link RedisConfig} (pub/sub) y la caché de Redis:
+ * un {@link ChatMessage} por cada salto de fan-out y un {@link Message} completo
+ * (con remitente y chat) por cada acceso a la caché.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisSerializationBenchmark {
+
+    private GenericJackson2JsonRedisSerializer serializer;
+    private ChatMessage chatMessage;
+    private Message message;
+    private byte[] chatMessageBytes;
+    private byte[] messageBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        serializer = RedisConfig.jsonSerializer();
+
+        chatMessage = new ChatMessage("alice", "Hola, ¿cómo va todo por ahí?", "12:34:56");
+        chatMessage.setChatId(42L);
+
+        User sender = new User();
+        sender.setId(7L);
+        sender.setUsername("alice");
+        sender.setFullName("Alice Example");
+        sender.setPassword("{bcrypt}hash");
+        sender.setCreatedAt(LocalDateTime.now());
+        Chat chat = new Chat();
+        chat.setId(42L);
+        chat.setName("general");
+        chat.setCreatedAt(LocalDateTime.now());
+        chat.getParticipants().add(sender);
+        message = new Message();
+        message.setId(1000L);
+        message.setChat(chat);
+        message.setSender(sender);
+        message.setContent("Hola, ¿cómo va todo por ahí?");
+        message.setSentAt(LocalDateTime.now());
+
+        chatMessageBytes = serializer.serialize(chatMessage);
+        messageBytes = serializer.serialize(message);
+    }
+
+    @Benchmark
+    public byte[] serializeChatMessage() {
+        return serializer.serialize(chatMessage);
+    }
+
+    @Benchmark
+    public Object deserializeChatMessage() {
+        return serializer.deserialize(chatMessageBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeMessage() {
+        return serializer.serialize(message);
+    }
+
+    @Benchmark
+    public Object deserializeMessage() {
+        return serializer.deserialize(messageBytes);
+    }
+}
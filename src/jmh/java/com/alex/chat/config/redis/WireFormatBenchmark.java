@@ -0,0 +1,83 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ChatMessage;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formato binario ({@link ChatEventSerializer}) frente al JSON actual para un
+ * {@link ChatMessage}. Además del tiempo, cada benchmark de serialización
+ * informa en {@code bytes} el tamaño del evento codificado.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"32", "512"})
+    public int contentLength;
+
+    private RedisSerializer<Object> json;
+    private ChatEventSerializer binary;
+    private ChatMessage message;
+    private byte[] jsonBytes;
+    private byte[] binaryBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        json = RedisConfig.jsonSerializer();
+        binary = new ChatEventSerializer();
+        message = new ChatMessage("alice", "ñ".repeat(contentLength / 4) + "a".repeat(contentLength - contentLength / 4), null);
+        message.setChatId(42L);
+        message.setSentAt(System.currentTimeMillis());
+        jsonBytes = json.serialize(message);
+        binaryBytes = binary.serialize(message);
+    }
+
+    @Benchmark
+    public byte[] serializeJson(EncodedSize size) {
+        byte[] bytes = json.serialize(message);
+        size.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] serializeBinary(EncodedSize size) {
+        byte[] bytes = binary.serialize(message);
+        size.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object deserializeJson() {
+        return json.deserialize(jsonBytes);
+    }
+
+    @Benchmark
+    public Object deserializeBinary() {
+        return binary.deserialize(binaryBytes);
+    }
+}
@@ -0,0 +1,120 @@
+package com.alex.chat.controller;
+
+import com.alex.chat.config.redis.RedisPublisher;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.TypingEvent;
+import com.alex.chat.service.ChatAccessService;
+import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.service.ChatSequenceService;
+import com.alex.chat.service.MessageWriteBehindService;
+import com.alex.chat.service.TypingIndicatorService;
+import com.alex.chat.websocket.BrokerMode;
+import com.alex.chat.websocket.ChatBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste propio de {@link ChatController#sendMessage}: formateo, métricas y entrega
+ * al publicador, sin la red. Redis y la cola de persistencia se sustituyen por
+ * stubs que solo consumen el valor; la secuencia, por un contador local, y la
+ * comprobación de participante, por un sí (en caliente sale de la caché).
+ * <p>
+ * {@code typingKeystroke} mide un aviso de escritura de un usuario que ya estaba
+ * escribiendo, el caso de cada pulsación: se queda en memoria sin llegar al publicador.
+ * El límite por sesión se sube para que no lo corte.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatControllerBenchmark {
+
+    private ChatController controller;
+    private ChatMessage roomMessage;
+    private ChatMessage legacyMessage;
+    private TypingEvent keystroke;
+    private Principal alice;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        ChatMetricsService metricsService = new ChatMetricsService(new SimpleMeterRegistry());
+        RedisPublisher publisher = new RedisPublisher(new RedisTemplate<>(), null, null) {
+            @Override
+            public void publish(String channel, Object message) {
+                blackhole.consume(channel);
+                blackhole.consume(message);
+            }
+        };
+        MessageWriteBehindService writeBehind = new MessageWriteBehindService(
+                null, null, null, metricsService, null, 1, 1, 1, 0, 0, 0) {
+            @Override
+            public boolean knowsChat(Long chatId) {
+                return true;
+            }
+
+            @Override
+            public boolean enqueue(ChatMessage message) {
+                blackhole.consume(message);
+                return true;
+            }
+        };
+        ChatSequenceService sequences = new ChatSequenceService(null, null, null, metricsService) {
+            private long last;
+
+            @Override
+            public Long next(Long chatId) {
+                return ++last;
+            }
+        };
+        ChatAccessService access = new ChatAccessService(null) {
+            @Override
+            public boolean isParticipant(Long chatId, String username) {
+                return true;
+            }
+        };
+        ChatBroadcaster broadcaster = new ChatBroadcaster(publisher, null, null, BrokerMode.SIMPLE);
+        TypingIndicatorService typing = new TypingIndicatorService(broadcaster, metricsService, 60_000,
+                Integer.MAX_VALUE);
+        controller = new ChatController(null, broadcaster, metricsService, writeBehind, null, typing, null, null, null, null,
+                sequences, access);
+
+        roomMessage = new ChatMessage("alice", "Hola, ¿cómo va todo por ahí?", null);
+        roomMessage.setChatId(42L);
+        legacyMessage = new ChatMessage("alice", "Hola, ¿cómo va todo por ahí?", null);
+        keystroke = new TypingEvent(42L, null, true);
+        alice = () -> "alice";
+        controller.typing(keystroke, alice, "session-1");
+    }
+
+    @Benchmark
+    public void sendRoomMessage() {
+        controller.sendMessage(roomMessage, alice);
+    }
+
+    @Benchmark
+    public void sendLegacyMessage() {
+        controller.sendMessage(legacyMessage, alice);
+    }
+
+    @Benchmark
+    public void typingKeystroke() {
+        controller.typing(keystroke, alice, "session-1");
+    }
+}
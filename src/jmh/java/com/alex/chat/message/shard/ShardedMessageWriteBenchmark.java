@@ -0,0 +1,126 @@
+package com.alex.chat.message.shard;
+
+import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Mensajes guardados por segundo con 1, 2 y 4 shards. Ocho hilos guardan lotes
+ * de 50 mensajes de chats al azar entre 10000, como los del escritor write-behind;
+ * cada lote se parte en un INSERT por lotes JDBC por shard.
+ * <p>
+ * Por defecto cada shard es una base de datos H2 en memoria de este mismo proceso,
+ * así que mide el reparto y la contención de cada base de datos, no discos ni
+ * servidores distintos. Para medir contra servidores de verdad se pasan sus URLs
+ * separadas por {@code |}, y {@code shards} decide cuántas se usan:
+ * {@code -Djmh.args="ShardedMessageWrite -p urls=jdbc:mysql://db1/chat|jdbc:mysql://db2/chat -p shards=2"}
+ * (usuario y contraseña en {@code -Dshard.username} y {@code -Dshard.password}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ShardedMessageWriteBenchmark {
+
+    private static final int CHATS = 10_000;
+    private static final int BATCH = 50;
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    @Param({""})
+    public String urls;
+
+    private ShardedMessageRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> shardUrls;
+        if (urls.isEmpty()) {
+            String run = UUID.randomUUID().toString();
+            shardUrls = IntStream.range(0, shards)
+                    .mapToObj(i -> "jdbc:h2:mem:write-bench-" + run + "-" + i + ";DB_CLOSE_DELAY=-1")
+                    .toList();
+        } else {
+            shardUrls = Arrays.asList(urls.split("\\|")).subList(0, shards);
+        }
+        repository = new ShardedMessageRepository(null, shardUrls,
+                System.getProperty("shard.username", "sa"), System.getProperty("shard.password", ""), 8);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        // Que las tablas no crezcan de una iteración a otra
+        repository.shards().forEach(shard -> shard.jdbc().execute("DELETE FROM " + MessageShard.TABLE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private final SplittableRandom random = new SplittableRandom();
+        private final User sender = new User();
+        private final Chat[] chats = new Chat[CHATS];
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            sender.setId(7L);
+            sender.setUsername("bob");
+            for (int i = 0; i < CHATS; i++) {
+                chats[i] = new Chat();
+                chats[i].setId((long) i + 1);
+            }
+        }
+
+        List<Message> nextBatch() {
+            LocalDateTime now = LocalDateTime.now();
+            List<Message> batch = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                Message message = new Message();
+                message.setChat(chats[random.nextInt(CHATS)]);
+                message.setSender(sender);
+                message.setContent("mensaje de prueba número " + i);
+                message.setSentAt(now);
+                batch.add(message);
+            }
+            return batch;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void saveBatch(Writer writer) {
+        repository.saveAll(writer.nextBatch());
+    }
+}
@@ -0,0 +1,175 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Latencia de una búsqueda en el índice de mensajes, con mensajes sintéticos de
+ * 6 a 14 palabras repartidos en 10000 chats; las palabras siguen una distribución
+ * de Zipf sobre un vocabulario de 50000. El usuario participa en 50 chats.
+ * <ul>
+ *     <li>{@code commonWord}: la palabra más frecuente (está en la mitad de los mensajes).</li>
+ *     <li>{@code rareWord}: una palabra del puesto 5000.</li>
+ *     <li>{@code twoWords}: la más frecuente junto con una del puesto 100.</li>
+ *     <li>{@code singleChat}: la más frecuente en un solo chat.</li>
+ *     <li>{@code nextPage}: la segunda página de {@code commonWord}.</li>
+ * </ul>
+ * Con 10M de mensajes: {@code -Djmh.args="MessageSearch -p messages=10000000"}.
+ * Montar el índice lleva unos minutos, así que se guarda en
+ * {@code target/message-search-bench} y lo reutilizan los siguientes benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageSearchBenchmark {
+
+    private static final int VOCABULARY = 50_000;
+    private static final int CHATS = 10_000;
+    private static final int USER_CHATS = 50;
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000000"})
+    public int messages;
+
+    private Path indexDir;
+    private MessageSearchService search;
+    private String[] words;
+    private List<Long> userChats;
+    private Long secondPageCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        indexDir = Path.of("target", "message-search-bench", String.valueOf(messages));
+        search = openIndex();
+
+        words = new String[VOCABULARY];
+        double[] cumulative = new double[VOCABULARY];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            words[i] = word(i);
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+
+        userChats = LongStream.range(0, USER_CHATS).map(i -> i * (CHATS / USER_CHATS)).boxed().toList();
+        if (search.indexedMessages() != messages) {
+            // Índice a medias o de otra versión: se monta de cero
+            search.stop();
+            deleteIndex();
+            search = openIndex();
+            buildIndex(cumulative, total);
+        }
+        secondPageCursor = search.search(userChats, words[0], null, PAGE_SIZE).nextCursor();
+    }
+
+    private void buildIndex(double[] cumulative, double total) {
+        SplittableRandom random = new SplittableRandom(42);
+        LocalDateTime sentAt = LocalDateTime.of(2024, 8, 1, 10, 0);
+        List<MessageView> chunk = new ArrayList<>(10_000);
+        StringBuilder content = new StringBuilder();
+        for (long id = 1; id <= messages; id++) {
+            content.setLength(0);
+            int length = random.nextInt(6, 15);
+            for (int w = 0; w < length; w++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                content.append(words[rank < 0 ? -rank - 1 : rank]).append(' ');
+            }
+            chunk.add(new MessageView(id, (long) random.nextInt(CHATS), "bob", content.toString(), sentAt));
+            if (chunk.size() == 10_000) {
+                search.index(chunk);
+                chunk.clear();
+            }
+        }
+        search.index(chunk);
+        search.commit();
+        search.refresh();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        search.stop();
+    }
+
+    private MessageSearchService openIndex() {
+        MessageSearchService service = new MessageSearchService(null, null,
+                new ChatMetricsService(new SimpleMeterRegistry()), indexDir.toString(), false, 1000);
+        service.start();
+        return service;
+    }
+
+    private void deleteIndex() throws IOException {
+        try (Stream<Path> files = Files.walk(indexDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public MessagePage commonWord() {
+        return search.search(userChats, words[0], null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public MessagePage rareWord() {
+        return search.search(userChats, words[5000], null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public MessagePage twoWords() {
+        return search.search(userChats, words[0] + " " + words[100], null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public MessagePage singleChat() {
+        return search.search(List.of(userChats.get(0)), words[0], null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public MessagePage nextPage() {
+        return search.search(userChats, words[0], secondPageCursor, PAGE_SIZE);
+    }
+
+    /**
+     * Palabras inventadas solo con letras, distintas para cada rango.
+     */
+    private static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        int n = rank;
+        do {
+            word.append((char) ('a' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return word.append("xo").toString();
+    }
+}
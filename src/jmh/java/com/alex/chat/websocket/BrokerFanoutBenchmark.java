@@ -0,0 +1,130 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SimpMessagingTemplate#convertAndSend} hacia el broker con N sesiones
+ * suscritas a la misma sala, como hace {@code RedisMessageSubscriber} en cada mensaje.
+ * Todo es síncrono y llega hasta {@code WebSocketSession.sendMessage}:
+ * <ul>
+ *     <li>{@code simple}: el simple broker recorre su registro y manda una copia por
+ *     sesión al canal de salida, donde {@link StompSubProtocolHandler} la serializa.</li>
+ *     <li>{@code indexed}: {@link IndexedBrokerMessageHandler} serializa el frame
+ *     una vez y lo deja en la cola de cada sesión.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrokerFanoutBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int subscribers;
+
+    @Param({"simple", "indexed"})
+    public String broker;
+
+    private AbstractBrokerMessageHandler brokerHandler;
+    private SimpMessagingTemplate template;
+    private ChatMessage message;
+    private String destination;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        List<String> prefixes = List.of("/topic", "/queue");
+
+        if (BrokerMode.from(broker) == BrokerMode.INDEXED) {
+            OutboundSessionRegistry registry = new OutboundSessionRegistry(512 * 1024, Duration.ofSeconds(10),
+                    OutboundPolicy.DROP_OLDEST, Runnable::run,
+                    new ChatMetricsService(new SimpleMeterRegistry()));
+            for (int i = 0; i < subscribers; i++) {
+                registry.register(new BlackholeWebSocketSession("session-" + i, blackhole));
+            }
+            brokerHandler = new IndexedBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, prefixes,
+                    registry, new ChatMetricsService(new SimpleMeterRegistry()));
+        } else {
+            // Lo mismo que hace SubProtocolWebSocketHandler con cada mensaje del canal de salida
+            StompSubProtocolHandler stomp = new StompSubProtocolHandler();
+            Map<String, BlackholeWebSocketSession> sessions = new HashMap<>();
+            for (int i = 0; i < subscribers; i++) {
+                sessions.put("session-" + i, new BlackholeWebSocketSession("session-" + i, blackhole));
+            }
+            clientOutbound.subscribe(outbound -> {
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(outbound.getHeaders());
+                stomp.handleMessageToClient(sessions.get(sessionId), outbound);
+            });
+            brokerHandler = new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, prefixes);
+        }
+        brokerHandler.start();
+
+        destination = ChatTopics.destination(42L);
+        for (int i = 0; i < subscribers; i++) {
+            // El simple broker solo entrega a sesiones de las que recibió el CONNECT
+            SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+            connect.setSessionId("session-" + i);
+            brokerHandler.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            headers.setSessionId("session-" + i);
+            headers.setSubscriptionId("sub-0");
+            headers.setDestination(destination);
+            brokerHandler.handleMessage(MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()));
+        }
+
+        template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new CompositeMessageConverter(List.of(
+                new StringMessageConverter(), new ByteArrayMessageConverter(), new MappingJackson2MessageConverter())));
+
+        message = new ChatMessage("alice", "Hola, ¿cómo va todo por ahí?", "12:34:56");
+        message.setChatId(42L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        brokerHandler.stop();
+    }
+
+    @Benchmark
+    public void convertAndSend() {
+        template.convertAndSend(destination, message);
+    }
+}
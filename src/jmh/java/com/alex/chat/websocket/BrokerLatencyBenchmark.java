@@ -0,0 +1,128 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.dto.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de entrega de un mensaje de sala, desde que un nodo lo envía hasta
+ * que llega al canal de salida del cliente suscrito, en cada modo de broker:
+ * <ul>
+ *     <li>{@code simple}: broker en memoria del mismo nodo (el salto por Redis
+ *     no está incluido, necesita un Redis real).</li>
+ *     <li>{@code relay}: un nodo envía y otro entrega, pasando por TCP por
+ *     {@link EmbeddedStompBroker}.</li>
+ * </ul>
+ * Un mensaje en vuelo cada vez, así que {@code SampleTime} da la distribución
+ * (p50, p99...) de la latencia de un mensaje.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerLatencyBenchmark {
+
+    @Param({"simple", "relay"})
+    public String mode;
+
+    private final String destination = ChatTopics.destination(42L);
+    private ChatMessage message;
+
+    private SimpleBrokerMessageHandler simpleBroker;
+    private SimpMessagingTemplate simpleTemplate;
+    private final BlockingQueue<Message<?>> simpleDelivered = new LinkedBlockingQueue<>();
+
+    private EmbeddedStompBroker stompBroker;
+    private RelayNode sender;
+    private RelayNode receiver;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        message = new ChatMessage("alice", "Hola, ¿cómo va todo por ahí?", "12:34:56");
+        message.setChatId(42L);
+        if (BrokerMode.from(mode) == BrokerMode.RELAY) {
+            stompBroker = new EmbeddedStompBroker();
+            receiver = new RelayNode(stompBroker.getPort()).awaitBrokerAvailable();
+            sender = new RelayNode(stompBroker.getPort()).awaitBrokerAvailable();
+            receiver.connectAndSubscribe("session-0", "sub-0", destination);
+        } else {
+            setUpSimpleBroker();
+        }
+    }
+
+    private void setUpSimpleBroker() {
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        clientOutbound.subscribe(simpleDelivered::add);
+        simpleBroker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel,
+                List.of("/topic", "/queue"));
+        simpleBroker.start();
+
+        // El simple broker solo entrega a sesiones de las que recibió el CONNECT
+        SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        connect.setSessionId("session-0");
+        simpleBroker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headers.setSessionId("session-0");
+        headers.setSubscriptionId("sub-0");
+        headers.setDestination(destination);
+        simpleBroker.handleMessage(MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()));
+        simpleDelivered.clear();
+
+        simpleTemplate = new SimpMessagingTemplate(brokerChannel);
+        simpleTemplate.setMessageConverter(new CompositeMessageConverter(
+                List.of(new StringMessageConverter(), new MappingJackson2MessageConverter())));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (simpleBroker != null) {
+            simpleBroker.stop();
+        }
+        if (sender != null) {
+            sender.close();
+            receiver.close();
+            stompBroker.close();
+        }
+    }
+
+    @Benchmark
+    public Message<?> deliver() throws InterruptedException {
+        if (sender != null) {
+            sender.send(destination, message);
+            return receiver.awaitFrame(StompCommand.MESSAGE);
+        }
+        simpleTemplate.convertAndSend(destination, message);
+        return simpleDelivered.poll(10, TimeUnit.SECONDS);
+    }
+}
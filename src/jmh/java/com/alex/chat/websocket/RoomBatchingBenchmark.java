@@ -0,0 +1,105 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Una ráfaga de mensajes en una sala con 100 clientes, con el broker indexado:
+ * {@code single} manda un frame por mensaje y cliente; {@code batched} manda el
+ * lote que {@link RoomMessageBatcher} junta en una ventana, un frame por cliente.
+ * Con 20 mensajes: 2000 frames y ~450 KB frente a 100 frames y ~224 KB por ráfaga.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomBatchingBenchmark {
+
+    private static final int SUBSCRIBERS = 100;
+
+    @Param({"single", "batched"})
+    public String delivery;
+
+    @Param({"20"})
+    public int burst;
+
+    private IndexedBrokerMessageHandler broker;
+    private SimpMessagingTemplate template;
+    private final String destination = ChatTopics.destination(42L);
+    private final List<ChatMessage> messages = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        OutboundSessionRegistry registry = new OutboundSessionRegistry(512 * 1024, Duration.ofSeconds(10),
+                OutboundPolicy.DROP_OLDEST, Runnable::run, new ChatMetricsService(new SimpleMeterRegistry()));
+        broker = new IndexedBrokerMessageHandler(new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(),
+                brokerChannel, List.of("/topic", "/queue"), registry, new ChatMetricsService(new SimpleMeterRegistry()));
+        broker.start();
+
+        String subscribed = "batched".equals(delivery) ? ChatTopics.batchDestination(destination) : destination;
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            BlackholeWebSocketSession session = new BlackholeWebSocketSession("session-" + i, blackhole);
+            registry.register(session);
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            headers.setSessionId(session.getId());
+            headers.setSubscriptionId("sub-0");
+            headers.setDestination(subscribed);
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()));
+        }
+
+        template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        for (int i = 0; i < burst; i++) {
+            ChatMessage message = new ChatMessage("user" + (i % 5), "Mensaje " + i + " de la ráfaga", "12:34:56");
+            message.setChatId(42L);
+            messages.add(message);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        broker.stop();
+    }
+
+    @Benchmark
+    public void deliverBurst() {
+        if ("batched".equals(delivery)) {
+            template.convertAndSend(ChatTopics.batchDestination(destination), messages,
+                    Map.of(RoomMessageBatcher.BATCH_SIZE_HEADER, messages.size()));
+        } else {
+            for (ChatMessage message : messages) {
+                template.convertAndSend(destination, message);
+            }
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package com.alex.chat;
 
+import com.alex.chat.message.shard.MessageReshardRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class RealtimeChatApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(RealtimeChatApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(RealtimeChatApplication.class, args);
+        if (context.getEnvironment().matchesProfiles(MessageReshardRunner.PROFILE)) {
+            // La redistribución no se queda sirviendo: sale con el código de MessageReshardRunner
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -4,7 +4,9 @@ import com.alex.chat.user.entity.User;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
 import java.util.HashSet;
@@ -18,14 +20,21 @@ import java.util.Set;
 public class Chat {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_seq")
+    @SequenceGenerator(name = "chat_seq", sequenceName = "chats_seq", allocationSize = 50)
     private Long id;
 
     private String name;
 
     private boolean isGroupChat;
 
+    /**
+     * Fuera de toString/equals/hashCode: si no, imprimir o comparar un chat
+     * cargaría todos sus participantes.
+     */
     @ManyToMany
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     @JoinTable(
         name = "chat_participants",
         joinColumns = @JoinColumn(name = "chat_id"),
@@ -0,0 +1,60 @@
+package com.alex.chat.chat.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
+
+/**
+ * Marca de lectura de un usuario en un chat: el último mensaje que ha leído.
+ * Todo lo que tenga un número de secuencia mayor (y no lo haya enviado él)
+ * cuenta como no leído, así no hace falta una fila por mensaje y por usuario.
+ * La marca va por secuencia y no por ID porque con varios nodos el ID no sigue
+ * el orden de llegada; los mensajes anteriores a las secuencias nunca cuentan
+ * como no leídos.
+ */
+@Entity
+@Table(name = "chat_read_state",
+       uniqueConstraints = @UniqueConstraint(name = "uk_chat_read_state_user_chat", columnNames = {"user_id", "chat_id"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatReadState {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_read_state_seq")
+    @SequenceGenerator(name = "chat_read_state_seq", sequenceName = "chat_read_state_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    /**
+     * ID del último mensaje leído, si se conoce (0 si no). Solo informativo: las
+     * confirmaciones por WebSocket llegan por secuencia, antes de que el mensaje
+     * tenga ID.
+     */
+    @Column(nullable = false)
+    private Long lastReadMessageId;
+
+    /**
+     * Secuencia del último mensaje leído en el chat: la marca de verdad.
+     */
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private Long lastReadSeq;
+
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
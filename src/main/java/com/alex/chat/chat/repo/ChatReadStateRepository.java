@@ -0,0 +1,32 @@
+package com.alex.chat.chat.repo;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ChatReadStateRepository extends JpaRepository<ChatReadState, Long> {
+
+    Optional<ChatReadState> findByUserIdAndChatId(Long userId, Long chatId);
+
+    List<ChatReadState> findByUserId(Long userId);
+
+    /**
+     * Marcas de lectura de varios usuarios en varios chats en una sola consulta.
+     * Puede devolver combinaciones de más; quien llama se queda con las que busca.
+     */
+    List<ChatReadState> findByUserIdInAndChatIdIn(Collection<Long> userIds, Collection<Long> chatIds);
+
+    /**
+     * Marcas guardadas por ID antes de que fueran por secuencia, en trozos por keyset.
+     */
+    @Query("SELECT r FROM ChatReadState r WHERE r.lastReadSeq = 0 AND r.lastReadMessageId > 0 AND r.id > :afterId " +
+           "ORDER BY r.id")
+    List<ChatReadState> findWithoutSeqAfter(Long afterId, Limit limit);
+}
@@ -1,19 +1,89 @@
 package com.alex.chat.chat.repo;
 
 import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.dto.ChatParticipant;
+import com.alex.chat.dto.ChatSummary;
+import com.alex.chat.dto.InboxEntry;
 import com.alex.chat.user.entity.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ChatRepository extends JpaRepository<Chat, Long> {
 
-    @Query("SELECT c FROM Chat c JOIN c.participants p WHERE p.id = :userId")
+    /**
+     * Chats de un usuario con sus participantes ya cargados (un entity graph en la
+     * misma consulta, no una consulta por chat al recorrerlos). El filtro va en una
+     * subconsulta: con un JOIN sobre participants Hibernate reutiliza ese JOIN para
+     * el fetch y cada chat vendría solo con el usuario buscado.
+     */
+    @EntityGraph(attributePaths = "participants")
+    @Query("SELECT c FROM Chat c WHERE c.id IN " +
+           "(SELECT c2.id FROM Chat c2 JOIN c2.participants p WHERE p.id = :userId)")
     List<Chat> findAllByParticipantId(Long userId);
 
+    /**
+     * Lista de chats de un usuario para mostrar, sin cargar entidades ni participantes.
+     */
+    @Query("SELECT new com.alex.chat.dto.ChatSummary(c.id, c.name, c.isGroupChat, c.lastActivity, " +
+           "(SELECT COUNT(q) FROM Chat c2 JOIN c2.participants q WHERE c2 = c)) " +
+           "FROM Chat c JOIN c.participants p WHERE p.id = :userId ORDER BY c.lastActivity DESC")
+    List<ChatSummary> findSummariesByParticipantId(Long userId);
+
+    /**
+     * Bandeja de entrada de un usuario: sus chats con el último mensaje, del más
+     * reciente al más antiguo, en una sola consulta. El último mensaje es el de
+     * secuencia más alta, que sale del índice (chat_id, seq) con un MAX por chat, así
+     * que el coste depende del número de chats y no del de mensajes. El ID no vale
+     * para esto: con varios nodos no sigue el orden de llegada. Solo los chats sin
+     * ningún mensaje con secuencia (anteriores a ellas) caen al ID más alto.
+     * Del contenido solo se leen los primeros 100 caracteres.
+     */
+    @Query("SELECT new com.alex.chat.dto.InboxEntry(c.id, c.name, c.isGroupChat, " +
+           "COALESCE(m.sentAt, c.lastActivity), m.id, s.username, SUBSTRING(m.content, 1, 100), m.sentAt) " +
+           "FROM Chat c " +
+           "LEFT JOIN Message m ON m.chat = c AND m.id = COALESCE(" +
+           "(SELECT MAX(m2.id) FROM Message m2 WHERE m2.chat = c " +
+           "AND m2.seq = (SELECT MAX(m3.seq) FROM Message m3 WHERE m3.chat = c)), " +
+           "(SELECT MAX(m2.id) FROM Message m2 WHERE m2.chat = c)) " +
+           "LEFT JOIN m.sender s " +
+           "WHERE c.id IN (SELECT c2.id FROM Chat c2 JOIN c2.participants p WHERE p.id = :userId) " +
+           "ORDER BY COALESCE(m.sentAt, c.lastActivity) DESC")
+    List<InboxEntry> findInbox(Long userId);
+
+    @Query("SELECT p.id FROM Chat c JOIN c.participants p WHERE c.id = :chatId")
+    List<Long> findParticipantIds(Long chatId);
+
+    @Query("SELECT c.id FROM Chat c JOIN c.participants p WHERE p.id = :userId")
+    List<Long> findIdsByParticipantId(Long userId);
+
+    /**
+     * De esos usuarios, quién participa en cuál de esos chats, en una consulta.
+     */
+    @Query("SELECT new com.alex.chat.dto.ChatParticipant(c.id, p.id) FROM Chat c JOIN c.participants p " +
+           "WHERE c.id IN :chatIds AND p.id IN :userIds")
+    List<ChatParticipant> findParticipants(Collection<Long> chatIds, Collection<Long> userIds);
+
+    /**
+     * Los IDs de la lista que corresponden a un chat existente.
+     */
+    @Query("SELECT c.id FROM Chat c WHERE c.id IN :ids")
+    List<Long> findExistingIds(Collection<Long> ids);
+
+    /**
+     * IDs de los chats en los que participa un usuario, sin cargar ningún chat.
+     */
+    @Query("SELECT c.id FROM Chat c JOIN c.participants p WHERE p.username = :username")
+    List<Long> findIdsByParticipantUsername(String username);
+
+    @Query("SELECT COUNT(c) > 0 FROM Chat c JOIN c.participants p WHERE c.id = :chatId AND p.username = :username")
+    boolean isParticipant(Long chatId, String username);
+
     @Query("SELECT c FROM Chat c WHERE c.isGroupChat = false AND :user1 MEMBER OF c.participants AND :user2 MEMBER OF c.participants")
     Chat findPrivateChatBetweenUsers(User user1, User user2);
 }
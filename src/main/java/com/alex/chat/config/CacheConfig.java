@@ -1,12 +1,16 @@
 package com.alex.chat.config;
 
+import com.alex.chat.config.cache.TwoLevelCacheManager;
+import com.alex.chat.config.redis.RedisConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -22,22 +26,33 @@ import java.time.Duration;
 public class CacheConfig {
 
     /**
-     * Configura el gestor de caché de Redis con los tiempos de expiración
-     * y la serialización adecuada para una caché distribuida.
+     * Configura el gestor de caché de dos niveles: una caché local pequeña y de
+     * vida corta en cada nodo (L1) delante de la caché distribuida de Redis (L2),
+     * con los tiempos de expiración y la serialización adecuados.
      */
     @Bean
-    public RedisCacheManager cacheManager(RedisConnectionFactory connectionFactory) {
+    public TwoLevelCacheManager cacheManager(RedisConnectionFactory connectionFactory,
+                                             StringRedisTemplate stringRedisTemplate,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${chat.cache.l1.max-size:10000}") long localMaxSize,
+                                             @Value("${chat.cache.l1.ttl-ms:30000}") long localTtlMs) {
         RedisCacheConfiguration cacheConfig = RedisCacheConfiguration.defaultCacheConfig()
                 .entryTtl(Duration.ofMinutes(10))  // Los datos expiran después de 10 minutos
                 .serializeKeysWith(
                         RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()))
                 .serializeValuesWith(
-                        RedisSerializationContext.SerializationPair.fromSerializer(new GenericJackson2JsonRedisSerializer()))
+                        RedisSerializationContext.SerializationPair.fromSerializer(RedisConfig.jsonSerializer()))
                 .disableCachingNullValues();  // No cachear valores nulos
 
-        return RedisCacheManager.builder(connectionFactory)
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(connectionFactory)
                 .cacheDefaults(cacheConfig)
-                .transactionAware()  // Soporta transacciones
                 .build();
+        redisCacheManager.initializeCaches();
+
+        TwoLevelCacheManager cacheManager = new TwoLevelCacheManager(redisCacheManager, stringRedisTemplate,
+                meterRegistry, localMaxSize, Duration.ofMillis(localTtlMs));
+        // Soporta transacciones: los dos niveles se invalidan al confirmar
+        cacheManager.setTransactionAware(true);
+        return cacheManager;
     }
 }
@@ -0,0 +1,12 @@
+package com.alex.chat.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Activa las tareas periódicas (reconciliación de contadores, vaciado de lotes...).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,109 @@
+package com.alex.chat.config;
+
+import com.alex.chat.service.ChatMetricsService;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detecta hilos virtuales anclados (pinned) a su hilo portador con el evento
+ * {@code jdk.VirtualThreadPinned} de JFR. Pasa cuando un hilo virtual se
+ * bloquea dentro de un {@code synchronized} o de código nativo, por ejemplo en
+ * drivers JDBC antiguos; mientras dura, ese portador no puede ejecutar otros hilos.
+ * <p>
+ * Cada evento se cuenta en {@code chat.threads.virtual.pinned}; la primera vez
+ * que un punto del código provoca anclajes se avisa en el log con su pila.
+ */
+@Component
+public class VirtualThreadPinningMonitor implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    /** Puntos de anclaje distintos de los que se avisa en el log, para no llenarlo. */
+    private static final int MAX_REPORTED_FRAMES = 100;
+
+    private final ChatMetricsService metricsService;
+    private final boolean enabled;
+    private final Duration threshold;
+    private final Set<String> reportedFrames = ConcurrentHashMap.newKeySet();
+
+    private volatile RecordingStream recording;
+
+    public VirtualThreadPinningMonitor(ChatMetricsService metricsService,
+                                       @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                       @Value("${chat.threads.pinning.threshold-ms:20}") long thresholdMs) {
+        this.metricsService = metricsService;
+        this.enabled = virtualThreads;
+        this.threshold = Duration.ofMillis(thresholdMs);
+    }
+
+    private void onPinned(RecordedEvent event) {
+        metricsService.recordVirtualThreadPinned(event.getDuration());
+        String frame = firstFrame(event.getStackTrace());
+        if (reportedFrames.size() < MAX_REPORTED_FRAMES && reportedFrames.add(frame)) {
+            logger.warn("Hilo virtual anclado {} ms en {}\n{}",
+                    event.getDuration().toMillis(), frame, event.getStackTrace());
+        }
+    }
+
+    /**
+     * Primer método fuera del JDK en la pila, que es donde se puede corregir el anclaje.
+     */
+    private static String firstFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "desconocido";
+        }
+        RecordedFrame first = stackTrace.getFrames().get(0);
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                first = frame;
+                break;
+            }
+        }
+        return first.getMethod().getType().getName() + "." + first.getMethod().getName();
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            RecordingStream stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            recording = stream;
+            logger.info("Detección de hilos virtuales anclados activa (umbral={} ms)", threshold.toMillis());
+        } catch (Exception e) {
+            // JFR puede no estar disponible en algunas JVM; la aplicación sigue igual
+            logger.warn("No se pudo activar la detección de hilos virtuales anclados: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        RecordingStream stream = recording;
+        recording = null;
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return recording != null;
+    }
+}
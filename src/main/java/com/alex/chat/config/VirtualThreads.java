@@ -0,0 +1,24 @@
+package com.alex.chat.config;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * Ejecutores de hilos virtuales para el modo {@code spring.threads.virtual.enabled=true}.
+ * No se declaran como beans a propósito: un bean {@code Executor} más haría que
+ * Spring Boot dejara de crear su {@code applicationTaskExecutor}.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Ejecutor que lanza cada tarea en un hilo virtual nuevo, con nombre para
+     * poder reconocerlos en volcados de hilos y en los eventos de JFR.
+     */
+    public static SimpleAsyncTaskExecutor executor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
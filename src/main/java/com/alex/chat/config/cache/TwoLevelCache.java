@@ -0,0 +1,237 @@
+package com.alex.chat.config.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caché de dos niveles: una caché local acotada (L1, Caffeine) delante de la
+ * caché compartida de Redis (L2). Las lecturas que aciertan en L1 no salen del
+ * proceso ni deserializan JSON; los fallos van a L2 y, si está, se copia a L1.
+ * <p>
+ * Al invalidar (evict/clear) se borra en los dos niveles y se avisa al resto de
+ * nodos para que limpien su L1. El TTL corto de L1 acota lo que puede durar un
+ * valor viejo si se pierde un aviso.
+ * <p>
+ * Ojo: L1 guarda la misma instancia para todos los lectores, los valores
+ * cacheados no se deben modificar.
+ */
+public class TwoLevelCache implements Cache {
+
+    private final String name;
+    private final com.github.benmanes.caffeine.cache.Cache<String, ValueWrapper> local;
+    private final Cache remote;
+    private final InvalidationPublisher invalidationPublisher;
+
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+    private final Timer l1Latency;
+    private final Timer l2Latency;
+
+    TwoLevelCache(String name,
+                  com.github.benmanes.caffeine.cache.Cache<String, ValueWrapper> local,
+                  Cache remote,
+                  InvalidationPublisher invalidationPublisher,
+                  MeterRegistry meterRegistry) {
+        this.name = name;
+        this.local = local;
+        this.remote = remote;
+        this.invalidationPublisher = invalidationPublisher;
+
+        this.l1Hits = lookupCounter(meterRegistry, "l1", "hit");
+        this.l1Misses = lookupCounter(meterRegistry, "l1", "miss");
+        this.l2Hits = lookupCounter(meterRegistry, "l2", "hit");
+        this.l2Misses = lookupCounter(meterRegistry, "l2", "miss");
+        this.l1Latency = latencyTimer(meterRegistry, "l1");
+        this.l2Latency = latencyTimer(meterRegistry, "l2");
+
+        Gauge.builder("chat.cache.l1.size", local, com.github.benmanes.caffeine.cache.Cache::estimatedSize)
+                .description("Entradas en la caché local")
+                .tag("cache", name)
+                .register(meterRegistry);
+        Gauge.builder("chat.cache.hit.ratio", this, cache -> ratio(cache.l1Hits, cache.l1Misses))
+                .description("Proporción de lecturas resueltas en este nivel")
+                .tags("cache", name, "level", "l1")
+                .register(meterRegistry);
+        Gauge.builder("chat.cache.hit.ratio", this, cache -> ratio(cache.l2Hits, cache.l2Misses))
+                .tags("cache", name, "level", "l2")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return local;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        ValueWrapper cached = getLocal(localKey);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        ValueWrapper value = remote.get(key);
+        l2Latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (value == null) {
+            l2Misses.increment();
+            return null;
+        }
+        l2Hits.increment();
+        local.put(localKey, value);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("El valor cacheado no es del tipo " + type.getName() + ": " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = localKey(key);
+        ValueWrapper cached = getLocal(localKey);
+        if (cached != null) {
+            return (T) cached.get();
+        }
+        long start = System.nanoTime();
+        T value = remote.get(key, valueLoader);
+        l2Latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (value != null) {
+            local.put(localKey, new SimpleValueWrapper(value));
+        }
+        return value;
+    }
+
+    /**
+     * Un put solo guarda lo que se acaba de leer de la base de datos, así que
+     * no hace falta avisar al resto de nodos.
+     */
+    @Override
+    public void put(Object key, Object value) {
+        remote.put(key, value);
+        if (value != null) {
+            local.put(localKey(key), new SimpleValueWrapper(value));
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = remote.putIfAbsent(key, value);
+        local.invalidate(localKey(key));
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        evictLocal(localKey(key));
+        invalidationPublisher.evicted(name, localKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = remote.evictIfPresent(key);
+        evictLocal(localKey(key));
+        invalidationPublisher.evicted(name, localKey(key));
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearLocal();
+        invalidationPublisher.cleared(name);
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean present = remote.invalidate();
+        clearLocal();
+        invalidationPublisher.cleared(name);
+        return present;
+    }
+
+    /**
+     * Borra una clave solo de L1 (aviso de invalidación de otro nodo).
+     */
+    void evictLocal(String localKey) {
+        local.invalidate(localKey);
+    }
+
+    /**
+     * Vacía solo L1 (aviso de invalidación de otro nodo).
+     */
+    void clearLocal() {
+        local.invalidateAll();
+    }
+
+    private ValueWrapper getLocal(String localKey) {
+        long start = System.nanoTime();
+        ValueWrapper cached = local.getIfPresent(localKey);
+        l1Latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (cached != null) {
+            l1Hits.increment();
+        } else {
+            l1Misses.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * Las claves de L1 son el texto de la clave, igual que en Redis, para que los
+     * avisos entre nodos identifiquen la misma entrada.
+     */
+    static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+
+    private Counter lookupCounter(MeterRegistry meterRegistry, String level, String result) {
+        return Counter.builder("chat.cache.gets")
+                .description("Lecturas de caché por nivel y resultado")
+                .tags("cache", name, "level", level, "result", result)
+                .register(meterRegistry);
+    }
+
+    private Timer latencyTimer(MeterRegistry meterRegistry, String level) {
+        return Timer.builder("chat.cache.latency")
+                .description("Tiempo de lectura de cada nivel de caché")
+                .tags("cache", name, "level", level)
+                .register(meterRegistry);
+    }
+
+    private static double ratio(Counter hits, Counter misses) {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    /**
+     * Aviso al resto de nodos de que una entrada ya no es válida.
+     */
+    interface InvalidationPublisher {
+
+        void evicted(String cacheName, String localKey);
+
+        void cleared(String cacheName);
+    }
+}
@@ -0,0 +1,142 @@
+package com.alex.chat.config.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.transaction.AbstractTransactionSupportingCacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gestor de cachés de dos niveles: cada caché del gestor de Redis (L2) se
+ * envuelve en una {@link TwoLevelCache} con su propia caché local (L1).
+ * <p>
+ * Las invalidaciones se avisan por el canal {@value #INVALIDATION_CHANNEL}
+ * con el formato {@code nodo|E|caché|clave} (evict) o {@code nodo|C|caché}
+ * (clear). Cada nodo ignora sus propios avisos, porque ya limpió su L1.
+ */
+public class TwoLevelCacheManager extends AbstractTransactionSupportingCacheManager implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwoLevelCacheManager.class);
+
+    public static final String INVALIDATION_CHANNEL = "cache-invalidation";
+
+    private static final String EVICT = "E";
+    private static final String CLEAR = "C";
+
+    private final CacheManager remoteCacheManager;
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final long localMaxSize;
+    private final Duration localTtl;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, TwoLevelCache> twoLevelCaches = new ConcurrentHashMap<>();
+    private final Counter invalidationsSent;
+    private final Counter invalidationsReceived;
+
+    public TwoLevelCacheManager(CacheManager remoteCacheManager,
+                                StringRedisTemplate redisTemplate,
+                                MeterRegistry meterRegistry,
+                                long localMaxSize,
+                                Duration localTtl) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.localMaxSize = localMaxSize;
+        this.localTtl = localTtl;
+        this.invalidationsSent = Counter.builder("chat.cache.invalidations")
+                .description("Avisos de invalidación de caché local entre nodos")
+                .tag("direction", "sent")
+                .register(meterRegistry);
+        this.invalidationsReceived = Counter.builder("chat.cache.invalidations")
+                .tag("direction", "received")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Las cachés se crean bajo demanda, igual que en el gestor de Redis.
+     */
+    @Override
+    protected Collection<? extends Cache> loadCaches() {
+        return List.of();
+    }
+
+    /**
+     * Con la caché local desactivada ({@code max-size <= 0}) se usa Redis directamente.
+     */
+    @Override
+    protected Cache getMissingCache(String name) {
+        Cache remote = remoteCacheManager.getCache(name);
+        if (remote == null || localMaxSize <= 0) {
+            return remote;
+        }
+        TwoLevelCache cache = new TwoLevelCache(name,
+                Caffeine.newBuilder()
+                        .maximumSize(localMaxSize)
+                        .expireAfterWrite(localTtl)
+                        .build(),
+                remote,
+                new RedisInvalidationPublisher(),
+                meterRegistry);
+        twoLevelCaches.put(name, cache);
+        return cache;
+    }
+
+    /**
+     * Recibe los avisos de invalidación de los demás nodos.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 4);
+        if (parts.length < 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        TwoLevelCache cache = twoLevelCaches.get(parts[2]);
+        if (cache == null) {
+            return;
+        }
+        invalidationsReceived.increment();
+        if (CLEAR.equals(parts[1])) {
+            cache.clearLocal();
+        } else if (EVICT.equals(parts[1]) && parts.length == 4) {
+            cache.evictLocal(parts[3]);
+        }
+    }
+
+    private void publish(String payload) {
+        try {
+            redisTemplate.convertAndSend(INVALIDATION_CHANNEL, payload);
+            invalidationsSent.increment();
+        } catch (Exception e) {
+            // El TTL de la caché local acota cuánto tiempo puede quedar un valor viejo
+            logger.warn("No se pudo avisar de la invalidación de caché: {}", e.getMessage());
+        }
+    }
+
+    private class RedisInvalidationPublisher implements TwoLevelCache.InvalidationPublisher {
+
+        @Override
+        public void evicted(String cacheName, String localKey) {
+            publish(nodeId + "|" + EVICT + "|" + cacheName + "|" + localKey);
+        }
+
+        @Override
+        public void cleared(String cacheName) {
+            publish(nodeId + "|" + CLEAR + "|" + cacheName);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ChatMessage;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formato binario compacto para los eventos de chat entre nodos.
+ * Sustituye al JSON con metadatos {@code @class} en cada salto de fan-out.
+ *
+ * <pre>
+ * magic(1) versión(1) tipo(1) flags(1) [chatId(8)] sentAt(8) sender(varint+UTF-8) content(varint+UTF-8)
+ * [streamId(varint+UTF-8)] [seq(8)] [timestamp(varint+UTF-8)]
+ * </pre>
+ *
+ * El ID del stream, la secuencia y la hora tal como la puso el nodo de origen van
+ * al final y con su propio flag: los nodos que aún no los conocen leen el resto del
+ * sobre igual y simplemente los ignoran.
+ *
+ * Se calcula antes el tamaño exacto del sobre y se escribe una sola vez sobre el
+ * array que se devuelve, sin buffers por hilo (que con hilos virtuales no se
+ * reutilizan) ni copias. Se decodifica leyendo directamente del array recibido,
+ * sin pasar por árboles de objetos intermedios.
+ */
+public class ChatEventSerializer implements RedisSerializer<ChatMessage> {
+
+    /** Primer byte de todo sobre binario; ningún JSON empieza así. */
+    public static final byte MAGIC = (byte) 0xCE;
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_CHAT_ID = 1;
+    private static final int FLAG_SENDER = 1 << 1;
+    private static final int FLAG_CONTENT = 1 << 2;
+    private static final int FLAG_STREAM_ID = 1 << 3;
+    private static final int FLAG_SEQ = 1 << 4;
+    private static final int FLAG_TIMESTAMP = 1 << 5;
+
+    /** Cabecera fija: magic, versión, tipo, flags y sentAt. */
+    private static final int HEADER_SIZE = 4 + Long.BYTES;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /**
+     * Indica si unos bytes son un sobre binario (y no JSON).
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length > 1 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] serialize(ChatMessage message) throws SerializationException {
+        if (message == null) {
+            return null;
+        }
+        byte[] bytes = new byte[encodedLength(message)];
+        write(ByteBuffer.wrap(bytes), message);
+        return bytes;
+    }
+
+    @Override
+    public ChatMessage deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (!isBinary(bytes)) {
+            throw new SerializationException("No es un evento de chat binario");
+        }
+        if (bytes[1] != VERSION) {
+            throw new SerializationException("Versión de evento no soportada: " + bytes[1]);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 2);
+            ChatEventType.fromCode(buffer.get());
+            int flags = buffer.get();
+
+            ChatMessage message = new ChatMessage();
+            if ((flags & FLAG_CHAT_ID) != 0) {
+                message.setChatId(buffer.getLong());
+            }
+            long sentAt = buffer.getLong();
+            message.setSentAt(sentAt);
+            if ((flags & FLAG_SENDER) != 0) {
+                message.setSender(readString(buffer));
+            }
+            if ((flags & FLAG_CONTENT) != 0) {
+                message.setContent(readString(buffer));
+            }
+            if ((flags & FLAG_STREAM_ID) != 0) {
+                message.setStreamId(readString(buffer));
+            }
+            if ((flags & FLAG_SEQ) != 0) {
+                message.setSeq(buffer.getLong());
+            }
+            if ((flags & FLAG_TIMESTAMP) != 0) {
+                message.setTimestamp(readString(buffer));
+            } else {
+                // Sobre de un nodo que aún no manda la hora: se reconstruye como antes
+                message.setTimestamp(TIME_FORMAT.format(Instant.ofEpochMilli(sentAt).atZone(ZoneId.systemDefault())));
+            }
+            return message;
+        } catch (RuntimeException e) {
+            throw new SerializationException("Evento de chat binario corrupto", e);
+        }
+    }
+
+    private static void write(ByteBuffer buffer, ChatMessage message) {
+        int flags = (message.getChatId() != null ? FLAG_CHAT_ID : 0)
+                | (message.getSender() != null ? FLAG_SENDER : 0)
+                | (message.getContent() != null ? FLAG_CONTENT : 0)
+                | (message.getStreamId() != null ? FLAG_STREAM_ID : 0)
+                | (message.getSeq() != null ? FLAG_SEQ : 0)
+                | (message.getTimestamp() != null ? FLAG_TIMESTAMP : 0);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(ChatEventType.MESSAGE.getCode());
+        buffer.put((byte) flags);
+        if (message.getChatId() != null) {
+            buffer.putLong(message.getChatId());
+        }
+        buffer.putLong(message.getSentAt() != null ? message.getSentAt() : System.currentTimeMillis());
+        if (message.getSender() != null) {
+            writeString(buffer, message.getSender());
+        }
+        if (message.getContent() != null) {
+            writeString(buffer, message.getContent());
+        }
+        if (message.getStreamId() != null) {
+            writeString(buffer, message.getStreamId());
+        }
+        if (message.getSeq() != null) {
+            buffer.putLong(message.getSeq());
+        }
+        if (message.getTimestamp() != null) {
+            writeString(buffer, message.getTimestamp());
+        }
+    }
+
+    /**
+     * Bytes exactos que ocupará el sobre, para reservarlos de una vez.
+     */
+    private static int encodedLength(ChatMessage message) {
+        int length = HEADER_SIZE;
+        if (message.getChatId() != null) {
+            length += Long.BYTES;
+        }
+        length += stringLength(message.getSender());
+        length += stringLength(message.getContent());
+        length += stringLength(message.getStreamId());
+        if (message.getSeq() != null) {
+            length += Long.BYTES;
+        }
+        length += stringLength(message.getTimestamp());
+        return length;
+    }
+
+    private static int stringLength(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = utf8Length(value);
+        return varIntLength(length) + length;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Escribe la longitud en bytes y luego el texto en UTF-8, directamente sobre el
+     * buffer y sin crear un byte[] intermedio por cada cadena.
+     */
+    private static void writeString(ByteBuffer buffer, String value) {
+        writeVarInt(buffer, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
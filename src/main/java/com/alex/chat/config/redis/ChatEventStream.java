@@ -0,0 +1,233 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.websocket.ChatTopics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Lo último de cada sala en un stream de Redis acotado, {@code chat-stream:{chatId}}.
+ * El pub/sub entre nodos no guarda nada: un cliente (o un nodo) que se corta un
+ * segundo pierde lo que se publicó mientras tanto. Por eso cada mensaje de sala
+ * se añade también al stream de su chat (XADD MAXLEN ~) antes de publicarlo, y
+ * viaja con el ID de su entrada en {@link ChatMessage#getStreamId()}. Al reconectar,
+ * el cliente pide lo posterior al último ID que vio y se lee con un XRANGE.
+ * <p>
+ * Si Redis falla al añadir, el mensaje se publica igual, solo que sin ID: la
+ * entrega en directo nunca depende del stream.
+ */
+@Component
+public class ChatEventStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatEventStream.class);
+
+    static final String KEY_PREFIX = "chat-stream:";
+    private static final byte[] EVENT_FIELD = "e".getBytes(StandardCharsets.UTF_8);
+    private static final Pattern ID_PATTERN = Pattern.compile("\\d{1,19}-\\d{1,19}");
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ChatMetricsService metricsService;
+    private final boolean enabled;
+    private final long maxLength;
+    private final long ttlSeconds;
+
+    public ChatEventStream(RedisTemplate<String, Object> redisTemplate,
+                           ChatMetricsService metricsService,
+                           @Value("${chat.redis.stream.enabled:true}") boolean enabled,
+                           @Value("${chat.redis.stream.max-length:1000}") long maxLength,
+                           @Value("${chat.redis.stream.ttl-seconds:86400}") long ttlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.metricsService = metricsService;
+        this.enabled = enabled;
+        this.maxLength = maxLength;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * Indica si un evento va al stream: solo los mensajes publicados en el canal de su sala.
+     * Los avisos de escritura, las confirmaciones de lectura y el canal antiguo no se guardan.
+     */
+    public boolean accepts(String channel, Object payload) {
+        return enabled && payload instanceof ChatMessage message && message.getChatId() != null
+                && channel.equals(ChatTopics.redisChannel(message.getChatId()));
+    }
+
+    /**
+     * Añade un mensaje al stream de su sala y le pone el ID de la entrada.
+     */
+    public void append(ChatMessage message) {
+        appendAll(List.of(message));
+    }
+
+    /**
+     * Añade varios mensajes a los streams de sus salas en un solo pipeline y le pone
+     * a cada uno el ID de su entrada. Cada XADD recorta el stream a unas
+     * {@code max-length} entradas y renueva su caducidad, así las salas sin
+     * actividad no ocupan memoria para siempre.
+     */
+    @SuppressWarnings("unchecked")
+    public void appendAll(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        XAddOptions options = XAddOptions.maxlen(maxLength).approximateTrimming(true);
+        try {
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ChatMessage message : messages) {
+                    byte[] key = key(message.getChatId());
+                    ByteRecord record = StreamRecords.rawBytes(Map.of(EVENT_FIELD, valueSerializer.serialize(message)))
+                            .withStreamKey(key);
+                    connection.streamCommands().xAdd(record, options);
+                    connection.keyCommands().expire(key, ttlSeconds);
+                }
+                return null;
+            });
+            int next = 0;
+            for (Object result : results) {
+                if (result instanceof RecordId id) {
+                    messages.get(next++).setStreamId(id.getValue());
+                }
+            }
+        } catch (Exception e) {
+            metricsService.recordRedisStreamFailure(messages.size());
+            logger.error("Error al añadir {} mensajes a los streams de sus salas: {}", messages.size(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lee del stream de una sala los mensajes posteriores a {@code afterId}, en orden.
+     * {@link Slice#complete()} dice si el stream cubre todo el hueco; si no (la
+     * entrada ya se recortó, el stream caducó o Redis no responde), lo que falte
+     * hay que sacarlo de la base de datos.
+     */
+    @SuppressWarnings("unchecked")
+    public Slice read(Long chatId, String afterId) {
+        if (!enabled) {
+            return new Slice(List.of(), false);
+        }
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        byte[] key = key(chatId);
+        try {
+            return redisTemplate.execute((RedisCallback<Slice>) connection -> {
+                // Primero el hueco y después la entrada más antigua: si se recorta entre
+                // medias, como mucho se va a la base de datos sin necesidad
+                List<ByteRecord> records = connection.streamCommands().xRange(key,
+                        Range.rightUnbounded(Range.Bound.exclusive(afterId)), Limit.limit().count((int) maxLength * 2));
+                List<ByteRecord> oldest = connection.streamCommands().xRange(key, Range.unbounded(),
+                        Limit.limit().count(1));
+
+                List<ChatMessage> messages = new ArrayList<>(records.size());
+                for (ByteRecord record : records) {
+                    if (valueSerializer.deserialize(event(record)) instanceof ChatMessage message) {
+                        message.setStreamId(record.getId().getValue());
+                        messages.add(message);
+                    }
+                }
+                boolean complete = !oldest.isEmpty() && compare(afterId, oldest.get(0).getId().getValue()) >= 0;
+                return new Slice(messages, complete);
+            });
+        } catch (Exception e) {
+            logger.warn("No se pudo leer el stream del chat {}: {}", chatId, e.getMessage());
+            return new Slice(List.of(), false);
+        }
+    }
+
+    /**
+     * Secuencia del último mensaje del stream de una sala, o null si no hay stream
+     * o su último mensaje no la lleva. Con varios nodos es lo más alto que se ha
+     * publicado, aunque todavía esté en la cola de guardado de otro nodo.
+     */
+    @SuppressWarnings("unchecked")
+    public Long lastSeq(Long chatId) {
+        if (!enabled) {
+            return null;
+        }
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        byte[] key = key(chatId);
+        return redisTemplate.execute((RedisCallback<Long>) connection -> {
+            List<ByteRecord> last = connection.streamCommands().xRevRange(key, Range.unbounded(),
+                    Limit.limit().count(1));
+            return last.isEmpty() || !(valueSerializer.deserialize(event(last.get(0))) instanceof ChatMessage message)
+                    ? null
+                    : message.getSeq();
+        });
+    }
+
+    /**
+     * Indica si un texto es un ID de entrada completo ({@code milisegundos-secuencia}).
+     */
+    public static boolean isValidId(String id) {
+        if (id == null || !ID_PATTERN.matcher(id).matches()) {
+            return false;
+        }
+        try {
+            millis(id);
+            Long.parseLong(id.substring(id.indexOf('-') + 1));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Milisegundos (hora de Redis) en que se añadió una entrada, sacados de su ID.
+     */
+    public static long millis(String id) {
+        return Long.parseLong(id.substring(0, id.indexOf('-')));
+    }
+
+    /**
+     * Compara dos IDs de entrada en el orden del stream.
+     */
+    public static int compare(String a, String b) {
+        int byMillis = Long.compare(millis(a), millis(b));
+        if (byMillis != 0) {
+            return byMillis;
+        }
+        return Long.compare(Long.parseLong(a.substring(a.indexOf('-') + 1)),
+                Long.parseLong(b.substring(b.indexOf('-') + 1)));
+    }
+
+    /**
+     * El evento serializado de una entrada. Las claves son byte[], así que el
+     * mapa no se puede consultar con get().
+     */
+    private static byte[] event(ByteRecord record) {
+        for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+            if (Arrays.equals(field.getKey(), EVENT_FIELD)) {
+                return field.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] key(Long chatId) {
+        return (KEY_PREFIX + chatId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Mensajes leídos del stream de una sala y si cubren todo lo pedido.
+     */
+    public record Slice(List<ChatMessage> messages, boolean complete) {
+    }
+}
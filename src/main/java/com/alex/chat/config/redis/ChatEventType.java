@@ -0,0 +1,29 @@
+package com.alex.chat.config.redis;
+
+/**
+ * Tipos de evento que viajan entre nodos en el formato binario.
+ * El código es el byte que se escribe en el sobre; no se puede reutilizar.
+ */
+public enum ChatEventType {
+
+    MESSAGE((byte) 0);
+
+    private final byte code;
+
+    ChatEventType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static ChatEventType fromCode(byte code) {
+        for (ChatEventType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Tipo de evento desconocido: " + code);
+    }
+}
@@ -0,0 +1,180 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.service.RecentHistoryBuffer;
+import com.alex.chat.websocket.BrokerMode;
+import com.alex.chat.websocket.ChatTopics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mantiene las suscripciones de este nodo a los canales de Redis por sala.
+ * Un nodo solo escucha {@code chat.{chatId}} mientras tenga al menos un cliente
+ * local suscrito a {@code /topic/chat.{chatId}}; cuando se va el último, se
+ * da de baja del canal y deja de recibir ese tráfico. Lo mismo con los canales
+ * ligeros de la sala, {@code chat.{chatId}.typing} y {@code chat.{chatId}.receipts}.
+ * Mientras escucha un chat, {@link RecentHistoryBuffer} puede tener sus últimos
+ * mensajes en memoria; al darse de baja se descartan.
+ * Con el relay a un broker externo no hay canales de Redis que gestionar y
+ * solo se llevan las métricas de salas.
+ * <p>
+ * El contador se cambia con {@code compute}, pero las altas y bajas en Redis
+ * (que esperan la respuesta del servidor) van fuera, para no bloquear a la vez
+ * las demás salas del mismo bin del mapa. Como una alta y una baja del mismo chat
+ * pueden llegar desordenadas, cada una se hace con el lock de su chat y mirando
+ * el contador en ese momento, no el que había al decidirla.
+ */
+@Component
+public class ChatRoomSubscriptionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatRoomSubscriptionManager.class);
+
+    private final RedisMessageListenerContainer container;
+    private final RedisMessageSubscriber subscriber;
+    private final RoomSignalSubscriber signalSubscriber;
+    private final ChatMetricsService metricsService;
+    private final RecentHistoryBuffer recentHistory;
+    private final boolean redisFanout;
+
+    /** sessionId -> (subscriptionId -> chatId) */
+    private final Map<String, Map<String, Long>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    /** chatId -> número de suscripciones locales */
+    private final Map<Long, Integer> localSubscribers = new ConcurrentHashMap<>();
+
+    /** Chats cuyos canales de Redis está escuchando este nodo */
+    private final Set<Long> listening = ConcurrentHashMap.newKeySet();
+
+    /** Locks por chat (repartidos en franjas) para las altas y bajas en Redis */
+    private final ReentrantLock[] channelLocks = new ReentrantLock[64];
+
+    public ChatRoomSubscriptionManager(RedisMessageListenerContainer container,
+                                       RedisMessageSubscriber subscriber,
+                                       RoomSignalSubscriber signalSubscriber,
+                                       ChatMetricsService metricsService,
+                                       RecentHistoryBuffer recentHistory,
+                                       @Value("${chat.broker.mode:simple}") String brokerMode) {
+        this.container = container;
+        this.subscriber = subscriber;
+        this.signalSubscriber = signalSubscriber;
+        this.metricsService = metricsService;
+        this.recentHistory = recentHistory;
+        this.redisFanout = BrokerMode.from(brokerMode).usesRedisFanout();
+        for (int i = 0; i < channelLocks.length; i++) {
+            channelLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        Long chatId = ChatTopics.chatIdFromDestination(headers.getDestination());
+        if (chatId == null || headers.getSessionId() == null || headers.getSubscriptionId() == null) {
+            return;
+        }
+        sessionSubscriptions.computeIfAbsent(headers.getSessionId(), k -> new ConcurrentHashMap<>())
+                .put(headers.getSubscriptionId(), chatId);
+        join(chatId);
+    }
+
+    @EventListener
+    public void handleUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, Long> subscriptions = sessionSubscriptions.get(headers.getSessionId());
+        if (subscriptions == null || headers.getSubscriptionId() == null) {
+            return;
+        }
+        Long chatId = subscriptions.remove(headers.getSubscriptionId());
+        if (chatId != null) {
+            leave(chatId);
+        }
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        Map<String, Long> subscriptions = sessionSubscriptions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::leave);
+        }
+    }
+
+    /**
+     * Número de suscripciones locales a un chat.
+     */
+    public int getLocalSubscriberCount(Long chatId) {
+        return localSubscribers.getOrDefault(chatId, 0);
+    }
+
+    private void join(Long chatId) {
+        localSubscribers.merge(chatId, 1, Integer::sum);
+        // No solo con el primero: si falló el alta, la siguiente suscripción la reintenta
+        if (redisFanout && !listening.contains(chatId)) {
+            syncChannels(chatId);
+        }
+        metricsService.recordUserJoinedRoom(String.valueOf(chatId));
+    }
+
+    private void leave(Long chatId) {
+        boolean[] last = new boolean[1];
+        localSubscribers.computeIfPresent(chatId, (id, count) -> {
+            if (count <= 1) {
+                last[0] = true;
+                return null;
+            }
+            return count - 1;
+        });
+        if (last[0] && redisFanout) {
+            syncChannels(chatId);
+        }
+        metricsService.recordUserLeftRoom(String.valueOf(chatId));
+    }
+
+    /**
+     * Deja los canales de un chat como dice ahora su contador: escuchando si
+     * tiene suscriptores locales y sin escuchar si no.
+     */
+    private void syncChannels(Long chatId) {
+        ReentrantLock lock = channelLocks[Math.floorMod(chatId.hashCode(), channelLocks.length)];
+        lock.lock();
+        try {
+            boolean wanted = localSubscribers.containsKey(chatId);
+            if (wanted && listening.add(chatId)) {
+                try {
+                    container.addMessageListener(subscriber, new ChannelTopic(ChatTopics.redisChannel(chatId)));
+                    container.addMessageListener(signalSubscriber, List.of(
+                            new ChannelTopic(ChatTopics.typingChannel(chatId)),
+                            new ChannelTopic(ChatTopics.receiptsChannel(chatId))));
+                } catch (RuntimeException e) {
+                    listening.remove(chatId);
+                    throw e;
+                }
+                recentHistory.roomJoined(chatId);
+                logger.debug("Nodo suscrito al canal de Redis {}", ChatTopics.redisChannel(chatId));
+            } else if (!wanted && listening.remove(chatId)) {
+                container.removeMessageListener(subscriber, new ChannelTopic(ChatTopics.redisChannel(chatId)));
+                container.removeMessageListener(signalSubscriber, List.of(
+                        new ChannelTopic(ChatTopics.typingChannel(chatId)),
+                        new ChannelTopic(ChatTopics.receiptsChannel(chatId))));
+                recentHistory.roomLeft(chatId);
+                logger.debug("Nodo dado de baja del canal de Redis {}", ChatTopics.redisChannel(chatId));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ChatMessage;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * Serializador de valores para el pub/sub entre nodos.
+ * Con el formato {@code binary} los {@link ChatMessage} salen con
+ * {@link ChatEventSerializer}; el resto de valores (y todo en formato {@code json})
+ * sigue usando JSON. Al leer se detecta el formato por el primer byte, así que
+ * nodos con formatos distintos se entienden durante un despliegue progresivo.
+ */
+public class ChatWireSerializer implements RedisSerializer<Object> {
+
+    private final ChatEventSerializer binarySerializer = new ChatEventSerializer();
+    private final RedisSerializer<Object> jsonSerializer;
+    private final boolean binary;
+
+    public ChatWireSerializer(RedisSerializer<Object> jsonSerializer, boolean binary) {
+        this.jsonSerializer = jsonSerializer;
+        this.binary = binary;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (binary && value instanceof ChatMessage message) {
+            return binarySerializer.serialize(message);
+        }
+        return jsonSerializer.serialize(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (ChatEventSerializer.isBinary(bytes)) {
+            return binarySerializer.deserialize(bytes);
+        }
+        return jsonSerializer.deserialize(bytes);
+    }
+}
@@ -1,5 +1,7 @@
 package com.alex.chat.config.redis;
 
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
@@ -25,14 +27,34 @@ public class RedisConfig {
 
     /**
      * Define el template para operaciones con Redis.
-     * Configura serializadores para claves (String) y valores (JSON).
+     * Configura serializadores para claves (String) y valores (JSON o binario).
      */
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory,
+                                                       ChatWireSerializer chatWireSerializer) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
         template.setKeySerializer(new StringRedisSerializer());
-        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        template.setValueSerializer(chatWireSerializer);
         return template;
     }
+
+    /**
+     * Serializador de los eventos que viajan entre nodos por pub/sub.
+     * Con {@code chat.redis.wire-format=binary} los mensajes de chat usan el
+     * formato binario compacto; con {@code json} todo sigue en JSON.
+     */
+    @Bean
+    public ChatWireSerializer chatWireSerializer(@Value("${chat.redis.wire-format:json}") String wireFormat) {
+        return new ChatWireSerializer(jsonSerializer(), "binary".equalsIgnoreCase(wireFormat));
+    }
+
+    /**
+     * Serializador JSON para valores de Redis con soporte de fechas java.time.
+     * Sin el módulo JavaTime no se pueden guardar entidades con LocalDateTime.
+     */
+    public static GenericJackson2JsonRedisSerializer jsonSerializer() {
+        return new GenericJackson2JsonRedisSerializer()
+                .configure(mapper -> mapper.registerModule(new JavaTimeModule()));
+    }
 }
@@ -1,30 +1,43 @@
 package com.alex.chat.config.redis;
 
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.service.RecentHistoryBuffer;
+import com.alex.chat.websocket.ChatTopics;
+import com.alex.chat.websocket.RoomMessageBatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
 /**
  * Suscriptor de mensajes de Redis.
- * Recibe mensajes del canal de chat y los distribuye a
- * todos los clientes conectados por WebSocket.
+ * Recibe mensajes de los canales de chat y los distribuye a los clientes
+ * WebSocket suscritos a la sala correspondiente ({@code chat.{id}} se entrega
+ * en {@code /topic/chat.{id}}; el canal antiguo {@code chat} en {@code /topic/messages}).
+ * Los mensajes de sala también pasan por {@link RoomMessageBatcher} para los
+ * clientes que los reciben en lotes, y los mensajes de chat se añaden a los
+ * últimos de su sala en memoria ({@link RecentHistoryBuffer}).
  */
 @Service
 public class RedisMessageSubscriber implements MessageListener {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisMessageSubscriber.class);
     private final SimpMessagingTemplate messagingTemplate;
-    private final GenericJackson2JsonRedisSerializer serializer = new GenericJackson2JsonRedisSerializer();
+    private final ChatWireSerializer serializer;
+    private final RoomMessageBatcher batcher;
+    private final RecentHistoryBuffer recentHistory;
 
     /**
      * Constructor que recibe las dependencias necesarias.
      */
-    public RedisMessageSubscriber(SimpMessagingTemplate messagingTemplate) {
+    public RedisMessageSubscriber(SimpMessagingTemplate messagingTemplate, ChatWireSerializer serializer,
+                                  RoomMessageBatcher batcher, RecentHistoryBuffer recentHistory) {
         this.messagingTemplate = messagingTemplate;
+        this.serializer = serializer;
+        this.batcher = batcher;
+        this.recentHistory = recentHistory;
     }
 
     /**
@@ -38,12 +51,19 @@ public class RedisMessageSubscriber implements MessageListener {
     public void onMessage(Message message, byte[] pattern) {
         try {
             Object msg = serializer.deserialize(message.getBody());
-            logger.debug("📩 Mensaje recibido desde Redis: {}", msg);
+            String destination = ChatTopics.destinationForChannel(new String(message.getChannel()));
+            logger.debug("📩 Mensaje recibido desde Redis para {}: {}", destination, msg);
 
-            // Reenviar el mensaje a todos los clientes WebSocket conectados
-            messagingTemplate.convertAndSend("/topic/messages", msg);
+            // Reenviar el mensaje solo a los clientes suscritos a esa sala
+            messagingTemplate.convertAndSend(destination, msg);
+            if (destination.startsWith(ChatTopics.DESTINATION_PREFIX)) {
+                batcher.add(destination, msg);
+                if (msg instanceof ChatMessage chatMessage) {
+                    recentHistory.onLiveMessage(chatMessage);
+                }
+            }
 
-            logger.debug("Mensaje reenviado a todos los clientes WebSocket");
+            logger.debug("Mensaje reenviado a los clientes WebSocket de {}", destination);
         } catch (Exception e) {
             logger.error("Error al procesar mensaje de Redis: {}", e.getMessage(), e);
         }
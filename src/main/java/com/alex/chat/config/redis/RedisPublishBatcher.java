@@ -0,0 +1,208 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.service.ChatMetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Agrupa las publicaciones en Redis que llegan en una ventana corta y las envía
+ * en un único pipeline, en lugar de un round trip por mensaje.
+ * Los hilos de STOMP solo dejan el mensaje en una cola sin bloqueos (varios
+ * productores, un consumidor); un hilo dedicado la vacía por lotes.
+ * La cola está acotada: si se llena, el mensaje se descarta y se cuenta.
+ * Los mensajes de sala del lote se añaden antes a los streams de sus chats
+ * ({@link ChatEventStream}) en otro pipeline, para publicarlos ya con su ID.
+ */
+@Component
+public class RedisPublishBatcher implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisPublishBatcher.class);
+
+    /** Cuánto duerme el hilo cuando no hay nada que publicar; los productores lo despiertan. */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ChatMetricsService metricsService;
+    private final ChatEventStream eventStream;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final int queueCapacity;
+
+    private final Queue<PendingPublish> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private volatile boolean running;
+    private volatile Thread flusherThread;
+
+    public RedisPublishBatcher(RedisTemplate<String, Object> redisTemplate,
+                               ChatMetricsService metricsService,
+                               ChatEventStream eventStream,
+                               @Value("${chat.redis.publisher.mode:direct}") String mode,
+                               @Value("${chat.redis.publisher.batch.max-size:256}") int maxBatchSize,
+                               @Value("${chat.redis.publisher.batch.window-micros:200}") long windowMicros,
+                               @Value("${chat.redis.publisher.batch.queue-capacity:50000}") int queueCapacity) {
+        this.redisTemplate = redisTemplate;
+        this.metricsService = metricsService;
+        this.eventStream = eventStream;
+        this.enabled = "batching".equalsIgnoreCase(mode);
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.queueCapacity = queueCapacity;
+        metricsService.registerRedisPublishQueue(queueSize);
+    }
+
+    /**
+     * Indica si el modo por lotes está activo.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Encola una publicación sin bloquear al llamador.
+     *
+     * @return false si la cola estaba llena y el mensaje se descartó
+     */
+    public boolean offer(String channel, Object message) {
+        int size = queueSize.incrementAndGet();
+        if (size > queueCapacity) {
+            queueSize.decrementAndGet();
+            metricsService.recordRedisPublishDropped();
+            return false;
+        }
+        queue.add(new PendingPublish(channel, message));
+        if (size == 1) {
+            // La cola estaba vacía: el hilo puede estar dormido
+            LockSupport.unpark(flusherThread);
+        }
+        return true;
+    }
+
+    private void runFlusher() {
+        List<PendingPublish> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            PendingPublish first = poll();
+            if (first == null) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            batch.add(first);
+            // Esperar un poco a que lleguen más mensajes para el mismo pipeline. Se duerme
+            // hasta el final de la ventana en vez de girar: el primer mensaje que llegue
+            // con la cola vacía despierta al hilo (ver offer)
+            long deadline = System.nanoTime() + windowNanos;
+            while (batch.size() < maxBatchSize) {
+                PendingPublish next = poll();
+                if (next != null) {
+                    batch.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Saca el siguiente mensaje y lo descuenta ya de la cola, para que el siguiente
+     * {@link #offer} vea la cola vacía y despierte al hilo si está esperando.
+     */
+    private PendingPublish poll() {
+        PendingPublish next = queue.poll();
+        if (next != null) {
+            queueSize.decrementAndGet();
+        }
+        return next;
+    }
+
+    /**
+     * Publica el lote completo en un solo round trip (pipeline), más otro para
+     * los streams si en el lote hay mensajes de sala.
+     */
+    @SuppressWarnings("unchecked")
+    private void flush(List<PendingPublish> batch) {
+        List<ChatMessage> streamed = new ArrayList<>();
+        for (PendingPublish pending : batch) {
+            if (eventStream.accepts(pending.channel(), pending.message())) {
+                streamed.add((ChatMessage) pending.message());
+            }
+        }
+        eventStream.appendAll(streamed);
+
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (PendingPublish pending : batch) {
+                    connection.publish(pending.channel().getBytes(StandardCharsets.UTF_8),
+                            valueSerializer.serialize(pending.message()));
+                }
+                return null;
+            });
+            metricsService.recordRedisPublishBatch(batch.size());
+        } catch (Exception e) {
+            metricsService.recordRedisPublishFailure(batch.size());
+            logger.error("Error al publicar lote de {} mensajes en Redis: {}", batch.size(), e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::runFlusher, "redis-publish-batcher");
+        thread.setDaemon(true);
+        flusherThread = thread;
+        thread.start();
+        logger.info("Publicación por lotes en Redis activa (lote={}, ventana={}µs)",
+                maxBatchSize, TimeUnit.NANOSECONDS.toMicros(windowNanos));
+    }
+
+    /**
+     * Al parar se publica lo que quede en la cola antes de cerrar la conexión a Redis.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = flusherThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private record PendingPublish(String channel, Object message) {
+    }
+}
@@ -1,5 +1,6 @@
 package com.alex.chat.config.redis;
 
+import com.alex.chat.dto.ChatMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -9,15 +10,24 @@ import org.springframework.stereotype.Service;
  * Publicador de mensajes en Redis.
  * Se encarga de enviar mensajes al canal compartido para
  * que todas las instancias de la aplicación los reciban.
+ * En modo {@code batching} los mensajes se agrupan en pipelines con
+ * {@link RedisPublishBatcher}; en modo {@code direct} cada mensaje es un round trip.
+ * Los mensajes de sala se añaden antes al stream de su chat ({@link ChatEventStream})
+ * para que los clientes que reconectan puedan recuperar lo que se perdieron.
  */
 @Service
 public class RedisPublisher {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisPublisher.class);
     private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisPublishBatcher batcher;
+    private final ChatEventStream eventStream;
 
-    public RedisPublisher(RedisTemplate<String, Object> redisTemplate) {
+    public RedisPublisher(RedisTemplate<String, Object> redisTemplate, RedisPublishBatcher batcher,
+                          ChatEventStream eventStream) {
         this.redisTemplate = redisTemplate;
+        this.batcher = batcher;
+        this.eventStream = eventStream;
     }
 
     /**
@@ -27,6 +37,15 @@ public class RedisPublisher {
      * @param message Mensaje u objeto a publicar
      */
     public void publish(String channel, Object message) {
+        if (batcher != null && batcher.isEnabled()) {
+            if (!batcher.offer(channel, message)) {
+                logger.warn("Cola de publicación en Redis llena, mensaje para '{}' descartado", channel);
+            }
+            return;
+        }
+        if (eventStream != null && eventStream.accepts(channel, message)) {
+            eventStream.append((ChatMessage) message);
+        }
         try {
             logger.debug("Publicando mensaje en canal '{}': {}", channel, message);
             redisTemplate.convertAndSend(channel, message);
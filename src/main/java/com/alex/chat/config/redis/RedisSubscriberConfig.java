@@ -1,8 +1,13 @@
 package com.alex.chat.config.redis;
 
+import com.alex.chat.config.VirtualThreads;
+import com.alex.chat.config.cache.TwoLevelCacheManager;
+import com.alex.chat.websocket.ChatTopics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
@@ -14,24 +19,34 @@ import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 public class RedisSubscriberConfig {
 
     /**
-     * Define el canal principal para comunicación del chat.
+     * Define el canal compartido antiguo, para clientes que no envían chatId.
      */
     @Bean
     public PatternTopic chatTopic() {
-        return new PatternTopic("chat");
+        return new PatternTopic(ChatTopics.LEGACY_CHANNEL);
     }
 
     /**
-     * Registra el suscriptor en el canal de chat.
+     * Registra el suscriptor en el canal compartido.
+     * Los canales por sala ({@code chat.{id}}) los añade y quita en caliente
+     * {@link ChatRoomSubscriptionManager} según las suscripciones STOMP locales.
+     * También escucha los avisos de invalidación de la caché local.
+     * En modo de hilos virtuales cada mensaje recibido se entrega en un hilo virtual.
      */
     @Bean
     public RedisMessageListenerContainer redisContainer(
             RedisConnectionFactory connectionFactory,
-            RedisMessageSubscriber subscriber) {
+            RedisMessageSubscriber subscriber,
+            TwoLevelCacheManager cacheManager,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
 
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+        if (virtualThreads) {
+            container.setTaskExecutor(VirtualThreads.executor("redis-listener-"));
+        }
         container.addMessageListener(subscriber, chatTopic());
+        container.addMessageListener(cacheManager, new ChannelTopic(TwoLevelCacheManager.INVALIDATION_CHANNEL));
         return container;
     }
 }
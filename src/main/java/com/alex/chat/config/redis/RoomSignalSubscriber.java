@@ -0,0 +1,42 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.websocket.ChatTopics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Suscriptor de los canales ligeros de cada sala: avisos de escritura
+ * ({@code chat.{id}.typing}) y confirmaciones de lectura ({@code chat.{id}.receipts}).
+ * A diferencia de {@link RedisMessageSubscriber}, solo reenvía el evento a los
+ * clientes de este nodo, en {@code /topic/chat.{id}.typing} o {@code /topic/chat.{id}.receipts}.
+ */
+@Service
+public class RoomSignalSubscriber implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomSignalSubscriber.class);
+
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final ChatWireSerializer serializer;
+
+    public RoomSignalSubscriber(SimpMessageSendingOperations messagingTemplate, ChatWireSerializer serializer) {
+        this.messagingTemplate = messagingTemplate;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        try {
+            Object event = serializer.deserialize(message.getBody());
+            messagingTemplate.convertAndSend(ChatTopics.destinationForChannel(channel), event);
+        } catch (Exception e) {
+            logger.warn("Error al entregar evento de {}: {}", channel, e.getMessage());
+        }
+    }
+}
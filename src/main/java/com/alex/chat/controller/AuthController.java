@@ -11,6 +11,7 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -60,4 +61,21 @@ public class AuthController {
 
         return ResponseEntity.ok(new LoginResponse(jwt));
     }
+
+    /**
+     * Endpoint para cerrar sesión.
+     * Revoca el token de la cabecera Authorization hasta que caduque.
+     *
+     * @param authorization Cabecera {@code Bearer <token>}
+     * @return No Content si el token quedó revocado, Bad Request si no era válido
+     */
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@RequestHeader(value = "Authorization", required = false) String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")
+                || !jwtUtil.revokeToken(authorization.substring(7))) {
+            return ResponseEntity.badRequest().build();
+        }
+        logger.info("Token revocado por cierre de sesión");
+        return ResponseEntity.noContent().build();
+    }
 }
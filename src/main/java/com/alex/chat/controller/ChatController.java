@@ -1,10 +1,27 @@
 package com.alex.chat.controller;
 
-import com.alex.chat.config.redis.RedisPublisher;
 import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.ChatReplay;
+import com.alex.chat.dto.InboxEntry;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.ReadReceipt;
+import com.alex.chat.dto.TypingEvent;
 import com.alex.chat.message.entity.Message;
+import com.alex.chat.service.ChatAccessService;
 import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.service.ChatReplayService;
+import com.alex.chat.service.ChatSequenceService;
 import com.alex.chat.service.ChatService;
+import com.alex.chat.service.InboxService;
+import com.alex.chat.service.MessageSearchService;
+import com.alex.chat.service.MessageWriteBehindService;
+import com.alex.chat.service.ReadReceiptService;
+import com.alex.chat.service.SequenceUnavailableException;
+import com.alex.chat.service.TypingIndicatorService;
+import com.alex.chat.service.UnreadCounterService;
+import com.alex.chat.websocket.ChatBroadcaster;
+import com.alex.chat.websocket.ChatTopics;
 import io.micrometer.core.instrument.Timer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -17,14 +34,23 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
+import java.security.Principal;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
 
@@ -39,50 +65,143 @@ import java.util.Map;
 public class ChatController {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
 
     private final ChatService chatService;
-    private final RedisPublisher redisPublisher;
+    private final ChatBroadcaster chatBroadcaster;
     private final ChatMetricsService metricsService;
+    private final MessageWriteBehindService writeBehindService;
+    private final UnreadCounterService unreadCounterService;
+    private final TypingIndicatorService typingIndicatorService;
+    private final ReadReceiptService readReceiptService;
+    private final InboxService inboxService;
+    private final MessageSearchService messageSearchService;
+    private final ChatReplayService chatReplayService;
+    private final ChatSequenceService chatSequenceService;
+    private final ChatAccessService chatAccessService;
 
     @Autowired
-    public ChatController(ChatService chatService, RedisPublisher redisPublisher, ChatMetricsService metricsService) {
+    public ChatController(ChatService chatService, ChatBroadcaster chatBroadcaster, ChatMetricsService metricsService,
+                          MessageWriteBehindService writeBehindService, UnreadCounterService unreadCounterService,
+                          TypingIndicatorService typingIndicatorService, ReadReceiptService readReceiptService,
+                          InboxService inboxService, MessageSearchService messageSearchService,
+                          ChatReplayService chatReplayService, ChatSequenceService chatSequenceService,
+                          ChatAccessService chatAccessService) {
         this.chatService = chatService;
-        this.redisPublisher = redisPublisher;
+        this.chatBroadcaster = chatBroadcaster;
         this.metricsService = metricsService;
+        this.writeBehindService = writeBehindService;
+        this.unreadCounterService = unreadCounterService;
+        this.typingIndicatorService = typingIndicatorService;
+        this.readReceiptService = readReceiptService;
+        this.inboxService = inboxService;
+        this.messageSearchService = messageSearchService;
+        this.chatReplayService = chatReplayService;
+        this.chatSequenceService = chatSequenceService;
+        this.chatAccessService = chatAccessService;
     }
 
     /**
      * Endpoint para recibir mensajes por WebSocket.
-     * Cuando alguien manda un mensaje, lo recibo y lo publico en Redis
-     * para que llegue a todas las instancias de la aplicación.
+     * Cuando alguien manda un mensaje, lo recibo y lo reparto por el canal de su
+     * chat para que llegue a las instancias con clientes en esa sala.
+     * La persistencia va aparte: el mensaje se encola y lo guarda el escritor
+     * write-behind por lotes, sin esperar a la base de datos. Solo se reparte si
+     * el chat existe y el mensaje quedó encolado; si no, nadie lo ve.
+     * El remitente es siempre el usuario autenticado de la sesión, no el del mensaje,
+     * y tiene que participar en el chat. Si no se puede numerar el mensaje (Redis
+     * caído) tampoco se reparte, y el remitente recibe el error en {@code /user/queue/errors}.
      */
     @MessageMapping("/sendMessage")
-    public void sendMessage(@Validated ChatMessage message) {
+    public void sendMessage(@Validated ChatMessage message, Principal principal) {
         logger.debug("Mensaje WebSocket recibido: {}", message);
+        message.setSender(principal.getName());
 
         // Iniciar medición de tiempo de procesamiento
         Timer.Sample sample = metricsService.startMessageProcessingTimer();
 
         try {
-            // Formatear el mensaje con remitente
-            String formattedMessage = message.getSender() + ": " + message.getContent();
-
-            // Publicar el mensaje en el canal de chat de Redis
-            // Esto distribuirá el mensaje a todas las instancias de la aplicación
-            redisPublisher.publish("chat", formattedMessage);
+            if (message.getChatId() != null) {
+                if (!chatAccessService.isParticipant(message.getChatId(), principal.getName())) {
+                    logger.warn("Mensaje de '{}' para el chat {} en el que no participa, descartado",
+                            principal.getName(), message.getChatId());
+                    metricsService.recordMessageRejected("not_participant");
+                    return;
+                }
+                if (!writeBehindService.knowsChat(message.getChatId())) {
+                    logger.warn("Mensaje de '{}' para el chat {} inexistente, descartado",
+                            principal.getName(), message.getChatId());
+                    metricsService.recordMessageRejected("unknown_chat");
+                    return;
+                }
+                Long seq = chatSequenceService.next(message.getChatId());
+                if (seq == null) {
+                    metricsService.recordMessageRejected("sequence_unavailable");
+                    throw new SequenceUnavailableException(message.getChatId());
+                }
+                message.setSeq(seq);
+                message.setSentAt(System.currentTimeMillis());
+                message.setTimestamp(LocalTime.now().format(TIME_FORMAT));
+                // Encolar para persistencia diferida antes de que nadie lo vea
+                if (!writeBehindService.enqueue(message)) {
+                    metricsService.recordMessageRejected("persistence_queue_full");
+                    return;
+                }
+                // Publicar en el canal de la sala: solo lo reciben los nodos con
+                // clientes suscritos a /topic/chat.{chatId}
+                chatBroadcaster.broadcast(ChatTopics.redisChannel(message.getChatId()), message);
+            } else {
+                // Clientes antiguos sin chatId: formato "remitente: contenido" en el canal
+                // compartido. No pertenecen a ningún chat, así que no se guardan.
+                String formattedMessage = message.getSender() + ": " + message.getContent();
+                chatBroadcaster.broadcast(ChatTopics.LEGACY_CHANNEL, formattedMessage);
+            }
 
             // Incrementar contador de mensajes enviados
             metricsService.incrementMessageCount();
 
-            // No necesitamos enviar el mensaje directamente a los clientes WebSocket
-            // porque el RedisSubscriber ya se encarga de eso cuando recibe
-            // el mensaje desde Redis
+            // No necesitamos enviar el mensaje directamente a los clientes WebSocket:
+            // con el broker simple lo hace el RedisSubscriber cuando recibe el
+            // mensaje desde Redis, y con el relay lo hace el broker externo
         } finally {
             // Finalizar medición de tiempo de procesamiento
             metricsService.timeMessageProcessing(sample, null);
         }
     }
 
+    /**
+     * Los mensajes WebSocket rechazados por falta de secuencia vuelven solo a la
+     * sesión que los envió, para que el cliente lo reintente.
+     */
+    @MessageExceptionHandler(SequenceUnavailableException.class)
+    @SendToUser(destinations = "/queue/errors", broadcast = false)
+    public Map<String, String> handleSequenceUnavailable(SequenceUnavailableException e) {
+        return Map.of("error", e.getMessage());
+    }
+
+    /**
+     * Endpoint para los avisos de "está escribiendo".
+     * El cliente envía {@code {"chatId": 42, "typing": true}} a {@code /app/typing}
+     * mientras escribe. No se guarda nada ni se toca la caché: solo se reparten
+     * los cambios de estado por el canal de escritura de la sala.
+     */
+    @MessageMapping("/typing")
+    public void typing(TypingEvent event, Principal principal,
+                       @Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId) {
+        typingIndicatorService.onTyping(sessionId, principal.getName(), event.chatId(), event.typing());
+    }
+
+    /**
+     * Endpoint para confirmar lectura por WebSocket.
+     * El cliente envía {@code {"chatId": 42, "seq": 17}} (o {@code "messageId"} si lo tiene) a {@code /app/read}
+     * cuando ve mensajes nuevos; se guarda en el siguiente lote y los demás lo
+     * reciben en {@code /topic/chat.42.receipts}.
+     */
+    @MessageMapping("/read")
+    public void read(ReadReceipt receipt, Principal principal) {
+        readReceiptService.submit(principal.getName(), receipt.chatId(), receipt.messageId(), receipt.seq());
+    }
+
     /**
      * Maneja eventos de conexión de WebSocket.
      * Registra métricas cuando un usuario se conecta.
@@ -118,15 +237,246 @@ public class ChatController {
                 responseCode = "200",
                 description = "Mensajes recuperados correctamente",
                 content = @Content(mediaType = "application/json",
-                schema = @Schema(implementation = Message.class))
+                schema = @Schema(implementation = MessageView.class))
             )
         }
     )
-    public ResponseEntity<List<Message>> getAllMessages() {
+    public ResponseEntity<List<MessageView>> getAllMessages() {
         logger.debug("Solicitud para obtener todos los mensajes");
         return ResponseEntity.ok(chatService.getAllMessages());
     }
 
+    /**
+     * Endpoint para el historial de un chat, página a página.
+     * Para pedir la siguiente página se pasa como {@code beforeSeq} el
+     * {@code nextSeqCursor} de la respuesta anterior si viene, y si no, como
+     * {@code before} su {@code nextCursor}. Solo para participantes del chat.
+     */
+    @GetMapping("/chats/{chatId}/messages")
+    @Operation(
+        summary = "Historial de un chat",
+        description = "Devuelve los mensajes de un chat del más nuevo al más antiguo con paginación por cursor",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Página de mensajes recuperada correctamente"),
+            @ApiResponse(responseCode = "404", description = "El usuario no participa en el chat")
+        }
+    )
+    public ResponseEntity<MessagePage> getChatHistory(
+            Principal principal,
+            @Parameter(description = "ID del chat", required = true)
+            @PathVariable Long chatId,
+            @Parameter(description = "Devolver mensajes con ID menor que este cursor")
+            @RequestParam(required = false) Long before,
+            @Parameter(description = "Devolver mensajes con número de secuencia menor que este cursor")
+            @RequestParam(required = false) Long beforeSeq,
+            @Parameter(description = "Tamaño de página (máximo 100)")
+            @RequestParam(defaultValue = "50") int limit) {
+        logger.debug("Solicitud de historial del chat {} antes de {} (secuencia {})", chatId, before, beforeSeq);
+        if (!chatAccessService.isParticipant(chatId, principal.getName())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(chatService.getChatHistory(chatId, before, beforeSeq, limit));
+    }
+
+    /**
+     * Endpoint para rellenar un hueco en la secuencia de un chat.
+     * Si el cliente recibe el 7 después del 5, pide {@code from=6&to=6}; los
+     * números que no vengan en la respuesta no existen. Solo para participantes del chat.
+     */
+    @GetMapping("/chats/{chatId}/messages/seq")
+    @Operation(
+        summary = "Mensajes por rango de secuencia",
+        description = "Devuelve en orden los mensajes de un chat con número de secuencia entre from y to (incluidos, como mucho 500)",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Mensajes recuperados correctamente"),
+            @ApiResponse(responseCode = "400", description = "Rango inválido o demasiado grande"),
+            @ApiResponse(responseCode = "404", description = "El usuario no participa en el chat")
+        }
+    )
+    public ResponseEntity<List<MessageView>> getMessagesBySeqRange(
+            Principal principal,
+            @Parameter(description = "ID del chat", required = true)
+            @PathVariable Long chatId,
+            @Parameter(description = "Primera secuencia del rango", required = true)
+            @RequestParam long from,
+            @Parameter(description = "Última secuencia del rango", required = true)
+            @RequestParam long to) {
+        logger.debug("Solicitud de las secuencias {}-{} del chat {}", from, to, chatId);
+        if (!chatAccessService.isParticipant(chatId, principal.getName())) {
+            return ResponseEntity.notFound().build();
+        }
+        return chatService.getMessagesBySeqRange(chatId, from, to)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.badRequest().build());
+    }
+
+    /**
+     * Endpoint para ponerse al día al reconectar.
+     * El cliente se vuelve a suscribir a la sala y luego pide lo posterior al
+     * {@code streamId} y al {@code seq} del último mensaje que vio; lo que llegue
+     * por las dos vías se descarta por {@code seq}. Solo para participantes del chat.
+     */
+    @GetMapping("/chats/{chatId}/replay")
+    @Operation(
+        summary = "Recuperar mensajes perdidos",
+        description = "Devuelve los mensajes de un chat posteriores a un ID del stream de la sala, leídos de Redis y solo si ya no están allí de la base de datos, por número de secuencia",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Mensajes recuperados correctamente"),
+            @ApiResponse(responseCode = "400", description = "ID de stream inválido"),
+            @ApiResponse(responseCode = "404", description = "El usuario no participa en el chat")
+        }
+    )
+    public ResponseEntity<ChatReplay> replayChat(
+            Principal principal,
+            @Parameter(description = "ID del chat", required = true)
+            @PathVariable Long chatId,
+            @Parameter(description = "streamId del último mensaje recibido, por ejemplo 1723456789012-0", required = true)
+            @RequestParam String after,
+            @Parameter(description = "seq del último mensaje recibido; sin él, si el hueco ya no está en el stream solo vienen los más recientes")
+            @RequestParam(required = false) Long afterSeq) {
+        logger.debug("Puesta al día del chat {} desde {} (secuencia {})", chatId, after, afterSeq);
+        if (!chatAccessService.isParticipant(chatId, principal.getName())) {
+            return ResponseEntity.notFound().build();
+        }
+        return chatReplayService.replay(chatId, after, afterSeq)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.badRequest().build());
+    }
+
+    /**
+     * Endpoint para buscar texto en los mensajes de los chats del usuario autenticado.
+     * Los resultados van del más nuevo al más antiguo y se paginan igual que el
+     * historial, pasando como {@code before} el {@code nextCursor} anterior.
+     */
+    @GetMapping("/search")
+    @Operation(
+        summary = "Buscar mensajes",
+        description = "Devuelve los mensajes que contienen todas las palabras buscadas, sin distinguir mayúsculas ni acentos, en los chats del usuario autenticado",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Página de resultados recuperada correctamente")
+        }
+    )
+    public ResponseEntity<MessagePage> searchMessages(
+            Principal principal,
+            @Parameter(description = "Palabras a buscar", required = true)
+            @RequestParam String q,
+            @Parameter(description = "Buscar solo en este chat")
+            @RequestParam(required = false) Long chatId,
+            @Parameter(description = "Devolver mensajes con ID menor que este cursor")
+            @RequestParam(required = false) Long before,
+            @Parameter(description = "Tamaño de página (máximo 100)")
+            @RequestParam(defaultValue = "20") int limit) {
+        logger.debug("Búsqueda de {} en el chat {} antes de {}", principal.getName(), chatId, before);
+        return ResponseEntity.ok(messageSearchService.search(principal.getName(), q, chatId, before, limit));
+    }
+
+    /**
+     * Endpoint para exportar todo el historial de un chat.
+     * La respuesta se escribe en streaming, así sirve para chats con millones de mensajes.
+     * Solo para participantes del chat.
+     */
+    @GetMapping(value = "/chats/{chatId}/messages/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(
+        summary = "Exportar historial de un chat",
+        description = "Devuelve todos los mensajes de un chat como un array JSON escrito en streaming",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Historial exportado"),
+            @ApiResponse(responseCode = "404", description = "El usuario no participa en el chat")
+        }
+    )
+    public ResponseEntity<StreamingResponseBody> exportChatHistory(
+            Principal principal,
+            @Parameter(description = "ID del chat", required = true)
+            @PathVariable Long chatId) {
+        logger.debug("Solicitud de exportación del historial del chat {}", chatId);
+        if (!chatAccessService.isParticipant(chatId, principal.getName())) {
+            return ResponseEntity.notFound().build();
+        }
+        StreamingResponseBody body = out -> chatService.exportChatHistory(chatId, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Endpoint con la bandeja de entrada del usuario autenticado: cada chat con su
+     * último mensaje, la última actividad y los mensajes sin leer.
+     */
+    @GetMapping("/inbox")
+    @Operation(
+        summary = "Bandeja de entrada",
+        description = "Devuelve los chats del usuario autenticado con su último mensaje y sus no leídos, del más reciente al más antiguo",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Bandeja recuperada correctamente"),
+            @ApiResponse(responseCode = "404", description = "Usuario no encontrado")
+        }
+    )
+    public ResponseEntity<List<InboxEntry>> getInbox(Principal principal) {
+        return inboxService.getInbox(principal.getName())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Endpoint con los mensajes sin leer de todos los chats del usuario autenticado.
+     * Devuelve un mapa chatId -> no leídos servido desde los contadores de Redis.
+     */
+    @GetMapping("/unread")
+    @Operation(
+        summary = "Mensajes sin leer",
+        description = "Devuelve los mensajes sin leer de cada chat del usuario autenticado",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Contadores recuperados correctamente"),
+            @ApiResponse(responseCode = "404", description = "Usuario no encontrado")
+        }
+    )
+    public ResponseEntity<Map<Long, Long>> getUnreadCounts(Principal principal) {
+        return unreadCounterService.getUnreadCounts(principal.getName())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Endpoint para marcar un chat como leído hasta un mensaje.
+     * Devuelve cuántos mensajes siguen sin leer en ese chat.
+     */
+    @PostMapping("/chats/{chatId}/read")
+    @Operation(
+        summary = "Marcar como leído",
+        description = "Mueve la marca de lectura del usuario autenticado en un chat hasta el mensaje indicado",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Marca de lectura actualizada"),
+            @ApiResponse(responseCode = "404", description = "Usuario no encontrado, no participa en el chat o el mensaje no es de ese chat")
+        }
+    )
+    public ResponseEntity<Map<String, Long>> markRead(
+            Principal principal,
+            @Parameter(description = "ID del chat", required = true)
+            @PathVariable Long chatId,
+            @Parameter(description = "ID del último mensaje leído", required = true)
+            @RequestParam Long messageId) {
+        return unreadCounterService.markRead(principal.getName(), chatId, messageId)
+                .map(unread -> ResponseEntity.ok(Map.of("unread", unread)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Endpoint para confirmar lectura en varios chats de una vez.
+     * A diferencia de {@code /chats/{chatId}/read} no espera a la base de datos:
+     * las confirmaciones se guardan en el siguiente lote.
+     */
+    @PostMapping("/read-receipts")
+    @Operation(
+        summary = "Confirmaciones de lectura",
+        description = "Anota hasta qué mensaje ha leído el usuario autenticado en cada chat; se guardan por lotes",
+        responses = {
+            @ApiResponse(responseCode = "202", description = "Confirmaciones aceptadas")
+        }
+    )
+    public ResponseEntity<Void> submitReadReceipts(Principal principal, @RequestBody List<ReadReceipt> receipts) {
+        receipts.forEach(receipt ->
+                readReceiptService.submit(principal.getName(), receipt.chatId(), receipt.messageId(), receipt.seq()));
+        return ResponseEntity.accepted().build();
+    }
+
     /**
      * Endpoint para buscar un mensaje específico por su ID.
      * Si lo encuentra lo devuelve, si no, devuelve un 404.
@@ -140,7 +490,7 @@ public class ChatController {
             @ApiResponse(responseCode = "404", description = "Mensaje no encontrado")
         }
     )
-    public ResponseEntity<Message> getMessageById(
+    public ResponseEntity<MessageView> getMessageById(
             @Parameter(description = "ID del mensaje", required = true)
             @PathVariable Long id) {
         logger.debug("Solicitud para obtener mensaje con ID: {}", id);
@@ -162,7 +512,8 @@ public class ChatController {
         description = "Guarda un nuevo mensaje en la base de datos",
         responses = {
             @ApiResponse(responseCode = "201", description = "Mensaje creado correctamente"),
-            @ApiResponse(responseCode = "400", description = "Datos de mensaje inválidos")
+            @ApiResponse(responseCode = "400", description = "Datos de mensaje inválidos"),
+            @ApiResponse(responseCode = "503", description = "No se pudo numerar el mensaje; se puede reintentar")
         }
     )
     public ResponseEntity<Message> createMessage(@Validated @RequestBody Message message) {
@@ -171,6 +522,26 @@ public class ChatController {
         return ResponseEntity.status(HttpStatus.CREATED).body(savedMessage);
     }
 
+    /**
+     * Endpoint para importar muchos mensajes de una vez.
+     * Se guardan en una sola transacción con INSERT agrupados en lotes JDBC.
+     */
+    @PostMapping("/messages/batch")
+    @Operation(
+        summary = "Crear mensajes en lote",
+        description = "Guarda una lista de mensajes usando inserciones por lotes",
+        responses = {
+            @ApiResponse(responseCode = "201", description = "Mensajes creados correctamente"),
+            @ApiResponse(responseCode = "400", description = "Datos de mensaje inválidos"),
+            @ApiResponse(responseCode = "503", description = "No se pudo numerar el mensaje; se puede reintentar")
+        }
+    )
+    public ResponseEntity<List<Message>> createMessages(@Validated @RequestBody List<Message> messages) {
+        logger.debug("Solicitud para crear {} mensajes en lote", messages.size());
+        List<Message> savedMessages = chatService.saveMessagesInBatch(messages);
+        return ResponseEntity.status(HttpStatus.CREATED).body(savedMessages);
+    }
+
     /**
      * Endpoint para borrar un mensaje.
      * Si lo encuentra, lo borra y confirma. Si no, avisa que no existe.
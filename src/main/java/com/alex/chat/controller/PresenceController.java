@@ -0,0 +1,70 @@
+package com.alex.chat.controller;
+
+import com.alex.chat.dto.PresenceView;
+import com.alex.chat.service.PresenceService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Consulta de presencia (conectado / última actividad) de varios usuarios a la
+ * vez, por HTTP o por STOMP.
+ */
+@RestController
+@RequestMapping("/api/presence")
+@Tag(name = "Presence API", description = "Presencia de usuarios")
+public class PresenceController {
+
+    private final PresenceService presenceService;
+    private final int maxQuerySize;
+
+    public PresenceController(PresenceService presenceService,
+                              @Value("${chat.presence.max-query-size:200}") int maxQuerySize) {
+        this.presenceService = presenceService;
+        this.maxQuerySize = maxQuerySize;
+    }
+
+    /**
+     * Endpoint con la presencia de una lista de usuarios, en el orden pedido.
+     */
+    @GetMapping
+    @Operation(
+        summary = "Presencia de usuarios",
+        description = "Devuelve si cada usuario está conectado y su última actividad",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Presencia recuperada correctamente"),
+            @ApiResponse(responseCode = "400", description = "Demasiados usuarios en una consulta")
+        }
+    )
+    public ResponseEntity<List<PresenceView>> getPresence(
+            @Parameter(description = "Usuarios separados por comas", required = true)
+            @RequestParam("users") List<String> usernames) {
+        if (usernames.size() > maxQuerySize) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(presenceService.getPresence(usernames));
+    }
+
+    /**
+     * Lo mismo por STOMP: el cliente envía a {@code /app/presence.query} un array
+     * de usuarios y recibe la respuesta en {@code /user/queue/presence}.
+     */
+    @MessageMapping("/presence.query")
+    @SendToUser("/queue/presence")
+    public List<PresenceView> queryPresence(List<String> usernames) {
+        return presenceService.getPresence(usernames.size() > maxQuerySize
+                ? usernames.subList(0, maxQuerySize)
+                : usernames);
+    }
+}
@@ -9,6 +9,10 @@ public class ChatMessage {
     private String sender;
     private String content;
     private String timestamp;
+    private Long chatId;
+    private Long sentAt;
+    private String streamId;
+    private Long seq;
 
     /**
      * Constructor vacío porque Spring lo necesita.
@@ -57,4 +61,47 @@ public class ChatMessage {
      * Actualiza la hora del mensaje.
      */
     public void setTimestamp(String timestamp) { this.timestamp = timestamp; }
+
+    /**
+     * Dice a qué chat pertenece el mensaje.
+     */
+    public Long getChatId() { return chatId; }
+
+    /**
+     * Cambia el chat al que pertenece el mensaje.
+     */
+    public void setChatId(Long chatId) { this.chatId = chatId; }
+
+    /**
+     * Momento del envío en milisegundos desde epoch, puesto por el servidor.
+     */
+    public Long getSentAt() { return sentAt; }
+
+    /**
+     * Cambia el momento del envío (milisegundos desde epoch).
+     */
+    public void setSentAt(Long sentAt) { this.sentAt = sentAt; }
+
+    /**
+     * ID de la entrada del mensaje en el stream de su sala en Redis (por ejemplo
+     * {@code 1723456789012-0}). Es lo que el cliente guarda como último mensaje
+     * visto y manda al reconectar; null si el mensaje no llegó al stream.
+     */
+    public String getStreamId() { return streamId; }
+
+    /**
+     * Cambia el ID de la entrada del mensaje en el stream de su sala.
+     */
+    public void setStreamId(String streamId) { this.streamId = streamId; }
+
+    /**
+     * Número de secuencia del mensaje en su chat: el siguiente al último que
+     * recibió el cliente, o hay un hueco que pedir por rango. Null si no se pudo asignar.
+     */
+    public Long getSeq() { return seq; }
+
+    /**
+     * Cambia el número de secuencia del mensaje en su chat.
+     */
+    public void setSeq(Long seq) { this.seq = seq; }
 }
@@ -0,0 +1,7 @@
+package com.alex.chat.dto;
+
+/**
+ * Un usuario que participa en un chat.
+ */
+public record ChatParticipant(Long chatId, Long userId) {
+}
@@ -0,0 +1,15 @@
+package com.alex.chat.dto;
+
+import java.util.List;
+
+/**
+ * Lo que se perdió un cliente mientras estaba desconectado, en orden cronológico.
+ * {@code lastStreamId} es el ID que tiene que guardar como último visto.
+ * {@code fromDatabase} indica que parte del hueco ya no estaba en el stream y salió
+ * de la base de datos; esos mensajes no traen {@code streamId}. Si además el hueco
+ * era más largo que el límite, solo vienen los más recientes y {@code historyCursor}
+ * es el {@code beforeSeq} con el que pedir el resto al historial; si no, es null.
+ */
+public record ChatReplay(List<ChatMessage> messages, String lastStreamId, boolean fromDatabase,
+                         Long historyCursor) {
+}
@@ -0,0 +1,11 @@
+package com.alex.chat.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Vista ligera de un chat para listados: sale de la consulta (proyección JPQL)
+ * sin cargar la entidad Chat ni sus participantes, solo cuántos son.
+ */
+public record ChatSummary(Long id, String name, boolean groupChat, LocalDateTime lastActivity,
+                          long participantCount) {
+}
@@ -0,0 +1,28 @@
+package com.alex.chat.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Una fila de la bandeja de entrada: el chat, su último mensaje (recortado) y
+ * cuántos mensajes tiene sin leer el usuario. Los campos del último mensaje son
+ * null si el chat está vacío.
+ */
+public record InboxEntry(Long chatId, String name, boolean groupChat, LocalDateTime lastActivity,
+                         Long lastMessageId, String lastMessageSender, String lastMessagePreview,
+                         LocalDateTime lastMessageSentAt, long unread) {
+
+    /**
+     * Constructor de la proyección JPQL; los no leídos se añaden después.
+     */
+    public InboxEntry(Long chatId, String name, boolean groupChat, LocalDateTime lastActivity,
+                      Long lastMessageId, String lastMessageSender, String lastMessagePreview,
+                      LocalDateTime lastMessageSentAt) {
+        this(chatId, name, groupChat, lastActivity, lastMessageId, lastMessageSender, lastMessagePreview,
+                lastMessageSentAt, 0);
+    }
+
+    public InboxEntry withUnread(long unread) {
+        return new InboxEntry(chatId, name, groupChat, lastActivity, lastMessageId, lastMessageSender,
+                lastMessagePreview, lastMessageSentAt, unread);
+    }
+}
@@ -0,0 +1,21 @@
+package com.alex.chat.dto;
+
+import java.util.List;
+
+/**
+ * Una página del historial de un chat, del mensaje más nuevo al más antiguo.
+ * {@code nextCursor} es el ID que hay que pasar como {@code before} para pedir
+ * la página siguiente; es null cuando ya no quedan mensajes más antiguos.
+ * Las páginas de mensajes con secuencia traen además {@code nextSeqCursor}, el
+ * número de secuencia que hay que pasar como {@code beforeSeq}: el orden del chat
+ * es el de las secuencias, no el de los IDs. Si viene, tiene preferencia.
+ */
+public record MessagePage(List<MessageView> items, Long nextCursor, Long nextSeqCursor) {
+
+    /**
+     * Página paginada solo por ID.
+     */
+    public MessagePage(List<MessageView> items, Long nextCursor) {
+        this(items, nextCursor, null);
+    }
+}
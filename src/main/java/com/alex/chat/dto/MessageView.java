@@ -0,0 +1,20 @@
+package com.alex.chat.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Vista ligera de un mensaje para el historial.
+ * Sale directamente de la consulta (proyección JPQL), sin cargar la entidad
+ * Message ni su remitente o chat completos. {@code seq} es su número de
+ * secuencia en el chat (null en mensajes anteriores a las secuencias).
+ */
+public record MessageView(Long id, Long chatId, String sender, String content, LocalDateTime sentAt, Long seq) {
+
+    /**
+     * Vista sin número de secuencia, para las que no salen de la base de datos
+     * (por ejemplo, los resultados del índice de búsqueda).
+     */
+    public MessageView(Long id, Long chatId, String sender, String content, LocalDateTime sentAt) {
+        this(id, chatId, sender, content, sentAt, null);
+    }
+}
@@ -0,0 +1,8 @@
+package com.alex.chat.dto;
+
+/**
+ * Presencia de un usuario: si está conectado a algún nodo y su última actividad
+ * (milisegundos desde epoch, null si nunca se ha conectado).
+ */
+public record PresenceView(String username, boolean online, Long lastSeen) {
+}
@@ -0,0 +1,12 @@
+package com.alex.chat.dto;
+
+/**
+ * Confirmación de lectura: el usuario ha leído hasta ese mensaje en el chat.
+ * El cliente envía {@code chatId} y la {@code seq} del mensaje (los mensajes en
+ * vivo llegan sin ID), o su {@code messageId} si lo tiene; el usuario lo pone el
+ * servidor. A los demás participantes les llegan en {@code /topic/chat.{id}.receipts}
+ * como un array con las confirmaciones de cada ventana, con la secuencia y, si
+ * se conoce, el ID.
+ */
+public record ReadReceipt(Long chatId, String username, Long messageId, Long seq) {
+}
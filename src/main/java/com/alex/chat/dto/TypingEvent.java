@@ -0,0 +1,9 @@
+package com.alex.chat.dto;
+
+/**
+ * Aviso de "está escribiendo" en una sala. No se guarda en ningún sitio: solo
+ * viaja entre nodos y a los clientes suscritos a {@code /topic/chat.{id}.typing}.
+ * El cliente solo envía {@code chatId} y {@code typing}; el usuario lo pone el servidor.
+ */
+public record TypingEvent(Long chatId, String username, boolean typing) {
+}
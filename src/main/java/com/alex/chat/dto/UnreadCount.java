@@ -0,0 +1,7 @@
+package com.alex.chat.dto;
+
+/**
+ * Número de mensajes sin leer de un usuario en un chat.
+ */
+public record UnreadCount(Long chatId, Long count) {
+}
@@ -2,22 +2,28 @@ package com.alex.chat.message.entity;
 
 import com.alex.chat.chat.entity.Chat;
 import com.alex.chat.user.entity.User;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * La clase que representa un mensaje en nuestra app.
  * Aquí guardo toda la información de cada mensaje que
- * alguien envía, incluyendo quién lo mandó y quién lo ha leído.
+ * alguien envía, incluyendo quién lo mandó.
+ * Quién lo ha leído no va aquí: sale de la marca de lectura de cada usuario
+ * en el chat ({@link com.alex.chat.chat.entity.ChatReadState}), así cargar un
+ * mensaje no arrastra ningún conjunto de lectores.
  */
 @Entity
-@Table(name = "messages")
+@Table(name = "messages",
+        indexes = @Index(name = "idx_messages_chat_id", columnList = "chat_id, id"),
+        uniqueConstraints = @UniqueConstraint(name = "uk_messages_chat_seq", columnNames = {"chat_id", "seq"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -26,25 +32,37 @@ public class Message {
     /**
      * El ID único de cada mensaje.
      * Como el número de DNI pero para mensajes.
+     * Sale de una secuencia con asignación por bloques (pooled-lo) para que
+     * Hibernate pueda agrupar los INSERT en lotes JDBC; con IDENTITY no puede.
+     * Ojo: cada nodo reserva su propio bloque, así que con varios nodos el ID no
+     * sigue el orden de llegada. Para ordenar un chat o buscar su último mensaje
+     * se usa {@link #seq}; el ID solo ordena los mensajes anteriores a las secuencias.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "message_seq")
+    @SequenceGenerator(name = "message_seq", sequenceName = "messages_seq", allocationSize = 50)
     private Long id;
 
     /**
      * A qué chat pertenece este mensaje.
      * Un mensaje siempre está dentro de una conversación.
+     * Perezoso: quien necesite el chat lo pide en la consulta (ver
+     * {@link com.alex.chat.message.repo.MessageRepository}), no por cada mensaje.
      */
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "chat_id", nullable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private Chat chat;
 
     /**
      * Quién envió este mensaje.
      * Siempre hay que saber quién dijo qué.
      */
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id", nullable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private User sender;
 
     /**
@@ -62,16 +80,16 @@ public class Message {
     private LocalDateTime sentAt;
 
     /**
-     * Qué usuarios han leído este mensaje.
-     * Útil para los famosos "doble check" de WhatsApp.
+     * Número de secuencia del mensaje dentro de su chat (ver
+     * {@link com.alex.chat.service.ChatSequenceService}). No depende del reloj de
+     * ningún nodo, así que es lo que usan los clientes para ordenar y detectar huecos.
+     * Null en los mensajes guardados antes de existir las secuencias. Lo pone
+     * siempre el servidor: si viene en el JSON de una petición se ignora. Es único
+     * en su chat: si alguna vez se repartiese dos veces, el segundo INSERT falla en
+     * vez de dejar dos mensajes con el mismo número.
      */
-    @ManyToMany
-    @JoinTable(
-        name = "message_read_status",
-        joinColumns = @JoinColumn(name = "message_id"),
-        inverseJoinColumns = @JoinColumn(name = "user_id")
-    )
-    private Set<User> readBy = new HashSet<>();
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long seq;
 
     /**
      * Cuando se crea un mensaje nuevo, le pongo la hora actual.
@@ -1,24 +1,158 @@
 package com.alex.chat.message.repo;
 
 import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
 import com.alex.chat.message.entity.Message;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+/**
+ * Los mensajes tienen el chat y el remitente perezosos. Las lecturas que acaban
+ * en JSON usan proyecciones ({@link MessageView}); las que necesitan la entidad
+ * completa piden sus asociaciones con un entity graph, en la misma consulta.
+ */
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
 
+    /**
+     * Página de mensajes de un chat con el remitente cargado en la misma consulta.
+     */
+    @EntityGraph(attributePaths = "sender")
     Page<Message> findByChatOrderBySentAtDesc(Chat chat, Pageable pageable);
 
-    @Query("SELECT m FROM Message m WHERE m.chat.id = :chatId AND m.sentAt > :since ORDER BY m.sentAt ASC")
-    List<Message> findNewMessagesByChatSince(Long chatId, LocalDateTime since);
+    /**
+     * Todos los mensajes como vistas ligeras, en una sola consulta.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s ORDER BY m.id")
+    List<MessageView> findAllViews();
 
-    @Query("SELECT COUNT(m) FROM Message m WHERE m.chat.id = :chatId AND :userId NOT MEMBER OF m.readBy")
-    Long countUnreadMessages(Long chatId, Long userId);
+    /**
+     * Un mensaje como vista ligera.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.id = :id")
+    Optional<MessageView> findViewById(Long id);
+
+    /**
+     * Varios mensajes como vistas ligeras, en una sola consulta.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.id IN :ids")
+    List<MessageView> findViewsByIdIn(Collection<Long> ids);
+
+    /**
+     * Un trozo de toda la tabla por keyset sobre el ID: los mensajes posteriores a
+     * {@code afterId}, en orden. Sirve para recorrerla entera sin OFFSET ni cursores largos.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.id > :afterId ORDER BY m.id ASC")
+    List<MessageView> findViewsAfter(Long afterId, Limit limit);
+
+    /**
+     * Como {@link #findViewsAfter}, pero solo los IDs: lo recorre entero el índice
+     * de la clave primaria, sin leer las filas.
+     */
+    @Query("SELECT m.id FROM Message m WHERE m.id > :afterId ORDER BY m.id ASC")
+    List<Long> findIdsAfter(Long afterId, Limit limit);
+
+    /**
+     * Página del historial por keyset sobre (chat_id, id), solo con los mensajes
+     * guardados antes de que hubiera números de secuencia: los que tienen ID menor
+     * que el cursor, del más nuevo al más antiguo. Con varios nodos el ID no sigue
+     * el orden de llegada (cada nodo reserva su bloque), así que no sirve para
+     * ordenar los mensajes que ya tienen secuencia.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.chat.id = :chatId AND m.seq IS NULL AND m.id < :beforeId " +
+           "ORDER BY m.id DESC")
+    List<MessageView> findHistoryPage(Long chatId, Long beforeId, Limit limit);
+
+    /**
+     * Los mensajes más recientes de un chat, del más nuevo al más antiguo: primero
+     * por secuencia y, detrás, los anteriores a las secuencias por ID. Tanto MySQL
+     * como H2 dejan los NULL al final en orden descendente, así que va por el
+     * índice (chat_id, seq) sin emular el orden de los nulos.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.chat.id = :chatId ORDER BY m.seq DESC, m.id DESC")
+    List<MessageView> findLatestPage(Long chatId, Limit limit);
+
+    /**
+     * Página del historial por keyset sobre (chat_id, seq): los mensajes con número
+     * de secuencia menor que {@code beforeSeq}, del más nuevo al más antiguo. No usa
+     * OFFSET, así que cuesta lo mismo en la primera página que en la página mil.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.chat.id = :chatId AND m.seq < :beforeSeq ORDER BY m.seq DESC")
+    List<MessageView> findHistoryPageBySeq(Long chatId, Long beforeSeq, Limit limit);
+
+    /**
+     * Todo el historial de un chat en orden cronológico, leído por cursor en trozos
+     * de 500 filas: primero los mensajes anteriores a las secuencias, por ID, y luego
+     * el resto por secuencia. Hay que consumirlo dentro de una transacción y cerrarlo al acabar.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.chat.id = :chatId ORDER BY m.seq ASC NULLS FIRST, m.id ASC")
+    Stream<MessageView> streamHistory(Long chatId);
+
+    /**
+     * Los mensajes de un chat con número de secuencia entre {@code fromSeq} y
+     * {@code toSeq} (incluidos), en orden. Es el rango que pide un cliente que ha
+     * visto un salto en la secuencia; va por el índice (chat_id, seq).
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.chat.id = :chatId AND m.seq BETWEEN :fromSeq AND :toSeq " +
+           "ORDER BY m.seq ASC")
+    List<MessageView> findViewsBySeqRange(Long chatId, Long fromSeq, Long toSeq);
+
+    /**
+     * El número de secuencia más alto guardado en un chat.
+     */
+    @Query("SELECT MAX(m.seq) FROM Message m WHERE m.chat.id = :chatId")
+    Long findMaxSeq(Long chatId);
+
+    /**
+     * Mensajes de un chat con número de secuencia entre {@code afterSeq} y
+     * {@code beforeSeq} (los dos excluidos), del más nuevo al más antiguo. Es lo que
+     * se le manda a un cliente que reconecta cuando su hueco ya no está en el stream
+     * de la sala (ver {@link com.alex.chat.service.ChatReplayService}); va por el
+     * índice (chat_id, seq) desde {@code beforeSeq}.
+     */
+    @Query("SELECT new com.alex.chat.dto.MessageView(m.id, m.chat.id, s.username, m.content, m.sentAt, m.seq) " +
+           "FROM Message m JOIN m.sender s WHERE m.chat.id = :chatId AND m.seq > :afterSeq AND m.seq < :beforeSeq " +
+           "ORDER BY m.seq DESC")
+    List<MessageView> findViewsBetweenSeq(Long chatId, Long afterSeq, Long beforeSeq, Limit limit);
+
+    /**
+     * Mensajes de otros usuarios posteriores a la marca de lectura {@code lastReadSeq}
+     * en el chat. Es un rango sobre el índice (chat_id, seq), no una subconsulta por mensaje.
+     */
+    @Query("SELECT COUNT(m) FROM Message m WHERE m.chat.id = :chatId AND m.sender.id <> :userId " +
+           "AND m.seq > :lastReadSeq")
+    Long countUnreadMessages(Long chatId, Long userId, long lastReadSeq);
+
+    /**
+     * No leídos de todos los chats de un usuario en una sola consulta agregada.
+     */
+    @Query("SELECT new com.alex.chat.dto.UnreadCount(c.id, COUNT(m.id)) FROM Chat c JOIN c.participants p " +
+           "LEFT JOIN ChatReadState r ON r.chatId = c.id AND r.userId = :userId " +
+           "LEFT JOIN Message m ON m.chat = c AND m.sender.id <> :userId AND m.seq > COALESCE(r.lastReadSeq, 0) " +
+           "WHERE p.id = :userId GROUP BY c.id")
+    List<UnreadCount> countUnreadByChat(Long userId);
 }
@@ -0,0 +1,56 @@
+package com.alex.chat.message.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * La redistribución como herramienta de una pasada: con el perfil {@code reshard}
+ * la aplicación arranca, copia los mensajes a {@code chat.sharding.reshard.target-urls}
+ * con {@link MessageResharder} y termina (ver
+ * {@link com.alex.chat.RealtimeChatApplication#main}) con código 0 si ha ido bien
+ * o 1 si no, para que lo vea el script que la lanzó.
+ */
+@Component
+@Profile(MessageReshardRunner.PROFILE)
+public class MessageReshardRunner implements CommandLineRunner, ExitCodeGenerator {
+
+    public static final String PROFILE = "reshard";
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageReshardRunner.class);
+
+    private final MessageResharder resharder;
+    private final List<String> targetUrls;
+    private int exitCode = 1;
+
+    public MessageReshardRunner(MessageResharder resharder,
+                                @Value("${chat.sharding.reshard.target-urls:}") List<String> targetUrls) {
+        this.resharder = resharder;
+        this.targetUrls = targetUrls;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (targetUrls.isEmpty()) {
+            logger.error("El perfil {} necesita chat.sharding.reshard.target-urls", PROFILE);
+            return;
+        }
+        try {
+            resharder.reshardTo(targetUrls);
+            exitCode = 0;
+        } catch (RuntimeException e) {
+            logger.error("La redistribución falló; se puede repetir: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+}
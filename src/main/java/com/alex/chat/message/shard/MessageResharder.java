@@ -0,0 +1,180 @@
+package com.alex.chat.message.shard;
+
+import com.alex.chat.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Redistribuye los mensajes cuando cambia la lista de shards, o los pasa de la
+ * tabla {@code messages} de la base de datos principal a los shards la primera vez.
+ * Se lanza arrancando la aplicación con el perfil {@code reshard} y
+ * {@code chat.sharding.reshard.target-urls} (ver {@link MessageReshardRunner}):
+ * copia, la aplicación termina y luego se arrancan los nodos con la lista nueva.
+ * Mientras dura no se deben guardar mensajes (el escritor write-behind los retiene
+ * en su cola si Redis sigue en pie, pero lo seguro es parar los nodos).
+ * <p>
+ * Se puede repetir si se corta: cada trozo se copia saltándose los IDs que ya
+ * están en el destino y solo después se borra del origen. Con el hash consistente,
+ * al añadir shards al final de la lista solo se mueven los chats que van a los nuevos.
+ */
+@Component
+public class MessageResharder {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageResharder.class);
+
+    private final ShardedMessageRepository currentShards;
+    private final UserRepository userRepository;
+    private final DataSource primaryDataSource;
+    private final String username;
+    private final String password;
+    private final int chunkSize;
+
+    public MessageResharder(ShardedMessageRepository currentShards,
+                            UserRepository userRepository,
+                            DataSource primaryDataSource,
+                            @Value("${chat.sharding.username:}") String username,
+                            @Value("${chat.sharding.password:}") String password,
+                            @Value("${chat.sharding.reshard.chunk-size:1000}") int chunkSize) {
+        this.currentShards = currentShards;
+        this.userRepository = userRepository;
+        this.primaryDataSource = primaryDataSource;
+        this.username = username;
+        this.password = password;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Redistribuye hacia los shards de {@code targetUrls}. El origen son los shards
+     * actuales o, sin sharding, la tabla principal.
+     */
+    public Result reshardTo(List<String> targetUrls) {
+        Result result;
+        try (ShardedMessageRepository target = new ShardedMessageRepository(userRepository, targetUrls,
+                username, password, 4)) {
+            result = currentShards.isEnabled()
+                    ? reshard(currentShards, target)
+                    : importFrom(primaryDataSource, target);
+        }
+        logger.info("Redistribución terminada: {} mensajes leídos, {} copiados. "
+                + "Arranca los nodos con chat.sharding.urls={}", result.scanned(), result.copied(),
+                String.join(",", targetUrls));
+        return result;
+    }
+
+    /**
+     * Mueve cada mensaje de {@code from} al shard que le toca en {@code to}. Los que
+     * ya están en la misma base de datos (misma URL) no se tocan.
+     */
+    public Result reshard(ShardedMessageRepository from, ShardedMessageRepository to) {
+        long scanned = 0;
+        long copied = 0;
+        for (MessageShard source : from.shards()) {
+            long afterId = Long.MIN_VALUE;
+            List<Object[]> chunk;
+            do {
+                chunk = source.jdbc().query("SELECT " + MessageShard.COLUMNS + " FROM " + MessageShard.TABLE
+                        + " WHERE id > ? ORDER BY id LIMIT ?", MessageShard.ROW_MAPPER, afterId, chunkSize);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                afterId = (long) chunk.getLast()[0];
+                scanned += chunk.size();
+
+                List<Object[]> leaving = new ArrayList<>();
+                for (Object[] row : chunk) {
+                    MessageShard target = to.shards().get(ShardedMessageRepository.shardOf((long) row[1], to.shardCount()));
+                    if (!target.url().equals(source.url())) {
+                        leaving.add(row);
+                    }
+                }
+                copied += copy(leaving, to);
+                // Solo se borra lo que ya está copiado
+                source.jdbc().batchUpdate("DELETE FROM " + MessageShard.TABLE + " WHERE id = ?",
+                        leaving.stream().map(row -> new Object[]{row[0]}).toList());
+            } while (chunk.size() == chunkSize);
+            logger.info("Shard {} redistribuido: {} mensajes leídos", source.url(), scanned);
+        }
+        raiseIdFloors(to);
+        return new Result(scanned, copied);
+    }
+
+    /**
+     * Copia los mensajes de la tabla {@code messages} de la base de datos principal
+     * a los shards, con sus IDs. La tabla principal no se toca.
+     */
+    public Result importFrom(DataSource primary, ShardedMessageRepository to) {
+        JdbcTemplate jdbc = new JdbcTemplate(primary);
+        jdbc.setFetchSize(chunkSize);
+        long scanned = 0;
+        long copied = 0;
+        long afterId = Long.MIN_VALUE;
+        List<Object[]> chunk;
+        do {
+            chunk = jdbc.query("SELECT m.id, m.chat_id, m.sender_id, u.username, m.content, m.sent_at, m.seq "
+                    + "FROM messages m JOIN users u ON u.id = m.sender_id WHERE m.id > ? ORDER BY m.id LIMIT ?",
+                    MessageShard.ROW_MAPPER, afterId, chunkSize);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            afterId = (long) chunk.getLast()[0];
+            scanned += chunk.size();
+            copied += copy(chunk, to);
+        } while (chunk.size() == chunkSize);
+        raiseIdFloors(to);
+        return new Result(scanned, copied);
+    }
+
+    /**
+     * Inserta las filas en su shard de destino, saltándose las que ya estaban.
+     */
+    private static long copy(List<Object[]> rows, ShardedMessageRepository to) {
+        Map<MessageShard, List<Object[]>> perShard = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            perShard.computeIfAbsent(to.shards().get(ShardedMessageRepository.shardOf((long) row[1], to.shardCount())),
+                    k -> new ArrayList<>()).add(row);
+        }
+        long copied = 0;
+        for (Map.Entry<MessageShard, List<Object[]>> entry : perShard.entrySet()) {
+            JdbcTemplate target = entry.getKey().jdbc();
+            List<Object> ids = entry.getValue().stream().map(row -> row[0]).toList();
+            Set<Long> present = new HashSet<>(target.queryForList("SELECT id FROM " + MessageShard.TABLE + " WHERE id IN ("
+                    + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", Long.class, ids.toArray()));
+            List<Object[]> missing = entry.getValue().stream().filter(row -> !present.contains((long) row[0])).toList();
+            target.batchUpdate(MessageShard.INSERT, missing);
+            copied += missing.size();
+        }
+        return copied;
+    }
+
+    /**
+     * Deja el contador de cada shard por encima de cualquier ID existente: los
+     * mensajes nuevos de un chat movido siguen ordenándose después de los antiguos.
+     */
+    private static void raiseIdFloors(ShardedMessageRepository to) {
+        long floor = 0;
+        for (MessageShard shard : to.shards()) {
+            floor = Math.max(floor, shard.maxLocalId());
+        }
+        for (MessageShard shard : to.shards()) {
+            shard.raiseIdFloor(floor);
+        }
+    }
+
+    /**
+     * Mensajes recorridos en el origen y copiados a otra base de datos.
+     */
+    public record Result(long scanned, long copied) {
+    }
+}
@@ -0,0 +1,259 @@
+package com.alex.chat.message.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Una de las bases de datos de mensajes: su pool, su tabla y su contador de IDs.
+ * <p>
+ * La tabla {@code chat_messages} no tiene claves ajenas (los chats y los usuarios
+ * siguen en la base de datos principal) y guarda el nombre del remitente, así
+ * que las lecturas no necesitan ningún JOIN. Se crea al arrancar si no existe,
+ * con SQL que aceptan igual MySQL y H2.
+ * <p>
+ * Los IDs se reparten por bloques de un contador propio ({@code chat_message_ids})
+ * y llevan en los bits bajos el número del shard que los creó: {@code local * 1024 + shard}.
+ * Así no se repiten entre shards aunque un mensaje cambie de sitio al redistribuir.
+ */
+final class MessageShard implements AutoCloseable {
+
+    static final int MAX_SHARDS = 1024;
+    static final String TABLE = "chat_messages";
+    static final String COLUMNS = "id, chat_id, sender_id, sender_username, content, sent_at, seq";
+    static final String INSERT = "INSERT INTO " + TABLE + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    /** Una fila completa, con las columnas en el orden de {@link #COLUMNS}. */
+    static final RowMapper<Object[]> ROW_MAPPER = (rs, rowNum) -> new Object[]{
+            rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getString(4), rs.getString(5),
+            rs.getTimestamp(6), rs.getObject(7, Long.class)};
+    private static final String ID_TABLE = "chat_message_ids";
+    private static final int ID_BLOCK = 1000;
+
+    private final int index;
+    private final String url;
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbc;
+
+    /**
+     * Protege el bloque de IDs. Es un lock y no {@code synchronized} porque se
+     * tiene mientras se reserva un bloque en la base de datos: con hilos virtuales
+     * un monitor retenido durante E/S bloquea también el hilo portador.
+     */
+    private final ReentrantLock idLock = new ReentrantLock();
+
+    /** Bloque de IDs locales reservado: [nextLocalId, localLimit). */
+    private long nextLocalId;
+    private long localLimit;
+
+    MessageShard(int index, String url, String username, String password, int poolSize) {
+        this.index = index;
+        this.url = url;
+        this.dataSource = new HikariDataSource();
+        dataSource.setPoolName("message-shard-" + index);
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(poolSize);
+        this.jdbc = new JdbcTemplate(dataSource);
+        jdbc.setFetchSize(500);
+    }
+
+    int index() {
+        return index;
+    }
+
+    String url() {
+        return url;
+    }
+
+    JdbcTemplate jdbc() {
+        return jdbc;
+    }
+
+    /**
+     * Crea la tabla, sus índices y el contador si todavía no existen.
+     */
+    void createSchemaIfMissing() {
+        jdbc.execute((ConnectionCallback<Void>) connection -> {
+            if (!tableExists(connection, TABLE)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE TABLE " + TABLE + " (id BIGINT NOT NULL PRIMARY KEY, "
+                            + "chat_id BIGINT NOT NULL, sender_id BIGINT NOT NULL, "
+                            + "sender_username VARCHAR(255) NOT NULL, content TEXT NOT NULL, "
+                            + "sent_at DATETIME(6) NOT NULL, seq BIGINT)");
+                    statement.execute("CREATE INDEX idx_chat_messages_chat_id ON " + TABLE + " (chat_id, id)");
+                    statement.execute("CREATE UNIQUE INDEX uk_chat_messages_chat_seq ON " + TABLE + " (chat_id, seq)");
+                }
+            }
+            if (!tableExists(connection, ID_TABLE)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE TABLE " + ID_TABLE + " (next_val BIGINT NOT NULL)");
+                    statement.execute("INSERT INTO " + ID_TABLE + " (next_val) VALUES (1)");
+                }
+            }
+            return null;
+        });
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // H2 guarda los nombres sin comillas en mayúsculas; MySQL, tal cual
+        for (String name : new String[]{table, table.toUpperCase()}) {
+            try (ResultSet tables = metaData.getTables(connection.getCatalog(), null, name, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inserta filas completas (ver {@link #ROW_MAPPER}) en un lote JDBC y en una
+     * transacción local: entran todas o ninguna.
+     */
+    void insertAll(List<Object[]> rows) {
+        inTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                for (Object[] row : rows) {
+                    new ArgumentPreparedStatementSetter(row).setValues(statement);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Borra mensajes por ID en una transacción local.
+     *
+     * @return las filas borradas, para poder volver a insertarlas
+     */
+    List<Object[]> deleteAll(List<Long> ids) {
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        return inTransaction(connection -> {
+            List<Object[]> deleted = new ArrayList<>(ids.size());
+            try (PreparedStatement select = connection.prepareStatement("SELECT " + COLUMNS + " FROM " + TABLE
+                    + " WHERE id IN (" + placeholders + ") FOR UPDATE")) {
+                new ArgumentPreparedStatementSetter(ids.toArray()).setValues(select);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        deleted.add(ROW_MAPPER.mapRow(rows, deleted.size()));
+                    }
+                }
+            }
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE
+                    + " WHERE id IN (" + placeholders + ")")) {
+                new ArgumentPreparedStatementSetter(ids.toArray()).setValues(delete);
+                delete.executeUpdate();
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * Ejecuta {@code work} en una transacción local con una conexión propia del
+     * pool. No pasa por la sincronización de transacciones de Spring, así que
+     * sirve igual durante una transacción de la base de datos principal que en
+     * sus callbacks de fin.
+     */
+    private <T> T inTransaction(ConnectionCallback<T> work) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.doInConnection(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            String task = "Transacción en el shard " + url;
+            DataAccessException translated = jdbc.getExceptionTranslator().translate(task, null, e);
+            throw translated != null ? translated : new UncategorizedSQLException(task, null, e);
+        }
+    }
+
+    /**
+     * El siguiente ID. Solo va a la base de datos una vez cada {@value #ID_BLOCK} mensajes.
+     */
+    long nextId() {
+        idLock.lock();
+        try {
+            if (nextLocalId >= localLimit) {
+                reserveBlock();
+            }
+            return nextLocalId++ * MAX_SHARDS + index;
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    private void reserveBlock() {
+        long limit = jdbc.execute((ConnectionCallback<Long>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                // El UPDATE bloquea la fila hasta el commit: dos nodos nunca leen el mismo valor
+                statement.executeUpdate("UPDATE " + ID_TABLE + " SET next_val = next_val + " + ID_BLOCK);
+                try (ResultSet result = statement.executeQuery("SELECT next_val FROM " + ID_TABLE)) {
+                    result.next();
+                    long next = result.getLong(1);
+                    connection.commit();
+                    return next;
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+        nextLocalId = limit - ID_BLOCK;
+        localLimit = limit;
+    }
+
+    /**
+     * Sube el contador para que los próximos IDs locales sean mayores que {@code floor}
+     * y descarta el bloque reservado en memoria.
+     */
+    void raiseIdFloor(long floor) {
+        idLock.lock();
+        try {
+            jdbc.update("UPDATE " + ID_TABLE + " SET next_val = ? WHERE next_val <= ?", floor + 1, floor);
+            nextLocalId = 0;
+            localLimit = 0;
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    /**
+     * Parte local del ID más alto que hay en este shard (0 si está vacío).
+     */
+    long maxLocalId() {
+        Long max = jdbc.queryForObject("SELECT MAX(id) FROM " + TABLE, Long.class);
+        return max == null ? 0 : max / MAX_SHARDS;
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
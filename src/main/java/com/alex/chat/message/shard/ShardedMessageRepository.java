@@ -0,0 +1,489 @@
+package com.alex.chat.message.shard;
+
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Mensajes repartidos por chat entre varias bases de datos ({@code chat.sharding.urls}).
+ * Cada chat vive entero en un shard, elegido con un hash consistente de su ID
+ * ({@link #shardOf}), así que todo lo que pide un cliente (guardar, historial,
+ * secuencias, no leídos de un chat) va a una sola base de datos. Solo las
+ * consultas de administración (todos los mensajes, un mensaje por ID, borrar)
+ * preguntan a todos, y aun así prueban primero el shard que creó el ID.
+ * <p>
+ * Desactivado por defecto: entonces no abre ninguna conexión y los servicios
+ * usan {@link com.alex.chat.message.repo.MessageRepository} (ver
+ * {@link com.alex.chat.message.store.MessageStore}). Los chats, usuarios y
+ * marcas de lectura se quedan siempre en la base de datos principal.
+ * <p>
+ * Los shards no entran en la transacción de la base de datos principal (son otras
+ * bases de datos y no hay XA). Para no dejar filas huérfanas si esa transacción se
+ * deshace, las escrituras se aplazan a justo antes de su commit, cuando ya no
+ * queda nada de quien llama por fallar, y cada shard escribe en su propia
+ * transacción local. Si después falla otro shard o el commit de la principal, las
+ * que ya se hicieron se compensan (se borran las filas insertadas o se vuelven a
+ * insertar las borradas).
+ */
+@Repository
+public class ShardedMessageRepository implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedMessageRepository.class);
+
+    private static final String SELECT_VIEW = "SELECT id, chat_id, sender_username, content, sent_at, seq FROM "
+            + MessageShard.TABLE + " ";
+    private static final RowMapper<MessageView> VIEW_MAPPER = (rs, rowNum) -> new MessageView(
+            rs.getLong("id"),
+            rs.getLong("chat_id"),
+            rs.getString("sender_username"),
+            rs.getString("content"),
+            rs.getObject("sent_at", LocalDateTime.class),
+            rs.getObject("seq", Long.class));
+
+    private final UserRepository userRepository;
+    private final List<MessageShard> shards;
+
+    @Autowired
+    public ShardedMessageRepository(UserRepository userRepository,
+                                    @Value("${chat.sharding.enabled:false}") boolean enabled,
+                                    @Value("${chat.sharding.urls:}") List<String> urls,
+                                    @Value("${chat.sharding.username:}") String username,
+                                    @Value("${chat.sharding.password:}") String password,
+                                    @Value("${chat.sharding.pool-size:20}") int poolSize) {
+        this(userRepository, enabledUrls(enabled, urls), username, password, poolSize);
+    }
+
+    private static List<String> enabledUrls(boolean enabled, List<String> urls) {
+        if (enabled && urls.isEmpty()) {
+            throw new IllegalStateException("chat.sharding.enabled=true necesita chat.sharding.urls");
+        }
+        return enabled ? urls : List.of();
+    }
+
+    /**
+     * Repositorio sobre los shards indicados, en ese orden. Lo usan las
+     * herramientas de redistribución para abrir la distribución de destino.
+     */
+    public ShardedMessageRepository(UserRepository userRepository, List<String> urls,
+                                    String username, String password, int poolSize) {
+        if (urls.size() > MessageShard.MAX_SHARDS) {
+            throw new IllegalArgumentException("Como mucho " + MessageShard.MAX_SHARDS + " shards de mensajes");
+        }
+        this.userRepository = userRepository;
+        List<MessageShard> opened = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            opened.add(new MessageShard(opened.size(), url.trim(), username, password, poolSize));
+        }
+        this.shards = List.copyOf(opened);
+        shards.forEach(MessageShard::createSchemaIfMissing);
+        if (!shards.isEmpty()) {
+            logger.info("Mensajes repartidos en {} shards", shards.size());
+        }
+    }
+
+    public boolean isEnabled() {
+        return !shards.isEmpty();
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    List<MessageShard> shards() {
+        return shards;
+    }
+
+    /**
+     * El shard de un chat: jump consistent hash (Lamping y Veach). Al pasar de n a
+     * n + 1 shards solo cambia de sitio 1/(n + 1) de los chats, y todos van al nuevo.
+     */
+    public static int shardOf(long chatId, int shardCount) {
+        long key = chatId;
+        long bucket = -1;
+        long next = 0;
+        while (next < shardCount) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    private MessageShard shardFor(Long chatId) {
+        return shards.get(shardOf(chatId, shards.size()));
+    }
+
+    /**
+     * El shard que creó un ID, donde suele seguir el mensaje; null si el ID no es de ningún shard actual.
+     */
+    private MessageShard shardHint(long id) {
+        int index = (int) Math.floorMod(id, (long) MessageShard.MAX_SHARDS);
+        return index < shards.size() ? shards.get(index) : null;
+    }
+
+    /**
+     * Guarda mensajes nuevos: un lote JDBC por shard, con IDs del contador de
+     * cada uno. Pone el ID a cada mensaje en el momento, pero las filas no se
+     * escriben hasta que confirma la transacción en curso (sin transacción, ya).
+     * Los remitentes que llegan sin nombre (por ejemplo por REST, solo con su ID)
+     * se buscan con una sola consulta.
+     */
+    public void saveAll(List<Message> messages) {
+        Map<Long, String> senderNames = senderNames(messages);
+        Map<MessageShard, List<Message>> perShard = new LinkedHashMap<>();
+        for (Message message : messages) {
+            perShard.computeIfAbsent(shardFor(message.getChat().getId()), k -> new ArrayList<>()).add(message);
+        }
+        List<ShardWrite> writes = new ArrayList<>(perShard.size());
+        perShard.forEach((shard, batch) -> {
+            List<Object[]> rows = new ArrayList<>(batch.size());
+            List<Long> ids = new ArrayList<>(batch.size());
+            for (Message message : batch) {
+                message.setId(shard.nextId());
+                ids.add(message.getId());
+                rows.add(new Object[]{message.getId(), message.getChat().getId(), message.getSender().getId(),
+                        senderNames.get(message.getSender().getId()), message.getContent(),
+                        Timestamp.valueOf(message.getSentAt()), message.getSeq()});
+            }
+            writes.add(() -> {
+                shard.insertAll(rows);
+                return () -> shard.deleteAll(ids);
+            });
+        });
+        write(writes);
+        logger.debug("Guardados {} mensajes en {} shards", messages.size(), perShard.size());
+    }
+
+    /**
+     * Una escritura en un shard, en su propia transacción local. Devuelve la que
+     * la deshace, por si luego falla la transacción principal.
+     */
+    private interface ShardWrite {
+        Runnable apply();
+    }
+
+    /**
+     * Hace las escrituras justo antes de que confirme la transacción en curso y las
+     * compensa si al final se deshace. Sin transacción las hace ya, compensando
+     * las de otros shards si falla una a medias.
+     */
+    private void write(List<ShardWrite> writes) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            List<Runnable> undo = new ArrayList<>(writes.size());
+            try {
+                applyAll(writes, undo);
+            } catch (RuntimeException e) {
+                compensate(undo);
+                throw e;
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private final List<Runnable> undo = new ArrayList<>(writes.size());
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                applyAll(writes, undo);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    compensate(undo);
+                } else if (status == STATUS_UNKNOWN && !undo.isEmpty()) {
+                    logger.error("No se sabe si la transacción confirmó: {} escrituras en shards sin comprobar",
+                            undo.size());
+                }
+            }
+        });
+    }
+
+    private static void applyAll(List<ShardWrite> writes, List<Runnable> undo) {
+        for (ShardWrite write : writes) {
+            undo.add(write.apply());
+        }
+    }
+
+    private static void compensate(List<Runnable> undo) {
+        for (Runnable step : undo.reversed()) {
+            try {
+                step.run();
+            } catch (RuntimeException e) {
+                logger.error("No se pudo deshacer una escritura en un shard: {}", e.getMessage(), e);
+            }
+        }
+        if (!undo.isEmpty()) {
+            logger.warn("Deshechas {} escrituras en shards de una transacción que no confirmó", undo.size());
+        }
+    }
+
+    private Map<Long, String> senderNames(List<Message> messages) {
+        Map<Long, String> names = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Message message : messages) {
+            User sender = message.getSender();
+            if (sender.getUsername() != null) {
+                names.put(sender.getId(), sender.getUsername());
+            } else {
+                missing.add(sender.getId());
+            }
+        }
+        if (!missing.isEmpty()) {
+            userRepository.findAllById(missing).forEach(user -> names.put(user.getId(), user.getUsername()));
+        }
+        return names;
+    }
+
+    /**
+     * Como {@link com.alex.chat.message.repo.MessageRepository#findHistoryPage}, en el shard del chat.
+     */
+    public List<MessageView> findHistoryPage(Long chatId, Long beforeId, int limit) {
+        return shardFor(chatId).jdbc().query(SELECT_VIEW + "WHERE chat_id = ? AND seq IS NULL AND id < ? "
+                + "ORDER BY id DESC LIMIT ?", VIEW_MAPPER, chatId, beforeId, limit);
+    }
+
+    /**
+     * Como {@link com.alex.chat.message.repo.MessageRepository#findLatestPage}, en el shard del chat.
+     */
+    public List<MessageView> findLatestPage(Long chatId, int limit) {
+        return shardFor(chatId).jdbc().query(SELECT_VIEW + "WHERE chat_id = ? ORDER BY seq DESC, id DESC LIMIT ?",
+                VIEW_MAPPER, chatId, limit);
+    }
+
+    /**
+     * Como {@link com.alex.chat.message.repo.MessageRepository#findHistoryPageBySeq}, en el shard del chat.
+     */
+    public List<MessageView> findHistoryPageBySeq(Long chatId, Long beforeSeq, int limit) {
+        return shardFor(chatId).jdbc().query(SELECT_VIEW + "WHERE chat_id = ? AND seq < ? ORDER BY seq DESC LIMIT ?",
+                VIEW_MAPPER, chatId, beforeSeq, limit);
+    }
+
+    /**
+     * Como {@link com.alex.chat.message.repo.MessageRepository#findViewsBySeqRange}, en el shard del chat.
+     */
+    public List<MessageView> findViewsBySeqRange(Long chatId, Long fromSeq, Long toSeq) {
+        return shardFor(chatId).jdbc().query(SELECT_VIEW + "WHERE chat_id = ? AND seq BETWEEN ? AND ? ORDER BY seq ASC",
+                VIEW_MAPPER, chatId, fromSeq, toSeq);
+    }
+
+    public Long findMaxSeq(Long chatId) {
+        return shardFor(chatId).jdbc().queryForObject("SELECT MAX(seq) FROM " + MessageShard.TABLE
+                + " WHERE chat_id = ?", Long.class, chatId);
+    }
+
+    /**
+     * Como {@link com.alex.chat.message.repo.MessageRepository#findViewsBetweenSeq}, en el shard del chat.
+     */
+    public List<MessageView> findViewsBetweenSeq(Long chatId, Long afterSeq, Long beforeSeq, int limit) {
+        return shardFor(chatId).jdbc().query(SELECT_VIEW + "WHERE chat_id = ? AND seq > ? AND seq < ? "
+                + "ORDER BY seq DESC LIMIT ?", VIEW_MAPPER, chatId, afterSeq, beforeSeq, limit);
+    }
+
+    /**
+     * Todo el historial de un chat en orden, leído por cursor. Hay que cerrarlo al acabar.
+     * Los mensajes sin secuencia (los más antiguos) salen primero: tanto H2 como
+     * MySQL ordenan los NULL por delante en orden ascendente.
+     */
+    public Stream<MessageView> streamHistory(Long chatId) {
+        return shardFor(chatId).jdbc().queryForStream(SELECT_VIEW + "WHERE chat_id = ? ORDER BY seq ASC, id ASC",
+                VIEW_MAPPER, chatId);
+    }
+
+    /**
+     * Mensajes de otros usuarios posteriores a la secuencia {@code lastReadSeq} en un chat.
+     */
+    public long countUnreadMessages(Long chatId, Long userId, long lastReadSeq) {
+        Long count = shardFor(chatId).jdbc().queryForObject("SELECT COUNT(*) FROM " + MessageShard.TABLE
+                + " WHERE chat_id = ? AND sender_id <> ? AND seq > ?", Long.class, chatId, userId, lastReadSeq);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * No leídos de varios chats de un usuario: una consulta agregada por shard con
+     * los chats que viven en él. Los chats sin mensajes nuevos salen con 0.
+     *
+     * @param lastReadByChat secuencia de la marca de lectura del usuario en cada chat (0 si no tiene)
+     */
+    public List<UnreadCount> countUnreadByChat(Long userId, Map<Long, Long> lastReadByChat) {
+        Map<Long, Long> counts = new LinkedHashMap<>();
+        lastReadByChat.keySet().forEach(chatId -> counts.put(chatId, 0L));
+        groupByShard(lastReadByChat.keySet()).forEach((shard, chatIds) -> {
+            // Un rango del índice (chat_id, seq) por chat
+            List<Object> args = new ArrayList<>();
+            args.add(userId);
+            for (Long chatId : chatIds) {
+                args.add(chatId);
+                args.add(lastReadByChat.get(chatId));
+            }
+            String ranges = String.join(" OR ", Collections.nCopies(chatIds.size(), "(chat_id = ? AND seq > ?)"));
+            shard.jdbc().query("SELECT chat_id, COUNT(*) FROM " + MessageShard.TABLE
+                            + " WHERE sender_id <> ? AND (" + ranges + ") GROUP BY chat_id",
+                    rs -> {
+                        counts.put(rs.getLong(1), rs.getLong(2));
+                    }, args.toArray());
+        });
+        return counts.entrySet().stream().map(entry -> new UnreadCount(entry.getKey(), entry.getValue())).toList();
+    }
+
+    /**
+     * El último mensaje de cada chat (el de secuencia más alta), con una consulta
+     * por shard. Los chats que solo tienen mensajes anteriores a las secuencias
+     * necesitan una segunda consulta, por ID.
+     */
+    public Map<Long, MessageView> findLastMessages(Collection<Long> chatIds) {
+        Map<Long, MessageView> last = new HashMap<>();
+        groupByShard(chatIds).forEach((shard, ids) -> {
+            String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+            shard.jdbc().query(SELECT_VIEW + "WHERE (chat_id, seq) IN (SELECT chat_id, MAX(seq) FROM "
+                    + MessageShard.TABLE + " WHERE chat_id IN (" + placeholders + ") GROUP BY chat_id)",
+                    VIEW_MAPPER, ids.toArray())
+                    .forEach(view -> last.putIfAbsent(view.chatId(), view));
+            List<Long> unsequenced = ids.stream().filter(chatId -> !last.containsKey(chatId)).toList();
+            if (!unsequenced.isEmpty()) {
+                shard.jdbc().query(SELECT_VIEW + "WHERE id IN (SELECT MAX(id) FROM " + MessageShard.TABLE
+                        + " WHERE chat_id IN (" + String.join(", ", Collections.nCopies(unsequenced.size(), "?"))
+                        + ") GROUP BY chat_id)", VIEW_MAPPER, unsequenced.toArray())
+                        .forEach(view -> last.put(view.chatId(), view));
+            }
+        });
+        return last;
+    }
+
+    private Map<MessageShard, List<Long>> groupByShard(Collection<Long> chatIds) {
+        Map<MessageShard, List<Long>> perShard = new LinkedHashMap<>();
+        for (Long chatId : chatIds) {
+            perShard.computeIfAbsent(shardFor(chatId), k -> new ArrayList<>()).add(chatId);
+        }
+        return perShard;
+    }
+
+    /**
+     * Administración: todos los mensajes de todos los shards, por ID.
+     */
+    public List<MessageView> findAllViews() {
+        List<MessageView> all = new ArrayList<>();
+        shards.forEach(shard -> all.addAll(shard.jdbc().query(SELECT_VIEW + "ORDER BY id", VIEW_MAPPER)));
+        all.sort(Comparator.comparing(MessageView::id));
+        return all;
+    }
+
+    /**
+     * Administración: un mensaje por ID. Se busca primero en el shard que lo creó.
+     */
+    public Optional<MessageView> findViewById(Long id) {
+        List<MessageView> found = findViewsByIdIn(List.of(id));
+        return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+    }
+
+    /**
+     * Varios mensajes por ID: una consulta por shard que los creó y, para los que
+     * no estén ahí (porque se movieron al redistribuir), una ronda por los demás.
+     */
+    public List<MessageView> findViewsByIdIn(Collection<Long> ids) {
+        Map<MessageShard, List<Long>> perShard = new LinkedHashMap<>();
+        for (Long id : ids) {
+            MessageShard hint = shardHint(id);
+            if (hint != null) {
+                perShard.computeIfAbsent(hint, k -> new ArrayList<>()).add(id);
+            }
+        }
+        List<MessageView> found = new ArrayList<>(ids.size());
+        perShard.forEach((shard, shardIds) -> found.addAll(findByIds(shard, shardIds)));
+        if (found.size() < ids.size()) {
+            Set<Long> missing = new HashSet<>(ids);
+            found.forEach(view -> missing.remove(view.id()));
+            for (MessageShard shard : shards) {
+                if (missing.isEmpty()) {
+                    break;
+                }
+                List<Long> pending = missing.stream().filter(id -> shardHint(id) != shard).toList();
+                if (!pending.isEmpty()) {
+                    List<MessageView> moved = findByIds(shard, pending);
+                    moved.forEach(view -> missing.remove(view.id()));
+                    found.addAll(moved);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static List<MessageView> findByIds(MessageShard shard, List<Long> ids) {
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        return shard.jdbc().query(SELECT_VIEW + "WHERE id IN (" + placeholders + ")", VIEW_MAPPER, ids.toArray());
+    }
+
+    /**
+     * Administración: los mensajes posteriores a {@code afterId} de todos los shards,
+     * en orden. Sirve para recorrerlos todos por keyset (por ejemplo, al reconstruir
+     * el índice de búsqueda).
+     */
+    public List<MessageView> findViewsAfter(Long afterId, int limit) {
+        List<MessageView> merged = new ArrayList<>();
+        shards.forEach(shard -> merged.addAll(shard.jdbc().query(SELECT_VIEW + "WHERE id > ? ORDER BY id LIMIT ?",
+                VIEW_MAPPER, afterId, limit)));
+        merged.sort(Comparator.comparing(MessageView::id));
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    /**
+     * Administración: como {@link #findViewsAfter}, pero solo los IDs.
+     */
+    public List<Long> findIdsAfter(Long afterId, int limit) {
+        List<Long> merged = new ArrayList<>();
+        shards.forEach(shard -> merged.addAll(shard.jdbc().queryForList(
+                "SELECT id FROM " + MessageShard.TABLE + " WHERE id > ? ORDER BY id LIMIT ?", Long.class, afterId, limit)));
+        Collections.sort(merged);
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    /**
+     * Administración: borra un mensaje por ID, buscándolo primero en el shard que
+     * lo creó. Como al guardar, se borra al confirmar la transacción en curso.
+     *
+     * @return el chat del mensaje borrado, o vacío si no existía
+     */
+    public Optional<Long> deleteById(Long id) {
+        return findViewById(id).map(view -> {
+            MessageShard shard = shardFor(view.chatId());
+            write(List.of(() -> {
+                List<Object[]> deleted = shard.deleteAll(List.of(id));
+                return () -> shard.insertAll(deleted);
+            }));
+            return view.chatId();
+        });
+    }
+
+    /**
+     * Cierra los pools de todos los shards. Spring lo llama al destruir el bean,
+     * después de parar los componentes (el escritor write-behind vacía su cola antes).
+     */
+    @Override
+    public void close() {
+        shards.forEach(MessageShard::close);
+    }
+}
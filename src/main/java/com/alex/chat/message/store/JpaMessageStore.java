@@ -0,0 +1,142 @@
+package com.alex.chat.message.store;
+
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.InboxEntry;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.repo.MessageRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.Limit;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Los mensajes en la tabla {@code messages} de la base de datos principal, con
+ * {@link MessageRepository}. Todo va en la transacción de JPA de quien llama.
+ */
+public class JpaMessageStore implements MessageStore {
+
+    private final MessageRepository messageRepository;
+    private final ChatRepository chatRepository;
+    private final EntityManager entityManager;
+    private final int jdbcBatchSize;
+
+    public JpaMessageStore(MessageRepository messageRepository, ChatRepository chatRepository,
+                           EntityManager entityManager, int jdbcBatchSize) {
+        this.messageRepository = messageRepository;
+        this.chatRepository = chatRepository;
+        this.entityManager = entityManager;
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * Con IDs de secuencia Hibernate agrupa los INSERT en lotes JDBC; cada
+     * {@code jdbcBatchSize} mensajes hago flush y limpio el contexto de persistencia
+     * para que no crezca sin límite en importaciones grandes.
+     */
+    @Override
+    public void saveAll(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            entityManager.persist(messages.get(i));
+            if ((i + 1) % jdbcBatchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+    }
+
+    @Override
+    public Optional<Long> deleteById(Long id) {
+        return messageRepository.findById(id).map(message -> {
+            messageRepository.delete(message);
+            return message.getChat().getId();
+        });
+    }
+
+    @Override
+    public List<MessageView> findAllViews() {
+        return messageRepository.findAllViews();
+    }
+
+    @Override
+    public Optional<MessageView> findViewById(Long id) {
+        return messageRepository.findViewById(id);
+    }
+
+    @Override
+    public List<MessageView> findViewsByIdIn(Collection<Long> ids) {
+        return messageRepository.findViewsByIdIn(ids);
+    }
+
+    @Override
+    public List<MessageView> findViewsAfter(Long afterId, int limit) {
+        return messageRepository.findViewsAfter(afterId, Limit.of(limit));
+    }
+
+    @Override
+    public List<Long> findIdsAfter(Long afterId, int limit) {
+        return messageRepository.findIdsAfter(afterId, Limit.of(limit));
+    }
+
+    @Override
+    public List<MessageView> findLatestPage(Long chatId, int limit) {
+        return messageRepository.findLatestPage(chatId, Limit.of(limit));
+    }
+
+    @Override
+    public List<MessageView> findHistoryPage(Long chatId, Long beforeId, int limit) {
+        return messageRepository.findHistoryPage(chatId, beforeId, Limit.of(limit));
+    }
+
+    @Override
+    public List<MessageView> findHistoryPageBySeq(Long chatId, Long beforeSeq, int limit) {
+        return messageRepository.findHistoryPageBySeq(chatId, beforeSeq, Limit.of(limit));
+    }
+
+    @Override
+    public List<MessageView> findViewsBySeqRange(Long chatId, Long fromSeq, Long toSeq) {
+        return messageRepository.findViewsBySeqRange(chatId, fromSeq, toSeq);
+    }
+
+    @Override
+    public List<MessageView> findViewsBetweenSeq(Long chatId, Long afterSeq, Long beforeSeq, int limit) {
+        return messageRepository.findViewsBetweenSeq(chatId, afterSeq, beforeSeq, Limit.of(limit));
+    }
+
+    @Override
+    public Long findMaxSeq(Long chatId) {
+        return messageRepository.findMaxSeq(chatId);
+    }
+
+    @Override
+    public Stream<MessageView> streamHistory(Long chatId) {
+        return messageRepository.streamHistory(chatId);
+    }
+
+    @Override
+    public long countUnreadMessages(Long chatId, Long userId, long lastReadSeq) {
+        Long count = messageRepository.countUnreadMessages(chatId, userId, lastReadSeq);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Una sola consulta agregada: las marcas de lectura están en la misma base de datos.
+     */
+    @Override
+    public List<UnreadCount> countUnreadByChat(Long userId) {
+        return messageRepository.countUnreadByChat(userId);
+    }
+
+    /**
+     * Una sola consulta, con {@link ChatRepository#findInbox}.
+     */
+    @Override
+    public List<InboxEntry> findInbox(Long userId) {
+        return chatRepository.findInbox(userId);
+    }
+}
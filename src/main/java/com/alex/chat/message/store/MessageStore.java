@@ -0,0 +1,111 @@
+package com.alex.chat.message.store;
+
+import com.alex.chat.dto.InboxEntry;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.entity.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Dónde viven los mensajes: la tabla {@code messages} de la base de datos principal
+ * ({@link JpaMessageStore}) o los shards de {@code chat.sharding.urls}
+ * ({@link ShardedMessageStore}). Se elige una vez al arrancar
+ * ({@link MessageStoreConfig}) y los servicios solo ven esta interfaz.
+ * <p>
+ * Las lecturas devuelven vistas ligeras ({@link MessageView}), nunca entidades.
+ * Las páginas van del mensaje más nuevo al más antiguo salvo que se diga otra cosa.
+ */
+public interface MessageStore {
+
+    /**
+     * Guarda mensajes nuevos y les pone el ID. Si hay una transacción en curso,
+     * los mensajes se confirman o se descartan con ella.
+     */
+    void saveAll(List<Message> messages);
+
+    /**
+     * Borra un mensaje por ID, con la transacción en curso si la hay.
+     *
+     * @return el chat del mensaje borrado, o vacío si no existía
+     */
+    Optional<Long> deleteById(Long id);
+
+    /**
+     * Administración: todos los mensajes, por ID.
+     */
+    List<MessageView> findAllViews();
+
+    Optional<MessageView> findViewById(Long id);
+
+    List<MessageView> findViewsByIdIn(Collection<Long> ids);
+
+    /**
+     * Los mensajes posteriores a {@code afterId}, en orden de ID: para recorrerlos
+     * todos por keyset.
+     */
+    List<MessageView> findViewsAfter(Long afterId, int limit);
+
+    /**
+     * Como {@link #findViewsAfter}, pero solo los IDs.
+     */
+    List<Long> findIdsAfter(Long afterId, int limit);
+
+    /**
+     * Los mensajes más recientes de un chat: por secuencia y, detrás, los
+     * anteriores a las secuencias por ID.
+     */
+    List<MessageView> findLatestPage(Long chatId, int limit);
+
+    /**
+     * Página de los mensajes anteriores a las secuencias con ID menor que {@code beforeId}.
+     */
+    List<MessageView> findHistoryPage(Long chatId, Long beforeId, int limit);
+
+    /**
+     * Página de los mensajes con secuencia menor que {@code beforeSeq}.
+     */
+    List<MessageView> findHistoryPageBySeq(Long chatId, Long beforeSeq, int limit);
+
+    /**
+     * Los mensajes con secuencia entre {@code fromSeq} y {@code toSeq} (incluidos), en orden ascendente.
+     */
+    List<MessageView> findViewsBySeqRange(Long chatId, Long fromSeq, Long toSeq);
+
+    /**
+     * Los mensajes con secuencia entre {@code afterSeq} y {@code beforeSeq} (excluidos).
+     */
+    List<MessageView> findViewsBetweenSeq(Long chatId, Long afterSeq, Long beforeSeq, int limit);
+
+    /**
+     * La secuencia más alta guardada en un chat, o null si no tiene mensajes con secuencia.
+     */
+    Long findMaxSeq(Long chatId);
+
+    /**
+     * Todo el historial de un chat en orden cronológico, leído por cursor. Hay que
+     * consumirlo dentro de una transacción y cerrarlo al acabar.
+     */
+    Stream<MessageView> streamHistory(Long chatId);
+
+    /**
+     * Mensajes de otros usuarios con secuencia mayor que {@code lastReadSeq}.
+     */
+    long countUnreadMessages(Long chatId, Long userId, long lastReadSeq);
+
+    /**
+     * No leídos de todos los chats de un usuario según sus marcas de lectura;
+     * los chats sin mensajes nuevos salen con 0.
+     */
+    List<UnreadCount> countUnreadByChat(Long userId);
+
+    /**
+     * Los chats de un usuario con su último mensaje, del más reciente al más
+     * antiguo (ver {@link com.alex.chat.chat.repo.ChatRepository#findInbox}). Sin
+     * los no leídos: esos salen de los contadores de Redis.
+     */
+    List<InboxEntry> findInbox(Long userId);
+}
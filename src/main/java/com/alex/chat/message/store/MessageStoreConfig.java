@@ -0,0 +1,31 @@
+package com.alex.chat.message.store;
+
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.message.repo.MessageRepository;
+import com.alex.chat.message.shard.ShardedMessageRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Elige al arrancar dónde se guardan los mensajes: con {@code chat.sharding.enabled}
+ * en los shards, si no en la tabla {@code messages}. Nadie más pregunta por el sharding.
+ */
+@Configuration
+public class MessageStoreConfig {
+
+    @Bean
+    public MessageStore messageStore(ShardedMessageRepository shards,
+                                     MessageRepository messageRepository,
+                                     ChatRepository chatRepository,
+                                     ChatReadStateRepository readStateRepository,
+                                     EntityManager entityManager,
+                                     @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:30}") int jdbcBatchSize) {
+        if (shards.isEnabled()) {
+            return new ShardedMessageStore(shards, chatRepository, readStateRepository);
+        }
+        return new JpaMessageStore(messageRepository, chatRepository, entityManager, jdbcBatchSize);
+    }
+}
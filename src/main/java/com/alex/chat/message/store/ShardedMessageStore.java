@@ -0,0 +1,152 @@
+package com.alex.chat.message.store;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.ChatSummary;
+import com.alex.chat.dto.InboxEntry;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.shard.ShardedMessageRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Los mensajes repartidos en shards ({@link ShardedMessageRepository}). Lo que
+ * cruza mensajes con chats o marcas de lectura, que siguen en la base de datos
+ * principal, se parte en dos: primero la principal y luego una consulta por shard.
+ */
+public class ShardedMessageStore implements MessageStore {
+
+    private final ShardedMessageRepository shards;
+    private final ChatRepository chatRepository;
+    private final ChatReadStateRepository readStateRepository;
+
+    public ShardedMessageStore(ShardedMessageRepository shards, ChatRepository chatRepository,
+                               ChatReadStateRepository readStateRepository) {
+        this.shards = shards;
+        this.chatRepository = chatRepository;
+        this.readStateRepository = readStateRepository;
+    }
+
+    @Override
+    public void saveAll(List<Message> messages) {
+        shards.saveAll(messages);
+    }
+
+    @Override
+    public Optional<Long> deleteById(Long id) {
+        return shards.deleteById(id);
+    }
+
+    @Override
+    public List<MessageView> findAllViews() {
+        return shards.findAllViews();
+    }
+
+    @Override
+    public Optional<MessageView> findViewById(Long id) {
+        return shards.findViewById(id);
+    }
+
+    @Override
+    public List<MessageView> findViewsByIdIn(Collection<Long> ids) {
+        return shards.findViewsByIdIn(ids);
+    }
+
+    @Override
+    public List<MessageView> findViewsAfter(Long afterId, int limit) {
+        return shards.findViewsAfter(afterId, limit);
+    }
+
+    @Override
+    public List<Long> findIdsAfter(Long afterId, int limit) {
+        return shards.findIdsAfter(afterId, limit);
+    }
+
+    @Override
+    public List<MessageView> findLatestPage(Long chatId, int limit) {
+        return shards.findLatestPage(chatId, limit);
+    }
+
+    @Override
+    public List<MessageView> findHistoryPage(Long chatId, Long beforeId, int limit) {
+        return shards.findHistoryPage(chatId, beforeId, limit);
+    }
+
+    @Override
+    public List<MessageView> findHistoryPageBySeq(Long chatId, Long beforeSeq, int limit) {
+        return shards.findHistoryPageBySeq(chatId, beforeSeq, limit);
+    }
+
+    @Override
+    public List<MessageView> findViewsBySeqRange(Long chatId, Long fromSeq, Long toSeq) {
+        return shards.findViewsBySeqRange(chatId, fromSeq, toSeq);
+    }
+
+    @Override
+    public List<MessageView> findViewsBetweenSeq(Long chatId, Long afterSeq, Long beforeSeq, int limit) {
+        return shards.findViewsBetweenSeq(chatId, afterSeq, beforeSeq, limit);
+    }
+
+    @Override
+    public Long findMaxSeq(Long chatId) {
+        return shards.findMaxSeq(chatId);
+    }
+
+    @Override
+    public Stream<MessageView> streamHistory(Long chatId) {
+        return shards.streamHistory(chatId);
+    }
+
+    @Override
+    public long countUnreadMessages(Long chatId, Long userId, long lastReadSeq) {
+        return shards.countUnreadMessages(chatId, userId, lastReadSeq);
+    }
+
+    /**
+     * Las marcas de lectura salen de la principal y luego va una consulta agregada
+     * por shard con los chats que viven en él.
+     */
+    @Override
+    public List<UnreadCount> countUnreadByChat(Long userId) {
+        Map<Long, Long> lastRead = new LinkedHashMap<>();
+        chatRepository.findIdsByParticipantId(userId).forEach(chatId -> lastRead.put(chatId, 0L));
+        for (ChatReadState state : readStateRepository.findByUserId(userId)) {
+            lastRead.computeIfPresent(state.getChatId(), (chatId, zero) -> state.getLastReadSeq());
+        }
+        return shards.countUnreadByChat(userId, lastRead);
+    }
+
+    /**
+     * Lo mismo que {@link ChatRepository#findInbox} montado a mano: la actividad de
+     * cada chat es la de su último mensaje o, si está vacío, la del propio chat.
+     */
+    @Override
+    public List<InboxEntry> findInbox(Long userId) {
+        List<ChatSummary> chats = chatRepository.findSummariesByParticipantId(userId);
+        Map<Long, MessageView> last = shards.findLastMessages(chats.stream().map(ChatSummary::id).toList());
+        return chats.stream()
+                .map(chat -> {
+                    MessageView message = last.get(chat.id());
+                    if (message == null) {
+                        return new InboxEntry(chat.id(), chat.name(), chat.groupChat(), chat.lastActivity(),
+                                null, null, null, null);
+                    }
+                    String preview = message.content().length() > 100 ? message.content().substring(0, 100) : message.content();
+                    return new InboxEntry(chat.id(), chat.name(), chat.groupChat(), message.sentAt(),
+                            message.id(), message.sender(), preview, message.sentAt());
+                })
+                .sorted(Comparator.comparing(InboxEntry::lastActivity,
+                        Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder())))
+                .toList();
+    }
+}
@@ -1,5 +1,6 @@
 package com.alex.chat.security.jwt;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -14,6 +15,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Optional;
 
 /**
  * Filtro que intercepta todas las peticiones HTTP y verifica
@@ -39,8 +41,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             if (authHeader != null && authHeader.startsWith("Bearer ")) {
                 String token = authHeader.substring(7);
 
-                if (jwtUtil.validateToken(token)) {
-                    String username = jwtUtil.extractUsername(token);
+                Optional<Claims> claims = jwtUtil.validateAndGetClaims(token);
+                if (claims.isPresent()) {
+                    String username = claims.get().getSubject();
 
                     // Crear autenticación y establecerla en el contexto de seguridad
                     UsernamePasswordAuthenticationToken authentication =
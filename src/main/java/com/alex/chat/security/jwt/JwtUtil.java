@@ -4,24 +4,44 @@ import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.security.Key;
 import java.util.Date;
+import java.util.Optional;
 
 /**
  * Utilidad para trabajar con tokens JWT.
  * Se encarga de generar, validar y extraer información de los tokens.
+ * El parser se construye una sola vez (es inmutable y thread-safe) y los tokens
+ * ya verificados se guardan en una caché acotada para no repetir la firma HMAC.
  */
 @Component
 public class JwtUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtUtil.class);
 
-    private final Key key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+    private final Key key;
+    private final JwtParser parser;
+    private final VerifiedTokenCache verifiedTokens;
     private final long EXPIRATION_TIME = 1000 * 60 * 60; // 1 hora
 
+    @Autowired
+    public JwtUtil(@Value("${chat.jwt.cache.max-size:10000}") int cacheMaxSize,
+                   @Value("${chat.jwt.cache.ttl-ms:300000}") long cacheTtlMs) {
+        this(Keys.secretKeyFor(SignatureAlgorithm.HS256), cacheMaxSize, cacheTtlMs);
+    }
+
+    JwtUtil(Key key, int cacheMaxSize, long cacheTtlMs) {
+        this.key = key;
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(key)
+                .build();
+        this.verifiedTokens = new VerifiedTokenCache(cacheMaxSize, cacheTtlMs);
+    }
+
     /**
      * Genera un token JWT para el usuario especificado.
      *
@@ -37,6 +57,33 @@ public class JwtUtil {
                 .compact();
     }
 
+    /**
+     * Valida el token y devuelve sus claims en una sola pasada.
+     * Si el token ya se verificó hace poco y no ha caducado, sale de la caché
+     * sin volver a comprobar la firma.
+     *
+     * @param token Token JWT a validar
+     * @return Los claims si el token es válido, vacío en caso contrario
+     */
+    public Optional<Claims> validateAndGetClaims(String token) {
+        if (verifiedTokens.isRevoked(token)) {
+            logger.debug("Token JWT revocado");
+            return Optional.empty();
+        }
+        Claims cached = verifiedTokens.get(token);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        try {
+            Claims claims = parser.parseClaimsJws(token).getBody();
+            verifiedTokens.put(token, claims);
+            return Optional.of(claims);
+        } catch (JwtException | IllegalArgumentException e) {
+            logger.error("Token JWT inválido: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
     /**
      * Extrae el nombre de usuario del token JWT.
      *
@@ -44,14 +91,35 @@ public class JwtUtil {
      * @return Nombre de usuario extraído
      */
     public String extractUsername(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
+        if (verifiedTokens.isRevoked(token)) {
+            throw new JwtException("Token revocado");
+        }
+        Claims cached = verifiedTokens.get(token);
+        if (cached != null) {
+            return cached.getSubject();
+        }
+        return parser.parseClaimsJws(token)
                 .getBody()
                 .getSubject();
     }
 
+    /**
+     * Revoca un token válido hasta que caduque (cierre de sesión). Los tokens
+     * inválidos se ignoran: nadie los iba a aceptar igualmente.
+     *
+     * @param token Token JWT a revocar
+     * @return true si el token era válido y queda revocado
+     */
+    public boolean revokeToken(String token) {
+        Optional<Claims> claims = validateAndGetClaims(token);
+        if (claims.isEmpty()) {
+            return false;
+        }
+        Date expiration = claims.get().getExpiration();
+        verifiedTokens.revoke(token, expiration != null ? expiration.getTime() : Long.MAX_VALUE);
+        return true;
+    }
+
     /**
      * Valida si un token JWT es válido.
      *
@@ -59,15 +127,6 @@ public class JwtUtil {
      * @return true si el token es válido, false en caso contrario
      */
     public boolean validateToken(String token) {
-        try {
-            Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token);
-            return true;
-        } catch (JwtException e) {
-            logger.error("Token JWT inválido: {}", e.getMessage());
-            return false;
-        }
+        return validateAndGetClaims(token).isPresent();
     }
 }
@@ -0,0 +1,132 @@
+package com.alex.chat.security.jwt;
+
+import io.jsonwebtoken.Claims;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Caché acotada de tokens JWT que ya pasaron la verificación de firma.
+ * Los clientes que mandan el mismo token en cada petición se ahorran el HMAC.
+ * Cada entrada caduca cuando caduca el token o tras {@code ttlMillis}, lo que
+ * llegue antes; la clave es el token completo, firma incluida.
+ * <p>
+ * También lleva la lista de tokens revocados (al cerrar sesión), que se guardan
+ * hasta que caducan: un token revocado no se sirve de la caché ni vuelve a
+ * entrar en ella. La lista es de este nodo; los demás lo siguen aceptando hasta
+ * que caduque o salga de su caché.
+ */
+class VerifiedTokenCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    VerifiedTokenCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::currentTimeMillis);
+    }
+
+    VerifiedTokenCache(int maxSize, long ttlMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Devuelve los claims de un token verificado antes, o null si no está o ya caducó.
+     */
+    Claims get(String token) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            entries.remove(token, entry);
+            return null;
+        }
+        return entry.claims;
+    }
+
+    /**
+     * Guarda los claims de un token recién verificado.
+     */
+    void put(String token, Claims claims) {
+        if (maxSize <= 0 || isRevoked(token)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long expiresAt = now + ttlMillis;
+        Date expiration = claims.getExpiration();
+        if (expiration != null) {
+            expiresAt = Math.min(expiresAt, expiration.getTime());
+        }
+        if (expiresAt <= now) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            evict(now);
+        }
+        entries.put(token, new Entry(claims, expiresAt));
+    }
+
+    /**
+     * Revoca un token hasta {@code expiresAt}, su caducidad: a partir de ahí ya no
+     * lo aceptaría nadie. Se quita de la caché y se aprovecha para olvidar los
+     * revocados que ya caducaron.
+     */
+    void revoke(String token, long expiresAt) {
+        long now = clock.getAsLong();
+        revoked.values().removeIf(until -> until <= now);
+        if (expiresAt > now) {
+            revoked.put(token, expiresAt);
+        }
+        entries.remove(token);
+    }
+
+    /**
+     * Si el token se revocó y todavía no ha caducado.
+     */
+    boolean isRevoked(String token) {
+        Long until = revoked.get(token);
+        if (until == null) {
+            return false;
+        }
+        if (until <= clock.getAsLong()) {
+            revoked.remove(token, until);
+            return false;
+        }
+        return true;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Primero quita las entradas caducadas; si no basta, libera una décima parte
+     * de la caché en orden de iteración para no pagar una ordenación LRU en cada put.
+     */
+    private void evict(long now) {
+        entries.values().removeIf(entry -> entry.expiresAt <= now);
+        if (entries.size() < maxSize) {
+            return;
+        }
+        int toRemove = Math.max(1, maxSize / 10);
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private record Entry(Claims claims, long expiresAt) {
+    }
+}
@@ -0,0 +1,60 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.repo.ChatRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Quién puede escribir y leer en cada chat: solo sus participantes.
+ * Se pregunta en cada mensaje que llega por WebSocket, así que las respuestas se
+ * guardan en memoria: los síes un rato largo y los noes solo unos segundos, para
+ * que alguien que insiste en un chat ajeno no llegue a la base de datos en cada
+ * intento pero quien acaba de entrar en un chat pueda escribir enseguida.
+ */
+@Service
+public class ChatAccessService {
+
+    private final ChatRepository chatRepository;
+
+    private final Cache<Membership, Boolean> members = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    private final Cache<Membership, Boolean> nonMembers = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(Duration.ofSeconds(5))
+            .build();
+
+    public ChatAccessService(ChatRepository chatRepository) {
+        this.chatRepository = chatRepository;
+    }
+
+    /**
+     * Si el usuario participa en el chat. Un chat que no existe no tiene participantes.
+     */
+    public boolean isParticipant(Long chatId, String username) {
+        if (chatId == null || username == null) {
+            return false;
+        }
+        Membership membership = new Membership(chatId, username);
+        if (members.getIfPresent(membership) != null) {
+            return true;
+        }
+        if (nonMembers.getIfPresent(membership) != null) {
+            return false;
+        }
+        if (chatRepository.isParticipant(chatId, username)) {
+            members.put(membership, Boolean.TRUE);
+            return true;
+        }
+        nonMembers.put(membership, Boolean.TRUE);
+        return false;
+    }
+
+    private record Membership(Long chatId, String username) {
+    }
+}
@@ -1,6 +1,7 @@
 package com.alex.chat.service;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
@@ -8,8 +9,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Servicio para gestionar métricas de chat en tiempo real.
@@ -26,6 +31,25 @@ public class ChatMetricsService {
     private final AtomicInteger connectedUsers;
     private final Timer messageProcessingTimer;
     private final ConcurrentHashMap<String, AtomicInteger> activeUsersPerRoom;
+    private final MeterRegistry meterRegistry;
+    private final Counter writeBehindPersistedCounter;
+    private final Counter writeBehindDroppedCounter;
+    private final Counter writeBehindFailedCounter;
+    private final Counter writeBehindRetryCounter;
+    private final DistributionSummary writeBehindBatchSize;
+    private final Counter redisPublishDroppedCounter;
+    private final Counter redisPublishFailedCounter;
+    private final DistributionSummary redisPublishBatchSize;
+    private final Counter redisStreamFailedCounter;
+    private final Counter sequenceFailedCounter;
+    private final Timer virtualThreadPinnedTimer;
+    private final Counter brokerFramesEncodedCounter;
+    private final Counter brokerDeliveriesCounter;
+    private final Counter slowSessionDisconnectedCounter;
+    private final DistributionSummary webSocketBatchSize;
+    private final Map<String, Counter> typingEventCounters;
+    private final DistributionSummary readReceiptBatchSize;
+    private final Timer searchQueryTimer;
 
     /**
      * Constructor que inicializa los medidores y contadores.
@@ -59,6 +83,74 @@ public class ChatMetricsService {
 
         // Mapa para seguir usuarios por sala
         this.activeUsersPerRoom = new ConcurrentHashMap<>();
+
+        // Persistencia write-behind
+        this.meterRegistry = meterRegistry;
+        this.writeBehindPersistedCounter = Counter.builder("chat.persistence.writebehind.persisted")
+                .description("Mensajes guardados por el escritor write-behind")
+                .register(meterRegistry);
+        this.writeBehindDroppedCounter = Counter.builder("chat.persistence.writebehind.dropped")
+                .description("Mensajes descartados por cola de persistencia llena")
+                .register(meterRegistry);
+        this.writeBehindFailedCounter = Counter.builder("chat.persistence.writebehind.failed")
+                .description("Mensajes perdidos por errores al guardar el lote")
+                .register(meterRegistry);
+        this.writeBehindRetryCounter = Counter.builder("chat.persistence.writebehind.retries")
+                .description("Lotes que se reintentaron tras un error al guardarlos")
+                .register(meterRegistry);
+        this.writeBehindBatchSize = DistributionSummary.builder("chat.persistence.writebehind.batch.size")
+                .description("Tamaño de los lotes guardados por el escritor write-behind")
+                .register(meterRegistry);
+
+        // Publicación por lotes en Redis
+        this.redisPublishDroppedCounter = Counter.builder("chat.redis.publish.dropped")
+                .description("Mensajes descartados por cola de publicación en Redis llena")
+                .register(meterRegistry);
+        this.redisPublishFailedCounter = Counter.builder("chat.redis.publish.failed")
+                .description("Mensajes perdidos por errores al publicar el lote en Redis")
+                .register(meterRegistry);
+        this.redisPublishBatchSize = DistributionSummary.builder("chat.redis.publish.batch.size")
+                .description("Mensajes publicados en Redis por pipeline")
+                .register(meterRegistry);
+        this.redisStreamFailedCounter = Counter.builder("chat.redis.stream.append.failed")
+                .description("Mensajes que no se pudieron añadir al stream de su sala")
+                .register(meterRegistry);
+        this.sequenceFailedCounter = Counter.builder("chat.sequence.failed")
+                .description("Mensajes que se quedaron sin número de secuencia por fallos de Redis")
+                .register(meterRegistry);
+        this.virtualThreadPinnedTimer = Timer.builder("chat.threads.virtual.pinned")
+                .description("Tiempo que un hilo virtual quedó anclado a su hilo portador")
+                .register(meterRegistry);
+        this.brokerFramesEncodedCounter = Counter.builder("chat.broker.frames.encoded")
+                .description("Frames STOMP serializados por el broker indexado")
+                .register(meterRegistry);
+        this.brokerDeliveriesCounter = Counter.builder("chat.broker.deliveries")
+                .description("Entregas a sesiones hechas por el broker indexado")
+                .register(meterRegistry);
+        this.slowSessionDisconnectedCounter = Counter.builder("chat.websocket.outbound.slow.disconnects")
+                .description("Sesiones cerradas por superar los límites de su cola de salida")
+                .register(meterRegistry);
+        this.webSocketBatchSize = DistributionSummary.builder("chat.websocket.batch.size")
+                .description("Mensajes por frame en las salas con entrega en lotes")
+                .register(meterRegistry);
+        this.readReceiptBatchSize = DistributionSummary.builder("chat.read-receipts.batch.size")
+                .description("Confirmaciones de lectura guardadas en cada lote")
+                .register(meterRegistry);
+        this.searchQueryTimer = Timer.builder("chat.search.query.time")
+                .description("Tiempo de cada búsqueda en el índice de mensajes")
+                .register(meterRegistry);
+        // Se registran de antemano: se cuentan en cada pulsación de tecla
+        this.typingEventCounters = Map.of(
+                "fanout", typingEventCounter(meterRegistry, "fanout"),
+                "deduplicated", typingEventCounter(meterRegistry, "deduplicated"),
+                "rate_limited", typingEventCounter(meterRegistry, "rate_limited"));
+    }
+
+    private static Counter typingEventCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("chat.typing.events")
+                .description("Avisos de escritura recibidos según lo que se hizo con ellos")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
     }
 
     /**
@@ -124,4 +216,235 @@ public class ChatMetricsService {
     public Timer.Sample startMessageProcessingTimer() {
         return Timer.start();
     }
+
+    /**
+     * Expone como medidor la profundidad de la cola de persistencia.
+     */
+    public void registerWriteBehindQueue(Collection<?> queue) {
+        Gauge.builder("chat.persistence.writebehind.queue.size", queue, Collection::size)
+                .description("Mensajes pendientes de guardar en base de datos")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra un lote guardado por el escritor write-behind.
+     */
+    public void recordWriteBehindFlush(int persisted) {
+        writeBehindPersistedCounter.increment(persisted);
+        writeBehindBatchSize.record(persisted);
+    }
+
+    /**
+     * Registra un mensaje descartado porque la cola de persistencia estaba llena.
+     */
+    public void recordWriteBehindDropped() {
+        writeBehindDroppedCounter.increment();
+    }
+
+    /**
+     * Registra los mensajes que no se pudieron guardar y se descartaron.
+     */
+    public void recordWriteBehindFailure(int lost) {
+        writeBehindFailedCounter.increment(lost);
+    }
+
+    /**
+     * Registra un reintento de un lote de persistencia.
+     */
+    public void recordWriteBehindRetry() {
+        writeBehindRetryCounter.increment();
+    }
+
+    /**
+     * Registra un mensaje WebSocket rechazado antes de repartirlo.
+     */
+    public void recordMessageRejected(String reason) {
+        Counter.builder("chat.messages.rejected")
+                .description("Mensajes WebSocket rechazados antes de repartirlos")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Expone como medidor la profundidad de la cola de publicación en Redis.
+     */
+    public void registerRedisPublishQueue(AtomicInteger queueSize) {
+        Gauge.builder("chat.redis.publish.queue.size", queueSize, AtomicInteger::get)
+                .description("Mensajes esperando a ser publicados en Redis")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra un pipeline publicado en Redis.
+     */
+    public void recordRedisPublishBatch(int size) {
+        redisPublishBatchSize.record(size);
+    }
+
+    /**
+     * Registra un mensaje descartado porque la cola de publicación estaba llena.
+     */
+    public void recordRedisPublishDropped() {
+        redisPublishDroppedCounter.increment();
+    }
+
+    /**
+     * Registra los mensajes de un pipeline que falló.
+     */
+    public void recordRedisPublishFailure(int lost) {
+        redisPublishFailedCounter.increment(lost);
+    }
+
+    /**
+     * Registra los mensajes que no llegaron al stream de su sala (sí se publicaron,
+     * pero un cliente que se los pierda solo podrá recuperarlos de la base de datos).
+     */
+    public void recordRedisStreamFailure(int lost) {
+        redisStreamFailedCounter.increment(lost);
+    }
+
+    /**
+     * Registra una reconexión puesta al día: {@code stream} si todo salió del stream
+     * de la sala y {@code database} si hubo que ir a la base de datos.
+     */
+    public void recordStreamReplay(String source, int messages) {
+        DistributionSummary.builder("chat.redis.stream.replay.messages")
+                .description("Mensajes devueltos al poner al día a un cliente que reconecta")
+                .tag("source", source)
+                .register(meterRegistry)
+                .record(messages);
+    }
+
+    /**
+     * Registra los mensajes que salieron sin número de secuencia.
+     */
+    public void recordSequenceFailure(int messages) {
+        sequenceFailedCounter.increment(messages);
+    }
+
+    /**
+     * Registra un hilo virtual que no pudo soltar su hilo portador mientras estaba bloqueado.
+     */
+    public void recordVirtualThreadPinned(Duration duration) {
+        virtualThreadPinnedTimer.record(duration);
+    }
+
+    /**
+     * Registra el reparto de un mensaje: cuántos frames se serializaron y a cuántas sesiones llegaron.
+     */
+    public void recordBrokerFanout(int encodedFrames, int deliveries) {
+        brokerFramesEncodedCounter.increment(encodedFrames);
+        brokerDeliveriesCounter.increment(deliveries);
+    }
+
+    /**
+     * Registra un mensaje que no llegó a una sesión lenta: {@code buffer-limit} y
+     * {@code time-limit} según el límite superado, {@code coalesced} si lo sustituyó uno más reciente.
+     */
+    public void recordOutboundDropped(String reason) {
+        Counter.builder("chat.websocket.outbound.dropped")
+                .description("Mensajes descartados de la cola de salida de sesiones lentas")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Registra una sesión cerrada por la política {@code disconnect}.
+     */
+    public void recordSlowSessionDisconnected() {
+        slowSessionDisconnectedCounter.increment();
+    }
+
+    /**
+     * Expone las sesiones que han superado algún límite de su cola de salida
+     * y los bytes pendientes de escribir en todas ellas.
+     */
+    public void registerOutboundSessions(Supplier<Number> slowSessions, Supplier<Number> bufferedBytes) {
+        Gauge.builder("chat.websocket.outbound.slow.sessions", slowSessions)
+                .description("Sesiones por encima de los límites de su cola de salida")
+                .register(meterRegistry);
+        Gauge.builder("chat.websocket.outbound.buffered.bytes", bufferedBytes)
+                .description("Bytes pendientes de escribir en las sesiones WebSocket")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra un lote de mensajes de sala enviado en un solo frame.
+     */
+    public void recordWebSocketBatch(int size) {
+        webSocketBatchSize.record(size);
+    }
+
+    /**
+     * Expone como medidor los usuarios distintos conectados a este nodo.
+     */
+    public void registerOnlineUsers(Supplier<Number> onlineUsers) {
+        Gauge.builder("chat.presence.users.online", onlineUsers)
+                .description("Usuarios distintos con alguna sesión abierta en este nodo")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra un aviso de escritura: {@code fanout} si se repartió un cambio de
+     * estado, {@code deduplicated} si no cambiaba nada y {@code rate_limited} si se descartó.
+     */
+    public void recordTypingEvent(String outcome) {
+        Counter counter = typingEventCounters.get(outcome);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * Registra un lote de confirmaciones de lectura guardado en la base de datos.
+     */
+    public void recordReadReceiptFlush(int size) {
+        readReceiptBatchSize.record(size);
+    }
+
+    /**
+     * Registra el tiempo de una búsqueda de mensajes.
+     */
+    public void recordSearchQuery(Duration duration) {
+        searchQueryTimer.record(duration);
+    }
+
+    /**
+     * Expone como medidor los mensajes que hay en el índice de búsqueda de este nodo.
+     */
+    public void registerSearchIndex(Supplier<Number> indexedMessages) {
+        Gauge.builder("chat.search.index.docs", indexedMessages)
+                .description("Mensajes en el índice de búsqueda local")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra una primera página de historial: {@code hit} si salió de memoria,
+     * {@code miss} si hubo que ir a la base de datos y {@code inactive} si el
+     * chat no tiene suscriptores en este nodo y ni se intentó.
+     */
+    public void recordRecentHistory(String result) {
+        Counter.builder("chat.history.recent.requests")
+                .description("Primeras páginas de historial según de dónde salieron")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Expone como medidores los chats que tienen sus últimos mensajes en memoria
+     * y los bytes que ocupan (estimados).
+     */
+    public void registerRecentHistory(Supplier<Number> chats, Supplier<Number> bytes) {
+        Gauge.builder("chat.history.recent.chats", chats)
+                .description("Chats con sus últimos mensajes en memoria en este nodo")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.recent.bytes", bytes)
+                .description("Memoria estimada de los últimos mensajes por chat")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
 }
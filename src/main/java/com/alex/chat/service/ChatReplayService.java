@@ -0,0 +1,107 @@
+package com.alex.chat.service;
+
+import com.alex.chat.config.redis.ChatEventStream;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.ChatReplay;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.store.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Pone al día a un cliente que reconecta. El cliente manda el {@code streamId}
+ * del último mensaje que vio y se le devuelve lo posterior desde el stream de la
+ * sala ({@link ChatEventStream}), que es una lectura barata en Redis. Solo si ese
+ * trozo ya se recortó se completa con la base de datos, así una reconexión masiva
+ * después de un despliegue no acaba en una avalancha de consultas.
+ */
+@Service
+public class ChatReplayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatReplayService.class);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final ChatEventStream eventStream;
+    private final MessageStore messageStore;
+    private final ChatMetricsService metricsService;
+    private final int databaseLimit;
+
+    public ChatReplayService(ChatEventStream eventStream,
+                             MessageStore messageStore,
+                             ChatMetricsService metricsService,
+                             @Value("${chat.redis.stream.replay.database-limit:500}") int databaseLimit) {
+        this.eventStream = eventStream;
+        this.messageStore = messageStore;
+        this.metricsService = metricsService;
+        this.databaseLimit = databaseLimit;
+    }
+
+    /**
+     * Mensajes de un chat posteriores a la entrada {@code afterStreamId} de su stream.
+     * Cuando hay que ir a la base de datos el cursor es el número de secuencia, no
+     * la hora: los IDs del stream llevan la hora de Redis y {@code sentAt} la del
+     * nodo que guardó el mensaje, así que no se pueden comparar. Se piden los
+     * mensajes con secuencia entre {@code afterSeq} (la del último que vio el
+     * cliente) y la del mensaje más antiguo que queda en el stream, y detrás va el
+     * stream entero. Solo se perdería algo si la sala publica más de
+     * {@code max-length} mensajes en lo que tarda el escritor write-behind en
+     * guardar un lote.
+     * <p>
+     * Sin {@code afterSeq} no se sabe dónde se quedó el cliente: si hace falta la
+     * base de datos, se devuelven los más recientes y el cursor para el resto.
+     *
+     * @return vacío si {@code afterStreamId} no es un ID de stream válido
+     */
+    @Transactional(readOnly = true)
+    public Optional<ChatReplay> replay(Long chatId, String afterStreamId, Long afterSeq) {
+        if (!ChatEventStream.isValidId(afterStreamId)) {
+            return Optional.empty();
+        }
+        ChatEventStream.Slice slice = eventStream.read(chatId, afterStreamId);
+        List<ChatMessage> fromStream = slice.messages();
+        String lastStreamId = fromStream.isEmpty() ? afterStreamId : fromStream.getLast().getStreamId();
+        if (slice.complete()) {
+            metricsService.recordStreamReplay("stream", fromStream.size());
+            return Optional.of(new ChatReplay(fromStream, lastStreamId, false, null));
+        }
+
+        // Sin stream (caducado, desactivado o Redis caído) se llega hasta el último guardado
+        long sinceSeq = afterSeq != null ? afterSeq : 0;
+        long untilSeq = fromStream.isEmpty() || fromStream.getFirst().getSeq() == null
+                ? Long.MAX_VALUE
+                : fromStream.getFirst().getSeq();
+        List<MessageView> rows = messageStore.findViewsBetweenSeq(chatId, sinceSeq, untilSeq, databaseLimit + 1);
+        Long historyCursor = null;
+        if (rows.size() > databaseLimit) {
+            rows = rows.subList(0, databaseLimit);
+            historyCursor = rows.getLast().seq();
+        }
+
+        List<ChatMessage> messages = new ArrayList<>(rows.size() + fromStream.size());
+        for (MessageView row : rows.reversed()) {
+            messages.add(toChatMessage(row));
+        }
+        messages.addAll(fromStream);
+        logger.debug("Chat {} puesto al día desde {} (secuencia {}): {} mensajes de la base de datos y {} del stream",
+                chatId, afterStreamId, afterSeq, rows.size(), fromStream.size());
+        metricsService.recordStreamReplay("database", messages.size());
+        return Optional.of(new ChatReplay(messages, lastStreamId, true, historyCursor));
+    }
+
+    private static ChatMessage toChatMessage(MessageView view) {
+        ChatMessage message = new ChatMessage(view.sender(), view.content(), view.sentAt().format(TIME_FORMAT));
+        message.setChatId(view.chatId());
+        message.setSeq(view.seq());
+        message.setSentAt(view.sentAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        return message;
+    }
+}
@@ -0,0 +1,175 @@
+package com.alex.chat.service;
+
+import com.alex.chat.config.redis.ChatEventStream;
+import com.alex.chat.message.store.MessageStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Números de secuencia por chat: 1, 2, 3... crecientes y sin repetirse, sea cual
+ * sea el nodo que recibe el mensaje. {@code sentAt} sale del reloj de cada nodo y
+ * no sirve para ordenar ni para saber si falta algo; la secuencia sí: un cliente
+ * que recibe el 7 después del 5 sabe que le falta el 6 y lo pide por rango.
+ * <p>
+ * El contador vive en Redis ({@code chat-seq:{chatId}}) y cada reparto es un
+ * script que hace INCRBY, así que un lote de n mensajes de un chat cuesta lo mismo
+ * que uno. Lettuce comparte una conexión entre hilos y encadena los comandos de
+ * todos, por eso una llamada por mensaje no limita el ritmo de envío aunque
+ * espere su round trip.
+ */
+@Service
+public class ChatSequenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatSequenceService.class);
+
+    private static final String KEY_PREFIX = "chat-seq:";
+
+    /**
+     * Reparte ARGV[1] números. Si el contador no existe no reparte nada y devuelve
+     * nil, salvo que venga el suelo (ARGV[2]): entonces lo crea en el suelo. Con
+     * suelo, además, nunca reparte números por debajo de él. Crear y sumar van en
+     * el mismo script, así ningún nodo reparte desde un contador recién creado en
+     * 0 mientras otro todavía está calculando el suelo.
+     */
+    private static final RedisScript<Long> ALLOCATE_SCRIPT = new DefaultRedisScript<>("""
+            local count = tonumber(ARGV[1])
+            local floor = ARGV[2] and tonumber(ARGV[2])
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              if not floor then
+                return false
+              end
+              redis.call('SET', KEYS[1], floor)
+            end
+            local last = redis.call('INCRBY', KEYS[1], count)
+            if floor and last - count < floor then
+              last = floor + count
+              redis.call('SET', KEYS[1], last)
+            end
+            return last""", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MessageStore messageStore;
+    private final ChatEventStream eventStream;
+    private final ChatMetricsService metricsService;
+
+    /**
+     * Último número que ha repartido este nodo en cada chat. Cubre los mensajes
+     * que siguen en su cola de guardado si Redis pierde el contador.
+     */
+    private final Cache<Long, Long> allocatedHere = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    public ChatSequenceService(StringRedisTemplate redisTemplate,
+                               MessageStore messageStore,
+                               ChatEventStream eventStream,
+                               ChatMetricsService metricsService) {
+        this.redisTemplate = redisTemplate;
+        this.messageStore = messageStore;
+        this.eventStream = eventStream;
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Siguiente número de un chat.
+     *
+     * @return el número, o null si Redis no responde (el mensaje no se puede enviar)
+     */
+    public Long next(Long chatId) {
+        return allocate(chatId, 1);
+    }
+
+    /**
+     * Reserva {@code count} números seguidos de un chat en una sola llamada.
+     * Si el contador no existía (chat nuevo, o Redis lo perdió) se calcula el suelo
+     * y se vuelve a pedir con él, para no repetir ninguno ya repartido.
+     *
+     * @return el primero de los números reservados, o null si Redis no responde
+     */
+    public Long allocate(Long chatId, int count) {
+        List<String> key = List.of(KEY_PREFIX + chatId);
+        try {
+            Long last = redisTemplate.execute(ALLOCATE_SCRIPT, key, String.valueOf(count));
+            if (last == null) {
+                long floor = floor(chatId);
+                if (floor > 0) {
+                    logger.warn("Contador de secuencia del chat {} vacío con números repartidos hasta {}, se reajusta",
+                            chatId, floor);
+                }
+                last = redisTemplate.execute(ALLOCATE_SCRIPT, key, String.valueOf(count), String.valueOf(floor));
+            }
+            allocatedHere.asMap().merge(chatId, last, Math::max);
+            return last - count + 1;
+        } catch (Exception e) {
+            metricsService.recordSequenceFailure(count);
+            logger.error("No se pudo reservar secuencia para el chat {}: {}", chatId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * El número más alto que puede estar ya repartido sin que Redis lo sepa: lo
+     * guardado en la base de datos, lo que este nodo tiene aún en cola y lo último
+     * publicado en el stream de la sala, que incluye lo que otros nodos tienen en
+     * la suya. Solo si Redis perdiese también el stream podría repetirse un número
+     * que otro nodo aún no ha guardado, y entonces su INSERT falla por la
+     * restricción única de (chat_id, seq) en vez de duplicarlo.
+     */
+    private long floor(Long chatId) {
+        Long persisted = messageStore.findMaxSeq(chatId);
+        long floor = persisted != null ? persisted : 0;
+        Long local = allocatedHere.getIfPresent(chatId);
+        if (local != null) {
+            floor = Math.max(floor, local);
+        }
+        Long streamed = eventStream.lastSeq(chatId);
+        if (streamed != null) {
+            floor = Math.max(floor, streamed);
+        }
+        return floor;
+    }
+
+    /**
+     * Último número repartido de cada chat: el contador de Redis, que incluye los
+     * mensajes que aún no se han guardado, o lo guardado en la base de datos si
+     * Redis no lo tiene o no responde. Los chats sin ningún número no aparecen.
+     */
+    public Map<Long, Long> lastAllocated(Collection<Long> chatIds) {
+        List<Long> ids = new ArrayList<>(chatIds);
+        Map<Long, Long> last = new HashMap<>();
+        try {
+            List<String> counters = redisTemplate.opsForValue()
+                    .multiGet(ids.stream().map(chatId -> KEY_PREFIX + chatId).toList());
+            for (int i = 0; counters != null && i < ids.size(); i++) {
+                if (counters.get(i) != null) {
+                    last.put(ids.get(i), Long.valueOf(counters.get(i)));
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("No se pudieron leer los contadores de secuencia, se usa la base de datos: {}", e.getMessage());
+        }
+        for (Long chatId : ids) {
+            if (!last.containsKey(chatId)) {
+                Long persisted = messageStore.findMaxSeq(chatId);
+                if (persisted != null) {
+                    last.put(chatId, persisted);
+                }
+            }
+        }
+        return last;
+    }
+}
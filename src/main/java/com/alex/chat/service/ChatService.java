@@ -2,8 +2,14 @@ package com.alex.chat.service;
 
 import com.alex.chat.config.redis.RedisPublisher;
 import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
 import com.alex.chat.message.entity.Message;
-import com.alex.chat.message.repo.MessageRepository;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.websocket.ChatBroadcaster;
+import com.alex.chat.websocket.ChatTopics;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,11 +19,16 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Servicio central para el manejo del chat.
@@ -28,37 +39,74 @@ import java.util.Optional;
 public class ChatService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatService.class);
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_SEQ_RANGE = 500;
 
-    private final MessageRepository messageRepository;
+    /**
+     * Caché de mensajes (vistas, no entidades). Cambió de nombre al dejar de
+     * guardar entidades, así no se leen entradas antiguas de otro tipo.
+     */
+    static final String MESSAGES_CACHE = "message-views";
+
+    private final MessageStore messageStore;
     private final RedisPublisher redisPublisher;
+    private final ChatBroadcaster chatBroadcaster;
+    private final UnreadCounterService unreadCounterService;
+    private final MessageSearchService messageSearchService;
+    private final ChatSequenceService chatSequenceService;
+    private final RecentHistoryBuffer recentHistory;
+    private final ObjectMapper objectMapper;
 
     /**
      * Constructor donde recibo todas las dependencias que necesito.
-     * El repositorio para guardar los mensajes, el publisher para Redis.
+     * Dónde se guardan los mensajes, el publisher para Redis y el
+     * broadcaster que reparte los mensajes de chat entre nodos. El índice de
+     * búsqueda se entera de cada mensaje guardado o borrado, y los mensajes que
+     * llegan sin número de secuencia lo reciben aquí. La primera página del
+     * historial de los chats activos sale de los últimos mensajes en memoria.
      */
     @Autowired
-    public ChatService(MessageRepository messageRepository,
-                       RedisPublisher redisPublisher) {
-        this.messageRepository = messageRepository;
+    public ChatService(MessageStore messageStore,
+                       RedisPublisher redisPublisher,
+                       ChatBroadcaster chatBroadcaster,
+                       UnreadCounterService unreadCounterService,
+                       MessageSearchService messageSearchService,
+                       ChatSequenceService chatSequenceService,
+                       RecentHistoryBuffer recentHistory,
+                       ObjectMapper objectMapper) {
+        this.messageStore = messageStore;
         this.redisPublisher = redisPublisher;
+        this.chatBroadcaster = chatBroadcaster;
+        this.unreadCounterService = unreadCounterService;
+        this.messageSearchService = messageSearchService;
+        this.chatSequenceService = chatSequenceService;
+        this.recentHistory = recentHistory;
+        this.objectMapper = objectMapper;
     }
 
     /**
      * Cuando llega un mensaje por WebSocket, lo preparo y lo distribuyo a todos.
-     * Le pongo la hora actual y lo envío a través de Redis para que llegue
-     * a todas las instancias de la aplicación.
+     * Le pongo la hora actual y lo envío por el canal de su chat para que
+     * llegue a las instancias que tienen clientes en esa sala.
      */
     public void processAndDistributeMessage(ChatMessage message) {
+        message.setSentAt(System.currentTimeMillis());
         message.setTimestamp(LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")));
 
         try {
-            // Formato simplificado como en los requisitos: "remitente: contenido"
-            String formattedMessage = message.getSender() + ": " + message.getContent();
-            logger.debug("Distribuyendo mensaje: {}", formattedMessage);
-            redisPublisher.publish("chat", formattedMessage);
+            if (message.getChatId() != null) {
+                logger.debug("Distribuyendo mensaje en chat {}", message.getChatId());
+                message.setSeq(chatSequenceService.next(message.getChatId()));
+                chatBroadcaster.broadcast(ChatTopics.redisChannel(message.getChatId()), message);
+            } else {
+                // Formato simplificado como en los requisitos: "remitente: contenido"
+                String formattedMessage = message.getSender() + ": " + message.getContent();
+                logger.debug("Distribuyendo mensaje: {}", formattedMessage);
+                chatBroadcaster.broadcast(ChatTopics.LEGACY_CHANNEL, formattedMessage);
+            }
         } catch (Exception e) {
-            logger.error("Error al procesar el mensaje para Redis: {}", e.getMessage(), e);
-            throw new RuntimeException("Error al procesar el mensaje para Redis", e);
+            logger.error("Error al distribuir el mensaje: {}", e.getMessage(), e);
+            throw new RuntimeException("Error al distribuir el mensaje", e);
         }
     }
 
@@ -66,12 +114,107 @@ public class ChatService {
      * Devuelve todos los mensajes que tenemos guardados.
      * Útil para cargar el historial al entrar al chat.
      * Usa caché para mejorar el rendimiento con muchos usuarios.
+     * Son proyecciones: una sola consulta, sin cargar chats ni remitentes.
      */
-    @Cacheable(value = "messages", key = "'all'")
+    @Cacheable(value = MESSAGES_CACHE, key = "'all'")
     @Transactional(readOnly = true)
-    public List<Message> getAllMessages() {
+    public List<MessageView> getAllMessages() {
         logger.debug("Obteniendo todos los mensajes (caché miss)");
-        return messageRepository.findAll();
+        return messageStore.findAllViews();
+    }
+
+    /**
+     * Devuelve una página del historial de un chat usando paginación por cursor.
+     * Sin cursor empieza por los mensajes más recientes; con cursor devuelve los
+     * anteriores a ese ID. Solo trae proyecciones ligeras, nunca entidades.
+     */
+    public MessagePage getChatHistory(Long chatId, Long before, int limit) {
+        return getChatHistory(chatId, before, null, limit);
+    }
+
+    /**
+     * Como {@link #getChatHistory(Long, Long, int)}, con un segundo cursor por
+     * número de secuencia ({@code beforeSeq}). Los mensajes se ordenan por secuencia
+     * y se pagina con {@code beforeSeq}, que manda si vienen los dos; el cursor por
+     * ID ({@code before}) solo recorre los mensajes guardados antes de que hubiera
+     * secuencias. La primera página de un chat con suscriptores en
+     * este nodo sale de {@link RecentHistoryBuffer} sin tocar la base de datos.
+     * No abre transacción propia para no pedir una conexión al pool en ese caso;
+     * cada consulta va en la de solo lectura del repositorio.
+     */
+    public MessagePage getChatHistory(Long chatId, Long before, Long beforeSeq, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        if (before == null && beforeSeq == null) {
+            Optional<MessagePage> recent = recentHistory.firstPage(chatId, pageSize);
+            if (recent.isPresent()) {
+                return recent.get();
+            }
+            List<MessageView> items = messageStore.findLatestPage(chatId, pageSize);
+            logger.debug("Historial del chat {}: {} mensajes más recientes", chatId, items.size());
+            if (items.size() < pageSize) {
+                return new MessagePage(items, null);
+            }
+            // Si el último ya es anterior a las secuencias, se sigue por ID
+            return new MessagePage(items, items.getLast().id(), items.getLast().seq());
+        }
+        if (beforeSeq != null) {
+            // El orden del chat es el de las secuencias: el ID no lo sigue con varios nodos
+            List<MessageView> items = messageStore.findHistoryPageBySeq(chatId, beforeSeq, pageSize);
+            logger.debug("Historial del chat {}: {} mensajes antes de la secuencia {}", chatId, items.size(), beforeSeq);
+            if (items.size() == pageSize) {
+                return new MessagePage(items, items.getLast().id(), items.getLast().seq());
+            }
+            // Por debajo pueden quedar mensajes anteriores a las secuencias: completan
+            // la página y se siguen por ID
+            List<MessageView> older = findUnsequencedPage(chatId, Long.MAX_VALUE, pageSize - items.size());
+            List<MessageView> page = new ArrayList<>(items);
+            page.addAll(older);
+            return new MessagePage(page, older.size() == pageSize - items.size() ? older.getLast().id() : null);
+        }
+        List<MessageView> items = findUnsequencedPage(chatId, before, pageSize);
+        Long nextCursor = items.size() == pageSize ? items.get(items.size() - 1).id() : null;
+        logger.debug("Historial del chat {}: {} mensajes antes de {}", chatId, items.size(), before);
+        return new MessagePage(items, nextCursor);
+    }
+
+    private List<MessageView> findUnsequencedPage(Long chatId, long beforeId, int pageSize) {
+        return messageStore.findHistoryPage(chatId, beforeId, pageSize);
+    }
+
+    /**
+     * Los mensajes de un chat con secuencia entre {@code fromSeq} y {@code toSeq},
+     * en orden: lo que pide un cliente que ha detectado un hueco. Los números que
+     * no vengan en la respuesta no existen (el mensaje no llegó a guardarse) y no
+     * hay que volver a pedirlos.
+     *
+     * @return vacío si el rango no es válido o pasa de 500 números
+     */
+    @Transactional(readOnly = true)
+    public Optional<List<MessageView>> getMessagesBySeqRange(Long chatId, long fromSeq, long toSeq) {
+        if (fromSeq < 1 || toSeq < fromSeq || toSeq - fromSeq >= MAX_SEQ_RANGE) {
+            return Optional.empty();
+        }
+        List<MessageView> messages = messageStore.findViewsBySeqRange(chatId, fromSeq, toSeq);
+        logger.debug("Chat {}: {} mensajes entre las secuencias {} y {}", chatId, messages.size(), fromSeq, toSeq);
+        return Optional.of(messages);
+    }
+
+    /**
+     * Exporta todo el historial de un chat como un array JSON escrito poco a poco.
+     * Las filas se leen por cursor y se escriben según llegan, sin montar nunca
+     * una lista completa en memoria.
+     */
+    @Transactional(readOnly = true)
+    public void exportChatHistory(Long chatId, OutputStream out) throws IOException {
+        try (Stream<MessageView> history = messageStore.streamHistory(chatId);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (MessageView view : (Iterable<MessageView>) history::iterator) {
+                generator.writeObject(view);
+            }
+            generator.writeEndArray();
+        }
+        logger.debug("Historial del chat {} exportado", chatId);
     }
 
     /**
@@ -79,11 +222,11 @@ public class ChatService {
      * Si existe lo devuelve, si no... pues nada.
      * Usa caché para evitar consultas repetidas a la base de datos.
      */
-    @Cacheable(value = "messages", key = "#id")
+    @Cacheable(value = MESSAGES_CACHE, key = "#id")
     @Transactional(readOnly = true)
-    public Optional<Message> getMessageById(Long id) {
+    public Optional<MessageView> getMessageById(Long id) {
         logger.debug("Buscando mensaje con ID: {} (caché miss)", id);
-        return messageRepository.findById(id);
+        return messageStore.findViewById(id);
     }
 
     /**
@@ -91,22 +234,69 @@ public class ChatService {
      * Le añado la fecha y hora actual antes de guardarlo.
      * Al guardar un nuevo mensaje, invalida la caché de todos los mensajes.
      */
-    @CacheEvict(value = "messages", key = "'all'")
+    @CacheEvict(value = MESSAGES_CACHE, key = "'all'")
     @Transactional
     public Message saveMessage(Message message) {
         message.setSentAt(LocalDateTime.now());
+        assignSequences(List.of(message));
         logger.debug("Guardando mensaje: {}", message);
-        Message savedMessage = messageRepository.save(message);
+        messageStore.saveAll(List.of(message));
+        unreadCounterService.onMessagesPersisted(List.of(message));
+        messageSearchService.onMessagesPersisted(List.of(message));
+        recentHistory.onMessagesPersisted(List.of(message));
 
         // Publicar el mensaje guardado en Redis para que todas las instancias se enteren
         try {
-            String notification = "NEW_MESSAGE:" + savedMessage.getId();
+            String notification = "NEW_MESSAGE:" + message.getId();
             redisPublisher.publish("chat-notifications", notification);
         } catch (Exception e) {
             logger.warn("No se pudo notificar el nuevo mensaje: {}", e.getMessage());
         }
 
-        return savedMessage;
+        return message;
+    }
+
+    /**
+     * Guarda muchos mensajes de golpe (importaciones, escritor write-behind), en
+     * lotes JDBC (ver {@link MessageStore#saveAll}).
+     */
+    @CacheEvict(value = MESSAGES_CACHE, key = "'all'")
+    @Transactional
+    public List<Message> saveMessagesInBatch(List<Message> messages) {
+        LocalDateTime now = LocalDateTime.now();
+        assignSequences(messages);
+        messages.forEach(message -> message.setSentAt(now));
+        messageStore.saveAll(messages);
+        unreadCounterService.onMessagesPersisted(messages);
+        messageSearchService.onMessagesPersisted(messages);
+        recentHistory.onMessagesPersisted(messages);
+        logger.debug("Guardados {} mensajes en lote", messages.size());
+        return messages;
+    }
+
+    /**
+     * Pone número de secuencia a los mensajes que no lo traen (los que llegan por
+     * REST; los de WebSocket ya lo tienen desde que se publicaron). Se reserva un
+     * rango por chat, no un número por mensaje. Sin secuencia no se guarda nada.
+     *
+     * @throws SequenceUnavailableException si Redis no responde
+     */
+    private void assignSequences(List<Message> messages) {
+        Map<Long, List<Message>> pendingPerChat = new LinkedHashMap<>();
+        for (Message message : messages) {
+            if (message.getSeq() == null && message.getChat() != null && message.getChat().getId() != null) {
+                pendingPerChat.computeIfAbsent(message.getChat().getId(), k -> new ArrayList<>()).add(message);
+            }
+        }
+        pendingPerChat.forEach((chatId, pending) -> {
+            Long first = chatSequenceService.allocate(chatId, pending.size());
+            if (first == null) {
+                throw new SequenceUnavailableException(chatId);
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).setSeq(first + i);
+            }
+        });
     }
 
     /**
@@ -114,12 +304,13 @@ public class ChatService {
      * Devuelve OK si lo encontré y borré, o Not Found si no existía.
      * Al borrar un mensaje, invalida tanto la caché de ese mensaje como la de todos.
      */
-    @CacheEvict(value = "messages", allEntries = true)
+    @CacheEvict(value = MESSAGES_CACHE, allEntries = true)
     @Transactional
     public ResponseEntity<Map<String, Boolean>> deleteMessage(Long id) {
-        return messageRepository.findById(id)
-                .map(message -> {
-                    messageRepository.delete(message);
+        return messageStore.deleteById(id)
+                .map(chatId -> {
+                    messageSearchService.onMessageDeleted(id);
+                    recentHistory.onMessageDeleted(chatId);
                     logger.debug("Mensaje con ID {} eliminado", id);
                     return ResponseEntity.ok(Map.of("deleted", true));
                 })
@@ -0,0 +1,121 @@
+package com.alex.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pone las secuencias de IDs de mensajes, chats y usuarios por encima de los IDs
+ * que ya hay. Las tablas se crearon con IDENTITY y al pasar a secuencias
+ * (ddl-auto=update) {@code messages_seq}, {@code chats_seq} y {@code users_seq}
+ * empiezan en 1, así que los primeros INSERT chocarían con filas existentes.
+ * <p>
+ * Igual que {@link ReadStateMigrationService}, se hace desde la aplicación y se
+ * puede repetir: una secuencia solo se mueve hacia delante. Va antes que cualquier
+ * otro componente con ciclo de vida (el escritor write-behind, el servidor web),
+ * para que nadie inserte con la secuencia sin ajustar.
+ * <p>
+ * En MySQL Hibernate emula cada secuencia con una tabla de una fila
+ * ({@code next_val}); en H2 son secuencias de verdad.
+ */
+@Service
+public class IdSequenceMigrationService implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdSequenceMigrationService.class);
+
+    /** Tabla y secuencia de cada entidad con IDs de secuencia que ya existía con IDENTITY. */
+    static final List<IdSequence> SEQUENCES = List.of(
+            new IdSequence("messages", "messages_seq"),
+            new IdSequence("chats", "chats_seq"),
+            new IdSequence("users", "users_seq"));
+
+    private final JdbcTemplate jdbc;
+    private final boolean enabled;
+
+    private volatile boolean running;
+
+    public IdSequenceMigrationService(DataSource dataSource,
+                                      @Value("${chat.ids.seed-on-startup:true}") boolean enabled) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!enabled) {
+            return;
+        }
+        try {
+            seed();
+        } catch (Exception e) {
+            // Se vuelve a intentar en el siguiente arranque; mientras, los INSERT pueden chocar
+            logger.error("No se pudieron ajustar las secuencias de IDs: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Sube cada secuencia que no esté ya por encima del ID más alto de su tabla.
+     *
+     * @return secuencia -> siguiente ID que dará, solo de las que se han movido
+     */
+    Map<String, Long> seed() {
+        Map<String, Long> seeded = new LinkedHashMap<>();
+        for (IdSequence sequence : SEQUENCES) {
+            Long maxId = jdbc.queryForObject("SELECT MAX(id) FROM " + sequence.table(), Long.class);
+            if (maxId == null) {
+                continue;
+            }
+            long next = maxId + 1;
+            if (raise(sequence.name(), next)) {
+                seeded.put(sequence.name(), next);
+                logger.info("{}: secuencia movida a {} (ID más alto de {}: {})",
+                        sequence.name(), next, sequence.table(), maxId);
+            }
+        }
+        return seeded;
+    }
+
+    private boolean raise(String sequence, long next) {
+        try {
+            // Tabla de Hibernate: un solo UPDATE, que no baja el valor si otro nodo ya lo subió
+            return jdbc.update("UPDATE " + sequence + " SET next_val = ? WHERE next_val < ?", next, next) > 0;
+        } catch (BadSqlGrammarException e) {
+            // No es una tabla: secuencia nativa
+        }
+        Long current = jdbc.queryForObject("SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES "
+                + "WHERE UPPER(SEQUENCE_NAME) = UPPER(?)", Long.class, sequence);
+        if (current != null && current >= next) {
+            return false;
+        }
+        jdbc.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + next);
+        return true;
+    }
+
+    record IdSequence(String table, String name) {
+    }
+}
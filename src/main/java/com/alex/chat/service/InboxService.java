@@ -0,0 +1,55 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.InboxEntry;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bandeja de entrada: la pantalla más pedida por los clientes. Una consulta trae
+ * los chats del usuario con su último mensaje y los no leídos salen de los
+ * contadores de Redis de {@link UnreadCounterService}, que ya se mantienen al
+ * guardar cada mensaje. Todo cuesta según el número de chats, no de mensajes
+ * (ver {@link MessageStore#findInbox}).
+ */
+@Service
+public class InboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxService.class);
+
+    private final UserRepository userRepository;
+    private final MessageStore messageStore;
+    private final UnreadCounterService unreadCounterService;
+
+    public InboxService(UserRepository userRepository,
+                        MessageStore messageStore,
+                        UnreadCounterService unreadCounterService) {
+        this.userRepository = userRepository;
+        this.messageStore = messageStore;
+        this.unreadCounterService = unreadCounterService;
+    }
+
+    /**
+     * Chats del usuario, del más reciente al más antiguo.
+     *
+     * @return vacío si el usuario no existe
+     */
+    @Transactional(readOnly = true)
+    public Optional<List<InboxEntry>> getInbox(String username) {
+        return userRepository.findByUsername(username).map(user -> {
+            List<InboxEntry> entries = messageStore.findInbox(user.getId());
+            Map<Long, Long> unread = unreadCounterService.getUnreadCounts(user.getId());
+            logger.debug("Bandeja de {}: {} chats", username, entries.size());
+            return entries.stream()
+                    .map(entry -> entry.withUnread(unread.getOrDefault(entry.chatId(), 0L)))
+                    .toList();
+        });
+    }
+}
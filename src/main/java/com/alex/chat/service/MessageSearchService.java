@@ -0,0 +1,621 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.store.MessageStore;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Búsqueda de texto en los mensajes con un índice invertido de Lucene en disco
+ * local. Un LIKE sobre {@code messages.content} recorre la tabla entera; aquí cada
+ * palabra apunta directamente a los mensajes que la contienen.
+ * <ul>
+ *     <li>El índice se alimenta al guardar y al borrar mensajes, después del commit.</li>
+ *     <li>Las búsquedas ven los cambios cada {@code chat.search.refresh-interval-ms}
+ *     (casi en tiempo real) y el índice se consolida en disco cada
+ *     {@code chat.search.commit-interval-ms}.</li>
+ *     <li>Al arrancar se compara el índice con la tabla y se pone al día: se indexa
+ *     lo que falta y se quita lo borrado. Si no había índice, o con
+ *     {@code chat.search.rebuild-on-startup=true}, se reconstruye entero. Las dos cosas
+ *     recorren la tabla en trozos de {@code chat.search.rebuild.chunk-size}.</li>
+ *     <li>Cada búsqueda se limita a los chats del usuario y devuelve los resultados
+ *     del más nuevo al más antiguo, paginados por cursor como el historial.</li>
+ * </ul>
+ * El índice es de cada nodo: con varios nodos, cada uno indexa los mensajes que
+ * guarda él, y los guardados por los demás llegan con la puesta al día del
+ * siguiente arranque (o con una reconstrucción).
+ */
+@Service
+public class MessageSearchService implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchService.class);
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_TERMS = 8;
+    /**
+     * Hasta aquí el contenido va en los doc values; uno más largo se guarda como
+     * campo guardado (ver {@link #views}), así ningún mensaje enorme infla los doc values.
+     */
+    static final int MAX_DOC_VALUE_BYTES = 32766;
+
+    static final String UID = "uid";
+    static final String ID = "id";
+    static final String CHAT_ID = "chatId";
+    static final String SENDER = "sender";
+    static final String CONTENT = "content";
+    /** El contenido de los mensajes que no caben en los doc values. */
+    static final String LONG_CONTENT = "longContent";
+    static final String SENT_AT = "sentAt";
+
+    /**
+     * Del más nuevo al más antiguo. El índice guarda los documentos ya en este
+     * orden, así una página de resultados deja de recorrer cada segmento en
+     * cuanto tiene los primeros.
+     */
+    private static final Sort NEWEST_FIRST = new Sort(new SortField(ID, SortField.Type.LONG, true));
+
+    private final MessageStore messageStore;
+    private final ChatRepository chatRepository;
+    private final ChatMetricsService metricsService;
+    private final Path indexDir;
+    private final boolean rebuildOnStartup;
+    private final int chunkSize;
+    private final Analyzer analyzer = new MessageAnalyzer();
+    private final AtomicBoolean indexing = new AtomicBoolean();
+
+    private volatile IndexWriter writer;
+    private volatile SearcherManager searcherManager;
+    private volatile boolean running;
+    private boolean createdIndex;
+
+    public MessageSearchService(MessageStore messageStore,
+                                ChatRepository chatRepository,
+                                ChatMetricsService metricsService,
+                                @Value("${chat.search.index-dir:data/search-index}") String indexDir,
+                                @Value("${chat.search.rebuild-on-startup:false}") boolean rebuildOnStartup,
+                                @Value("${chat.search.rebuild.chunk-size:1000}") int chunkSize) {
+        this.messageStore = messageStore;
+        this.chatRepository = chatRepository;
+        this.metricsService = metricsService;
+        this.indexDir = Path.of(indexDir);
+        this.rebuildOnStartup = rebuildOnStartup;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Busca los mensajes que contienen todas las palabras del texto, sin distinguir
+     * mayúsculas ni acentos, en los chats del usuario (o solo en {@code chatId} si
+     * participa en él).
+     */
+    public MessagePage search(String username, String text, Long chatId, Long before, int limit) {
+        if (terms(text).isEmpty()) {
+            return new MessagePage(List.of(), null);
+        }
+        List<Long> chatIds = chatRepository.findIdsByParticipantUsername(username);
+        if (chatId != null) {
+            chatIds = chatIds.contains(chatId) ? List.of(chatId) : List.of();
+        }
+        return search(chatIds, text, before, limit);
+    }
+
+    /**
+     * Busca en los chats indicados, sin comprobar quién pregunta.
+     */
+    public MessagePage search(Collection<Long> chatIds, String text, Long before, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<String> terms = terms(text);
+        SearcherManager manager = searcherManager;
+        if (terms.isEmpty() || chatIds.isEmpty() || manager == null) {
+            return new MessagePage(List.of(), null);
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        terms.forEach(term -> query.add(new TermQuery(new Term(CONTENT, term)), BooleanClause.Occur.MUST));
+        query.add(chatFilter(chatIds), BooleanClause.Occur.FILTER);
+        if (before != null) {
+            query.add(LongPoint.newRangeQuery(ID, Long.MIN_VALUE, before - 1), BooleanClause.Occur.FILTER);
+        }
+
+        long start = System.nanoTime();
+        try {
+            IndexSearcher searcher = manager.acquire();
+            try {
+                // Sin contar el total de coincidencias: cada segmento para en cuanto tiene la página
+                TopFieldDocs hits = searcher.search(query.build(),
+                        new TopFieldCollectorManager(NEWEST_FIRST, pageSize, null, pageSize));
+                List<MessageView> items = views(searcher.getIndexReader(), hits.scoreDocs);
+                Long nextCursor = items.size() == pageSize ? items.get(items.size() - 1).id() : null;
+                return new MessagePage(items, nextCursor);
+            } finally {
+                manager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error al buscar en el índice de mensajes", e);
+        } finally {
+            metricsService.recordSearchQuery(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Filtro por chat. Si alguna palabra es rara (pocos mensajes) Lucene recorre sus
+     * mensajes y comprueba el chat en los doc values; si no, usa los términos de chat
+     * del índice invertido, que cuestan según los mensajes de esos chats.
+     */
+    private static Query chatFilter(Collection<Long> chatIds) {
+        List<BytesRef> terms = chatIds.stream().map(id -> new BytesRef(String.valueOf(id))).toList();
+        long[] values = chatIds.stream().mapToLong(Long::longValue).toArray();
+        return new IndexOrDocValuesQuery(new TermInSetQuery(CHAT_ID, terms),
+                NumericDocValuesField.newSlowSetQuery(CHAT_ID, values));
+    }
+
+    /**
+     * Indexa los mensajes recién guardados cuando se confirme la transacción. Se leen
+     * de nuevo como vistas (una consulta por lote) porque el remitente que llega por
+     * REST puede traer solo su ID.
+     */
+    public void onMessagesPersisted(List<Message> messages) {
+        List<Long> ids = messages.stream().map(Message::getId).filter(Objects::nonNull).toList();
+        if (!ids.isEmpty()) {
+            TransactionHooks.afterCommit(() -> index(messageStore.findViewsByIdIn(ids)), MessageSearchService::indexUpdateFailed);
+        }
+    }
+
+    /**
+     * Quita un mensaje del índice cuando se confirme su borrado.
+     */
+    public void onMessageDeleted(Long id) {
+        TransactionHooks.afterCommit(() -> {
+            IndexWriter indexWriter = writer;
+            if (indexWriter != null) {
+                try {
+                    indexWriter.deleteDocuments(new Term(UID, String.valueOf(id)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, MessageSearchService::indexUpdateFailed);
+    }
+
+    /**
+     * Añade o sustituye mensajes en el índice. Serán visibles en el siguiente refresco.
+     * Cada mensaje va por separado: si Lucene rechaza uno, se apunta y se sigue con
+     * los demás. Un error de E/S sí corta, porque es del índice entero.
+     *
+     * @return mensajes indexados
+     */
+    public int index(List<MessageView> views) {
+        IndexWriter indexWriter = writer;
+        if (indexWriter == null) {
+            // Sin índice abierto: los recogerá la puesta al día del próximo arranque
+            return 0;
+        }
+        int indexed = 0;
+        try {
+            for (MessageView view : views) {
+                try {
+                    indexWriter.updateDocument(new Term(UID, String.valueOf(view.id())), document(view));
+                    indexed++;
+                } catch (IllegalArgumentException e) {
+                    logger.warn("No se pudo indexar el mensaje {}: {}", view.id(), e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return indexed;
+    }
+
+    /**
+     * Vacía el índice y lo vuelve a llenar desde la tabla de mensajes.
+     *
+     * @return mensajes indexados, o -1 si ya había una indexación en curso
+     */
+    public long rebuild() {
+        return reindex(true);
+    }
+
+    /**
+     * Pone el índice al día con la tabla: indexa los mensajes que faltan y quita los
+     * que ya no existen. No basta con seguir desde el ID más alto indexado: cada nodo
+     * reserva su bloque de IDs, así que otro nodo puede guardar después mensajes con
+     * IDs más bajos, y los borrados no dejan rastro en la tabla. Por eso se comparan
+     * los IDs, trozo a trozo, y solo se leen enteros los mensajes que faltan.
+     *
+     * @return mensajes indexados, o -1 si ya había una indexación en curso
+     */
+    public long catchUp() {
+        return reindex(false);
+    }
+
+    private long reindex(boolean full) {
+        IndexWriter indexWriter = writer;
+        if (indexWriter == null || !indexing.compareAndSet(false, true)) {
+            return -1;
+        }
+        try {
+            long indexed = full ? reindexAll(indexWriter) : reconcile(indexWriter);
+            indexWriter.commit();
+            searcherManager.maybeRefresh();
+            logger.info("Índice de búsqueda {}: {} mensajes indexados", full ? "reconstruido" : "al día", indexed);
+            return indexed;
+        } catch (Exception e) {
+            logger.error("Error al indexar los mensajes: {}", e.getMessage(), e);
+            return 0;
+        } finally {
+            indexing.set(false);
+        }
+    }
+
+    private long reindexAll(IndexWriter indexWriter) throws IOException {
+        indexWriter.deleteAll();
+        long afterId = 0;
+        long indexed = 0;
+        List<MessageView> chunk;
+        do {
+            // Cada trozo es una consulta corta por keyset: no hay transacción ni cursor abiertos todo el rato
+            chunk = messageStore.findViewsAfter(afterId, chunkSize);
+            indexed += index(chunk);
+            if (!chunk.isEmpty()) {
+                afterId = chunk.get(chunk.size() - 1).id();
+            }
+        } while (chunk.size() == chunkSize && running);
+        return indexed;
+    }
+
+    private long reconcile(IndexWriter indexWriter) throws IOException {
+        searcherManager.maybeRefreshBlocking();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            long afterId = 0;
+            long indexed = 0;
+            List<Long> ids;
+            do {
+                ids = messageStore.findIdsAfter(afterId, chunkSize);
+                // El último trozo cubre hasta el final: lo indexado por encima ya se borró
+                long upTo = ids.size() == chunkSize ? ids.get(ids.size() - 1) : Long.MAX_VALUE;
+                Set<Long> gone = indexedIds(searcher, afterId, upTo);
+                List<Long> missing = ids.stream().filter(id -> !gone.remove(id)).toList();
+                for (Long id : gone) {
+                    indexWriter.deleteDocuments(new Term(UID, String.valueOf(id)));
+                }
+                if (!missing.isEmpty()) {
+                    indexed += index(messageStore.findViewsByIdIn(missing));
+                }
+                if (!ids.isEmpty()) {
+                    afterId = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == chunkSize && running);
+            return indexed;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * IDs indexados en {@code (afterId, upTo]}, sacados de los doc values sin montar
+     * los documentos. Lo que se indexe o se borre mientras tanto no sale, pero da
+     * igual: volver a indexar o a borrar un mensaje no cambia nada.
+     */
+    private static Set<Long> indexedIds(IndexSearcher searcher, long afterId, long upTo) throws IOException {
+        Set<Long> ids = new HashSet<>();
+        Weight weight = searcher.createWeight(searcher.rewrite(LongPoint.newRangeQuery(ID, afterId + 1, upTo)),
+                ScoreMode.COMPLETE_NO_SCORES, 1);
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            Scorer scorer = weight.scorer(leaf);
+            if (scorer == null) {
+                continue;
+            }
+            NumericDocValues values = DocValues.getNumeric(leaf.reader(), ID);
+            Bits live = leaf.reader().getLiveDocs();
+            DocIdSetIterator docs = scorer.iterator();
+            for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+                if ((live == null || live.get(doc)) && values.advanceExact(doc)) {
+                    ids.add(values.longValue());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Con la aplicación ya atendiendo peticiones, pone el índice al día (o lo
+     * reconstruye) en un hilo aparte; mientras tanto las búsquedas ven lo que haya.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        boolean full = rebuildOnStartup || createdIndex;
+        Thread indexer = new Thread(full ? this::rebuild : this::catchUp, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Hace visibles en las búsquedas los cambios indexados desde el último refresco.
+     */
+    @Scheduled(fixedDelayString = "${chat.search.refresh-interval-ms:1000}")
+    public void refresh() {
+        SearcherManager manager = searcherManager;
+        if (manager == null) {
+            return;
+        }
+        try {
+            manager.maybeRefresh();
+        } catch (Exception e) {
+            logger.warn("No se pudo refrescar el índice de búsqueda: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Consolida en disco lo indexado. Lo no consolidado se pierde si el proceso
+     * muere, y lo recupera la puesta al día del siguiente arranque.
+     */
+    @Scheduled(fixedDelayString = "${chat.search.commit-interval-ms:60000}")
+    public void commit() {
+        IndexWriter indexWriter = writer;
+        if (indexWriter == null || !indexWriter.hasUncommittedChanges()) {
+            return;
+        }
+        try {
+            indexWriter.commit();
+        } catch (Exception e) {
+            logger.warn("No se pudo consolidar el índice de búsqueda: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void start() {
+        metricsService.registerSearchIndex(this::indexedMessages);
+        try {
+            FSDirectory directory = FSDirectory.open(indexDir);
+            createdIndex = !DirectoryReader.indexExists(directory);
+            IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
+                    .setIndexSort(NEWEST_FIRST);
+            writer = new IndexWriter(directory, config);
+            searcherManager = new SearcherManager(writer, null);
+            running = true;
+            logger.info("Índice de búsqueda abierto en {}", indexDir.toAbsolutePath());
+        } catch (IOException e) {
+            // Sin índice el chat sigue funcionando; las búsquedas devuelven vacío
+            logger.error("No se pudo abrir el índice de búsqueda en {}: {}", indexDir, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Al parar se consolida y se cierra el índice.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        SearcherManager manager = searcherManager;
+        IndexWriter indexWriter = writer;
+        searcherManager = null;
+        writer = null;
+        try {
+            if (manager != null) {
+                manager.close();
+            }
+            if (indexWriter != null) {
+                indexWriter.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Error al cerrar el índice de búsqueda: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Arranca antes y para después que el escritor write-behind, que sigue
+     * guardando (e indexando) mensajes mientras vacía su cola.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 1;
+    }
+
+    /**
+     * Palabras de búsqueda con el mismo análisis que el contenido indexado.
+     */
+    List<String> terms(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        try (TokenStream stream = analyzer.tokenStream(CONTENT, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (terms.size() < MAX_TERMS && stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return List.copyOf(terms);
+    }
+
+    long indexedMessages() {
+        IndexWriter indexWriter = writer;
+        try {
+            return indexWriter != null ? indexWriter.getDocStats().numDocs : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static Document document(MessageView view) {
+        Document document = new Document();
+        document.add(new StringField(UID, String.valueOf(view.id()), Field.Store.NO));
+        document.add(new LongPoint(ID, view.id()));
+        document.add(new NumericDocValuesField(ID, view.id()));
+        document.add(new StringField(CHAT_ID, String.valueOf(view.chatId()), Field.Store.NO));
+        document.add(new NumericDocValuesField(CHAT_ID, view.chatId()));
+        document.add(new BinaryDocValuesField(SENDER, new BytesRef(view.sender())));
+        document.add(new TextField(CONTENT, view.content(), Field.Store.NO));
+        byte[] content = view.content().getBytes(StandardCharsets.UTF_8);
+        if (content.length <= MAX_DOC_VALUE_BYTES) {
+            document.add(new BinaryDocValuesField(CONTENT, new BytesRef(content)));
+        } else {
+            // Lucene exige los mismos doc values en todos los documentos: aquí van vacíos
+            document.add(new BinaryDocValuesField(CONTENT, new BytesRef()));
+            document.add(new StoredField(LONG_CONTENT, view.content()));
+        }
+        document.add(new BinaryDocValuesField(SENT_AT, new BytesRef(view.sentAt().toString())));
+        return document;
+    }
+
+    /**
+     * Los resultados salen de los doc values, que Lucene guarda sin comprimir. Con
+     * campos guardados (stored fields) cada resultado obliga a descomprimir su bloque
+     * entero: ~50 µs por mensaje, el 90% de una búsqueda. Solo los mensajes
+     * demasiado largos para los doc values pagan ese coste.
+     */
+    private static List<MessageView> views(IndexReader reader, ScoreDoc[] hits) throws IOException {
+        // Los iteradores de doc values solo avanzan: se leen en orden de documento
+        ScoreDoc[] byDoc = hits.clone();
+        Arrays.sort(byDoc, Comparator.comparingInt(hit -> hit.doc));
+        List<LeafReaderContext> leaves = reader.leaves();
+        Map<Integer, MessageView> views = new HashMap<>();
+        LeafValues values = null;
+        for (ScoreDoc hit : byDoc) {
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hit.doc, leaves));
+            if (values == null || values.leaf != leaf) {
+                values = new LeafValues(leaf);
+            }
+            views.put(hit.doc, values.view(hit.doc - leaf.docBase));
+        }
+        return Arrays.stream(hits).map(hit -> views.get(hit.doc)).toList();
+    }
+
+    private static void indexUpdateFailed(RuntimeException e) {
+        // El mensaje ya está guardado: lo recuperará la puesta al día o una reconstrucción
+        logger.warn("No se pudo actualizar el índice de búsqueda: {}", e.getMessage());
+    }
+
+    /**
+     * Doc values de un segmento para montar las vistas de sus resultados.
+     */
+    private static final class LeafValues {
+
+        private final LeafReaderContext leaf;
+        private final NumericDocValues ids;
+        private final NumericDocValues chatIds;
+        private final BinaryDocValues senders;
+        private final BinaryDocValues contents;
+        private final BinaryDocValues sentAts;
+
+        LeafValues(LeafReaderContext leaf) throws IOException {
+            this.leaf = leaf;
+            LeafReader reader = leaf.reader();
+            this.ids = DocValues.getNumeric(reader, ID);
+            this.chatIds = DocValues.getNumeric(reader, CHAT_ID);
+            this.senders = DocValues.getBinary(reader, SENDER);
+            this.contents = DocValues.getBinary(reader, CONTENT);
+            this.sentAts = DocValues.getBinary(reader, SENT_AT);
+        }
+
+        MessageView view(int doc) throws IOException {
+            ids.advanceExact(doc);
+            chatIds.advanceExact(doc);
+            senders.advanceExact(doc);
+            sentAts.advanceExact(doc);
+            contents.advanceExact(doc);
+            String content = contents.binaryValue().utf8ToString();
+            if (content.isEmpty()) {
+                content = Objects.requireNonNullElse(
+                        leaf.reader().storedFields().document(doc, Set.of(LONG_CONTENT)).get(LONG_CONTENT), "");
+            }
+            return new MessageView(ids.longValue(), chatIds.longValue(), senders.binaryValue().utf8ToString(),
+                    content, LocalDateTime.parse(sentAts.binaryValue().utf8ToString()));
+        }
+    }
+
+    /**
+     * Palabras separadas según Unicode, en minúsculas y sin acentos: "Café" y
+     * "cafe" son el mismo término.
+     */
+    private static final class MessageAnalyzer extends Analyzer {
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            StandardTokenizer tokenizer = new StandardTokenizer();
+            TokenStream stream = new LowerCaseFilter(tokenizer);
+            stream = new ASCIIFoldingFilter(stream);
+            return new TokenStreamComponents(tokenizer, stream);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Persistencia diferida (write-behind) de los mensajes que llegan por WebSocket.
+ * El hilo de STOMP solo deja el mensaje en una cola acotada y sigue con la
+ * distribución en tiempo real; un hilo escritor dedicado vacía la cola por lotes
+ * y los guarda en la tabla de mensajes. Así la latencia de la base de datos no
+ * afecta a la entrega de mensajes.
+ * <p>
+ * Como el mensaje ya se ha repartido cuando se guarda, un lote que falla no se
+ * tira entero: se reintenta con espera creciente y, si sigue fallando, se guarda
+ * mensaje a mensaje para que solo se pierda el que da problemas.
+ */
+@Service
+public class MessageWriteBehindService implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriteBehindService.class);
+
+    private final ChatService chatService;
+    private final UserRepository userRepository;
+    private final ChatRepository chatRepository;
+    private final ChatMetricsService metricsService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final BlockingQueue<ChatMessage> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long offerTimeoutMs;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+
+    /** Chats que se sabe que existen. */
+    private final Cache<Long, Boolean> knownChats = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    /** Chats que no existían hace poco; se recuerdan unos segundos para no consultar en cada mensaje. */
+    private final Cache<Long, Boolean> missingChats = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(Duration.ofSeconds(5))
+            .build();
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public MessageWriteBehindService(ChatService chatService,
+                                     UserRepository userRepository,
+                                     ChatRepository chatRepository,
+                                     ChatMetricsService metricsService,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${chat.persistence.write-behind.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${chat.persistence.write-behind.batch-size:500}") int batchSize,
+                                     @Value("${chat.persistence.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+                                     @Value("${chat.persistence.write-behind.offer-timeout-ms:50}") long offerTimeoutMs,
+                                     @Value("${chat.persistence.write-behind.max-retries:3}") int maxRetries,
+                                     @Value("${chat.persistence.write-behind.retry-backoff-ms:100}") long retryBackoffMs) {
+        this.chatService = chatService;
+        this.userRepository = userRepository;
+        this.chatRepository = chatRepository;
+        this.metricsService = metricsService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        metricsService.registerWriteBehindQueue(queue);
+    }
+
+    /**
+     * Si existe el chat. Lo comprueba quien recibe el mensaje antes de repartirlo,
+     * para no enseñar a nadie un mensaje que luego no se podría guardar. Solo
+     * consulta la base de datos la primera vez que ve cada chat; un chat que no
+     * existe se vuelve a consultar pasados unos segundos.
+     */
+    public boolean knowsChat(Long chatId) {
+        if (knownChats.getIfPresent(chatId) != null) {
+            return true;
+        }
+        if (missingChats.getIfPresent(chatId) != null) {
+            return false;
+        }
+        if (!chatRepository.existsById(chatId)) {
+            missingChats.put(chatId, Boolean.TRUE);
+            return false;
+        }
+        knownChats.put(chatId, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Deja un mensaje en la cola para guardarlo más tarde.
+     * Si la cola está llena espero como mucho {@code offerTimeoutMs} (backpressure
+     * sobre el hilo de STOMP); si sigue llena, el mensaje se descarta y se cuenta.
+     *
+     * @return true si el mensaje quedó encolado
+     */
+    public boolean enqueue(ChatMessage message) {
+        if (message.getChatId() == null || message.getSender() == null) {
+            logger.debug("Mensaje sin chat o remitente, no se persiste: {}", message);
+            return false;
+        }
+        if (!knowsChat(message.getChatId())) {
+            logger.warn("Chat {} inexistente, mensaje no persistido", message.getChatId());
+            return false;
+        }
+        try {
+            if (queue.offer(message, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metricsService.recordWriteBehindDropped();
+        logger.warn("Cola de persistencia llena ({} mensajes), mensaje descartado", queue.size());
+        return false;
+    }
+
+    /**
+     * Bucle del hilo escritor: espera hasta tener un lote completo o hasta que
+     * pase el intervalo de flush, lo que ocurra primero.
+     */
+    private void runWriter() {
+        List<ChatMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    ChatMessage first = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        break;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Guarda un lote. Si falla (la base de datos no responde, un deadlock...) se
+     * reintenta hasta {@code maxRetries} veces esperando el doble cada vez; si
+     * aun así no entra, se guarda mensaje a mensaje y solo se pierden los que
+     * fallen solos.
+     */
+    void flush(List<ChatMessage> batch) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                int saved = save(batch);
+                metricsService.recordWriteBehindFlush(saved);
+                logger.debug("Lote de {} mensajes persistido", saved);
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    logger.error("El lote de {} mensajes sigue fallando tras {} reintentos, se guarda uno a uno: {}",
+                            batch.size(), maxRetries, e.getMessage(), e);
+                    break;
+                }
+                metricsService.recordWriteBehindRetry();
+                logger.warn("Error al persistir lote de {} mensajes (intento {}): {}", batch.size(), attempt + 1,
+                        e.getMessage());
+                if (!backOff(attempt)) {
+                    break;
+                }
+            }
+        }
+        int saved = 0;
+        for (ChatMessage chatMessage : batch) {
+            try {
+                saved += save(List.of(chatMessage));
+            } catch (Exception e) {
+                metricsService.recordWriteBehindFailure(1);
+                logger.error("Mensaje descartado (chat {}, remitente {}, secuencia {}): {}", chatMessage.getChatId(),
+                        chatMessage.getSender(), chatMessage.getSeq(), e.getMessage());
+            }
+        }
+        metricsService.recordWriteBehindFlush(saved);
+    }
+
+    /**
+     * Espera antes del reintento {@code attempt}.
+     *
+     * @return false si el hilo se interrumpió (se apaga la aplicación)
+     */
+    private boolean backOff(int attempt) {
+        try {
+            Thread.sleep(retryBackoffMs << attempt);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Guarda mensajes en una sola transacción.
+     * Los remitentes y los chats se comprueban con una consulta cada uno y los
+     * INSERT salen como lotes JDBC a través de {@link ChatService#saveMessagesInBatch}.
+     * Los mensajes de un remitente o chat que no existen se descartan aquí, sin
+     * hacer fallar al resto.
+     *
+     * @return los mensajes guardados
+     */
+    private int save(List<ChatMessage> batch) {
+        Integer saved = transactionTemplate.execute(status -> {
+            Set<String> usernames = batch.stream()
+                    .map(ChatMessage::getSender)
+                    .collect(Collectors.toCollection(HashSet::new));
+            Map<String, User> senders = userRepository.findByUsernameIn(usernames).stream()
+                    .collect(Collectors.toMap(User::getUsername, Function.identity()));
+            Set<Long> chats = new HashSet<>(chatRepository.findExistingIds(
+                    batch.stream().map(ChatMessage::getChatId).collect(Collectors.toSet())));
+
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (ChatMessage chatMessage : batch) {
+                User sender = senders.get(chatMessage.getSender());
+                if (sender == null || !chats.contains(chatMessage.getChatId())) {
+                    metricsService.recordWriteBehindFailure(1);
+                    logger.warn("Remitente '{}' o chat {} desconocido, mensaje no persistido",
+                            chatMessage.getSender(), chatMessage.getChatId());
+                    continue;
+                }
+                Message message = new Message();
+                message.setChat(chatRepository.getReferenceById(chatMessage.getChatId()));
+                message.setSender(sender);
+                message.setContent(chatMessage.getContent());
+                message.setSeq(chatMessage.getSeq());
+                messages.add(message);
+            }
+            chatService.saveMessagesInBatch(messages);
+            return messages.size();
+        });
+        return saved != null ? saved : 0;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::runWriter, "message-write-behind");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Persistencia write-behind iniciada (lote={}, intervalo={}ms)", batchSize, flushIntervalMs);
+    }
+
+    /**
+     * Al apagar la aplicación se vacía la cola antes de cerrar el pool de conexiones.
+     * El escritor ve {@code running=false} en su siguiente vuelta y sale cuando la cola queda vacía.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        logger.info("Persistencia write-behind detenida, pendientes: {}", queue.size());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
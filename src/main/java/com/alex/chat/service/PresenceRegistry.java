@@ -0,0 +1,147 @@
+package com.alex.chat.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Usuarios conectados a este nodo: usuario -> sesiones WebSocket y última actividad.
+ * El mapa está repartido en shards con su propio bloqueo, así las conexiones,
+ * desconexiones y latidos de usuarios distintos casi nunca compiten por el mismo.
+ */
+class PresenceRegistry {
+
+    private final Shard[] shards;
+    private final int mask;
+
+    /**
+     * @param shards número de shards; se redondea a la siguiente potencia de dos
+     */
+    PresenceRegistry(int shards) {
+        int size = Integer.highestOneBit(Math.max(1, shards - 1)) << 1;
+        this.shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Registra una sesión de un usuario.
+     *
+     * @return true si es su primera sesión en este nodo
+     */
+    boolean connect(String username, String sessionId, long now) {
+        Shard shard = shardFor(username);
+        synchronized (shard) {
+            UserPresence presence = shard.users.computeIfAbsent(username, k -> new UserPresence());
+            presence.lastSeen = now;
+            presence.dirty = true;
+            return presence.sessions.add(sessionId) && presence.sessions.size() == 1;
+        }
+    }
+
+    /**
+     * Quita una sesión de un usuario.
+     *
+     * @return true si era su última sesión en este nodo
+     */
+    boolean disconnect(String username, String sessionId) {
+        Shard shard = shardFor(username);
+        synchronized (shard) {
+            UserPresence presence = shard.users.get(username);
+            if (presence == null || !presence.sessions.remove(sessionId)) {
+                return false;
+            }
+            if (presence.sessions.isEmpty()) {
+                shard.users.remove(username);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Actualiza la última actividad de un usuario conectado.
+     */
+    void touch(String username, long now) {
+        Shard shard = shardFor(username);
+        synchronized (shard) {
+            UserPresence presence = shard.users.get(username);
+            if (presence != null) {
+                presence.lastSeen = now;
+                presence.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Última actividad de un usuario conectado a este nodo.
+     *
+     * @return la marca en milisegundos, o null si no está conectado aquí
+     */
+    Long lastSeen(String username) {
+        Shard shard = shardFor(username);
+        synchronized (shard) {
+            UserPresence presence = shard.users.get(username);
+            return presence != null ? presence.lastSeen : null;
+        }
+    }
+
+    /**
+     * Usuarios con actividad desde la última llamada, con su última actividad.
+     * Deja las marcas limpias.
+     */
+    Map<String, Long> drainDirty() {
+        Map<String, Long> dirty = new HashMap<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.users.forEach((username, presence) -> {
+                    if (presence.dirty) {
+                        presence.dirty = false;
+                        dirty.put(username, presence.lastSeen);
+                    }
+                });
+            }
+        }
+        return dirty;
+    }
+
+    List<String> onlineUsers() {
+        List<String> online = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                online.addAll(shard.users.keySet());
+            }
+        }
+        return online;
+    }
+
+    int onlineCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.users.size();
+            }
+        }
+        return count;
+    }
+
+    private Shard shardFor(String username) {
+        int hash = username.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static final class Shard {
+        final Map<String, UserPresence> users = new HashMap<>();
+    }
+
+    private static final class UserPresence {
+        final Set<String> sessions = new HashSet<>(2);
+        long lastSeen;
+        boolean dirty;
+    }
+}
@@ -0,0 +1,307 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.PresenceView;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presencia de usuarios (conectado / última actividad) en todos los nodos.
+ * <ul>
+ *     <li>Cada nodo lleva sus usuarios conectados en memoria ({@link PresenceRegistry}).</li>
+ *     <li>Entre nodos: {@code presence:{username}} es un set de Redis con los nodos
+ *     donde el usuario tiene sesiones. Cada nodo renueva su TTL periódicamente,
+ *     así si un nodo se cae sus usuarios dejan de aparecer conectados al caducar.
+ *     La última actividad se guarda en el hash {@code presence:last-seen}.</li>
+ *     <li>Las columnas {@code online} y {@code lastActive} de {@link User} se
+ *     actualizan por lotes en una tarea periódica, no en cada evento.</li>
+ * </ul>
+ * La actividad la marcan los frames que envía el cliente (incluidos los
+ * heart-beats STOMP), ver {@link #touch(String)}.
+ */
+@Service
+public class PresenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private static final String KEY_PREFIX = "presence:";
+    private static final String LAST_SEEN_KEY = "presence:last-seen";
+
+    private final StringRedisTemplate redisTemplate;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final PresenceRegistry registry;
+    private final long ttlSeconds;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /** Usuarios que se han desconectado de este nodo desde el último volcado, con su última actividad. */
+    private final Map<String, Long> pendingOffline = new ConcurrentHashMap<>();
+
+    public PresenceService(StringRedisTemplate redisTemplate,
+                           UserRepository userRepository,
+                           PlatformTransactionManager transactionManager,
+                           ChatMetricsService metricsService,
+                           @Value("${chat.presence.shards:16}") int shards,
+                           @Value("${chat.presence.ttl-seconds:60}") long ttlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.registry = new PresenceRegistry(shards);
+        this.ttlSeconds = ttlSeconds;
+        metricsService.registerOnlineUsers(registry::onlineCount);
+    }
+
+    @EventListener
+    public void handleConnected(SessionConnectedEvent event) {
+        String username = username(event);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (username == null || sessionId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (registry.connect(username, sessionId, now)) {
+            pendingOffline.remove(username);
+            runQuietly(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                redis.sAdd(key(username), nodeId);
+                redis.expire(key(username), ttlSeconds);
+                return null;
+            }));
+            logger.debug("Usuario {} conectado", username);
+        }
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        String username = username(event);
+        if (username == null || event.getSessionId() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (registry.disconnect(username, event.getSessionId())) {
+            pendingOffline.put(username, now);
+            runQuietly(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                redis.sRem(key(username), nodeId);
+                redis.hSet(LAST_SEEN_KEY, username, String.valueOf(now));
+                return null;
+            }));
+            logger.debug("Usuario {} desconectado", username);
+        }
+    }
+
+    /**
+     * Marca actividad de un usuario conectado a este nodo. Solo toca memoria;
+     * llega a Redis y a la base de datos en las tareas periódicas.
+     */
+    public void touch(String username) {
+        if (username != null) {
+            registry.touch(username, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Presencia de varios usuarios en una sola llamada, en el orden pedido.
+     * Los conectados a este nodo se resuelven en memoria; el resto con un único
+     * pipeline a Redis y, para quien Redis no conozca, una única consulta.
+     */
+    public List<PresenceView> getPresence(Collection<String> usernames) {
+        Map<String, PresenceView> result = new LinkedHashMap<>();
+        List<String> remote = new ArrayList<>();
+        for (String username : new LinkedHashSet<>(usernames)) {
+            Long lastSeen = registry.lastSeen(username);
+            if (lastSeen != null) {
+                result.put(username, new PresenceView(username, true, lastSeen));
+            } else {
+                result.put(username, null);
+                remote.add(username);
+            }
+        }
+        if (!remote.isEmpty()) {
+            lookupRemote(remote).forEach(result::put);
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * Renueva en Redis la presencia de los usuarios conectados a este nodo antes
+     * de que caduque, junto con su última actividad.
+     */
+    @Scheduled(fixedDelayString = "${chat.presence.refresh-interval-ms:20000}")
+    public void refreshRemotePresence() {
+        List<String> online = registry.onlineUsers();
+        if (online.isEmpty()) {
+            return;
+        }
+        runQuietly(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            Map<String, String> lastSeen = new HashMap<>();
+            for (String username : online) {
+                redis.sAdd(key(username), nodeId);
+                redis.expire(key(username), ttlSeconds);
+                Long seen = registry.lastSeen(username);
+                if (seen != null) {
+                    lastSeen.put(username, String.valueOf(seen));
+                }
+            }
+            if (!lastSeen.isEmpty()) {
+                redis.hMSet(LAST_SEEN_KEY, lastSeen);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Vuelca a la base de datos la actividad y las desconexiones acumuladas:
+     * una consulta para cargar los usuarios y sus UPDATE en lotes JDBC.
+     */
+    @Scheduled(fixedDelayString = "${chat.presence.flush-interval-ms:30000}")
+    public void flushToDatabase() {
+        Map<String, Long> active = registry.drainDirty();
+        Map<String, Long> offline = new HashMap<>();
+        for (String username : pendingOffline.keySet()) {
+            Long seen = pendingOffline.remove(username);
+            if (seen != null) {
+                offline.put(username, seen);
+            }
+        }
+        if (active.isEmpty() && offline.isEmpty()) {
+            return;
+        }
+        // Desconectado de este nodo no quiere decir desconectado del todo
+        Set<String> stillOnline = offline.isEmpty() ? Set.of() : onlineElsewhere(offline.keySet());
+        Set<String> usernames = new HashSet<>(active.keySet());
+        usernames.addAll(offline.keySet());
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (User user : userRepository.findByUsernameIn(usernames)) {
+                    String username = user.getUsername();
+                    Long seen = Math.max(active.getOrDefault(username, 0L), offline.getOrDefault(username, 0L));
+                    user.setOnline(registry.lastSeen(username) != null || stillOnline.contains(username));
+                    user.setLastActive(toLocalDateTime(seen));
+                }
+            });
+            logger.debug("Presencia guardada para {} usuarios", usernames.size());
+        } catch (Exception e) {
+            // Las desconexiones se reintentan; la actividad volverá con el siguiente latido
+            offline.forEach(pendingOffline::putIfAbsent);
+            logger.warn("No se pudo guardar la presencia de {} usuarios: {}", usernames.size(), e.getMessage());
+        }
+    }
+
+    private Map<String, PresenceView> lookupRemote(List<String> usernames) {
+        Map<String, PresenceView> found = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        try {
+            List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (String username : usernames) {
+                    redis.sCard(key(username));
+                }
+                redis.hMGet(LAST_SEEN_KEY, usernames.toArray(new String[0]));
+                return null;
+            });
+            @SuppressWarnings("unchecked")
+            List<String> lastSeen = (List<String>) replies.get(usernames.size());
+            for (int i = 0; i < usernames.size(); i++) {
+                String username = usernames.get(i);
+                boolean online = ((Long) replies.get(i)) > 0;
+                String seen = lastSeen.get(i);
+                if (online || seen != null) {
+                    found.put(username, new PresenceView(username, online, seen != null ? Long.valueOf(seen) : null));
+                } else {
+                    unknown.add(username);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("No se pudo consultar la presencia en Redis, se usa la base de datos: {}", e.getMessage());
+            unknown.addAll(usernames);
+        }
+        if (!unknown.isEmpty()) {
+            for (User user : userRepository.findByUsernameIn(unknown)) {
+                found.put(user.getUsername(), new PresenceView(user.getUsername(), user.isOnline(),
+                        toEpochMillis(user.getLastActive())));
+            }
+        }
+        for (String username : usernames) {
+            found.putIfAbsent(username, new PresenceView(username, false, null));
+        }
+        return found;
+    }
+
+    private Set<String> onlineElsewhere(Collection<String> usernames) {
+        List<String> names = new ArrayList<>(usernames);
+        Set<String> online = new HashSet<>();
+        try {
+            List<Object> counts = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                names.forEach(username -> redis.sCard(key(username)));
+                return null;
+            });
+            for (int i = 0; i < names.size(); i++) {
+                if (((Long) counts.get(i)) > 0) {
+                    online.add(names.get(i));
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("No se pudo comprobar la presencia en otros nodos: {}", e.getMessage());
+        }
+        return online;
+    }
+
+    private static String username(AbstractSubProtocolEvent event) {
+        Principal user = event.getUser();
+        return user != null ? user.getName() : null;
+    }
+
+    private static String key(String username) {
+        return KEY_PREFIX + username;
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static Long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime != null ? dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : null;
+    }
+
+    private static void runQuietly(Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            // La siguiente renovación periódica vuelve a escribir la presencia
+            logger.warn("No se pudo actualizar la presencia en Redis: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.ChatParticipant;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.ReadReceipt;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import com.alex.chat.websocket.ChatBroadcaster;
+import com.alex.chat.websocket.ChatTopics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Confirmaciones de lectura por lotes. Cada confirmación es "he leído hasta el
+ * mensaje con secuencia X en el chat Y" y solo mueve la marca de lectura del
+ * usuario ({@link ChatReadState}); no hay una fila por mensaje leído.
+ * <ul>
+ *     <li>Las confirmaciones se acumulan en memoria: de varias del mismo usuario
+ *     y chat solo queda la secuencia más alta, más los IDs de las que llegaron
+ *     solo con ID (el ID no sigue el orden entre nodos, no se puede quedar el mayor).</li>
+ *     <li>Cada {@code chat.read-receipts.flush-interval-ms} se guardan todas en una
+ *     transacción: una consulta para los usuarios, otra para comprobar que
+ *     participan en los chats, otra para la secuencia de los mensajes confirmados
+ *     por ID, otra para sus marcas y los UPDATE/INSERT en lotes JDBC.</li>
+ *     <li>La marca no pasa del último número repartido en el chat
+ *     ({@link ChatSequenceService#lastAllocated}) ni va hacia atrás.</li>
+ *     <li>Después se reparte un único frame por chat con las marcas que avanzaron,
+ *     en {@code /topic/chat.{id}.receipts}.</li>
+ * </ul>
+ * Las lecturas guardadas con el modelo anterior ({@code message_read_status}) las
+ * pasa a marcas {@link ReadStateMigrationService} al arrancar.
+ */
+@Service
+public class ReadReceiptService implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadReceiptService.class);
+
+    /** IDs sin resolver que se guardan por usuario y chat entre dos volcados; el resto se ignora. */
+    private static final int MAX_PENDING_IDS = 16;
+
+    private final UserRepository userRepository;
+    private final ChatRepository chatRepository;
+    private final ChatReadStateRepository readStateRepository;
+    private final MessageStore messageStore;
+    private final ChatSequenceService sequenceService;
+    private final UnreadCounterService unreadCounterService;
+    private final ChatBroadcaster chatBroadcaster;
+    private final ChatMetricsService metricsService;
+    private final TransactionTemplate transactionTemplate;
+
+    /** (usuario, chatId) -> hasta dónde ha leído, pendiente de guardar */
+    private final Map<ReceiptKey, PendingReceipt> pending = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+
+    public ReadReceiptService(UserRepository userRepository,
+                              ChatRepository chatRepository,
+                              ChatReadStateRepository readStateRepository,
+                              MessageStore messageStore,
+                              ChatSequenceService sequenceService,
+                              UnreadCounterService unreadCounterService,
+                              ChatBroadcaster chatBroadcaster,
+                              ChatMetricsService metricsService,
+                              PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.chatRepository = chatRepository;
+        this.readStateRepository = readStateRepository;
+        this.messageStore = messageStore;
+        this.sequenceService = sequenceService;
+        this.unreadCounterService = unreadCounterService;
+        this.chatBroadcaster = chatBroadcaster;
+        this.metricsService = metricsService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Anota que un usuario ha leído hasta un mensaje, por su secuencia o, si no
+     * la trae, por su ID. Solo toca memoria.
+     */
+    public void submit(String username, Long chatId, Long messageId, Long seq) {
+        if (username == null || chatId == null || (messageId == null && seq == null)) {
+            return;
+        }
+        pending.merge(new ReceiptKey(username, chatId), PendingReceipt.of(messageId, seq), PendingReceipt::merge);
+    }
+
+    /**
+     * Guarda las confirmaciones acumuladas y reparte las marcas que avanzaron.
+     * Si falla la base de datos, vuelven a la cola para el siguiente intento.
+     */
+    @Scheduled(fixedDelayString = "${chat.read-receipts.flush-interval-ms:500}")
+    public void flush() {
+        Map<ReceiptKey, PendingReceipt> receipts = new HashMap<>();
+        for (ReceiptKey key : pending.keySet()) {
+            PendingReceipt receipt = pending.remove(key);
+            if (receipt != null) {
+                receipts.put(key, receipt);
+            }
+        }
+        if (receipts.isEmpty()) {
+            return;
+        }
+        AppliedReceipts applied;
+        try {
+            applied = transactionTemplate.execute(status -> apply(receipts));
+        } catch (Exception e) {
+            receipts.forEach((key, receipt) -> pending.merge(key, receipt, PendingReceipt::merge));
+            logger.warn("No se pudieron guardar {} confirmaciones de lectura: {}", receipts.size(), e.getMessage());
+            return;
+        }
+        metricsService.recordReadReceiptFlush(receipts.size());
+        if (applied.receipts().isEmpty()) {
+            return;
+        }
+        unreadCounterService.invalidate(applied.userIds());
+        fanOut(applied.receipts());
+        logger.debug("{} marcas de lectura actualizadas", applied.receipts().size());
+    }
+
+    private AppliedReceipts apply(Map<ReceiptKey, PendingReceipt> receipts) {
+        Set<String> usernames = new HashSet<>();
+        Set<Long> chatIds = new HashSet<>();
+        Set<Long> messageIds = new HashSet<>();
+        receipts.forEach((key, receipt) -> {
+            usernames.add(key.username());
+            chatIds.add(key.chatId());
+            messageIds.addAll(receipt.messageIds());
+        });
+        Map<String, Long> userIds = new HashMap<>();
+        for (User user : userRepository.findByUsernameIn(usernames)) {
+            userIds.put(user.getUsername(), user.getId());
+        }
+        if (userIds.isEmpty()) {
+            return new AppliedReceipts(List.of(), Set.of());
+        }
+        Set<StateKey> participants = new HashSet<>();
+        for (ChatParticipant participant : chatRepository.findParticipants(chatIds, userIds.values())) {
+            participants.add(new StateKey(participant.userId(), participant.chatId()));
+        }
+        Map<Long, MessageView> messages = new HashMap<>();
+        if (!messageIds.isEmpty()) {
+            messageStore.findViewsByIdIn(messageIds)
+                    .forEach(view -> messages.put(view.id(), view));
+        }
+        Map<Long, Long> lastSeqs = sequenceService.lastAllocated(chatIds);
+        Map<StateKey, ChatReadState> states = new HashMap<>();
+        for (ChatReadState state : readStateRepository.findByUserIdInAndChatIdIn(userIds.values(), chatIds)) {
+            states.put(new StateKey(state.getUserId(), state.getChatId()), state);
+        }
+
+        List<ChatReadState> created = new ArrayList<>();
+        List<ReadReceipt> advanced = new ArrayList<>();
+        Set<Long> advancedUsers = new HashSet<>();
+        receipts.forEach((key, receipt) -> {
+            Long userId = userIds.get(key.username());
+            StateKey stateKey = new StateKey(userId, key.chatId());
+            if (userId == null || !participants.contains(stateKey)) {
+                return;
+            }
+            // La más alta entre la secuencia recibida y la de los mensajes confirmados por ID
+            long seq = receipt.seq();
+            Long messageId = null;
+            for (Long id : receipt.messageIds()) {
+                MessageView message = messages.get(id);
+                if (message != null && key.chatId().equals(message.chatId())
+                        && message.seq() != null && message.seq() > seq) {
+                    seq = message.seq();
+                    messageId = id;
+                }
+            }
+            // Nunca más allá del último mensaje del chat
+            long lastSeq = lastSeqs.getOrDefault(key.chatId(), 0L);
+            if (seq > lastSeq) {
+                seq = lastSeq;
+                messageId = null;
+            }
+            if (seq <= 0) {
+                return;
+            }
+            ChatReadState state = states.get(stateKey);
+            if (state == null) {
+                created.add(new ChatReadState(null, userId, key.chatId(), messageId != null ? messageId : 0L, seq, null));
+            } else if (seq > state.getLastReadSeq()) {
+                // Entidad gestionada: el UPDATE sale al confirmar, agrupado con los demás
+                state.setLastReadSeq(seq);
+                if (messageId != null) {
+                    state.setLastReadMessageId(messageId);
+                }
+            } else {
+                // La marca nunca va hacia atrás
+                return;
+            }
+            advanced.add(new ReadReceipt(key.chatId(), key.username(), messageId, seq));
+            advancedUsers.add(userId);
+        });
+        readStateRepository.saveAll(created);
+        return new AppliedReceipts(advanced, advancedUsers);
+    }
+
+    /**
+     * Un frame por chat con todas sus marcas nuevas.
+     */
+    private void fanOut(List<ReadReceipt> receipts) {
+        Map<Long, List<ReadReceipt>> perChat = new HashMap<>();
+        receipts.forEach(receipt -> perChat.computeIfAbsent(receipt.chatId(), k -> new ArrayList<>()).add(receipt));
+        perChat.forEach((chatId, chatReceipts) -> {
+            try {
+                chatBroadcaster.broadcast(ChatTopics.receiptsChannel(chatId), chatReceipts);
+            } catch (Exception e) {
+                // Ya están guardadas: los clientes las verán al recargar el chat
+                logger.warn("No se pudieron repartir las confirmaciones del chat {}: {}", chatId, e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Al parar se guardan las confirmaciones pendientes.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        flush();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private record ReceiptKey(String username, Long chatId) {
+    }
+
+    /**
+     * Lo confirmado por un usuario en un chat desde el último volcado: la
+     * secuencia más alta recibida y los IDs que llegaron sin secuencia.
+     */
+    private record PendingReceipt(long seq, Set<Long> messageIds) {
+
+        static PendingReceipt of(Long messageId, Long seq) {
+            return seq != null
+                    ? new PendingReceipt(seq, Set.of())
+                    : new PendingReceipt(0, Set.of(messageId));
+        }
+
+        PendingReceipt merge(PendingReceipt other) {
+            Set<Long> ids = messageIds;
+            if (!other.messageIds.isEmpty() && messageIds.size() < MAX_PENDING_IDS) {
+                ids = new HashSet<>(messageIds);
+                ids.addAll(other.messageIds);
+            }
+            return new PendingReceipt(Math.max(seq, other.seq), ids);
+        }
+    }
+
+    private record StateKey(Long userId, Long chatId) {
+    }
+
+    private record AppliedReceipts(List<ReadReceipt> receipts, Set<Long> userIds) {
+    }
+}
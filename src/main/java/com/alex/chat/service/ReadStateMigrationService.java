@@ -0,0 +1,185 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.store.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Pasa las lecturas guardadas con los modelos anteriores a las marcas de lectura
+ * por secuencia ({@link ChatReadState}) al arrancar. No hay Flyway: como el resto
+ * del esquema (ddl-auto=update), la migración se hace desde la aplicación y se
+ * puede repetir sin duplicar nada.
+ * <ul>
+ *     <li>Quién había leído cada mensaje estaba en la tabla {@code message_read_status}.
+ *     Cada usuario queda con una marca en el mensaje más alto que había leído de
+ *     cada chat en el que participa, y la tabla se renombra a
+ *     {@code message_read_status_migrated} para no volver a leerla.</li>
+ *     <li>Las marcas guardadas solo con el ID del mensaje reciben su secuencia.</li>
+ * </ul>
+ * Los contadores de no leídos de los usuarios tocados se recalculan en su
+ * siguiente consulta.
+ */
+@Service
+public class ReadStateMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadStateMigrationService.class);
+
+    static final String LEGACY_TABLE = "message_read_status";
+
+    private final JdbcTemplate jdbc;
+    private final ChatReadStateRepository readStateRepository;
+    private final MessageStore messageStore;
+    private final UnreadCounterService unreadCounterService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int chunkSize;
+
+    public ReadStateMigrationService(DataSource dataSource,
+                                     ChatReadStateRepository readStateRepository,
+                                     MessageStore messageStore,
+                                     UnreadCounterService unreadCounterService,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${chat.read-state.migrate-on-startup:true}") boolean enabled,
+                                     @Value("${chat.read-state.migration-chunk-size:1000}") int chunkSize) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.readStateRepository = readStateRepository;
+        this.messageStore = messageStore;
+        this.unreadCounterService = unreadCounterService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            migrate();
+        } catch (Exception e) {
+            // Se vuelve a intentar en el siguiente arranque; mientras, los no leídos salen de más
+            logger.error("No se pudieron migrar las marcas de lectura: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Hace las dos migraciones.
+     *
+     * @return los usuarios cuyas marcas se crearon o movieron
+     */
+    Set<Long> migrate() {
+        Set<Long> touched = new HashSet<>();
+        Set<Long> fromLegacyTable = transactionTemplate.execute(status -> importLegacyReadStatus());
+        if (fromLegacyTable != null) {
+            touched.addAll(fromLegacyTable);
+        }
+        touched.addAll(fillMissingSequences());
+        if (!touched.isEmpty()) {
+            unreadCounterService.invalidate(touched);
+            logger.info("Marcas de lectura migradas para {} usuarios", touched.size());
+        }
+        return touched;
+    }
+
+    /**
+     * Una marca por usuario y chat con lo más alto que leyó según {@code message_read_status}.
+     * Solo cuentan los chats en los que el usuario sigue participando. Si ya tenía
+     * marca, solo se mueve hacia delante.
+     */
+    private Set<Long> importLegacyReadStatus() {
+        List<long[]> rows;
+        try {
+            rows = jdbc.query("SELECT rs.user_id, m.chat_id, MAX(m.id), COALESCE(MAX(m.seq), 0) FROM " + LEGACY_TABLE
+                            + " rs JOIN messages m ON m.id = rs.message_id "
+                            + "JOIN chat_participants p ON p.chat_id = m.chat_id AND p.user_id = rs.user_id "
+                            + "GROUP BY rs.user_id, m.chat_id",
+                    (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4)});
+        } catch (BadSqlGrammarException e) {
+            // Base de datos creada después de las marcas de lectura, o ya migrada
+            return Set.of();
+        }
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> chatIds = new HashSet<>();
+        rows.forEach(row -> {
+            userIds.add(row[0]);
+            chatIds.add(row[1]);
+        });
+        Map<List<Long>, ChatReadState> existing = new HashMap<>();
+        if (!rows.isEmpty()) {
+            readStateRepository.findByUserIdInAndChatIdIn(userIds, chatIds)
+                    .forEach(state -> existing.put(List.of(state.getUserId(), state.getChatId()), state));
+        }
+        Set<Long> touched = new HashSet<>();
+        for (long[] row : rows) {
+            ChatReadState state = existing.get(List.of(row[0], row[1]));
+            if (state == null) {
+                readStateRepository.save(new ChatReadState(null, row[0], row[1], row[2], row[3], null));
+            } else if (row[3] > state.getLastReadSeq()) {
+                state.setLastReadSeq(row[3]);
+                state.setLastReadMessageId(row[2]);
+            } else {
+                continue;
+            }
+            touched.add(row[0]);
+        }
+        jdbc.execute("ALTER TABLE " + LEGACY_TABLE + " RENAME TO " + LEGACY_TABLE + "_migrated");
+        logger.info("{}: {} marcas de lectura importadas", LEGACY_TABLE, rows.size());
+        return touched;
+    }
+
+    /**
+     * Pone la secuencia de su mensaje a las marcas que solo tienen el ID, por trozos.
+     * Las de mensajes anteriores a las secuencias se quedan en 0.
+     */
+    private Set<Long> fillMissingSequences() {
+        Set<Long> touched = new HashSet<>();
+        long afterId = 0;
+        while (true) {
+            long cursor = afterId;
+            List<ChatReadState> chunk = transactionTemplate.execute(status -> {
+                List<ChatReadState> states = readStateRepository.findWithoutSeqAfter(cursor, Limit.of(chunkSize));
+                List<Long> messageIds = states.stream().map(ChatReadState::getLastReadMessageId).toList();
+                Map<Long, MessageView> messages = messageStore.findViewsByIdIn(messageIds).stream()
+                        .collect(Collectors.toMap(MessageView::id, Function.identity()));
+                for (ChatReadState state : states) {
+                    MessageView message = messages.get(state.getLastReadMessageId());
+                    if (message != null && message.seq() != null && message.chatId().equals(state.getChatId())) {
+                        // Entidad gestionada: el UPDATE sale al confirmar
+                        state.setLastReadSeq(message.seq());
+                        touched.add(state.getUserId());
+                    }
+                }
+                return states;
+            });
+            if (chunk == null || chunk.isEmpty()) {
+                return touched;
+            }
+            afterId = chunk.getLast().getId();
+            if (chunk.size() < chunkSize) {
+                return touched;
+            }
+        }
+    }
+}
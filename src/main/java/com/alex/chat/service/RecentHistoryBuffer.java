@@ -0,0 +1,434 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.store.MessageStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Los últimos mensajes de cada chat activo en memoria, para servir la primera
+ * página del historial sin ir a la base de datos. Casi todas las peticiones de
+ * historial son la primera página de un chat que alguien acaba de abrir, y esos
+ * mensajes ya pasan por este nodo en directo desde Redis.
+ * <p>
+ * Cada chat tiene un buffer circular de los últimos {@code messages-per-chat}
+ * mensajes en arrays paralelos (IDs, secuencias y horas como primitivos, el
+ * contenido en UTF-8). Se carga de la base de datos la primera vez que se pide
+ * y luego lo alimenta {@link com.alex.chat.config.redis.RedisMessageSubscriber}.
+ * Entre chats manda un presupuesto global de memoria: al pasarse, Caffeine
+ * descarta los chats menos usados.
+ * <p>
+ * Los mensajes en directo se publican antes de guardarse y llegan sin ID. Lo
+ * reciben al guardarse si los guarda este nodo y, si los guardó otro, al servir
+ * una página que los incluye (una consulta por rango de secuencia, solo para los
+ * que faltan). La página se pagina por secuencia; si el más antiguo todavía no
+ * tiene ID se sirve desde la base de datos, así el cursor por ID nunca falta.
+ * <p>
+ * Solo se guardan chats con algún suscriptor local, porque solo de esos recibe
+ * este nodo los mensajes en directo. Con el relay a un broker externo no llega
+ * ninguno y todo el historial sale de la base de datos.
+ */
+@Service
+public class RecentHistoryBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecentHistoryBuffer.class);
+
+    private final MessageStore messageStore;
+    private final ChatMetricsService metricsService;
+    private final boolean enabled;
+    private final int capacity;
+    private final long ttlMillis;
+    private final Cache<Long, Ring> rings;
+
+    /** Chats con suscriptores locales, los únicos cuyos mensajes llegan a este nodo. */
+    private final Set<Long> liveChats = ConcurrentHashMap.newKeySet();
+
+    public RecentHistoryBuffer(MessageStore messageStore,
+                               ChatMetricsService metricsService,
+                               @Value("${chat.history.recent.enabled:true}") boolean enabled,
+                               @Value("${chat.history.recent.messages-per-chat:100}") int capacity,
+                               @Value("${chat.history.recent.max-bytes:67108864}") long maxBytes,
+                               @Value("${chat.history.recent.ttl-seconds:60}") long ttlSeconds) {
+        this.messageStore = messageStore;
+        this.metricsService = metricsService;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.ttlMillis = ttlSeconds * 1000;
+        // El mantenimiento (y el descarte) en el propio hilo: el presupuesto se
+        // respeta en cuanto vuelve la llamada y no hace falta otro pool
+        this.rings = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long chatId, Ring ring) -> ring.weight())
+                .executor(Runnable::run)
+                .build();
+        metricsService.registerRecentHistory(rings::estimatedSize,
+                () -> rings.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L));
+    }
+
+    /**
+     * El nodo empieza a recibir los mensajes de un chat. Lo que hubiera de antes
+     * se descarta: mientras no escuchaba se pudo perder algo.
+     */
+    public void roomJoined(Long chatId) {
+        if (enabled) {
+            rings.invalidate(chatId);
+            liveChats.add(chatId);
+        }
+    }
+
+    /**
+     * El nodo deja de recibir los mensajes de un chat y su buffer deja de valer.
+     */
+    public void roomLeft(Long chatId) {
+        if (liveChats.remove(chatId)) {
+            rings.invalidate(chatId);
+        }
+    }
+
+    /**
+     * Añade un mensaje recibido en directo al buffer de su chat, si lo tiene.
+     * Un mensaje sin número de secuencia no se puede colocar ni comprobar que no
+     * falte nada, así que el buffer se vuelve a cargar en la siguiente petición.
+     */
+    public void onLiveMessage(ChatMessage message) {
+        if (message.getChatId() == null) {
+            return;
+        }
+        rings.asMap().computeIfPresent(message.getChatId(), (chatId, ring) -> {
+            if (message.getSeq() == null) {
+                ring.markStale();
+            } else {
+                long sentAt = message.getSentAt() != null ? message.getSentAt() : System.currentTimeMillis();
+                ring.add(0, message.getSeq(), sentAt, message.getSender(), message.getContent());
+            }
+            // Devolver el mismo buffer hace que Caffeine vuelva a pesarlo
+            return ring;
+        });
+    }
+
+    /**
+     * Pone su ID a los mensajes recién guardados por este nodo, cuando se confirme
+     * la transacción.
+     */
+    public void onMessagesPersisted(List<Message> messages) {
+        Map<Long, Map<Long, Long>> idsByChat = new HashMap<>();
+        for (Message message : messages) {
+            if (message.getId() != null && message.getSeq() != null) {
+                idsByChat.computeIfAbsent(message.getChat().getId(), k -> new HashMap<>())
+                        .put(message.getSeq(), message.getId());
+            }
+        }
+        if (!idsByChat.isEmpty()) {
+            TransactionHooks.afterCommit(() -> idsByChat.forEach((chatId, ids) -> {
+                Ring ring = rings.getIfPresent(chatId);
+                if (ring != null) {
+                    ring.fillIds(ids);
+                }
+            }), e -> {
+                // Las entradas sin ID se completan al servir la página, o se va a la base de datos
+                logger.warn("No se pudieron poner los IDs en el buffer de historial: {}", e.getMessage());
+            });
+        }
+    }
+
+    /**
+     * Se borró un mensaje del chat: su buffer se descarta entero.
+     */
+    public void onMessageDeleted(Long chatId) {
+        rings.invalidate(chatId);
+    }
+
+    /**
+     * La primera página del historial de un chat, si se puede servir entera desde
+     * memoria. Si el chat no tiene buffer todavía se carga ahora con una sola
+     * consulta; si el buffer no basta (le falta algún número de secuencia o tiene
+     * menos mensajes de los pedidos) se devuelve vacío y se recarga en la siguiente.
+     */
+    public Optional<MessagePage> firstPage(Long chatId, int pageSize) {
+        if (!enabled || !liveChats.contains(chatId)) {
+            metricsService.recordRecentHistory("inactive");
+            return Optional.empty();
+        }
+        Ring ring = rings.get(chatId, id -> new Ring(capacity));
+        long now = System.currentTimeMillis();
+        if (ring.isStale(now, ttlMillis)) {
+            // Sin bloquear el buffer: los mensajes que lleguen mientras tanto se conservan
+            // Por secuencia; los anteriores a las secuencias van detrás con secuencia 0
+            List<MessageView> rows = messageStore.findLatestPage(chatId, capacity);
+            ring.load(rows, now);
+            rings.asMap().computeIfPresent(chatId, (id, current) -> current);
+            logger.debug("Buffer del chat {} cargado con {} mensajes", chatId, rows.size());
+        }
+        MessagePage page = ring.page(chatId, pageSize);
+        if (page != null && page.items().stream().anyMatch(item -> item.id() == null)) {
+            page = withPersistedIds(chatId, ring, page, pageSize);
+        }
+        metricsService.recordRecentHistory(page != null ? "hit" : "miss");
+        return Optional.ofNullable(page);
+    }
+
+    /**
+     * Busca los IDs que faltan en la página (mensajes que guardó otro nodo) y la
+     * vuelve a montar. Los que aún no se han guardado siguen sin ID, igual que
+     * llegaron por WebSocket; pero si es el más antiguo, del que sale el cursor,
+     * la página se pide a la base de datos.
+     */
+    private MessagePage withPersistedIds(Long chatId, Ring ring, MessagePage page, int pageSize) {
+        List<Long> missing = page.items().stream()
+                .filter(item -> item.id() == null)
+                .map(MessageView::seq)
+                .toList();
+        long fromSeq = missing.stream().mapToLong(Long::longValue).min().orElseThrow();
+        long toSeq = missing.stream().mapToLong(Long::longValue).max().orElseThrow();
+        List<MessageView> persisted = messageStore.findViewsBySeqRange(chatId, fromSeq, toSeq);
+        Map<Long, Long> ids = new HashMap<>();
+        persisted.forEach(view -> ids.put(view.seq(), view.id()));
+        ring.fillIds(ids);
+        MessagePage filled = ring.page(chatId, pageSize);
+        if (filled == null || (filled.nextSeqCursor() != null && filled.nextCursor() == null)) {
+            return null;
+        }
+        return filled;
+    }
+
+    /**
+     * Buffer circular de los últimos mensajes de un chat, del más antiguo (en
+     * {@code start}) al más nuevo, ordenados por número de secuencia. Los que
+     * salen de la base de datos llevan ID; los que llegan en directo, 0 hasta que
+     * se sabe con {@link #fillIds}. Los números de secuencia hasta {@code verifiedSeq} salieron
+     * de la base de datos; por encima tienen que ir seguidos, o es que se ha
+     * perdido alguno por el camino.
+     */
+    static final class Ring {
+
+        /** Cabeceras del objeto y de los cinco arrays. */
+        private static final int RING_BYTES = 64 + 5 * 16;
+        /** Tres long y dos referencias por hueco, esté ocupado o no. */
+        private static final int SLOT_BYTES = 3 * 8 + 2 * 4;
+        /** Cabecera del array del contenido y del String del remitente. */
+        private static final int ENTRY_BYTES = 16 + 40;
+
+        private final long[] ids;
+        private final long[] seqs;
+        private final long[] sentAts;
+        private final String[] senders;
+        private final byte[][] contents;
+        private int start;
+        private int size;
+        private long bytes;
+        private long verifiedSeq;
+        private boolean complete;
+        private long loadedAt;
+
+        Ring(int capacity) {
+            this.ids = new long[capacity];
+            this.seqs = new long[capacity];
+            this.sentAts = new long[capacity];
+            this.senders = new String[capacity];
+            this.contents = new byte[capacity][];
+        }
+
+        synchronized int weight() {
+            return (int) Math.min(Integer.MAX_VALUE, RING_BYTES + (long) ids.length * SLOT_BYTES + bytes);
+        }
+
+        synchronized boolean isStale(long now, long ttlMillis) {
+            return loadedAt == 0 || now - loadedAt > ttlMillis;
+        }
+
+        synchronized void markStale() {
+            loadedAt = 0;
+        }
+
+        /**
+         * Carga los mensajes de la base de datos (del más nuevo al más antiguo) y
+         * conserva los recibidos en directo que aún no estaban guardados.
+         */
+        synchronized void load(List<MessageView> newestFirst, long now) {
+            long persistedSeq = 0;
+            for (MessageView row : newestFirst) {
+                if (row.seq() != null) {
+                    persistedSeq = Math.max(persistedSeq, row.seq());
+                }
+            }
+            List<Object[]> pending = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int slot = slot(i);
+                if (seqs[slot] > persistedSeq) {
+                    pending.add(new Object[]{seqs[slot], sentAts[slot], senders[slot], contents[slot]});
+                }
+            }
+
+            start = 0;
+            size = 0;
+            bytes = 0;
+            verifiedSeq = 0;
+            for (MessageView row : newestFirst.reversed()) {
+                long sentAt = row.sentAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                append(row.id(), row.seq() != null ? row.seq() : 0, sentAt, row.sender(),
+                        row.content().getBytes(StandardCharsets.UTF_8));
+            }
+            verifiedSeq = persistedSeq;
+            complete = newestFirst.size() < ids.length;
+            loadedAt = now;
+            for (Object[] entry : pending) {
+                add(0, (long) entry[0], (long) entry[1], (String) entry[2], (byte[]) entry[3]);
+            }
+        }
+
+        /**
+         * Pone el ID a los mensajes que aún no lo tenían, por número de secuencia.
+         */
+        synchronized void fillIds(Map<Long, Long> idsBySeq) {
+            for (int i = 0; i < size; i++) {
+                int slot = slot(i);
+                if (ids[slot] == 0) {
+                    Long id = idsBySeq.get(seqs[slot]);
+                    if (id != null) {
+                        ids[slot] = id;
+                    }
+                }
+            }
+        }
+
+        synchronized void add(long id, long seq, long sentAt, String sender, String content) {
+            add(id, seq, sentAt, sender, content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Coloca un mensaje por su número de secuencia. Normalmente va al final;
+         * si llega desordenado se desplazan los pocos que tiene detrás.
+         */
+        private void add(long id, long seq, long sentAt, String sender, byte[] content) {
+            if (seq <= verifiedSeq) {
+                return;
+            }
+            int position = size;
+            while (position > 0) {
+                long previous = seqs[slot(position - 1)];
+                if (previous == seq) {
+                    return;
+                }
+                if (previous < seq) {
+                    break;
+                }
+                position--;
+            }
+            if (size == ids.length) {
+                if (position == 0) {
+                    return;
+                }
+                removeOldest();
+                position--;
+            }
+            for (int i = size; i > position; i--) {
+                copy(slot(i - 1), slot(i));
+            }
+            set(slot(position), id, seq, sentAt, sender, content);
+            size++;
+        }
+
+        private void append(Long id, long seq, long sentAt, String sender, byte[] content) {
+            if (size == ids.length) {
+                removeOldest();
+            }
+            set(slot(size), id != null ? id : 0, seq, sentAt, sender, content);
+            size++;
+        }
+
+        private void removeOldest() {
+            // Lo que sale por el principio ya no cuenta para buscar huecos
+            verifiedSeq = Math.max(verifiedSeq, seqs[start]);
+            bytes -=ENTRY_BYTES + contents[start].length + senders[start].length();
+            senders[start] = null;
+            contents[start] = null;
+            start = (start + 1) % ids.length;
+            size--;
+            complete = false;
+        }
+
+        private void set(int slot, long id, long seq, long sentAt, String sender, byte[] content) {
+            ids[slot] = id;
+            seqs[slot] = seq;
+            sentAts[slot] = sentAt;
+            senders[slot] = sender;
+            contents[slot] = content;
+            bytes += ENTRY_BYTES + content.length + sender.length();
+        }
+
+        private void copy(int from, int to) {
+            ids[to] = ids[from];
+            seqs[to] = seqs[from];
+            sentAts[to] = sentAts[from];
+            senders[to] = senders[from];
+            contents[to] = contents[from];
+        }
+
+        private int slot(int index) {
+            return (start + index) % ids.length;
+        }
+
+        /**
+         * Los {@code pageSize} mensajes más nuevos, o null si no se puede asegurar
+         * que estén todos.
+         */
+        synchronized MessagePage page(Long chatId, int pageSize) {
+            if (loadedAt == 0 || (size < pageSize && !complete)) {
+                return null;
+            }
+            long expected = verifiedSeq + 1;
+            for (int i = 0; i < size; i++) {
+                long seq = seqs[slot(i)];
+                if (seq > verifiedSeq) {
+                    if (seq != expected) {
+                        // Falta alguno que aún no está guardado: a la base de datos y a recargar
+                        loadedAt = 0;
+                        return null;
+                    }
+                    expected++;
+                }
+            }
+
+            int count = Math.min(pageSize, size);
+            List<MessageView> items = new ArrayList<>(count);
+            for (int i = size - 1; i >= size - count; i--) {
+                items.add(view(chatId, slot(i)));
+            }
+            if (complete && count == size) {
+                return new MessagePage(items, null);
+            }
+            int oldest = slot(size - count);
+            return new MessagePage(items, ids[oldest] != 0 ? ids[oldest] : null,
+                    seqs[oldest] != 0 ? seqs[oldest] : null);
+        }
+
+        private MessageView view(Long chatId, int slot) {
+            return new MessageView(
+                    ids[slot] != 0 ? ids[slot] : null,
+                    chatId,
+                    senders[slot],
+                    new String(contents[slot], StandardCharsets.UTF_8),
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(sentAts[slot]), ZoneId.systemDefault()),
+                    seqs[slot] != 0 ? seqs[slot] : null);
+        }
+    }
+}
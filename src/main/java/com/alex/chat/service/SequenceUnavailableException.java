@@ -0,0 +1,17 @@
+package com.alex.chat.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * No se pudo reservar número de secuencia (Redis no responde). El mensaje no se
+ * guarda ni se reparte: sin secuencia saldría mal ordenado en el historial y en
+ * la exportación y nunca contaría como no leído. El cliente puede reintentar.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class SequenceUnavailableException extends RuntimeException {
+
+    public SequenceUnavailableException(Long chatId) {
+        super("No se pudo numerar el mensaje del chat " + chatId + ", inténtalo de nuevo");
+    }
+}
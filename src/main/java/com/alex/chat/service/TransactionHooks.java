@@ -0,0 +1,46 @@
+package com.alex.chat.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Consumer;
+
+/**
+ * Trabajo que va detrás de una transacción de la base de datos (contadores de
+ * Redis, el índice de búsqueda, el buffer de historial): solo se hace si la
+ * transacción confirma y, si falla, no afecta a quien guardó. Lo que ya está
+ * confirmado no se puede deshacer, así que el error se entrega a {@code onFailure}
+ * en lugar de subir hasta quien confirmó.
+ */
+final class TransactionHooks {
+
+    private TransactionHooks() {
+    }
+
+    /**
+     * Ejecuta {@code action} cuando confirme la transacción en curso, o ya si no hay ninguna.
+     */
+    static void afterCommit(Runnable action, Consumer<RuntimeException> onFailure) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    runQuietly(action, onFailure);
+                }
+            });
+        } else {
+            runQuietly(action, onFailure);
+        }
+    }
+
+    /**
+     * Ejecuta {@code action} y, si falla, entrega el error a {@code onFailure}.
+     */
+    static void runQuietly(Runnable action, Consumer<RuntimeException> onFailure) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            onFailure.accept(e);
+        }
+    }
+}
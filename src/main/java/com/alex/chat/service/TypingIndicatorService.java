@@ -0,0 +1,173 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.TypingEvent;
+import com.alex.chat.websocket.ChatBroadcaster;
+import com.alex.chat.websocket.ChatTopics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Avisos de "está escribiendo" por un camino rápido y efímero: no pasan por la
+ * base de datos ni por la caché, solo por memoria y por el pub/sub de Redis.
+ * <ul>
+ *     <li>Cada sesión tiene un límite de avisos de escritura por segundo, contando
+ *     también los que empiezan; lo que lo supera se descarta. Así alternar empezar y
+ *     parar no llena Redis. Los finales no se limitan (uno descartado dejaría al
+ *     usuario "escribiendo" hasta que caducara), pero solo se reparten si el usuario
+ *     constaba escribiendo.</li>
+ *     <li>Solo se reparten los cambios de estado: el primer aviso de un usuario en
+ *     una sala y el final. Los avisos de cada tecla solo renuevan su plazo en memoria.</li>
+ *     <li>Si un usuario deja de enviar avisos durante {@code chat.typing.timeout-ms},
+ *     o cierra la sesión, se reparte el final por él.</li>
+ * </ul>
+ * Los cambios van al canal {@code chat.{id}.typing} por {@link ChatBroadcaster},
+ * separado del de los mensajes, y llegan a los clientes en {@code /topic/chat.{id}.typing}
+ * (entre nodos los entrega {@link com.alex.chat.config.redis.RoomSignalSubscriber}).
+ */
+@Service
+public class TypingIndicatorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TypingIndicatorService.class);
+
+    private static final long RATE_WINDOW_MILLIS = 1000;
+
+    private final ChatBroadcaster chatBroadcaster;
+    private final ChatMetricsService metricsService;
+    private final long timeoutMillis;
+    private final int maxEventsPerSecond;
+
+    /** (chatId, usuario) -> quién está escribiendo en este nodo y hasta cuándo */
+    private final Map<TypingKey, TypingState> typing = new ConcurrentHashMap<>();
+
+    /** sessionId -> avisos recibidos en la ventana actual */
+    private final Map<String, RateWindow> rates = new ConcurrentHashMap<>();
+
+    public TypingIndicatorService(ChatBroadcaster chatBroadcaster,
+                                  ChatMetricsService metricsService,
+                                  @Value("${chat.typing.timeout-ms:5000}") long timeoutMillis,
+                                  @Value("${chat.typing.max-per-second:10}") int maxEventsPerSecond) {
+        this.chatBroadcaster = chatBroadcaster;
+        this.metricsService = metricsService;
+        this.timeoutMillis = timeoutMillis;
+        this.maxEventsPerSecond = maxEventsPerSecond;
+    }
+
+    /**
+     * Procesa un aviso de un cliente.
+     *
+     * @param sessionId sesión WebSocket que lo envía
+     * @param username  usuario autenticado de la sesión
+     * @param chatId    sala donde escribe
+     * @param isTyping  true al escribir, false al parar (o al enviar el mensaje)
+     */
+    public void onTyping(String sessionId, String username, Long chatId, boolean isTyping) {
+        if (sessionId == null || username == null || chatId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        TypingKey key = new TypingKey(chatId, username);
+        boolean changed;
+        if (isTyping) {
+            if (!allow(sessionId, now)) {
+                metricsService.recordTypingEvent("rate_limited");
+                return;
+            }
+            TypingState state = typing.get(key);
+            if (state != null) {
+                // Aviso repetido: solo renueva el plazo
+                state.refresh(sessionId, now + timeoutMillis);
+                changed = false;
+            } else {
+                changed = typing.putIfAbsent(key, new TypingState(sessionId, now + timeoutMillis)) == null;
+            }
+        } else {
+            // Un final sin estado no se reparte: no hay nada que parar
+            changed = typing.remove(key) != null;
+        }
+        if (changed) {
+            fanOut(key, isTyping);
+        } else {
+            metricsService.recordTypingEvent("deduplicated");
+        }
+    }
+
+    /**
+     * Reparte el final de quien lleva un rato sin avisar: el cliente puede haber
+     * borrado el texto o perdido la conexión sin decir nada.
+     */
+    @Scheduled(fixedDelayString = "${chat.typing.sweep-interval-ms:1000}")
+    public void expireStale() {
+        long now = System.currentTimeMillis();
+        typing.forEach((key, state) -> {
+            if (state.expiresAt < now && typing.remove(key, state)) {
+                fanOut(key, false);
+            }
+        });
+        rates.values().removeIf(window -> now - window.start > RATE_WINDOW_MILLIS * 60);
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        rates.remove(sessionId);
+        typing.forEach((key, state) -> {
+            if (sessionId.equals(state.sessionId) && typing.remove(key, state)) {
+                fanOut(key, false);
+            }
+        });
+    }
+
+    private boolean allow(String sessionId, long now) {
+        RateWindow window = rates.computeIfAbsent(sessionId, k -> new RateWindow());
+        synchronized (window) {
+            if (now - window.start >= RATE_WINDOW_MILLIS) {
+                window.start = now;
+                window.count = 0;
+            }
+            return ++window.count <= maxEventsPerSecond;
+        }
+    }
+
+    private void fanOut(TypingKey key, boolean isTyping) {
+        try {
+            chatBroadcaster.broadcast(ChatTopics.typingChannel(key.chatId()),
+                    new TypingEvent(key.chatId(), key.username(), isTyping));
+            metricsService.recordTypingEvent("fanout");
+        } catch (Exception e) {
+            // Un aviso perdido no es grave: el siguiente cambio de estado lo corrige
+            logger.warn("No se pudo repartir el aviso de escritura de {} en el chat {}: {}",
+                    key.username(), key.chatId(), e.getMessage());
+        }
+    }
+
+    private record TypingKey(Long chatId, String username) {
+    }
+
+    private static final class TypingState {
+        volatile String sessionId;
+        volatile long expiresAt;
+
+        TypingState(String sessionId, long expiresAt) {
+            this.sessionId = sessionId;
+            this.expiresAt = expiresAt;
+        }
+
+        void refresh(String sessionId, long expiresAt) {
+            this.sessionId = sessionId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class RateWindow {
+        long start;
+        int count;
+    }
+}
@@ -0,0 +1,232 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Contadores de mensajes no leídos por usuario y chat.
+ * En base de datos solo se guarda la marca de lectura de cada usuario
+ * ({@link ChatReadState}); los contadores viven en Redis, en un hash
+ * {@code unread:{userId}} con un campo por chat, y se incrementan al guardar
+ * cada mensaje. Una tarea periódica los recalcula desde la base de datos para
+ * corregir cualquier desvío (incrementos perdidos, Redis reiniciado...).
+ */
+@Service
+public class UnreadCounterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnreadCounterService.class);
+
+    private static final String KEY_PREFIX = "unread:";
+    private static final String DIRTY_KEY = "unread:dirty";
+    /** Campo que indica que el hash se cargó entero desde la base de datos. */
+    private static final String LOADED_FIELD = "_loaded";
+
+    private final StringRedisTemplate redisTemplate;
+    private final MessageStore messageStore;
+    private final ChatRepository chatRepository;
+    private final ChatReadStateRepository readStateRepository;
+    private final UserRepository userRepository;
+    private final int reconcileBatchSize;
+
+    public UnreadCounterService(StringRedisTemplate redisTemplate,
+                                MessageStore messageStore,
+                                ChatRepository chatRepository,
+                                ChatReadStateRepository readStateRepository,
+                                UserRepository userRepository,
+                                @Value("${chat.unread.reconcile-batch-size:500}") int reconcileBatchSize) {
+        this.redisTemplate = redisTemplate;
+        this.messageStore = messageStore;
+        this.chatRepository = chatRepository;
+        this.readStateRepository = readStateRepository;
+        this.userRepository = userRepository;
+        this.reconcileBatchSize = reconcileBatchSize;
+    }
+
+    /**
+     * Suma los mensajes recién guardados a los contadores de los demás participantes.
+     * Se aplica cuando la transacción confirma, todo en un único pipeline de Redis.
+     */
+    public void onMessagesPersisted(List<Message> messages) {
+        // chatId -> (senderId -> mensajes enviados en este lote)
+        Map<Long, Map<Long, Integer>> sentPerChat = new HashMap<>();
+        for (Message message : messages) {
+            sentPerChat.computeIfAbsent(message.getChat().getId(), k -> new HashMap<>())
+                    .merge(message.getSender().getId(), 1, Integer::sum);
+        }
+        TransactionHooks.afterCommit(() -> incrementCounters(sentPerChat), UnreadCounterService::counterUpdateFailed);
+    }
+
+    /**
+     * Devuelve los no leídos de todos los chats de un usuario en una sola llamada.
+     * Si Redis no tiene el hash completo, se recalcula desde la base de datos.
+     */
+    public Optional<Map<Long, Long>> getUnreadCounts(String username) {
+        return userRepository.findByUsername(username).map(user -> getUnreadCounts(user.getId()));
+    }
+
+    /**
+     * Mueve la marca de lectura de un usuario en un chat hasta el mensaje indicado
+     * (nunca hacia atrás) y actualiza su contador. La marca es la secuencia del
+     * mensaje, así que no puede pasar del último mensaje guardado del chat.
+     *
+     * @return los mensajes que siguen sin leer en el chat, o vacío si el usuario
+     * no existe o no participa en el chat, o el mensaje no es de ese chat
+     */
+    @Transactional
+    public Optional<Long> markRead(String username, Long chatId, Long lastReadMessageId) {
+        Optional<Long> userId = userRepository.findByUsername(username).map(User::getId);
+        if (userId.isEmpty() || !chatRepository.findParticipantIds(chatId).contains(userId.get())) {
+            logger.warn("Marca de lectura rechazada: {} no participa en el chat {}", username, chatId);
+            return Optional.empty();
+        }
+        Optional<MessageView> message = messageStore.findViewById(lastReadMessageId);
+        if (message.isEmpty() || !chatId.equals(message.get().chatId())) {
+            logger.warn("Marca de lectura rechazada: el mensaje {} no es del chat {}", lastReadMessageId, chatId);
+            return Optional.empty();
+        }
+        return Optional.of(markRead(userId.get(), chatId, lastReadMessageId, message.get().seq()));
+    }
+
+    /**
+     * Mueve la marca de un participante ya comprobado hasta {@code seq} (nunca
+     * hacia atrás). Los mensajes anteriores a las secuencias (sin {@code seq}) no
+     * mueven la marca.
+     *
+     * @return los mensajes que siguen sin leer en el chat
+     */
+    private Long markRead(Long userId, Long chatId, Long messageId, Long seq) {
+        ChatReadState state = readStateRepository.findByUserIdAndChatId(userId, chatId)
+                .orElseGet(() -> new ChatReadState(null, userId, chatId, 0L, 0L, null));
+        if (seq != null && seq > state.getLastReadSeq()) {
+            state.setLastReadSeq(seq);
+            state.setLastReadMessageId(messageId);
+            readStateRepository.save(state);
+        }
+        long unread = messageStore.countUnreadMessages(chatId, userId, state.getLastReadSeq());
+        TransactionHooks.afterCommit(
+                () -> redisTemplate.opsForHash().put(key(userId), String.valueOf(chatId), String.valueOf(unread)),
+                UnreadCounterService::counterUpdateFailed);
+        logger.debug("Usuario {} leyó hasta la secuencia {} en chat {}, quedan {}", userId, seq, chatId, unread);
+        return unread;
+    }
+
+    /**
+     * Da por caducados los contadores de unos usuarios después de mover sus marcas
+     * de lectura por lotes (ver {@link ReadReceiptService}): la próxima consulta de
+     * cada uno los recalcula con una sola consulta agregada.
+     */
+    public void invalidate(Collection<Long> userIds) {
+        TransactionHooks.runQuietly(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            userIds.forEach(userId -> redis.hDel(key(userId), LOADED_FIELD));
+            return null;
+        }), UnreadCounterService::counterUpdateFailed);
+    }
+
+    /**
+     * Reconciliación periódica: recalcula desde la base de datos los contadores
+     * de los usuarios que recibieron mensajes desde la última pasada.
+     */
+    @Scheduled(fixedDelayString = "${chat.unread.reconcile-interval-ms:60000}")
+    public void reconcileDirtyUsers() {
+        try {
+            List<String> dirty = redisTemplate.opsForSet().pop(DIRTY_KEY, reconcileBatchSize);
+            if (dirty == null || dirty.isEmpty()) {
+                return;
+            }
+            for (String userId : dirty) {
+                reconcile(Long.valueOf(userId));
+            }
+            logger.debug("Contadores de no leídos reconciliados para {} usuarios", dirty.size());
+        } catch (Exception e) {
+            logger.warn("No se pudieron reconciliar los contadores de no leídos: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Versión por ID de usuario de {@link #getUnreadCounts(String)}.
+     */
+    public Map<Long, Long> getUnreadCounts(Long userId) {
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(key(userId));
+        if (!entries.containsKey(LOADED_FIELD)) {
+            return reconcile(userId);
+        }
+        Map<Long, Long> counts = new LinkedHashMap<>();
+        entries.forEach((field, value) -> {
+            if (!LOADED_FIELD.equals(field)) {
+                counts.put(Long.valueOf((String) field), Long.valueOf((String) value));
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Recalcula los contadores de un usuario con una sola consulta agregada (una
+     * por shard con sus chats, si los mensajes están repartidos) y sobrescribe su
+     * hash en Redis.
+     */
+    private Map<Long, Long> reconcile(Long userId) {
+        List<UnreadCount> unread = messageStore.countUnreadByChat(userId);
+        Map<Long, Long> counts = new LinkedHashMap<>();
+        Map<String, String> fields = new HashMap<>();
+        for (UnreadCount count : unread) {
+            counts.put(count.chatId(), count.count());
+            fields.put(String.valueOf(count.chatId()), String.valueOf(count.count()));
+        }
+        fields.put(LOADED_FIELD, "1");
+        redisTemplate.opsForHash().putAll(key(userId), fields);
+        return counts;
+    }
+
+    private void incrementCounters(Map<Long, Map<Long, Integer>> sentPerChat) {
+        Map<Long, List<Long>> participants = new HashMap<>();
+        sentPerChat.keySet().forEach(chatId -> participants.put(chatId, chatRepository.findParticipantIds(chatId)));
+
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            sentPerChat.forEach((chatId, sentBySender) -> {
+                int total = sentBySender.values().stream().mapToInt(Integer::intValue).sum();
+                for (Long participantId : participants.get(chatId)) {
+                    int increment = total - sentBySender.getOrDefault(participantId, 0);
+                    if (increment > 0) {
+                        redis.hIncrBy(key(participantId), String.valueOf(chatId), increment);
+                        redis.sAdd(DIRTY_KEY, String.valueOf(participantId));
+                    }
+                }
+            });
+            return null;
+        });
+    }
+
+    private static String key(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+
+    private static void counterUpdateFailed(RuntimeException e) {
+        // La reconciliación periódica corregirá los contadores
+        logger.warn("No se pudieron actualizar los contadores de no leídos: {}", e.getMessage());
+    }
+}
@@ -0,0 +1,44 @@
+package com.alex.chat.websocket;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Negocia la entrega en lotes por suscripción. Un cliente que sabe leer lotes
+ * se suscribe a la sala con la cabecera {@code x-batch: true}:
+ * <pre>
+ * SUBSCRIBE
+ * id:sub-0
+ * destination:/topic/chat.42
+ * x-batch:true
+ * </pre>
+ * y la suscripción pasa a {@code /topic/chat.42.batch}, donde
+ * {@link RoomMessageBatcher} manda un array con los mensajes de cada ventana.
+ * Los clientes que no envían la cabecera siguen recibiendo un frame por mensaje.
+ */
+public class BatchSubscriptionInterceptor implements ChannelInterceptor {
+
+    public static final String BATCH_HEADER = "x-batch";
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.SUBSCRIBE) {
+            return message;
+        }
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        String destination = accessor.getDestination();
+        if (!"true".equalsIgnoreCase(accessor.getFirstNativeHeader(BATCH_HEADER)) || destination == null
+                || destination.endsWith(ChatTopics.BATCH_SUFFIX)
+                || ChatTopics.isSignalDestination(destination)
+                || ChatTopics.chatIdFromDestination(destination) == null) {
+            return message;
+        }
+        accessor.setDestination(ChatTopics.batchDestination(destination));
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+}
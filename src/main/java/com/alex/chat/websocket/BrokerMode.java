@@ -0,0 +1,43 @@
+package com.alex.chat.websocket;
+
+/**
+ * Cómo se reparten los mensajes STOMP entre nodos ({@code chat.broker.mode}).
+ */
+public enum BrokerMode {
+
+    /**
+     * Broker simple en memoria en cada nodo; los mensajes viajan entre nodos por
+     * pub/sub de Redis y cada nodo los reentrega a sus clientes locales.
+     */
+    SIMPLE,
+
+    /**
+     * Como {@link #SIMPLE}, pero con {@link IndexedBrokerMessageHandler}: las
+     * suscripciones se indexan por destino exacto y cada frame se serializa una
+     * sola vez para todas las sesiones que lo reciben.
+     */
+    INDEXED,
+
+    /**
+     * Relay STOMP a un broker externo (RabbitMQ, ActiveMQ...), que guarda las
+     * suscripciones y reparte los mensajes a todos los nodos. Redis no interviene.
+     */
+    RELAY;
+
+    /**
+     * Lee el modo de la propiedad; sin valor se usa el broker simple.
+     */
+    public static BrokerMode from(String value) {
+        if (value == null || value.isBlank()) {
+            return SIMPLE;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Indica si los mensajes entre nodos pasan por Redis.
+     */
+    public boolean usesRedisFanout() {
+        return this != RELAY;
+    }
+}
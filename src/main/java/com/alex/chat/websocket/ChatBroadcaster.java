@@ -0,0 +1,61 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.config.redis.ChatEventStream;
+import com.alex.chat.config.redis.RedisPublisher;
+import com.alex.chat.dto.ChatMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Service;
+
+/**
+ * Punto único para repartir eventos de chat a todos los nodos.
+ * Con el broker simple se publican en Redis y cada nodo los reentrega a sus
+ * clientes; con el relay se envían directamente al broker externo, que ya los
+ * hace llegar a todos los nodos con clientes suscritos. En los dos casos los
+ * mensajes de sala quedan en el stream de su chat ({@link ChatEventStream}).
+ */
+@Service
+public class ChatBroadcaster {
+
+    private final RedisPublisher redisPublisher;
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final ChatEventStream eventStream;
+    private final BrokerMode brokerMode;
+
+    @Autowired
+    public ChatBroadcaster(RedisPublisher redisPublisher,
+                           SimpMessageSendingOperations messagingTemplate,
+                           ChatEventStream eventStream,
+                           @Value("${chat.broker.mode:simple}") String brokerMode) {
+        this(redisPublisher, messagingTemplate, eventStream, BrokerMode.from(brokerMode));
+    }
+
+    public ChatBroadcaster(RedisPublisher redisPublisher,
+                           SimpMessageSendingOperations messagingTemplate,
+                           ChatEventStream eventStream,
+                           BrokerMode brokerMode) {
+        this.redisPublisher = redisPublisher;
+        this.messagingTemplate = messagingTemplate;
+        this.eventStream = eventStream;
+        this.brokerMode = brokerMode;
+    }
+
+    /**
+     * Envía un evento al canal de una sala ({@code chat.{id}}) o al canal antiguo.
+     *
+     * @param channel canal de Redis del evento, ver {@link ChatTopics}
+     * @param payload mensaje a entregar
+     */
+    public void broadcast(String channel, Object payload) {
+        if (brokerMode.usesRedisFanout()) {
+            redisPublisher.publish(channel, payload);
+        } else {
+            // Con el relay no pasa por RedisPublisher: el stream se escribe aquí
+            if (eventStream != null && eventStream.accepts(channel, payload)) {
+                eventStream.append((ChatMessage) payload);
+            }
+            messagingTemplate.convertAndSend(ChatTopics.destinationForChannel(channel), payload);
+        }
+    }
+}
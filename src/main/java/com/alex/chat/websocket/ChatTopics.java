@@ -0,0 +1,113 @@
+package com.alex.chat.websocket;
+
+/**
+ * Nombres de canales de Redis y destinos STOMP por sala de chat.
+ * Cada chat tiene su propio canal {@code chat.{chatId}} en Redis y su propio
+ * destino {@code /topic/chat.{chatId}} en STOMP, así cada nodo y cada cliente
+ * solo reciben el tráfico de las salas que les interesan.
+ */
+public final class ChatTopics {
+
+    /** Canal antiguo compartido por todos los mensajes sin chat. */
+    public static final String LEGACY_CHANNEL = "chat";
+
+    /** Destino antiguo al que llegan los mensajes del canal compartido. */
+    public static final String LEGACY_DESTINATION = "/topic/messages";
+
+    public static final String CHANNEL_PREFIX = "chat.";
+    public static final String DESTINATION_PREFIX = "/topic/" + CHANNEL_PREFIX;
+
+    /** Sufijo del destino de una sala que recibe los mensajes en lotes. */
+    public static final String BATCH_SUFFIX = ".batch";
+
+    /** Sufijo del canal y del destino de una sala con los avisos de "está escribiendo". */
+    public static final String TYPING_SUFFIX = ".typing";
+
+    /** Sufijo del canal y del destino de una sala con las confirmaciones de lectura. */
+    public static final String RECEIPTS_SUFFIX = ".receipts";
+
+    private ChatTopics() {
+    }
+
+    /**
+     * Canal de Redis de un chat.
+     */
+    public static String redisChannel(Long chatId) {
+        return CHANNEL_PREFIX + chatId;
+    }
+
+    /**
+     * Destino STOMP de un chat.
+     */
+    public static String destination(Long chatId) {
+        return DESTINATION_PREFIX + chatId;
+    }
+
+    /**
+     * Canal de Redis de los avisos de escritura de un chat ({@code chat.{id}.typing}).
+     * Con {@link #destinationForChannel(String)} se entrega en {@code /topic/chat.{id}.typing}.
+     */
+    public static String typingChannel(Long chatId) {
+        return redisChannel(chatId) + TYPING_SUFFIX;
+    }
+
+    /**
+     * Canal de Redis de las confirmaciones de lectura de un chat ({@code chat.{id}.receipts}).
+     */
+    public static String receiptsChannel(Long chatId) {
+        return redisChannel(chatId) + RECEIPTS_SUFFIX;
+    }
+
+    /**
+     * Indica si un destino es uno de los canales ligeros de una sala (avisos de
+     * escritura o confirmaciones de lectura) y no el de sus mensajes.
+     */
+    public static boolean isSignalDestination(String destination) {
+        return destination.startsWith(DESTINATION_PREFIX)
+                && (destination.endsWith(TYPING_SUFFIX) || destination.endsWith(RECEIPTS_SUFFIX));
+    }
+
+    /**
+     * Destino donde se entregan en lotes los mensajes de otro destino
+     * ({@code /topic/chat.42} -> {@code /topic/chat.42.batch}).
+     */
+    public static String batchDestination(String destination) {
+        return destination + BATCH_SUFFIX;
+    }
+
+    /**
+     * Traduce el canal de Redis por el que llegó un mensaje al destino STOMP
+     * donde hay que entregarlo.
+     */
+    public static String destinationForChannel(String channel) {
+        if (channel.startsWith(CHANNEL_PREFIX)) {
+            return "/topic/" + channel;
+        }
+        return LEGACY_DESTINATION;
+    }
+
+    /**
+     * Extrae el ID del chat de un destino STOMP como {@code /topic/chat.42}
+     * (o {@code /topic/chat.42.batch}, {@code /topic/chat.42.typing} y {@code /topic/chat.42.receipts}).
+     *
+     * @return el ID del chat, o null si el destino no es de una sala
+     */
+    public static Long chatIdFromDestination(String destination) {
+        if (destination == null || !destination.startsWith(DESTINATION_PREFIX)) {
+            return null;
+        }
+        int end = destination.length();
+        if (destination.endsWith(BATCH_SUFFIX)) {
+            end -= BATCH_SUFFIX.length();
+        } else if (destination.endsWith(TYPING_SUFFIX)) {
+            end -= TYPING_SUFFIX.length();
+        } else if (destination.endsWith(RECEIPTS_SUFFIX)) {
+            end -= RECEIPTS_SUFFIX.length();
+        }
+        try {
+            return Long.valueOf(destination.substring(DESTINATION_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.service.ChatMetricsService;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broker en memoria que sustituye al simple broker de Spring en
+ * {@code chat.broker.mode=indexed}.
+ * <ul>
+ *     <li>Las suscripciones se indexan por destino exacto: encontrar quién recibe
+ *     un mensaje es una búsqueda en un mapa, sin recorrer el registro entero.
+ *     No se admiten patrones ({@code /topic/chat.*}).</li>
+ *     <li>Dentro de un destino las sesiones se agrupan por ID de suscripción. El
+ *     frame STOMP solo cambia en la cabecera {@code subscription}, así que se
+ *     serializa una vez por grupo (con stomp.js casi todos usan {@code sub-0})
+ *     y todas las sesiones del grupo comparten los mismos bytes.</li>
+ *     <li>Los frames se dejan en la cola de cada sesión ({@link OutboundSession})
+ *     en lugar de pasar por el canal de salida.</li>
+ * </ul>
+ * Las sesiones que no están en el {@link OutboundSessionRegistry} reciben el
+ * mensaje por el canal de salida, como con el simple broker.
+ */
+public class IndexedBrokerMessageHandler extends AbstractBrokerMessageHandler {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final OutboundSessionRegistry outboundSessions;
+    private final ChatMetricsService metricsService;
+    private final StompEncoder encoder = new StompEncoder();
+    private final AtomicLong messageIds = new AtomicLong();
+
+    /** destino -> (subscriptionId -> sesiones) */
+    private final Map<String, Map<String, Set<String>>> subscribersByDestination = new ConcurrentHashMap<>();
+
+    /** sessionId -> (subscriptionId -> destino), para limpiar al desconectar */
+    private final Map<String, Map<String, String>> subscriptionsBySession = new ConcurrentHashMap<>();
+
+    public IndexedBrokerMessageHandler(SubscribableChannel clientInboundChannel,
+                                       MessageChannel clientOutboundChannel,
+                                       SubscribableChannel brokerChannel,
+                                       Collection<String> destinationPrefixes,
+                                       OutboundSessionRegistry outboundSessions,
+                                       ChatMetricsService metricsService) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, destinationPrefixes);
+        this.outboundSessions = outboundSessions;
+        this.metricsService = metricsService;
+    }
+
+    @Override
+    protected void startInternal() {
+        publishBrokerAvailableEvent();
+    }
+
+    @Override
+    protected void stopInternal() {
+        subscribersByDestination.clear();
+        subscriptionsBySession.clear();
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+
+        if (messageType == null) {
+            return;
+        }
+        switch (messageType) {
+            case MESSAGE -> {
+                if (checkDestinationPrefix(destination)) {
+                    sendMessageToSubscribers(destination, message);
+                }
+            }
+            case SUBSCRIBE -> {
+                if (checkDestinationPrefix(destination)) {
+                    subscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers), destination);
+                }
+            }
+            case UNSUBSCRIBE -> unsubscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+            case CONNECT -> reply(SimpMessageType.CONNECT_ACK, SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER,
+                    sessionId, message);
+            case DISCONNECT -> {
+                removeSession(sessionId);
+                reply(SimpMessageType.DISCONNECT_ACK, SimpMessageHeaderAccessor.DISCONNECT_MESSAGE_HEADER,
+                        sessionId, message);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Número de sesiones suscritas a un destino.
+     */
+    public int getSubscriberCount(String destination) {
+        Map<String, Set<String>> groups = subscribersByDestination.get(destination);
+        return groups == null ? 0 : groups.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        subscriptionsBySession.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>())
+                .put(subscriptionId, destination);
+        // Altas y bajas de un destino van dentro de compute, con el bloqueo de esa
+        // clave, para que una baja no borre el grupo justo cuando otro se suscribe
+        subscribersByDestination.compute(destination, (d, groups) -> {
+            Map<String, Set<String>> target = groups != null ? groups : new ConcurrentHashMap<>();
+            target.computeIfAbsent(subscriptionId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+            return target;
+        });
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = sessionId != null ? subscriptionsBySession.get(sessionId) : null;
+        if (subscriptions == null || subscriptionId == null) {
+            return;
+        }
+        String destination = subscriptions.remove(subscriptionId);
+        if (destination != null) {
+            removeFromIndex(destination, subscriptionId, sessionId);
+        }
+    }
+
+    private void removeSession(String sessionId) {
+        Map<String, String> subscriptions = sessionId != null ? subscriptionsBySession.remove(sessionId) : null;
+        if (subscriptions != null) {
+            subscriptions.forEach((subscriptionId, destination) ->
+                    removeFromIndex(destination, subscriptionId, sessionId));
+        }
+    }
+
+    private void removeFromIndex(String destination, String subscriptionId, String sessionId) {
+        subscribersByDestination.computeIfPresent(destination, (d, groups) -> {
+            groups.computeIfPresent(subscriptionId, (s, sessions) -> {
+                sessions.remove(sessionId);
+                return sessions.isEmpty() ? null : sessions;
+            });
+            return groups.isEmpty() ? null : groups;
+        });
+    }
+
+    private void sendMessageToSubscribers(String destination, Message<?> message) {
+        Map<String, Set<String>> groups = subscribersByDestination.get(destination);
+        if (groups == null || groups.isEmpty()) {
+            return;
+        }
+        byte[] payload = payloadBytes(message.getPayload());
+        String messageId = Long.toHexString(messageIds.incrementAndGet());
+        int encoded = 0;
+        int delivered = 0;
+        for (Map.Entry<String, Set<String>> group : groups.entrySet()) {
+            String subscriptionId = group.getKey();
+            WebSocketMessage<?> frame = null;
+            for (String sessionId : group.getValue()) {
+                OutboundSession session = outboundSessions != null ? outboundSessions.get(sessionId) : null;
+                if (session == null) {
+                    sendThroughChannel(sessionId, subscriptionId, destination, messageId, message, payload);
+                } else {
+                    if (frame == null) {
+                        frame = encodeFrame(subscriptionId, destination, messageId, message, payload);
+                        encoded++;
+                    }
+                    session.offer(frame, subscriptionId);
+                }
+                delivered++;
+            }
+        }
+        metricsService.recordBrokerFanout(encoded, delivered);
+    }
+
+    /**
+     * Serializa el frame MESSAGE completo, como haría {@code StompSubProtocolHandler}
+     * para cada sesión. Binario solo para {@code application/octet-stream}.
+     * Con destinos de usuario todas las sesiones de un grupo son del mismo usuario,
+     * así que el destino original también es el mismo.
+     */
+    private WebSocketMessage<?> encodeFrame(String subscriptionId, String destination, String messageId,
+                                            Message<?> message, byte[] payload) {
+        StompHeaderAccessor stompHeaders = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        copyNativeHeaders(message, stompHeaders);
+        // Los destinos de usuario se entregan con el destino que pidió el cliente (/user/queue/...)
+        String originalDestination = stompHeaders.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        if (originalDestination != null) {
+            stompHeaders.removeNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        }
+        stompHeaders.setDestination(originalDestination != null ? originalDestination : destination);
+        stompHeaders.setSubscriptionId(subscriptionId);
+        stompHeaders.setMessageId(messageId);
+        MimeType contentType = contentType(message.getHeaders());
+        if (contentType != null) {
+            stompHeaders.setContentType(contentType);
+        }
+        byte[] bytes = encoder.encode(stompHeaders.getMessageHeaders(), payload);
+        if (contentType != null && payload.length > 0
+                && MimeTypeUtils.APPLICATION_OCTET_STREAM.isCompatibleWith(contentType)) {
+            return new BinaryMessage(bytes);
+        }
+        return new TextMessage(bytes);
+    }
+
+    private void sendThroughChannel(String sessionId, String subscriptionId, String destination,
+                                    String messageId, Message<?> message, byte[] payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setDestination(destination);
+        headers.setHeader(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER, messageId);
+        headers.copyHeadersIfAbsent(message.getHeaders());
+        headers.setLeaveMutable(true);
+        getClientOutboundChannelForSession(sessionId)
+                .send(MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+    }
+
+    private void reply(SimpMessageType type, String originalHeader, String sessionId, Message<?> original) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId(sessionId);
+        headers.setUser(SimpMessageHeaderAccessor.getUser(original.getHeaders()));
+        headers.setHeader(originalHeader, original);
+        if (type == SimpMessageType.CONNECT_ACK) {
+            // Sin heart-beats del servidor, igual que el simple broker sin TaskScheduler
+            headers.setHeader(SimpMessageHeaderAccessor.HEART_BEAT_HEADER, new long[] {0, 0});
+        }
+        getClientOutboundChannel().send(MessageBuilder.createMessage(EMPTY_PAYLOAD, headers.getMessageHeaders()));
+    }
+
+    private static void copyNativeHeaders(Message<?> message, StompHeaderAccessor target) {
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> nativeHeaders = (Map<String, List<String>>)
+                message.getHeaders().get(SimpMessageHeaderAccessor.NATIVE_HEADERS);
+        if (nativeHeaders != null) {
+            nativeHeaders.forEach((name, values) -> values.forEach(value -> target.addNativeHeader(name, value)));
+        }
+    }
+
+    private static MimeType contentType(MessageHeaders headers) {
+        Object value = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (value instanceof MimeType mimeType) {
+            return mimeType;
+        }
+        return value != null ? MimeTypeUtils.parseMimeType(value.toString()) : null;
+    }
+
+    private static byte[] payloadBytes(Object payload) {
+        if (payload instanceof byte[] bytes) {
+            return bytes;
+        }
+        return String.valueOf(payload).getBytes(StandardCharsets.UTF_8);
+    }
+}
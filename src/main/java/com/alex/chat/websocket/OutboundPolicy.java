@@ -0,0 +1,40 @@
+package com.alex.chat.websocket;
+
+/**
+ * Qué hacer con una sesión cuya cola de salida supera los límites de
+ * {@code chat.websocket.outbound.*} ({@code chat.websocket.outbound.policy}).
+ * Solo se descartan mensajes ({@code MESSAGE}); los frames de control nunca.
+ */
+public enum OutboundPolicy {
+
+    /**
+     * Descarta los mensajes más antiguos de la cola hasta volver a estar dentro
+     * de los límites. El cliente pierde mensajes, pero sigue conectado.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Con la cola por encima del límite, un mensaje nuevo sustituye al que
+     * esté pendiente para la misma suscripción, así el cliente recibe el estado
+     * más reciente de cada destino. Si no hay nada que sustituir, como
+     * {@link #DROP_OLDEST}.
+     */
+    COALESCE,
+
+    /**
+     * Cierra la sesión ({@code SESSION_NOT_RELIABLE}); el cliente reconecta y
+     * recupera el historial. Es lo que hace Spring al superar sus límites.
+     */
+    DISCONNECT;
+
+    /**
+     * Lee la política de la propiedad ({@code drop-oldest}, {@code coalesce},
+     * {@code disconnect}); sin valor se usa {@link #DROP_OLDEST}.
+     */
+    public static OutboundPolicy from(String value) {
+        if (value == null || value.isBlank()) {
+            return DROP_OLDEST;
+        }
+        return valueOf(value.trim().replace('-', '_').toUpperCase());
+    }
+}
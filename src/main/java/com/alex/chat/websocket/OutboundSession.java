@@ -0,0 +1,340 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.service.ChatMetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Sesión WebSocket con su propia cola de salida.
+ * Quien envía solo encola y vuelve; un único escritor por sesión vacía la cola
+ * en el ejecutor, así un cliente lento no bloquea al broker ni a los demás.
+ * <p>
+ * La cola tiene dos límites: bytes pendientes y tiempo que lleva esperando un
+ * mensaje (o bloqueada la escritura en curso). Al pasarse se aplica la
+ * {@link OutboundPolicy}. Solo cuentan como descartables los frames
+ * {@code MESSAGE}; CONNECTED, RECEIPT, ERROR... se envían siempre.
+ */
+public class OutboundSession extends WebSocketSessionDecorator {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundSession.class);
+
+    private static final byte[] MESSAGE_COMMAND = "MESSAGE\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String SUBSCRIPTION_HEADER = "\nsubscription:";
+    /** Las cabeceras de un MESSAGE caben de sobra; no hace falta mirar el cuerpo. */
+    private static final int MAX_HEADER_SCAN = 512;
+
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitNanos;
+    private final OutboundPolicy policy;
+    private final Executor executor;
+    private final ChatMetricsService metricsService;
+
+    private final Object lock = new Object();
+    /** Frames pendientes en orden de llegada. */
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    /** Mensaje pendiente por suscripción, solo con {@link OutboundPolicy#COALESCE}. */
+    private final Map<String, Pending> pendingBySubscription = new HashMap<>();
+    private int bufferedBytes;
+    private boolean writing;
+    private long writeStartedAt;
+    private boolean closed;
+    private volatile boolean slow;
+
+    public OutboundSession(WebSocketSession delegate, int bufferSizeLimit, Duration sendTimeLimit,
+                           OutboundPolicy policy, Executor executor, ChatMetricsService metricsService) {
+        super(delegate);
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitNanos = sendTimeLimit.toNanos();
+        this.policy = policy;
+        this.executor = executor;
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Encola un mensaje del broker ya serializado sin bloquear.
+     *
+     * @param subscriptionId suscripción de la sesión a la que va el mensaje
+     * @return false si la sesión está cerrada o el mensaje se descartó al momento
+     */
+    public boolean offer(WebSocketMessage<?> message, String subscriptionId) {
+        return enqueue(message, null, subscriptionId != null ? subscriptionId : "");
+    }
+
+    /**
+     * Lo que escribe el protocolo STOMP. Los {@code MESSAGE} (que en los modos
+     * simple y relay llegan por aquí) se tratan como los de {@link #offer}.
+     */
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        enqueue(message, null, subscriptionOf(message));
+    }
+
+    /**
+     * Cierra la sesión después de enviar lo que ya estaba en la cola (por ejemplo
+     * el frame ERROR que STOMP manda justo antes de cerrar).
+     */
+    @Override
+    public void close(CloseStatus status) {
+        enqueue(null, status, null);
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    /**
+     * Frames esperando a ser escritos en el socket.
+     */
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Bytes esperando a ser escritos en el socket.
+     */
+    public int getBufferedBytes() {
+        synchronized (lock) {
+            return bufferedBytes;
+        }
+    }
+
+    /**
+     * Indica si la sesión ha pasado algún límite desde la última vez que vació la cola.
+     */
+    public boolean isSlow() {
+        return slow;
+    }
+
+    private boolean enqueue(WebSocketMessage<?> message, CloseStatus closeStatus, String subscriptionId) {
+        boolean accepted = true;
+        boolean startWriter;
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            long now = System.nanoTime();
+            int size = message != null ? message.getPayloadLength() : 0;
+            Pending previous = subscriptionId != null && policy == OutboundPolicy.COALESCE
+                    ? pendingBySubscription.get(subscriptionId) : null;
+            if (previous != null && overLimit(bufferedBytes + size, now)) {
+                // Ocupa el sitio del mensaje anterior, que ya no llegará a enviarse
+                bufferedBytes += size - previous.size;
+                previous.message = message;
+                previous.size = size;
+                slow = true;
+                metricsService.recordOutboundDropped("coalesced");
+            } else {
+                Pending pending = new Pending(message, closeStatus, subscriptionId, size, now);
+                queue.addLast(pending);
+                bufferedBytes += size;
+                if (subscriptionId != null && policy == OutboundPolicy.COALESCE) {
+                    pendingBySubscription.put(subscriptionId, pending);
+                }
+                accepted = enforceLimits(now, pending);
+            }
+            startWriter = !writing && !closed && !queue.isEmpty();
+            if (startWriter) {
+                writing = true;
+            }
+        }
+        if (startWriter) {
+            executor.execute(this::drain);
+        }
+        return accepted;
+    }
+
+    /**
+     * Aplica la política si la cola se ha pasado de algún límite.
+     *
+     * @return false si el frame recién encolado se ha descartado
+     */
+    private boolean enforceLimits(long now, Pending added) {
+        if (!overLimit(bufferedBytes, now)) {
+            return true;
+        }
+        slow = true;
+        if (policy == OutboundPolicy.DISCONNECT) {
+            terminate();
+            return false;
+        }
+        boolean addedKept = true;
+        Iterator<Pending> it = queue.iterator();
+        while (it.hasNext() && overLimit(bufferedBytes, now)) {
+            Pending pending = it.next();
+            if (pending.subscriptionId == null) {
+                continue;
+            }
+            boolean overBuffer = bufferedBytes > bufferSizeLimit;
+            if (!overBuffer && now - pending.enqueuedAt <= sendTimeLimitNanos) {
+                // Solo queda el límite de tiempo y los siguientes son aún más recientes
+                break;
+            }
+            it.remove();
+            forget(pending);
+            addedKept &= pending != added;
+            metricsService.recordOutboundDropped(overBuffer ? "buffer-limit" : "time-limit");
+        }
+        return addedKept;
+    }
+
+    private boolean overLimit(int bytes, long now) {
+        if (bytes > bufferSizeLimit) {
+            return true;
+        }
+        Pending oldest = queue.peekFirst();
+        if (oldest != null && now - oldest.enqueuedAt > sendTimeLimitNanos) {
+            return true;
+        }
+        return writing && writeStartedAt != 0 && now - writeStartedAt > sendTimeLimitNanos;
+    }
+
+    /**
+     * Política {@link OutboundPolicy#DISCONNECT}: se tira lo pendiente y se cierra
+     * la sesión en el ejecutor, por si el socket está bloqueado.
+     */
+    private void terminate() {
+        closed = true;
+        queue.clear();
+        pendingBySubscription.clear();
+        bufferedBytes = 0;
+        metricsService.recordSlowSessionDisconnected();
+        logger.info("Sesión {} cerrada por no consumir sus mensajes a tiempo", getId());
+        executor.execute(() -> closeDelegate(CloseStatus.SESSION_NOT_RELIABLE));
+    }
+
+    private void forget(Pending pending) {
+        bufferedBytes -= pending.size;
+        if (pending.subscriptionId != null) {
+            pendingBySubscription.remove(pending.subscriptionId, pending);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Pending next;
+            synchronized (lock) {
+                next = closed ? null : queue.pollFirst();
+                if (next == null) {
+                    writing = false;
+                    writeStartedAt = 0;
+                    slow = false;
+                    return;
+                }
+                forget(next);
+                if (next.closeStatus != null) {
+                    closed = true;
+                    queue.clear();
+                    pendingBySubscription.clear();
+                    bufferedBytes = 0;
+                }
+                writeStartedAt = System.nanoTime();
+            }
+            if (next.closeStatus != null) {
+                closeDelegate(next.closeStatus);
+            } else {
+                write(next.message);
+            }
+        }
+    }
+
+    private void write(WebSocketMessage<?> message) {
+        WebSocketSession delegate = getDelegate();
+        if (!delegate.isOpen()) {
+            return;
+        }
+        try {
+            delegate.sendMessage(message);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("No se pudo escribir en la sesión {}: {}", getId(), e.getMessage());
+            synchronized (lock) {
+                closed = true;
+            }
+            closeDelegate(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+    }
+
+    private void closeDelegate(CloseStatus status) {
+        try {
+            getDelegate().close(status);
+        } catch (IOException e) {
+            logger.debug("Error al cerrar la sesión {}: {}", getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Suscripción de un frame {@code MESSAGE} ya serializado, o null si es un
+     * frame de control. Sin cabecera {@code subscription} devuelve "".
+     */
+    static String subscriptionOf(WebSocketMessage<?> message) {
+        String head;
+        if (message instanceof TextMessage text) {
+            String payload = text.getPayload();
+            if (!payload.startsWith("MESSAGE\n")) {
+                return null;
+            }
+            head = payload.substring(0, Math.min(payload.length(), MAX_HEADER_SCAN));
+        } else if (message instanceof BinaryMessage binary) {
+            ByteBuffer payload = binary.getPayload().duplicate();
+            if (payload.remaining() < MESSAGE_COMMAND.length) {
+                return null;
+            }
+            byte[] bytes = new byte[Math.min(payload.remaining(), MAX_HEADER_SCAN)];
+            payload.get(bytes);
+            for (int i = 0; i < MESSAGE_COMMAND.length; i++) {
+                if (bytes[i] != MESSAGE_COMMAND[i]) {
+                    return null;
+                }
+            }
+            head = new String(bytes, StandardCharsets.ISO_8859_1);
+        } else {
+            return null;
+        }
+        int headerEnd = head.indexOf("\n\n");
+        int start = head.indexOf(SUBSCRIPTION_HEADER);
+        if (start < 0 || (headerEnd >= 0 && start > headerEnd)) {
+            return "";
+        }
+        start += SUBSCRIPTION_HEADER.length();
+        int end = head.indexOf('\n', start);
+        return end < 0 ? "" : head.substring(start, end);
+    }
+
+    /**
+     * Un frame en la cola; {@code subscriptionId} es null en los de control.
+     */
+    private static final class Pending {
+        WebSocketMessage<?> message;
+        final CloseStatus closeStatus;
+        final String subscriptionId;
+        int size;
+        final long enqueuedAt;
+
+        Pending(WebSocketMessage<?> message, CloseStatus closeStatus, String subscriptionId, int size,
+                long enqueuedAt) {
+            this.message = message;
+            this.closeStatus = closeStatus;
+            this.subscriptionId = subscriptionId;
+            this.size = size;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.service.ChatMetricsService;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Sesiones WebSocket abiertas en este nodo, cada una envuelta en su
+ * {@link OutboundSession}. Se registra como decorador del handler de STOMP, así
+ * tanto el broker indexado como el propio protocolo escriben por la misma cola
+ * y con los mismos límites.
+ */
+public class OutboundSessionRegistry implements WebSocketHandlerDecoratorFactory {
+
+    private final Map<String, OutboundSession> sessions = new ConcurrentHashMap<>();
+    private final int bufferSizeLimit;
+    private final Duration sendTimeLimit;
+    private final OutboundPolicy policy;
+    private final Executor executor;
+    private final ChatMetricsService metricsService;
+
+    public OutboundSessionRegistry(int bufferSizeLimit, Duration sendTimeLimit, OutboundPolicy policy,
+                                   Executor executor, ChatMetricsService metricsService) {
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimit = sendTimeLimit;
+        this.policy = policy;
+        this.executor = executor;
+        this.metricsService = metricsService;
+        metricsService.registerOutboundSessions(this::countSlowSessions, this::sumBufferedBytes);
+    }
+
+    /**
+     * Sesión de salida por ID de sesión STOMP (el mismo que el de la sesión WebSocket).
+     *
+     * @return la sesión, o null si no está abierta en este nodo
+     */
+    public OutboundSession get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    /**
+     * Envuelve una sesión y la registra; normalmente lo hace el decorador al conectar.
+     */
+    public OutboundSession register(WebSocketSession session) {
+        OutboundSession outbound = new OutboundSession(session, bufferSizeLimit, sendTimeLimit, policy,
+                executor, metricsService);
+        sessions.put(session.getId(), outbound);
+        return outbound;
+    }
+
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private int countSlowSessions() {
+        int slow = 0;
+        for (OutboundSession session : sessions.values()) {
+            if (session.isSlow()) {
+                slow++;
+            }
+        }
+        return slow;
+    }
+
+    private long sumBufferedBytes() {
+        long bytes = 0;
+        for (OutboundSession session : sessions.values()) {
+            bytes += session.getBufferedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                super.afterConnectionEstablished(register(session));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                unregister(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+}
@@ -0,0 +1,170 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.service.ChatMetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrupa los mensajes que llegan a una sala en una ventana corta y los manda
+ * en un único frame (un array JSON) a {@code /topic/chat.{id}.batch}. Solo lo
+ * reciben los clientes que lo pidieron al suscribirse, ver
+ * {@link BatchSubscriptionInterceptor}; los demás siguen con un frame por mensaje.
+ * <p>
+ * En una tormenta de mensajes un cliente recibe un frame por ventana en lugar de
+ * uno por mensaje: menos cabeceras STOMP, menos frames WebSocket y menos
+ * escrituras en el socket.
+ */
+@Component
+public class RoomMessageBatcher implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomMessageBatcher.class);
+
+    /** Cabecera del frame con el número de mensajes del lote. */
+    public static final String BATCH_SIZE_HEADER = "x-batch-size";
+
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final ChatMetricsService metricsService;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int maxBatchSize;
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+
+    public RoomMessageBatcher(SimpMessageSendingOperations messagingTemplate,
+                              ChatMetricsService metricsService,
+                              @Value("${chat.websocket.batching.enabled:false}") boolean enabled,
+                              @Value("${chat.websocket.batching.window-ms:50}") long windowMillis,
+                              @Value("${chat.websocket.batching.max-size:100}") int maxBatchSize) {
+        this.messagingTemplate = messagingTemplate;
+        this.metricsService = metricsService;
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Indica si la entrega en lotes está activa.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Añade un mensaje ya entregado en {@code destination} al lote de ese destino.
+     * El primer mensaje de la ventana programa el envío; si el lote se llena
+     * antes, se envía en el momento.
+     * <p>
+     * El lote se crea, se llena y se saca del mapa siempre dentro de
+     * {@code compute}/{@code remove} sobre su destino, que son atómicos por clave:
+     * un mensaje nunca acaba en un lote que ya se envió.
+     */
+    public void add(String destination, Object message) {
+        ScheduledExecutorService current = scheduler;
+        if (!enabled || current == null) {
+            return;
+        }
+        List<List<Object>> full = new ArrayList<>(1);
+        batches.compute(destination, (key, batch) -> {
+            if (batch == null) {
+                batch = new Batch(key);
+                Batch scheduled = batch;
+                try {
+                    current.schedule(() -> flush(scheduled), windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Parando: el mensaje sale solo, sin esperar a la ventana
+                    full.add(List.of(message));
+                    return null;
+                }
+            }
+            batch.messages.add(message);
+            if (batch.messages.size() >= maxBatchSize) {
+                full.add(batch.messages);
+                return null;
+            }
+            return batch;
+        });
+        if (!full.isEmpty()) {
+            send(destination, full.get(0));
+        }
+    }
+
+    /**
+     * Envía el lote si sigue siendo el de su destino; si ya se envió por lleno,
+     * no hace nada.
+     */
+    private void flush(Batch batch) {
+        if (batches.remove(batch.destination, batch)) {
+            send(batch.destination, batch.messages);
+        }
+    }
+
+    private void send(String destination, List<Object> messages) {
+        try {
+            messagingTemplate.convertAndSend(ChatTopics.batchDestination(destination), messages,
+                    Map.of(BATCH_SIZE_HEADER, messages.size()));
+            metricsService.recordWebSocketBatch(messages.size());
+        } catch (Exception e) {
+            logger.error("Error al enviar lote de {} mensajes a {}: {}", messages.size(), destination,
+                    e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-room-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Entrega de mensajes en lotes activa (ventana={}ms, lote={})", windowMillis, maxBatchSize);
+    }
+
+    /**
+     * Al parar se envían los lotes pendientes.
+     */
+    @Override
+    public void stop() {
+        ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            return;
+        }
+        scheduler = null;
+        current.shutdownNow();
+        batches.values().forEach(this::flush);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Mensajes de una ventana de un destino. Solo se modifica mientras está en el
+     * mapa y desde dentro de {@code compute}; una vez fuera ya no cambia.
+     */
+    private static final class Batch {
+        final String destination;
+        final List<Object> messages = new ArrayList<>();
+
+        Batch(String destination) {
+            this.destination = destination;
+        }
+    }
+}
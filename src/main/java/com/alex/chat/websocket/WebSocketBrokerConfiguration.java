@@ -0,0 +1,108 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.config.VirtualThreads;
+import com.alex.chat.service.ChatMetricsService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.user.UserDestinationResolver;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.time.Duration;
+
+/**
+ * Configuración de la mensajería STOMP. Hace lo mismo que
+ * {@code @EnableWebSocketMessageBroker} (aplica los {@code WebSocketMessageBrokerConfigurer},
+ * como {@link WebSocketConfig}), y además:
+ * <ul>
+ *     <li>envuelve cada sesión WebSocket en su cola de salida con los límites de
+ *     {@code chat.websocket.outbound.*}, sea cual sea el broker;</li>
+ *     <li>en {@code chat.broker.mode=indexed} cambia el simple broker por
+ *     {@link IndexedBrokerMessageHandler}.</li>
+ * </ul>
+ */
+@Configuration
+public class WebSocketBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration
+        implements DisposableBean {
+
+    private final ChatMetricsService metricsService;
+    private final BrokerMode brokerMode;
+    private final TaskExecutor writers;
+    private final OutboundSessionRegistry outboundSessions;
+
+    public WebSocketBrokerConfiguration(ChatMetricsService metricsService,
+                                        @Value("${chat.broker.mode:simple}") String brokerMode,
+                                        @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                        @Value("${chat.websocket.outbound.buffer-size-limit:524288}") int bufferSizeLimit,
+                                        @Value("${chat.websocket.outbound.send-time-limit-ms:10000}") long sendTimeLimitMs,
+                                        @Value("${chat.websocket.outbound.policy:drop-oldest}") String policy,
+                                        @Value("${chat.websocket.outbound.writer-threads:32}") int writerThreads) {
+        this.metricsService = metricsService;
+        this.brokerMode = BrokerMode.from(brokerMode);
+        this.writers = virtualThreads ? VirtualThreads.executor("ws-writer-") : platformWriters(writerThreads);
+        this.outboundSessions = new OutboundSessionRegistry(bufferSizeLimit, Duration.ofMillis(sendTimeLimitMs),
+                OutboundPolicy.from(policy), writers, metricsService);
+    }
+
+    /**
+     * Cada sesión con frames pendientes ocupa un hilo mientras escribe. Con hilos
+     * virtuales un cliente lento no cuesta un hilo del sistema; con hilos de
+     * plataforma se usa un pool fijo, para que miles de sesiones escribiendo a la
+     * vez no creen miles de hilos. La cola no necesita límite: cada sesión tiene
+     * como mucho una tarea de escritura pendiente.
+     */
+    private static ThreadPoolTaskExecutor platformWriters(int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("ws-writer-");
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if (writers instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    protected void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        super.configureWebSocketTransport(registration);
+        // Las escrituras de Spring acaban en nuestra cola, que nunca bloquea, así que
+        // sus límites (send-time-limit, send-buffer-size-limit) no llegan a saltar
+        registration.addDecoratorFactory(outboundSessions);
+    }
+
+    /**
+     * En modo indexado, el broker que registra {@link WebSocketConfig} sirve solo
+     * para leer los prefijos y opciones; el que se arranca es el indexado.
+     */
+    @Override
+    @Bean
+    @Nullable
+    public AbstractBrokerMessageHandler simpleBrokerMessageHandler(AbstractSubscribableChannel clientInboundChannel,
+                                                                   AbstractSubscribableChannel clientOutboundChannel,
+                                                                   AbstractSubscribableChannel brokerChannel,
+                                                                   UserDestinationResolver userDestinationResolver) {
+        AbstractBrokerMessageHandler simple = super.simpleBrokerMessageHandler(
+                clientInboundChannel, clientOutboundChannel, brokerChannel, userDestinationResolver);
+        if (simple == null || brokerMode != BrokerMode.INDEXED) {
+            return simple;
+        }
+        IndexedBrokerMessageHandler indexed = new IndexedBrokerMessageHandler(clientInboundChannel,
+                clientOutboundChannel, brokerChannel, simple.getDestinationPrefixes(), outboundSessions, metricsService);
+        indexed.setUserDestinationPredicate(destination -> destination.startsWith(WebSocketConfig.USER_DESTINATION_PREFIX + "/"));
+        indexed.setPreservePublishOrder(simple.isPreservePublishOrder());
+        return indexed;
+    }
+}
@@ -1,46 +1,189 @@
 package com.alex.chat.websocket;
 
+import com.alex.chat.config.VirtualThreads;
 import com.alex.chat.security.jwt.JwtUtil;
+import com.alex.chat.service.PresenceService;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.web.socket.WebSocketHandler;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
+import java.security.Principal;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
+/**
+ * Endpoints, broker y canales STOMP. La mensajería se activa en
+ * {@link WebSocketBrokerConfiguration}, que aplica esta configuración.
+ */
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
+    static final String USER_DESTINATION_PREFIX = "/user";
+
+    /** Destinos del relay para resolver usuarios conectados a otros nodos. */
+    static final String USER_DESTINATION_BROADCAST = "/topic/unresolved-user-destination";
+    static final String USER_REGISTRY_BROADCAST = "/topic/simp-user-registry";
+
     private final JwtUtil jwtUtil;
+    private final PresenceService presenceService;
+    private final boolean virtualThreads;
+    private final BrokerMode brokerMode;
+    private final String relayHost;
+    private final int relayPort;
+    private final String relayLogin;
+    private final String relayPasscode;
+    private final boolean batching;
 
-    public WebSocketConfig(JwtUtil jwtUtil) {
+    public WebSocketConfig(JwtUtil jwtUtil,
+                           PresenceService presenceService,
+                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                           @Value("${chat.broker.mode:simple}") String brokerMode,
+                           @Value("${chat.broker.relay.host:localhost}") String relayHost,
+                           @Value("${chat.broker.relay.port:61613}") int relayPort,
+                           @Value("${chat.broker.relay.login:guest}") String relayLogin,
+                           @Value("${chat.broker.relay.passcode:guest}") String relayPasscode,
+                           @Value("${chat.websocket.batching.enabled:false}") boolean batching) {
         this.jwtUtil = jwtUtil;
+        this.presenceService = presenceService;
+        this.virtualThreads = virtualThreads;
+        this.brokerMode = BrokerMode.from(brokerMode);
+        this.relayHost = relayHost;
+        this.relayPort = relayPort;
+        this.relayLogin = relayLogin;
+        this.relayPasscode = relayPasscode;
+        this.batching = batching;
     }
 
+    /**
+     * Con hilos virtuales cada frame entrante de una sesión iría a un hilo
+     * distinto y podrían adelantarse unos a otros (un SEND antes de su SUBSCRIBE,
+     * dos mensajes del mismo usuario cambiados de orden): se procesan en el orden
+     * en que llegaron por sesión.
+     */
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        if (virtualThreads) {
+            registry.setPreserveReceiveOrder(true);
+        }
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
+                .setHandshakeHandler(new JwtPrincipalHandshakeHandler())
                 .addInterceptors(new JwtHandshakeInterceptor())
                 .withSockJS();
     }
 
+    /**
+     * Con {@code chat.broker.mode=simple} cada nodo tiene su broker en memoria;
+     * {@code indexed} registra también el simple broker, pero
+     * {@link WebSocketBrokerConfiguration} lo sustituye por el indexado.
+     * Con {@code relay} las suscripciones viven en un broker STOMP externo; las
+     * sesiones de usuario de todos los nodos se comparten por los destinos de
+     * difusión del registro, así {@code /user/...} funciona aunque el usuario
+     * esté conectado a otro nodo.
+     */
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.setApplicationDestinationPrefixes("/app");
-        registry.enableSimpleBroker("/topic", "/queue");
-        registry.setUserDestinationPrefix("/user");
+        if (brokerMode == BrokerMode.RELAY) {
+            registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setUserDestinationBroadcast(USER_DESTINATION_BROADCAST)
+                    .setUserRegistryBroadcast(USER_REGISTRY_BROADCAST);
+            logger.info("Broker STOMP externo en {}:{}", relayHost, relayPort);
+        } else {
+            registry.enableSimpleBroker("/topic", "/queue");
+        }
+        registry.setUserDestinationPrefix(USER_DESTINATION_PREFIX);
+        if (virtualThreads) {
+            // Con un hilo por mensaje el orden de envío a una sesión ya no está
+            // garantizado por el pool; se conserva explícitamente
+            registry.setPreservePublishOrder(true);
+        }
+    }
+
+    /**
+     * En modo de hilos virtuales cada mensaje entrante se procesa en su propio
+     * hilo virtual, en lugar de en un pool fijo de hilos de plataforma.
+     * Con la entrega en lotes activa, las suscripciones con {@code x-batch: true}
+     * se pasan al destino de lotes de la sala. Con el relay los mensajes no pasan
+     * por {@link RoomMessageBatcher}, así que ahí no se ofrece.
+     * Cualquier frame del cliente, heart-beats incluidos, cuenta como actividad
+     * para la presencia.
+     */
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(VirtualThreads.executor("ws-inbound-"));
+        }
+        registration.interceptors(new PresenceActivityInterceptor());
+        if (batching && brokerMode.usesRedisFanout()) {
+            registration.interceptors(new BatchSubscriptionInterceptor());
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(VirtualThreads.executor("ws-outbound-"));
+        }
+    }
+
+    /**
+     * Marca la actividad del usuario de la sesión en cada frame que envía.
+     */
+    private class PresenceActivityInterceptor implements ChannelInterceptor {
+
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            Principal user = SimpMessageHeaderAccessor.getUser(message.getHeaders());
+            if (user != null) {
+                presenceService.touch(user.getName());
+            }
+            return message;
+        }
+    }
+
+    /**
+     * Usa el usuario del token como {@link Principal} de la sesión WebSocket,
+     * así funcionan los destinos {@code /user/...} y los eventos de sesión
+     * saben quién es.
+     */
+    private static class JwtPrincipalHandshakeHandler extends DefaultHandshakeHandler {
+
+        @Override
+        protected Principal determineUser(ServerHttpRequest request, WebSocketHandler wsHandler,
+                                          Map<String, Object> attributes) {
+            Object username = attributes.get("username");
+            if (username == null) {
+                return super.determineUser(request, wsHandler, attributes);
+            }
+            return new UsernamePasswordAuthenticationToken(username.toString(), null, List.of());
+        }
     }
 
     /**
@@ -58,8 +201,9 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
                     logger.debug("Interceptando conexión WebSocket. Token: {}", token != null ? "[PRESENTE]" : "[AUSENTE]");
 
-                    if (token != null && jwtUtil.validateToken(token)) {
-                        String username = jwtUtil.extractUsername(token);
+                    Optional<Claims> claims = token != null ? jwtUtil.validateAndGetClaims(token) : Optional.empty();
+                    if (claims.isPresent()) {
+                        String username = claims.get().getSubject();
                         logger.debug("Token válido para usuario: {}", username);
 
                         // Almacenar información del usuario en los atributos de la sesión WebSocket
@@ -0,0 +1,60 @@
+package com.alex.chat.config;
+
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VirtualThreadPinningMonitorTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private VirtualThreadPinningMonitor monitor;
+
+    @AfterEach
+    void tearDown() {
+        monitor.stop();
+    }
+
+    @Test
+    void platformThreadModeDoesNotStartTheRecording() {
+        monitor = new VirtualThreadPinningMonitor(new ChatMetricsService(registry), false, 20);
+
+        monitor.start();
+
+        assertFalse(monitor.isRunning());
+    }
+
+    @Test
+    void pinnedVirtualThreadIsCounted() throws Exception {
+        monitor = new VirtualThreadPinningMonitor(new ChatMetricsService(registry), true, 1);
+        monitor.start();
+        assertTrue(monitor.isRunning());
+
+        Object lock = new Object();
+        Thread.ofVirtual().start(() -> {
+            synchronized (lock) {
+                try {
+                    // Dormir dentro de un synchronized ancla el hilo virtual a su portador
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).join();
+
+        // JFR entrega los eventos al stream aproximadamente una vez por segundo
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.timer("chat.threads.virtual.pinned").count() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(registry.timer("chat.threads.virtual.pinned").count() > 0);
+
+        monitor.stop();
+        assertFalse(monitor.isRunning());
+    }
+}
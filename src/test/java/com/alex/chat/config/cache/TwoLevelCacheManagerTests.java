@@ -0,0 +1,102 @@
+package com.alex.chat.config.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TwoLevelCacheManagerTests {
+
+    private final List<String> published = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ConcurrentMapCacheManager remote;
+    private TwoLevelCacheManager manager;
+
+    @BeforeEach
+    void setUp() {
+        remote = new ConcurrentMapCacheManager();
+        StringRedisTemplate redisTemplate = new StringRedisTemplate() {
+            @Override
+            public Long convertAndSend(String channel, Object message) {
+                published.add((String) message);
+                return 1L;
+            }
+        };
+        manager = new TwoLevelCacheManager(remote, redisTemplate, meterRegistry, 100, Duration.ofMinutes(1));
+        manager.afterPropertiesSet();
+    }
+
+    @Test
+    void localHitDoesNotReachRedis() {
+        Cache cache = manager.getCache("messages");
+        assertInstanceOf(TwoLevelCache.class, cache);
+        remote.getCache("messages").put(1L, "hola");
+
+        assertEquals("hola", cache.get(1L).get());
+        // Si L1 no se consultara, esta lectura vería el cambio hecho solo en Redis
+        remote.getCache("messages").put(1L, "cambiado en L2");
+        assertEquals("hola", cache.get(1L).get());
+
+        assertEquals(1, meterRegistry.get("chat.cache.gets").tags("level", "l1", "result", "hit").counter().count());
+        assertEquals(1, meterRegistry.get("chat.cache.gets").tags("level", "l2", "result", "hit").counter().count());
+        assertEquals(0.5, meterRegistry.get("chat.cache.hit.ratio").tags("level", "l1").gauge().value());
+    }
+
+    @Test
+    void evictClearsBothLevelsAndNotifiesOtherNodes() {
+        Cache cache = manager.getCache("messages");
+        cache.put(1L, "hola");
+
+        cache.evict(1L);
+
+        assertNull(remote.getCache("messages").get(1L));
+        assertNull(cache.get(1L));
+        assertEquals(1, published.size());
+        assertTrue(published.get(0).endsWith("|E|messages|1"));
+    }
+
+    @Test
+    void remoteInvalidationClearsOnlyLocalLevel() {
+        Cache cache = manager.getCache("messages");
+        cache.put("all", "lista vieja");
+        remote.getCache("messages").put("all", "lista nueva");
+
+        manager.onMessage(message("otro-nodo|E|messages|all"), null);
+
+        assertEquals("lista nueva", cache.get("all").get());
+
+        manager.onMessage(message("otro-nodo|C|messages"), null);
+        remote.getCache("messages").clear();
+        assertNull(cache.get("all"));
+    }
+
+    @Test
+    void ownInvalidationsAreIgnored() {
+        Cache cache = manager.getCache("messages");
+        cache.evict(1L);
+        cache.put(1L, "hola");
+        remote.getCache("messages").evict(1L);
+
+        manager.onMessage(message(published.get(0)), null);
+
+        assertEquals("hola", cache.get(1L).get());
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(TwoLevelCacheManager.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,95 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatEventSerializerTests {
+
+    private final ChatEventSerializer serializer = new ChatEventSerializer();
+
+    @Test
+    void roundTripKeepsAllFields() {
+        ChatMessage message = message("alice", "Hola 👋, ¿qué tal? ñandú");
+        message.setStreamId("1700000000000-3");
+        message.setSeq(1234L);
+
+        ChatMessage decoded = serializer.deserialize(serializer.serialize(message));
+
+        assertEquals(message.getChatId(), decoded.getChatId());
+        assertEquals(message.getSender(), decoded.getSender());
+        assertEquals(message.getContent(), decoded.getContent());
+        assertEquals(message.getSentAt(), decoded.getSentAt());
+        assertEquals(message.getStreamId(), decoded.getStreamId());
+        assertEquals(message.getSeq(), decoded.getSeq());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+    }
+
+    @Test
+    void timestampIsTheOneSetByTheSendingNode() {
+        // Hora del nodo de origen, que no tiene por qué coincidir con la zona del que recibe
+        ChatMessage message = message("alice", "hola");
+        message.setTimestamp("23:59:58");
+
+        assertEquals("23:59:58", serializer.deserialize(serializer.serialize(message)).getTimestamp());
+    }
+
+    @Test
+    void missingFieldsStayNull() {
+        ChatMessage message = new ChatMessage(null, null, null);
+        message.setSentAt(1L);
+
+        ChatMessage decoded = serializer.deserialize(serializer.serialize(message));
+
+        assertNull(decoded.getChatId());
+        assertNull(decoded.getSender());
+        assertNull(decoded.getContent());
+        assertNull(decoded.getStreamId());
+        assertNull(decoded.getSeq());
+    }
+
+    @Test
+    void envelopeIsSizedExactly() {
+        ChatMessage message = message("bob", "x".repeat(100_000) + "ñ👋");
+        message.setSeq(7L);
+
+        byte[] bytes = serializer.serialize(message);
+
+        // Cabecera(4) chatId(8) sentAt(8) sender(1+3) content(3+100_006) seq(8) timestamp(1+8)
+        assertEquals(4 + 8 + 8 + 4 + 3 + 100_006 + 8 + 9, bytes.length);
+        assertEquals(message.getContent(), serializer.deserialize(bytes).getContent());
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() {
+        ChatMessage message = message("alice", "Hola, ¿cómo va todo por ahí?");
+
+        byte[] binary = serializer.serialize(message);
+        byte[] json = RedisConfig.jsonSerializer().serialize(message);
+
+        assertTrue(binary.length * 2 < json.length, () -> binary.length + " bytes vs " + json.length + " bytes");
+    }
+
+    @Test
+    void wireSerializerReadsBothFormats() {
+        ChatMessage message = message("alice", "hola");
+        ChatWireSerializer binaryNode = new ChatWireSerializer(RedisConfig.jsonSerializer(), true);
+        ChatWireSerializer jsonNode = new ChatWireSerializer(RedisConfig.jsonSerializer(), false);
+
+        assertInstanceOf(ChatMessage.class, jsonNode.deserialize(binaryNode.serialize(message)));
+        assertInstanceOf(ChatMessage.class, binaryNode.deserialize(jsonNode.serialize(message)));
+        assertEquals("texto", binaryNode.deserialize(binaryNode.serialize("texto")));
+    }
+
+    private static ChatMessage message(String sender, String content) {
+        ChatMessage message = new ChatMessage(sender, content, null);
+        message.setChatId(42L);
+        message.setSentAt(1_700_000_000_000L);
+        message.setTimestamp("10:13:20");
+        return message;
+    }
+}
@@ -0,0 +1,81 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.service.RecentHistoryBuffer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ChatRoomSubscriptionManagerTests {
+
+    private final RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+    private final RedisMessageSubscriber subscriber = mock(RedisMessageSubscriber.class);
+    private final ChatRoomSubscriptionManager manager = new ChatRoomSubscriptionManager(container, subscriber,
+            mock(RoomSignalSubscriber.class), new ChatMetricsService(new SimpleMeterRegistry()),
+            mock(RecentHistoryBuffer.class), "simple");
+
+    @Test
+    void channelIsHeldWhileAnyoneLocalIsSubscribed() {
+        manager.handleSubscribe(subscribed("s1", "sub-1", 42L));
+        manager.handleSubscribe(subscribed("s2", "sub-1", 42L));
+        manager.handleDisconnect(disconnected("s1"));
+
+        verify(container, times(1)).addMessageListener(eq(subscriber), any(ChannelTopic.class));
+        verify(container, never()).removeMessageListener(eq(subscriber), any(ChannelTopic.class));
+
+        manager.handleDisconnect(disconnected("s2"));
+
+        verify(container).removeMessageListener(subscriber, new ChannelTopic("chat.42"));
+        assertEquals(0, manager.getLocalSubscriberCount(42L));
+    }
+
+    @Test
+    void redisSubscribeDoesNotBlockTheCounters() {
+        // Mientras Redis tarda en confirmar el alta, otra sesión entra en el mismo chat
+        doAnswer(invocation -> {
+            CompletableFuture.runAsync(() -> manager.handleSubscribe(subscribed("s2", "sub-1", 42L)))
+                    .get(5, TimeUnit.SECONDS);
+            return null;
+        }).when(container).addMessageListener(eq(subscriber), any(ChannelTopic.class));
+
+        manager.handleSubscribe(subscribed("s1", "sub-1", 42L));
+
+        assertEquals(2, manager.getLocalSubscriberCount(42L));
+        verify(container, times(1)).addMessageListener(eq(subscriber), any(ChannelTopic.class));
+    }
+
+    private static SessionSubscribeEvent subscribed(String sessionId, String subscriptionId, Long chatId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setDestination("/topic/chat." + chatId);
+        return new SessionSubscribeEvent(new Object(),
+                MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()));
+    }
+
+    private static SessionDisconnectEvent disconnected(String sessionId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+        headers.setSessionId(sessionId);
+        return new SessionDisconnectEvent(new Object(),
+                MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()), sessionId, CloseStatus.NORMAL);
+    }
+}
@@ -0,0 +1,130 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class RedisPublishBatcherTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+    private final ChatEventStream eventStream = mock(ChatEventStream.class);
+    /** Cada pipeline, con los "canal:mensaje" en el orden en que se publicaron. */
+    private final List<List<String>> pipelines = Collections.synchronizedList(new ArrayList<>());
+    private RedisPublishBatcher batcher;
+
+    RedisPublishBatcherTests() {
+        doReturn(RedisSerializer.string()).when(redisTemplate).getValueSerializer();
+        doAnswer(invocation -> {
+            List<String> published = new ArrayList<>();
+            RedisConnection connection = mock(RedisConnection.class);
+            doAnswer(publish -> {
+                published.add(new String(publish.<byte[]>getArgument(0), StandardCharsets.UTF_8) + ":"
+                        + new String(publish.<byte[]>getArgument(1), StandardCharsets.UTF_8));
+                return 1L;
+            }).when(connection).publish(any(byte[].class), any(byte[].class));
+            invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection);
+            pipelines.add(published);
+            return List.of();
+        }).when(redisTemplate).executePipelined(any(RedisCallback.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.stop();
+    }
+
+    @Test
+    void batchIsPublishedInArrivalOrder() {
+        batcher = batcher(256, 1000, 10_000);
+        List<String> expected = IntStream.range(0, 100).mapToObj(i -> "chat.42:m" + i).toList();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(batcher.offer("chat.42", "m" + i));
+        }
+
+        batcher.start();
+        batcher.stop();
+
+        assertEquals(List.of(expected), pipelines);
+        assertEquals(100, registry.summary("chat.redis.publish.batch.size").totalAmount());
+        verify(eventStream).appendAll(anyList());
+    }
+
+    @Test
+    void batchesAreCutAtTheMaximumSizeKeepingTheOrder() {
+        batcher = batcher(4, 1000, 10_000);
+        for (int i = 0; i < 10; i++) {
+            batcher.offer("chat.42", "m" + i);
+        }
+
+        batcher.start();
+        batcher.stop();
+
+        assertEquals(List.of(
+                List.of("chat.42:m0", "chat.42:m1", "chat.42:m2", "chat.42:m3"),
+                List.of("chat.42:m4", "chat.42:m5", "chat.42:m6", "chat.42:m7"),
+                List.of("chat.42:m8", "chat.42:m9")), pipelines);
+    }
+
+    @Test
+    void fullQueueDropsAndCountsTheMessage() {
+        batcher = batcher(256, 1000, 2);
+
+        assertTrue(batcher.offer("chat.42", "uno"));
+        assertTrue(batcher.offer("chat.42", "dos"));
+        assertFalse(batcher.offer("chat.42", "tres"));
+
+        assertEquals(1, registry.counter("chat.redis.publish.dropped").count());
+        assertEquals(2, registry.get("chat.redis.publish.queue.size").gauge().value());
+        batcher.start();
+        batcher.stop();
+        assertEquals(List.of(List.of("chat.42:uno", "chat.42:dos")), pipelines);
+        assertEquals(0, registry.get("chat.redis.publish.queue.size").gauge().value());
+    }
+
+    @Test
+    void stopPublishesWhatIsPendingWithoutWaitingForTheWindow() {
+        // Ventana de 10 s: si stop esperase a que se cerrara, el join se agotaría antes
+        batcher = batcher(256, 10_000_000, 10_000);
+        batcher.start();
+        for (int i = 0; i < 50; i++) {
+            batcher.offer("chat.7", "m" + i);
+        }
+
+        long started = System.nanoTime();
+        batcher.stop();
+
+        assertTrue(System.nanoTime() - started < 5_000_000_000L);
+        List<String> published = pipelines.stream().flatMap(List::stream).toList();
+        assertEquals(IntStream.range(0, 50).mapToObj(i -> "chat.7:m" + i).toList(), published);
+        verify(redisTemplate, times(pipelines.size())).executePipelined(any(RedisCallback.class));
+    }
+
+    private RedisPublishBatcher batcher(int maxBatchSize, long windowMicros, int queueCapacity) {
+        return new RedisPublishBatcher(redisTemplate, new ChatMetricsService(registry), eventStream,
+                "batching", maxBatchSize, windowMicros, queueCapacity);
+    }
+}
@@ -0,0 +1,44 @@
+package com.alex.chat.config.redis;
+
+import com.alex.chat.dto.ReadReceipt;
+import com.alex.chat.dto.TypingEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class RoomSignalSubscriberTests {
+
+    private final SimpMessageSendingOperations messagingTemplate = mock(SimpMessageSendingOperations.class);
+    private final ChatWireSerializer serializer = new ChatWireSerializer(RedisConfig.jsonSerializer(), true);
+    private final RoomSignalSubscriber subscriber = new RoomSignalSubscriber(messagingTemplate, serializer);
+
+    @Test
+    void typingEventsAreDeliveredToTheTypingDestination() {
+        TypingEvent event = new TypingEvent(42L, "alice", true);
+
+        subscriber.onMessage(message("chat.42.typing", event), null);
+
+        verify(messagingTemplate).convertAndSend("/topic/chat.42.typing", event);
+    }
+
+    @Test
+    void receiptBatchesAreDeliveredAsOneFrame() {
+        List<ReadReceipt> receipts = new ArrayList<>(List.of(
+                new ReadReceipt(42L, "alice", 1234L, 17L), new ReadReceipt(42L, "bob", null, 16L)));
+
+        subscriber.onMessage(message("chat.42.receipts", receipts), null);
+
+        verify(messagingTemplate).convertAndSend("/topic/chat.42.receipts", receipts);
+    }
+
+    private DefaultMessage message(String channel, Object payload) {
+        return new DefaultMessage(channel.getBytes(StandardCharsets.UTF_8), serializer.serialize(payload));
+    }
+}
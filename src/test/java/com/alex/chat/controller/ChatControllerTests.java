@@ -0,0 +1,122 @@
+package com.alex.chat.controller;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.service.ChatAccessService;
+import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.service.ChatSequenceService;
+import com.alex.chat.service.ChatService;
+import com.alex.chat.service.MessageWriteBehindService;
+import com.alex.chat.service.SequenceUnavailableException;
+import com.alex.chat.service.UnreadCounterService;
+import com.alex.chat.websocket.ChatBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ChatControllerTests {
+
+    private final ChatService chatService = mock(ChatService.class);
+    private final UnreadCounterService unreadCounterService = mock(UnreadCounterService.class);
+    private final ChatBroadcaster broadcaster = mock(ChatBroadcaster.class);
+    private final MessageWriteBehindService writeBehind = mock(MessageWriteBehindService.class);
+    private final ChatSequenceService sequences = mock(ChatSequenceService.class);
+    private final ChatAccessService access = mock(ChatAccessService.class);
+    private final ChatController controller = new ChatController(chatService, broadcaster,
+            new ChatMetricsService(new SimpleMeterRegistry()), writeBehind, unreadCounterService, null, null, null,
+            null, null, sequences, access);
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    private final Principal alice = () -> "alice";
+
+    @Test
+    void markReadReturnsWhatIsStillUnread() throws Exception {
+        when(unreadCounterService.markRead("alice", 42L, 500L)).thenReturn(Optional.of(3L));
+
+        mvc.perform(post("/api/chat/chats/42/read").param("messageId", "500").principal(alice))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.unread").value(3));
+    }
+
+    @Test
+    void markReadOutsideTheChatIsNotFound() throws Exception {
+        when(unreadCounterService.markRead("alice", 42L, 900L)).thenReturn(Optional.empty());
+
+        mvc.perform(post("/api/chat/chats/42/read").param("messageId", "900").principal(alice))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void markReadNeedsTheMessage() throws Exception {
+        mvc.perform(post("/api/chat/chats/42/read").principal(alice))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void outsiderCannotPostIntoAChat() {
+        when(writeBehind.knowsChat(42L)).thenReturn(true);
+        ChatMessage message = new ChatMessage("bob", "hola", null);
+        message.setChatId(42L);
+
+        controller.sendMessage(message, () -> "mallory");
+
+        verify(sequences, never()).next(any());
+        verify(writeBehind, never()).enqueue(any());
+        verify(broadcaster, never()).broadcast(any(), any());
+    }
+
+    @Test
+    void participantReadsTheHistory() throws Exception {
+        when(access.isParticipant(42L, "alice")).thenReturn(true);
+        when(chatService.getChatHistory(42L, null, null, 50)).thenReturn(new MessagePage(List.of(), null));
+
+        mvc.perform(get("/api/chat/chats/42/messages").principal(alice))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void outsiderCannotReadAChat() throws Exception {
+        Principal mallory = () -> "mallory";
+
+        mvc.perform(get("/api/chat/chats/42/messages").principal(mallory))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/chat/chats/42/messages/seq").param("from", "1").param("to", "5").principal(mallory))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/chat/chats/42/replay").param("after", "1723456789012-0").principal(mallory))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/chat/chats/42/messages/export").principal(mallory))
+                .andExpect(status().isNotFound());
+
+        verifyNoInteractions(chatService);
+    }
+
+    @Test
+    void messageWithoutSequenceIsNeitherStoredNorBroadcast() {
+        when(access.isParticipant(42L, "alice")).thenReturn(true);
+        when(writeBehind.knowsChat(42L)).thenReturn(true);
+        when(sequences.next(42L)).thenReturn(null);
+        ChatMessage message = new ChatMessage("alice", "hola", null);
+        message.setChatId(42L);
+
+        assertThrows(SequenceUnavailableException.class, () -> controller.sendMessage(message, alice));
+
+        verify(writeBehind, never()).enqueue(any());
+        verify(broadcaster, never()).broadcast(any(), any());
+    }
+}
@@ -0,0 +1,169 @@
+package com.alex.chat.message.shard;
+
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.repo.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.alex.chat.message.shard.ShardedMessageRepositoryTests.message;
+import static com.alex.chat.message.shard.ShardedMessageRepositoryTests.urls;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageResharderTests {
+
+    private static final int CHATS = 30;
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final MessageResharder resharder = new MessageResharder(null, userRepository, null, "sa", "", 7);
+    private final List<ShardedMessageRepository> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeShards() {
+        opened.forEach(ShardedMessageRepository::close);
+    }
+
+    @Test
+    void addingAShardMovesOnlyTheChatsThatNowLiveThere() {
+        List<String> urls = urls(3);
+        ShardedMessageRepository from = open(urls.subList(0, 2));
+        List<Message> saved = saveThreePerChat(from);
+        ShardedMessageRepository to = open(urls);
+
+        MessageResharder.Result result = resharder.reshard(from, to);
+
+        long expectedMoves = 3 * Stream.iterate(1L, id -> id + 1).limit(CHATS)
+                .filter(chatId -> ShardedMessageRepository.shardOf(chatId, 3) == 2).count();
+        assertEquals(saved.size(), result.scanned());
+        assertEquals(expectedMoves, result.copied());
+        assertEquals(saved.size(), to.findAllViews().size());
+        for (long chatId = 1; chatId <= CHATS; chatId++) {
+            int home = ShardedMessageRepository.shardOf(chatId, 3);
+            for (MessageShard shard : to.shards()) {
+                Long rows = shard.jdbc().queryForObject("SELECT COUNT(*) FROM chat_messages WHERE chat_id = ?",
+                        Long.class, chatId);
+                assertEquals(shard.index() == home ? 3L : 0L, rows, "chat " + chatId + " en el shard " + shard.index());
+            }
+            assertEquals(3, to.findHistoryPageBySeq(chatId, Long.MAX_VALUE, 10).size());
+        }
+        // Los mensajes movidos se siguen encontrando por ID aunque no estén en el shard que lo creó
+        assertEquals(saved.size(), to.findViewsByIdIn(saved.stream().map(Message::getId).toList()).size());
+    }
+
+    @Test
+    void reshardingAgainAfterAnInterruptionCopiesNothingTwice() {
+        List<String> urls = urls(3);
+        ShardedMessageRepository from = open(urls.subList(0, 2));
+        List<Message> saved = saveThreePerChat(from);
+        ShardedMessageRepository to = open(urls);
+        // Como si se hubiera cortado tras copiar un chat sin llegar a borrarlo del origen
+        long movedChat = Stream.iterate(1L, id -> id + 1)
+                .filter(chatId -> ShardedMessageRepository.shardOf(chatId, 3) == 2).findFirst().orElseThrow();
+        MessageShard newShard = to.shards().get(2);
+        for (MessageShard source : from.shards()) {
+            source.jdbc().query("SELECT " + MessageShard.COLUMNS + " FROM chat_messages WHERE chat_id = ?",
+                    rs -> {
+                        newShard.jdbc().update("INSERT INTO chat_messages (" + MessageShard.COLUMNS
+                                        + ") VALUES (?, ?, ?, ?, ?, ?, ?)", rs.getLong(1), rs.getLong(2), rs.getLong(3),
+                                rs.getString(4), rs.getString(5), rs.getTimestamp(6), rs.getObject(7));
+                    }, movedChat);
+        }
+
+        MessageResharder.Result first = resharder.reshard(from, to);
+        MessageResharder.Result second = resharder.reshard(from, to);
+
+        assertEquals(saved.size(), to.findAllViews().size());
+        assertTrue(first.copied() > 0);
+        assertEquals(0, second.copied());
+    }
+
+    @Test
+    void newMessagesOfAMovedChatSortAfterTheOldOnes() {
+        List<String> urls = urls(3);
+        ShardedMessageRepository from = open(urls.subList(0, 2));
+        saveThreePerChat(from);
+        ShardedMessageRepository to = open(urls);
+        resharder.reshard(from, to);
+
+        for (long chatId = 1; chatId <= CHATS; chatId++) {
+            long oldest = to.findHistoryPageBySeq(chatId, Long.MAX_VALUE, 1).getFirst().id();
+            Message fresh = message(chatId, 9L, "después", 4L);
+            to.saveAll(List.of(fresh));
+            assertTrue(fresh.getId() > oldest, "chat " + chatId);
+            assertEquals("después", to.findHistoryPageBySeq(chatId, Long.MAX_VALUE, 1).getFirst().content());
+        }
+    }
+
+    @Test
+    void importCopiesThePrimaryTableKeepingIds() {
+        DriverManagerDataSource primary = new DriverManagerDataSource(urls(1).getFirst(), "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(primary);
+        jdbc.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, username VARCHAR(255))");
+        jdbc.execute("CREATE TABLE messages (id BIGINT PRIMARY KEY, chat_id BIGINT, sender_id BIGINT, "
+                + "content TEXT, sent_at TIMESTAMP(6), seq BIGINT)");
+        jdbc.update("INSERT INTO users VALUES (1, 'alice'), (2, 'bob')");
+        for (long id = 1; id <= 20; id++) {
+            jdbc.update("INSERT INTO messages VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, ?)",
+                    id * 50, id % 4 + 1, id % 2 + 1, "mensaje " + id, id);
+        }
+        ShardedMessageRepository to = open(urls(2));
+
+        MessageResharder.Result result = resharder.importFrom(primary, to);
+        MessageResharder.Result again = resharder.importFrom(primary, to);
+
+        assertEquals(20, result.copied());
+        assertEquals(0, again.copied());
+        MessageView first = to.findViewById(50L).orElseThrow();
+        assertEquals("bob", first.sender());
+        assertEquals("mensaje 1", first.content());
+        assertEquals(20L, jdbc.queryForObject("SELECT COUNT(*) FROM messages", Long.class));
+        Message fresh = message(2L, 1L, "nuevo", null);
+        to.saveAll(List.of(fresh));
+        assertTrue(fresh.getId() > 1000);
+    }
+
+    @Test
+    void runnerExitCodeSaysWhetherTheReshardWorked() {
+        List<String> target = urls(2);
+        MessageResharder failing = mock(MessageResharder.class);
+        when(failing.reshardTo(any())).thenThrow(new IllegalStateException("shard caído"));
+
+        MessageReshardRunner ok = new MessageReshardRunner(mock(MessageResharder.class), target);
+        MessageReshardRunner failed = new MessageReshardRunner(failing, target);
+        MessageReshardRunner withoutTarget = new MessageReshardRunner(mock(MessageResharder.class), List.of());
+        ok.run();
+        failed.run();
+        withoutTarget.run();
+
+        assertEquals(0, ok.getExitCode());
+        assertEquals(1, failed.getExitCode());
+        assertEquals(1, withoutTarget.getExitCode());
+    }
+
+    private ShardedMessageRepository open(List<String> urls) {
+        ShardedMessageRepository shards = new ShardedMessageRepository(userRepository, urls, "sa", "", 2);
+        opened.add(shards);
+        return shards;
+    }
+
+    private static List<Message> saveThreePerChat(ShardedMessageRepository shards) {
+        List<Message> batch = new ArrayList<>();
+        for (long seq = 1; seq <= 3; seq++) {
+            for (long chatId = 1; chatId <= CHATS; chatId++) {
+                batch.add(message(chatId, 7L, "chat " + chatId + " #" + seq, seq));
+            }
+        }
+        shards.saveAll(batch);
+        return batch;
+    }
+}
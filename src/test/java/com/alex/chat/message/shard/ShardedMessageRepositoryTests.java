@@ -0,0 +1,260 @@
+package com.alex.chat.message.shard;
+
+import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardedMessageRepositoryTests {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final List<ShardedMessageRepository> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeShards() {
+        opened.forEach(ShardedMessageRepository::close);
+    }
+
+    @Test
+    void addingAShardOnlyMovesChatsToTheNewOne() {
+        int moved = 0;
+        int[] perShard = new int[3];
+        for (long chatId = 1; chatId <= 30_000; chatId++) {
+            int before = ShardedMessageRepository.shardOf(chatId, 2);
+            int after = ShardedMessageRepository.shardOf(chatId, 3);
+            perShard[after]++;
+            if (before != after) {
+                assertEquals(2, after);
+                moved++;
+            }
+        }
+        // Alrededor de un tercio, y los tres shards parecidos
+        assertTrue(moved > 9_000 && moved < 11_000, "movidos: " + moved);
+        for (int count : perShard) {
+            assertTrue(count > 9_000 && count < 11_000, "por shard: " + count);
+        }
+    }
+
+    @Test
+    void eachChatLivesInASingleShard() {
+        ShardedMessageRepository shards = open(urls(2));
+        List<Message> batch = new ArrayList<>();
+        for (long chatId = 1; chatId <= 6; chatId++) {
+            for (long seq = 1; seq <= 3; seq++) {
+                batch.add(message(chatId, 7L, "chat " + chatId + " #" + seq, seq));
+            }
+        }
+        shards.saveAll(batch);
+
+        for (long chatId = 1; chatId <= 6; chatId++) {
+            int home = ShardedMessageRepository.shardOf(chatId, 2);
+            for (MessageShard shard : shards.shards()) {
+                Long rows = shard.jdbc().queryForObject("SELECT COUNT(*) FROM chat_messages WHERE chat_id = ?",
+                        Long.class, chatId);
+                assertEquals(shard.index() == home ? 3L : 0L, rows);
+            }
+        }
+        assertTrue(batch.stream().allMatch(message -> message.getId() != null));
+        assertEquals(18, batch.stream().map(Message::getId).distinct().count());
+    }
+
+    @Test
+    void chatQueriesReadTheChatShard() {
+        ShardedMessageRepository shards = open(urls(3));
+        List<Message> batch = IntStream.rangeClosed(1, 5)
+                .mapToObj(i -> message(10L, i % 2 == 0 ? 7L : 8L, "m" + i, (long) i))
+                .toList();
+        shards.saveAll(batch);
+
+        List<MessageView> page = shards.findHistoryPageBySeq(10L, Long.MAX_VALUE, 2);
+        assertEquals(List.of("m5", "m4"), page.stream().map(MessageView::content).toList());
+        assertEquals(List.of("m3", "m2"), shards.findHistoryPageBySeq(10L, page.getLast().seq(), 2).stream()
+                .map(MessageView::content).toList());
+        assertEquals(List.of("m2", "m1"), shards.findHistoryPageBySeq(10L, 3L, 10).stream()
+                .map(MessageView::content).toList());
+        assertEquals(List.of(2L, 3L, 4L), shards.findViewsBySeqRange(10L, 2L, 4L).stream()
+                .map(MessageView::seq).toList());
+        assertEquals(5L, shards.findMaxSeq(10L));
+        assertEquals("user7", page.get(1).sender());
+        try (var history = shards.streamHistory(10L)) {
+            assertEquals(List.of("m1", "m2", "m3", "m4", "m5"), history.map(MessageView::content).toList());
+        }
+        // Usuario 7: no cuentan los suyos (m2, m4) ni los anteriores a su marca (m1)
+        assertEquals(2, shards.countUnreadMessages(10L, 7L, 1L));
+    }
+
+    @Test
+    void unreadAndLastMessagesAreOneQueryPerShardAcrossChats() {
+        ShardedMessageRepository shards = open(urls(2));
+        List<Message> batch = new ArrayList<>();
+        for (long chatId = 1; chatId <= 4; chatId++) {
+            batch.add(message(chatId, 8L, "primero " + chatId, 1L));
+            batch.add(message(chatId, 8L, "último " + chatId, 2L));
+        }
+        shards.saveAll(batch);
+
+        Map<Long, Long> lastRead = Map.of(1L, 0L, 2L, 1L, 3L, 2L, 5L, 0L);
+        Map<Long, Long> unread = shards.countUnreadByChat(7L, lastRead).stream()
+                .collect(Collectors.toMap(UnreadCount::chatId, UnreadCount::count));
+        assertEquals(Map.of(1L, 2L, 2L, 1L, 3L, 0L, 5L, 0L), unread);
+
+        Map<Long, MessageView> last = shards.findLastMessages(List.of(1L, 2L, 3L, 4L, 5L));
+        assertEquals(4, last.size());
+        assertEquals("último 3", last.get(3L).content());
+    }
+
+    @Test
+    void chatOrderFollowsTheSequenceNotTheId() {
+        ShardedMessageRepository shards = open(urls(1));
+        // Otro nodo guardó antes el 3 con un ID de su bloque; los dos primeros son de antes de las secuencias
+        List<Message> batch = List.of(message(10L, 7L, "viejo 1", null), message(10L, 7L, "viejo 2", null),
+                message(10L, 7L, "tercero", 3L), message(10L, 7L, "segundo", 2L), message(10L, 7L, "primero", 1L));
+        shards.saveAll(batch);
+
+        assertEquals("tercero", shards.findLastMessages(List.of(10L)).get(10L).content());
+        assertEquals(List.of("viejo 2", "viejo 1"), shards.findHistoryPage(10L, Long.MAX_VALUE, 5).stream()
+                .map(MessageView::content).toList());
+        try (var history = shards.streamHistory(10L)) {
+            assertEquals(List.of("viejo 1", "viejo 2", "primero", "segundo", "tercero"),
+                    history.map(MessageView::content).toList());
+        }
+        // Un chat sin ningún mensaje con secuencia sigue teniendo último mensaje
+        shards.saveAll(List.of(message(11L, 7L, "sin secuencia", null)));
+        assertEquals("sin secuencia", shards.findLastMessages(List.of(10L, 11L)).get(11L).content());
+    }
+
+    @Test
+    void adminQueriesFanOutToEveryShard() {
+        ShardedMessageRepository shards = open(urls(3));
+        List<Message> batch = new ArrayList<>();
+        for (long chatId = 1; chatId <= 9; chatId++) {
+            batch.add(message(chatId, 7L, "hola " + chatId, null));
+        }
+        shards.saveAll(batch);
+        List<Long> ids = batch.stream().map(Message::getId).sorted().toList();
+
+        assertEquals(ids, shards.findAllViews().stream().map(MessageView::id).toList());
+        assertEquals(ids.subList(3, 7), shards.findViewsAfter(ids.get(2), 4).stream().map(MessageView::id).toList());
+        assertEquals("hola 4", shards.findViewById(batch.get(3).getId()).orElseThrow().content());
+        assertEquals(9, shards.findViewsByIdIn(ids).size());
+
+        assertEquals(4L, shards.deleteById(batch.get(3).getId()).orElseThrow());
+        assertFalse(shards.findViewById(batch.get(3).getId()).isPresent());
+        assertFalse(shards.deleteById(batch.get(3).getId()).isPresent());
+    }
+
+    @Test
+    void sendersWithoutNameAreLookedUpOnce() {
+        ShardedMessageRepository shards = open(urls(1));
+        User alice = new User();
+        alice.setId(7L);
+        alice.setUsername("alice");
+        when(userRepository.findAllById(any())).thenReturn(List.of(alice));
+        Message fromRest = message(1L, 7L, "por REST", null);
+        fromRest.getSender().setUsername(null);
+
+        shards.saveAll(List.of(fromRest));
+
+        assertEquals("alice", shards.findViewById(fromRest.getId()).orElseThrow().sender());
+    }
+
+    @Test
+    void writesWaitForThePrimaryCommitAndGoAwayWithItsRollback() {
+        ShardedMessageRepository shards = open(urls(2));
+        TransactionTemplate primary = primaryTransaction();
+        Message kept = message(1L, 7L, "confirmado", 1L);
+
+        primary.executeWithoutResult(status -> {
+            shards.saveAll(List.of(kept));
+            // El ID ya está, la fila todavía no
+            assertFalse(shards.findViewById(kept.getId()).isPresent());
+        });
+        primary.executeWithoutResult(status -> {
+            shards.saveAll(List.of(message(2L, 7L, "deshecho", 1L)));
+            shards.deleteById(kept.getId());
+            status.setRollbackOnly();
+        });
+
+        assertEquals(List.of("confirmado"), shards.findAllViews().stream().map(MessageView::content).toList());
+    }
+
+    @Test
+    void writesAlreadyMadeAreUndoneWhenThePrimaryCommitFails() {
+        ShardedMessageRepository shards = open(urls(2));
+        Message earlier = message(1L, 7L, "anterior", 1L);
+        shards.saveAll(List.of(earlier));
+
+        assertThrows(IllegalStateException.class, () -> primaryTransaction().executeWithoutResult(status -> {
+            shards.saveAll(List.of(message(1L, 7L, "uno", 2L), message(2L, 7L, "dos", 1L),
+                    message(3L, 7L, "tres", 1L)));
+            shards.deleteById(earlier.getId());
+            // Falla después de que los shards hayan escrito
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    throw new IllegalStateException("commit fallido");
+                }
+            });
+        }));
+
+        assertEquals(List.of("anterior"), shards.findAllViews().stream().map(MessageView::content).toList());
+    }
+
+    private static TransactionTemplate primaryTransaction() {
+        return new TransactionTemplate(new DataSourceTransactionManager(new DriverManagerDataSource(
+                "jdbc:h2:mem:primary-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "")));
+    }
+
+    private ShardedMessageRepository open(List<String> urls) {
+        ShardedMessageRepository shards = new ShardedMessageRepository(userRepository, urls, "sa", "", 2);
+        opened.add(shards);
+        return shards;
+    }
+
+    static List<String> urls(int count) {
+        String run = UUID.randomUUID().toString();
+        return IntStream.range(0, count)
+                .mapToObj(i -> "jdbc:h2:mem:shard-" + run + "-" + i + ";DB_CLOSE_DELAY=-1")
+                .toList();
+    }
+
+    static Message message(Long chatId, Long senderId, String content, Long seq) {
+        Chat chat = new Chat();
+        chat.setId(chatId);
+        User sender = new User();
+        sender.setId(senderId);
+        sender.setUsername("user" + senderId);
+        Message message = new Message();
+        message.setChat(chat);
+        message.setSender(sender);
+        message.setContent(content);
+        message.setSentAt(LocalDateTime.now());
+        message.setSeq(seq);
+        return message;
+    }
+}
@@ -0,0 +1,106 @@
+package com.alex.chat.security.jwt;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifiedTokenCacheTests {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    void tokenExpiringBeforeTheTtlIsNotServedAfterItsExpiry() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60_000, now::get);
+        cache.put("corto", claims("alice", now.get() + 1_000));
+        cache.put("largo", claims("bob", now.get() + 3_600_000));
+
+        now.addAndGet(999);
+        assertNotNull(cache.get("corto"));
+        now.addAndGet(1);
+        assertNull(cache.get("corto"));
+        assertNotNull(cache.get("largo"));
+        // El TTL de la caché manda aunque el token dure más
+        now.addAndGet(60_000);
+        assertNull(cache.get("largo"));
+    }
+
+    @Test
+    void alreadyExpiredTokenIsNotStored() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60_000, now::get);
+
+        cache.put("caducado", claims("alice", now.get()));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void sizeIsBoundedAndExpiredEntriesGoFirst() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60_000, now::get);
+        for (int i = 0; i < 5; i++) {
+            cache.put("corto-" + i, claims("user" + i, now.get() + 10));
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.put("largo-" + i, claims("user" + i, now.get() + 3_600_000));
+        }
+        now.addAndGet(10);
+
+        cache.put("nuevo", claims("carol", now.get() + 3_600_000));
+
+        // Los caducados dejan sitio sin tocar a los vigentes
+        assertEquals(6, cache.size());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get("largo-" + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("más-" + i, claims("user" + i, now.get() + 3_600_000));
+            assertTrue(cache.size() <= 10);
+        }
+        assertNotNull(cache.get("más-99"));
+    }
+
+    @Test
+    void revokedTokenIsNeitherServedNorCachedAgainUntilItExpires() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60_000, now::get);
+        long expiration = now.get() + 5_000;
+        cache.put("token", claims("alice", expiration));
+
+        cache.revoke("token", expiration);
+        cache.put("token", claims("alice", expiration));
+
+        assertNull(cache.get("token"));
+        assertTrue(cache.isRevoked("token"));
+        now.set(expiration);
+        assertFalse(cache.isRevoked("token"));
+    }
+
+    @Test
+    void revokedTokenIsRejectedEvenWhenItWasCached() {
+        JwtUtil jwtUtil = new JwtUtil(Keys.secretKeyFor(SignatureAlgorithm.HS256), 10, 60_000);
+        String token = jwtUtil.generateToken("alice");
+        assertTrue(jwtUtil.validateToken(token));
+
+        assertTrue(jwtUtil.revokeToken(token));
+
+        assertFalse(jwtUtil.validateToken(token));
+        assertThrows(RuntimeException.class, () -> jwtUtil.extractUsername(token));
+        assertFalse(jwtUtil.revokeToken("no.es.un-token"));
+        assertTrue(jwtUtil.validateToken(jwtUtil.generateToken("bob")));
+    }
+
+    private static Claims claims(String subject, long expiresAt) {
+        return Jwts.claims().setSubject(subject).setExpiration(new Date(expiresAt));
+    }
+}
@@ -0,0 +1,46 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.repo.ChatRepository;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatAccessServiceTests {
+
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final ChatAccessService access = new ChatAccessService(chatRepository);
+
+    @Test
+    void participantIsAskedOnce() {
+        when(chatRepository.isParticipant(42L, "alice")).thenReturn(true);
+
+        assertTrue(access.isParticipant(42L, "alice"));
+        assertTrue(access.isParticipant(42L, "alice"));
+
+        verify(chatRepository, times(1)).isParticipant(42L, "alice");
+    }
+
+    @Test
+    void outsiderIsRememberedToo() {
+        when(chatRepository.isParticipant(42L, "mallory")).thenReturn(false);
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(access.isParticipant(42L, "mallory"));
+        }
+
+        verify(chatRepository, times(1)).isParticipant(42L, "mallory");
+    }
+
+    @Test
+    void eachChatIsAskedApart() {
+        when(chatRepository.isParticipant(42L, "alice")).thenReturn(true);
+
+        assertTrue(access.isParticipant(42L, "alice"));
+        assertFalse(access.isParticipant(43L, "alice"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.alex.chat.service;
+
+import com.alex.chat.config.redis.ChatEventStream;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.ChatReplay;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.store.MessageStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ChatReplayServiceTests {
+
+    private static final long T0 = 1_723_456_789_000L;
+
+    private final ChatEventStream eventStream = mock(ChatEventStream.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ChatReplayService replay = new ChatReplayService(eventStream, messageStore,
+            new ChatMetricsService(new SimpleMeterRegistry()), 2);
+
+    @Test
+    void gapStillInTheStreamNeverTouchesTheDatabase() {
+        when(eventStream.read(42L, T0 + "-0"))
+                .thenReturn(new ChatEventStream.Slice(List.of(streamed(T0 + 5, 11L, "b"), streamed(T0 + 9, 12L, "c")), true));
+
+        ChatReplay result = replay.replay(42L, T0 + "-0", 10L).orElseThrow();
+
+        assertEquals(List.of("b", "c"), contents(result));
+        assertEquals((T0 + 9) + "-0", result.lastStreamId());
+        assertFalse(result.fromDatabase());
+        verifyNoInteractions(messageStore);
+    }
+
+    @Test
+    void nothingNewKeepsTheClientsStreamId() {
+        when(eventStream.read(42L, T0 + "-3")).thenReturn(new ChatEventStream.Slice(List.of(), true));
+
+        assertEquals(T0 + "-3", replay.replay(42L, T0 + "-3", 10L).orElseThrow().lastStreamId());
+    }
+
+    @Test
+    void trimmedGapIsFilledFromTheDatabaseBySequenceUpToTheOldestEntryLeft() {
+        when(eventStream.read(42L, T0 + "-0"))
+                .thenReturn(new ChatEventStream.Slice(List.of(streamed(T0 + 50, 13L, "c")), false));
+        // La hora de guardado no cuenta: el nodo que guardó el 11 iba adelantado
+        when(messageStore.findViewsBetweenSeq(42L, 10L, 13L, 3))
+                .thenReturn(List.of(row(8L, 12L, T0 + 20, "b"), row(7L, 11L, T0 + 90, "a")));
+
+        ChatReplay result = replay.replay(42L, T0 + "-0", 10L).orElseThrow();
+
+        assertEquals(List.of("a", "b", "c"), contents(result));
+        assertNull(result.messages().get(0).getStreamId());
+        assertEquals(11L, result.messages().get(0).getSeq());
+        assertEquals(T0 + 90, result.messages().get(0).getSentAt());
+        assertEquals((T0 + 50) + "-0", result.lastStreamId());
+        assertTrue(result.fromDatabase());
+        assertNull(result.historyCursor());
+    }
+
+    @Test
+    void longDatabaseGapKeepsTheNewestAndPointsToTheHistoryBySequence() {
+        when(eventStream.read(42L, T0 + "-0")).thenReturn(new ChatEventStream.Slice(List.of(), false));
+        when(messageStore.findViewsBetweenSeq(42L, 10L, Long.MAX_VALUE, 3))
+                .thenReturn(List.of(row(9L, 13L, T0 + 30, "c"), row(8L, 12L, T0 + 20, "b"), row(7L, 11L, T0 + 10, "a")));
+
+        ChatReplay result = replay.replay(42L, T0 + "-0", 10L).orElseThrow();
+
+        assertEquals(List.of("b", "c"), contents(result));
+        assertEquals(12L, result.historyCursor());
+        // Sin nada en el stream, el cliente se queda con el ID que tenía
+        assertEquals(T0 + "-0", result.lastStreamId());
+    }
+
+    @Test
+    void withoutTheClientsSequenceTheNewestComeBack() {
+        when(eventStream.read(42L, T0 + "-0")).thenReturn(new ChatEventStream.Slice(List.of(), false));
+
+        replay.replay(42L, T0 + "-0", null);
+
+        verify(messageStore).findViewsBetweenSeq(42L, 0L, Long.MAX_VALUE, 3);
+    }
+
+    @Test
+    void invalidStreamIdIsRejected() {
+        assertTrue(replay.replay(42L, "ayer", 10L).isEmpty());
+        assertTrue(replay.replay(42L, "1723456789000", 10L).isEmpty());
+        verify(eventStream, never()).read(any(), any());
+    }
+
+    private static ChatMessage streamed(long millis, Long seq, String content) {
+        ChatMessage message = new ChatMessage("bob", content, null);
+        message.setChatId(42L);
+        message.setSeq(seq);
+        message.setStreamId(millis + "-0");
+        return message;
+    }
+
+    private static MessageView row(Long id, Long seq, long millis, String content) {
+        return new MessageView(id, 42L, "bob", content, at(millis), seq);
+    }
+    private static LocalDateTime at(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static List<String> contents(ChatReplay replay) {
+        return replay.messages().stream().map(ChatMessage::getContent).toList();
+    }
+}
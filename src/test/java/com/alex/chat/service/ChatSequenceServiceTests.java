@@ -0,0 +1,100 @@
+package com.alex.chat.service;
+
+import com.alex.chat.config.redis.ChatEventStream;
+import com.alex.chat.message.store.MessageStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatSequenceServiceTests {
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ChatEventStream eventStream = mock(ChatEventStream.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ChatSequenceService sequences = new ChatSequenceService(redisTemplate, messageStore,
+            eventStream, new ChatMetricsService(registry));
+
+    ChatSequenceServiceTests() {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+    }
+
+    @Test
+    void rangesComeFromOneScriptCallPerChat() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("chat-seq:42")), eq("1"))).thenReturn(8L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("chat-seq:42")), eq("3"))).thenReturn(11L);
+
+        assertEquals(8L, sequences.next(42L));
+        assertEquals(9L, sequences.allocate(42L, 3));
+        verify(messageStore, never()).findMaxSeq(any());
+    }
+
+    @Test
+    void newChatStartsAtOne() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("chat-seq:7")), eq("1"), eq("0")))
+                .thenReturn(1L);
+
+        assertEquals(1L, sequences.next(7L));
+    }
+
+    @Test
+    void lostCounterIsSeededAboveWhatOtherNodesStillHaveQueued() {
+        when(messageStore.findMaxSeq(42L)).thenReturn(500L);
+        // Otro nodo ya publicó el 510 pero aún no lo ha guardado
+        when(eventStream.lastSeq(42L)).thenReturn(510L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("chat-seq:42")), eq("2"), eq("510")))
+                .thenReturn(512L);
+
+        assertEquals(511L, sequences.allocate(42L, 2));
+    }
+
+    @Test
+    void lostCounterIsSeededAboveWhatThisNodeStillHasQueued() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("chat-seq:42")), eq("1")))
+                .thenReturn(600L)
+                .thenReturn(null);
+        when(messageStore.findMaxSeq(42L)).thenReturn(500L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("chat-seq:42")), eq("1"), eq("600")))
+                .thenReturn(601L);
+
+        assertEquals(600L, sequences.next(42L));
+        assertEquals(601L, sequences.next(42L));
+    }
+
+    @Test
+    void redisDownLeavesTheMessageWithoutSequence() {
+        when(redisTemplate.execute(any(RedisScript.class), any(), any()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        assertNull(sequences.allocate(42L, 5));
+        assertEquals(5.0, registry.counter("chat.sequence.failed").count());
+    }
+
+    @Test
+    void lastAllocatedFallsBackToTheDatabaseForChatsWithoutCounter() {
+        when(values.multiGet(List.of("chat-seq:42", "chat-seq:7", "chat-seq:9")))
+                .thenReturn(Arrays.asList("30", null, null));
+        when(messageStore.findMaxSeq(7L)).thenReturn(12L);
+        when(messageStore.findMaxSeq(9L)).thenReturn(null);
+
+        assertEquals(Map.of(42L, 30L, 7L, 12L), sequences.lastAllocated(List.of(42L, 7L, 9L)));
+    }
+}
@@ -0,0 +1,263 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.ChatSummary;
+import com.alex.chat.dto.InboxEntry;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.repo.MessageRepository;
+import com.alex.chat.message.store.JpaMessageStore;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cuenta las sentencias SQL de cada lectura con las estadísticas de Hibernate:
+ * ninguna debe crecer con el número de mensajes, chats o participantes.
+ */
+@DataJpaTest
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+class ChatServiceQueryCountTests {
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private MessageStore messageStore;
+    private ChatService chatService;
+    private RecentHistoryBuffer recentHistory;
+    private Statistics statistics;
+    private User alice;
+    private Chat general;
+    private Chat random;
+    private Long firstMessageId;
+
+    @BeforeEach
+    void setUp() {
+        messageStore = new JpaMessageStore(messageRepository, chatRepository, entityManager, 30);
+        recentHistory = new RecentHistoryBuffer(messageStore, new ChatMetricsService(new SimpleMeterRegistry()),
+                true, 100, 1 << 20, 60);
+        chatService = new ChatService(messageStore, null, null, mock(UnreadCounterService.class),
+                mock(MessageSearchService.class), mock(ChatSequenceService.class), recentHistory,
+                new ObjectMapper());
+        alice = user("alice");
+        User bob = user("bob");
+        User carol = user("carol");
+        general = chat("general", alice, bob, carol);
+        random = chat("random", alice, bob);
+        firstMessageId = message(general, alice, "hola").getId();
+        message(general, bob, "buenas");
+        message(general, carol, "¿qué tal?");
+        message(random, alice, "hola");
+        message(random, bob, "hey");
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void allMessagesAreOneQuery() {
+        List<MessageView> messages = chatService.getAllMessages();
+
+        assertEquals(5, messages.size());
+        assertEquals("alice", messages.get(0).sender());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void messageByIdIsOneQuery() {
+        MessageView message = chatService.getMessageById(firstMessageId).orElseThrow();
+
+        assertEquals("alice", message.sender());
+        assertEquals(general.getId(), message.chatId());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void chatHistoryIsOneQuery() {
+        chatService.getChatHistory(general.getId(), null, 50);
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void activeChatHistoryComesFromMemoryAfterTheFirstLoad() {
+        recentHistory.roomJoined(general.getId());
+        MessagePage loaded = chatService.getChatHistory(general.getId(), null, 50);
+        statistics.clear();
+
+        MessagePage page = chatService.getChatHistory(general.getId(), null, 50);
+
+        assertEquals(List.of("¿qué tal?", "buenas", "hola"), page.items().stream().map(MessageView::content).toList());
+        assertEquals(loaded, page);
+        assertNull(page.nextCursor());
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void sequenceRangeIsOneQueryInSequenceOrder() {
+        Message third = message(general, carol(), "tercero");
+        third.setSeq(3L);
+        message(general, carol(), "primero").setSeq(1L);
+        message(general, carol(), "fuera del rango").setSeq(9L);
+        message(random, carol(), "otro chat").setSeq(2L);
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+
+        List<MessageView> messages = chatService.getMessagesBySeqRange(general.getId(), 1, 5).orElseThrow();
+
+        assertEquals(List.of("primero", "tercero"), messages.stream().map(MessageView::content).toList());
+        assertEquals(List.of(1L, 3L), messages.stream().map(MessageView::seq).toList());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertTrue(chatService.getMessagesBySeqRange(general.getId(), 5, 1).isEmpty());
+        assertTrue(chatService.getMessagesBySeqRange(general.getId(), 1, 1000).isEmpty());
+    }
+
+    @Test
+    void loadingAMessageLeavesChatAndSenderUnloaded() {
+        Message message = messageRepository.findById(firstMessageId).orElseThrow();
+        message.toString();
+
+        assertFalse(Hibernate.isInitialized(message.getChat()));
+        assertFalse(Hibernate.isInitialized(message.getSender()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void chatsComeWithTheirParticipantsInOneQuery() {
+        List<Chat> chats = chatRepository.findAllByParticipantId(alice.getId());
+
+        assertEquals(2, chats.size());
+        chats.forEach(chat -> assertTrue(Hibernate.isInitialized(chat.getParticipants())));
+        assertEquals(5, chats.stream().mapToInt(chat -> chat.getParticipants().size()).sum());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void chatSummariesAreOneQuery() {
+        List<ChatSummary> summaries = chatRepository.findSummariesByParticipantId(alice.getId());
+
+        assertEquals(2, summaries.size());
+        assertEquals(5, summaries.stream().mapToLong(ChatSummary::participantCount).sum());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void inboxIsOneQueryWhateverTheNumberOfMessages() {
+        Chat empty = chat("vacío", alice);
+        message(random, alice, "un mensaje muy largo ".repeat(20)).setSentAt(LocalDateTime.now().plusMinutes(1));
+        entityManager.flush();
+        entityManager.clear();
+        UnreadCounterService unreadCounters = mock(UnreadCounterService.class);
+        when(unreadCounters.getUnreadCounts(alice.getId())).thenReturn(Map.of(general.getId(), 2L));
+        InboxService inboxService = new InboxService(userRepository, messageStore, unreadCounters);
+        statistics.clear();
+
+        List<InboxEntry> inbox = inboxService.getInbox("alice").orElseThrow();
+
+        // Sin mensajes, el chat vacío se ordena por su creación, posterior a los de "general"
+        assertEquals(List.of(random.getId(), empty.getId(), general.getId()),
+                inbox.stream().map(InboxEntry::chatId).toList());
+        assertEquals("alice", inbox.get(0).lastMessageSender());
+        assertEquals(100, inbox.get(0).lastMessagePreview().length());
+        assertNull(inbox.get(1).lastMessageId());
+        assertEquals("¿qué tal?", inbox.get(2).lastMessagePreview());
+        assertEquals(2, inbox.get(2).unread());
+        // El usuario y la bandeja
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void latestMessageAndHistoryFollowTheSequenceNotTheId() {
+        // Otro nodo guardó el 2 antes que el 1, con un ID más bajo
+        message(general, carol(), "segundo").setSeq(2L);
+        message(general, carol(), "primero").setSeq(1L);
+        entityManager.flush();
+        entityManager.clear();
+        InboxService inboxService = new InboxService(userRepository, messageStore, mock(UnreadCounterService.class));
+
+        InboxEntry inbox = inboxService.getInbox("alice").orElseThrow().stream()
+                .filter(entry -> entry.chatId().equals(general.getId())).findFirst().orElseThrow();
+        MessagePage first = chatService.getChatHistory(general.getId(), null, 3);
+        MessagePage second = chatService.getChatHistory(general.getId(), first.nextCursor(), first.nextSeqCursor(), 3);
+
+        assertEquals("segundo", inbox.lastMessagePreview());
+        assertEquals(List.of("segundo", "primero", "¿qué tal?"),
+                first.items().stream().map(MessageView::content).toList());
+        assertNull(first.nextSeqCursor());
+        assertEquals(List.of("buenas", "hola"), second.items().stream().map(MessageView::content).toList());
+        assertNull(second.nextCursor());
+    }
+
+    private User carol() {
+        return userRepository.findByUsername("carol").orElseThrow();
+    }
+
+    private User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("secret");
+        user.setFullName(username);
+        entityManager.persist(user);
+        return user;
+    }
+
+    private Chat chat(String name, User... participants) {
+        Chat chat = new Chat();
+        chat.setName(name);
+        chat.getParticipants().addAll(List.of(participants));
+        entityManager.persist(chat);
+        return chat;
+    }
+
+    private Message message(Chat chat, User sender, String content) {
+        Message message = new Message();
+        message.setChat(chat);
+        message.setSender(sender);
+        message.setContent(content);
+        entityManager.persist(message);
+        return message;
+    }
+}
@@ -0,0 +1,57 @@
+package com.alex.chat.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IdSequenceMigrationServiceTests {
+
+    private final DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:id-sequences-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+    private final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    private final IdSequenceMigrationService migration = new IdSequenceMigrationService(dataSource, true);
+
+    IdSequenceMigrationServiceTests() {
+        jdbc.execute("CREATE TABLE messages (id BIGINT PRIMARY KEY)");
+        jdbc.execute("CREATE TABLE chats (id BIGINT PRIMARY KEY)");
+        jdbc.execute("CREATE TABLE users (id BIGINT PRIMARY KEY)");
+        // Como las deja Hibernate: mensajes y chats con secuencia nativa (H2), usuarios con tabla (MySQL)
+        jdbc.execute("CREATE SEQUENCE messages_seq START WITH 1 INCREMENT BY 50");
+        jdbc.execute("CREATE SEQUENCE chats_seq START WITH 1 INCREMENT BY 50");
+        jdbc.execute("CREATE TABLE users_seq (next_val BIGINT)");
+        jdbc.update("INSERT INTO users_seq VALUES (1)");
+    }
+
+    @Test
+    void sequencesStartAboveExistingRows() {
+        jdbc.update("INSERT INTO messages VALUES (1), (2), (1234)");
+        jdbc.update("INSERT INTO users VALUES (1), (77)");
+
+        Map<String, Long> seeded = migration.seed();
+
+        assertEquals(Map.of("messages_seq", 1235L, "users_seq", 78L), seeded);
+        assertEquals(1235L, jdbc.queryForObject("SELECT NEXT VALUE FOR messages_seq", Long.class));
+        assertEquals(78L, jdbc.queryForObject("SELECT next_val FROM users_seq", Long.class));
+        // Sin chats no hay nada que mover
+        assertEquals(1L, jdbc.queryForObject("SELECT NEXT VALUE FOR chats_seq", Long.class));
+    }
+
+    @Test
+    void sequencesAheadOfTheRowsAreLeftAlone() {
+        jdbc.update("INSERT INTO messages VALUES (10)");
+        jdbc.update("INSERT INTO users VALUES (10)");
+        migration.seed();
+        // Otro nodo ya ha reservado bloques
+        jdbc.queryForObject("SELECT NEXT VALUE FOR messages_seq", Long.class);
+        jdbc.update("UPDATE users_seq SET next_val = 61");
+
+        assertEquals(Map.of(), migration.seed());
+        assertEquals(61L, jdbc.queryForObject("SELECT NEXT VALUE FOR messages_seq", Long.class));
+        assertEquals(61L, jdbc.queryForObject("SELECT next_val FROM users_seq", Long.class));
+    }
+}
@@ -0,0 +1,136 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.store.MessageStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageSearchServiceTests {
+
+    @TempDir
+    Path indexDir;
+
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private MessageSearchService search;
+
+    @BeforeEach
+    void setUp() {
+        search = new MessageSearchService(messageStore, chatRepository,
+                new ChatMetricsService(new SimpleMeterRegistry()), indexDir.toString(), false, 2);
+        search.start();
+        when(chatRepository.findIdsByParticipantUsername("alice")).thenReturn(List.of(1L, 2L));
+    }
+
+    @AfterEach
+    void tearDown() {
+        search.stop();
+    }
+
+    @Test
+    void searchOnlySeesTheUsersChatsIgnoringCaseAndAccents() {
+        search.index(List.of(
+                view(1L, 1L, "¿Un café?"),
+                view(2L, 2L, "el CAFE de siempre"),
+                view(3L, 3L, "café en un chat ajeno"),
+                view(4L, 1L, "té")));
+        search.refresh();
+
+        assertEquals(List.of(2L, 1L), ids(search.search("alice", "cafe", null, null, 20)));
+        assertEquals(List.of(1L), ids(search.search("alice", "Café", 1L, null, 20)));
+        assertEquals(List.of(), ids(search.search("alice", "café", 3L, null, 20)));
+        assertEquals(List.of(), ids(search.search("alice", "café té", null, null, 20)));
+    }
+
+    @Test
+    void resultsArePagedNewestFirstWithACursor() {
+        search.index(List.of(view(1L, 1L, "hola"), view(2L, 1L, "hola"), view(3L, 2L, "hola")));
+        search.refresh();
+
+        MessagePage first = search.search("alice", "hola", null, null, 2);
+        MessagePage second = search.search("alice", "hola", null, first.nextCursor(), 2);
+
+        assertEquals(List.of(3L, 2L), ids(first));
+        assertEquals(List.of(1L), ids(second));
+        assertNull(second.nextCursor());
+    }
+
+    @Test
+    void rebuildStreamsTheTableInChunks() {
+        search.index(List.of(view(99L, 1L, "hola desde un mensaje ya borrado")));
+        when(messageStore.findViewsAfter(0L, 2))
+                .thenReturn(List.of(view(1L, 1L, "hola"), view(2L, 2L, "hola")));
+        when(messageStore.findViewsAfter(2L, 2)).thenReturn(List.of(view(3L, 1L, "hola")));
+
+        assertEquals(3, search.rebuild());
+
+        assertEquals(List.of(3L, 2L, 1L), ids(search.search("alice", "hola", null, null, 20)));
+    }
+
+    @Test
+    void oneMessageTooLongForTheDocValuesDoesNotStopTheRebuild() {
+        String longContent = "hola " + "x".repeat(MessageSearchService.MAX_DOC_VALUE_BYTES);
+        when(messageStore.findViewsAfter(0L, 2))
+                .thenReturn(List.of(view(1L, 1L, "hola"), view(2L, 1L, longContent)));
+        when(messageStore.findViewsAfter(2L, 2)).thenReturn(List.of(view(3L, 2L, "hola")));
+
+        assertEquals(3, search.rebuild());
+
+        List<MessageView> found = search.search("alice", "hola", null, null, 20).items();
+        assertEquals(List.of(3L, 2L, 1L), found.stream().map(MessageView::id).toList());
+        assertEquals(longContent, found.get(1).content());
+    }
+
+    @Test
+    void catchUpAddsWhatOtherNodesSavedAndDropsWhatWasDeleted() {
+        // Este nodo indexó el 60 y el 70; otro guardó luego el 10 y el 20 (IDs de su bloque) y se borró el 70
+        search.index(List.of(view(60L, 1L, "hola"), view(70L, 1L, "hola")));
+        search.commit();
+        when(messageStore.findIdsAfter(0L, 2)).thenReturn(List.of(10L, 20L));
+        when(messageStore.findIdsAfter(20L, 2)).thenReturn(List.of(60L));
+        when(messageStore.findViewsByIdIn(List.of(10L, 20L)))
+                .thenReturn(List.of(view(10L, 1L, "hola"), view(20L, 2L, "hola")));
+
+        assertEquals(2, search.catchUp());
+
+        assertEquals(List.of(60L, 20L, 10L), ids(search.search("alice", "hola", null, null, 20)));
+    }
+
+    @Test
+    void savedAndDeletedMessagesReachTheIndex() {
+        Message message = new Message();
+        message.setId(5L);
+        when(messageStore.findViewsByIdIn(List.of(5L))).thenReturn(List.of(view(5L, 1L, "nuevo")));
+
+        search.onMessagesPersisted(List.of(message));
+        search.refresh();
+        assertEquals(List.of(5L), ids(search.search("alice", "nuevo", null, null, 20)));
+
+        search.onMessageDeleted(5L);
+        search.refresh();
+        assertEquals(List.of(), ids(search.search("alice", "nuevo", null, null, 20)));
+    }
+
+    private static MessageView view(Long id, Long chatId, String content) {
+        return new MessageView(id, chatId, "bob", content, LocalDateTime.of(2024, 8, 1, 10, 0));
+    }
+
+    private static List<Long> ids(MessagePage page) {
+        return page.items().stream().map(MessageView::id).toList();
+    }
+}
@@ -0,0 +1,133 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageWriteBehindServiceTests {
+
+    private final ChatService chatService = mock(ChatService.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MessageWriteBehindService writeBehind = new MessageWriteBehindService(chatService, userRepository,
+            chatRepository, new ChatMetricsService(registry), transactionManager, 10, 10, 10, 0, 2, 1);
+    private final List<String> saved = new ArrayList<>();
+
+    MessageWriteBehindServiceTests() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        User alice = new User();
+        alice.setId(1L);
+        alice.setUsername("alice");
+        when(userRepository.findByUsernameIn(any())).thenReturn(List.of(alice));
+        when(chatRepository.findExistingIds(any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return ids.stream().filter(id -> id < 100).toList();
+        });
+        when(chatRepository.getReferenceById(any())).thenAnswer(invocation -> {
+            Chat chat = new Chat();
+            chat.setId(invocation.getArgument(0));
+            return chat;
+        });
+    }
+
+    @Test
+    void unknownChatIsSkippedWithoutLosingTheRest() {
+        recordSaves();
+
+        writeBehind.flush(List.of(message(1L, "uno"), message(500L, "perdido"), message(2L, "dos")));
+
+        assertEquals(List.of("uno", "dos"), saved);
+        assertEquals(1.0, registry.counter("chat.persistence.writebehind.failed").count());
+    }
+
+    @Test
+    void transientFailureIsRetriedWithTheWholeBatch() {
+        int[] calls = {0};
+        doAnswer(invocation -> {
+            if (calls[0]++ == 0) {
+                throw new QueryTimeoutException("la base de datos no responde");
+            }
+            List<Message> messages = invocation.getArgument(0);
+            messages.forEach(message -> saved.add(message.getContent()));
+            return null;
+        }).when(chatService).saveMessagesInBatch(any());
+
+        writeBehind.flush(List.of(message(1L, "uno"), message(2L, "dos")));
+
+        assertEquals(List.of("uno", "dos"), saved);
+        assertEquals(1.0, registry.counter("chat.persistence.writebehind.retries").count());
+        assertEquals(0.0, registry.counter("chat.persistence.writebehind.failed").count());
+    }
+
+    @Test
+    void aRowThatAlwaysFailsOnlyLosesItself() {
+        doAnswer(invocation -> {
+            List<Message> messages = invocation.getArgument(0);
+            if (messages.stream().anyMatch(message -> message.getContent().equals("malo"))) {
+                throw new DataIntegrityViolationException("fila inválida");
+            }
+            messages.forEach(message -> saved.add(message.getContent()));
+            return null;
+        }).when(chatService).saveMessagesInBatch(any());
+
+        writeBehind.flush(List.of(message(1L, "uno"), message(1L, "malo"), message(2L, "dos")));
+
+        assertEquals(List.of("uno", "dos"), saved);
+        assertEquals(2.0, registry.counter("chat.persistence.writebehind.retries").count());
+        assertEquals(1.0, registry.counter("chat.persistence.writebehind.failed").count());
+        assertEquals(2.0, registry.counter("chat.persistence.writebehind.persisted").count());
+    }
+
+    @Test
+    void messagesForMissingChatsAreNotQueued() {
+        when(chatRepository.existsById(7L)).thenReturn(true);
+        when(chatRepository.existsById(8L)).thenReturn(false);
+
+        assertFalse(writeBehind.enqueue(message(8L, "nadie")));
+        writeBehind.enqueue(message(7L, "hola"));
+        writeBehind.enqueue(message(7L, "otra vez"));
+
+        // El chat que existe solo se consulta una vez
+        verify(chatRepository).existsById(7L);
+        verify(chatService, never()).saveMessagesInBatch(any());
+    }
+
+    private void recordSaves() {
+        doAnswer(invocation -> {
+            List<Message> messages = invocation.getArgument(0);
+            messages.forEach(message -> saved.add(message.getContent()));
+            return null;
+        }).when(chatService).saveMessagesInBatch(any());
+    }
+
+    private static ChatMessage message(Long chatId, String content) {
+        ChatMessage message = new ChatMessage("alice", content, null);
+        message.setChatId(chatId);
+        message.setSeq(1L);
+        return message;
+    }
+}
@@ -0,0 +1,228 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.PresenceView;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Redis es {@link FakeRedis}: los pipelines devuelven la respuesta de cada
+ * comando en orden, como Lettuce, y dos servicios con el mismo Redis se
+ * comportan como dos nodos.
+ */
+class PresenceServiceTests {
+
+    private final FakeRedis redis = new FakeRedis();
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final PresenceService presence = node();
+
+    @Test
+    void userStaysOnlineUntilItsLastSessionCloses() {
+        presence.handleConnected(connected("alice", "s1"));
+        presence.handleConnected(connected("alice", "s2"));
+        presence.handleDisconnect(disconnected("alice", "s1"));
+
+        assertTrue(presence.getPresence(List.of("alice")).get(0).online());
+
+        presence.handleDisconnect(disconnected("alice", "s2"));
+        PresenceView view = presence.getPresence(List.of("alice")).get(0);
+
+        // Sale de Redis: sin nodos en presence:alice y con su última actividad
+        assertFalse(view.online());
+        assertNotNull(view.lastSeen());
+        verify(userRepository, never()).findByUsernameIn(anyCollection());
+    }
+
+    @Test
+    void userConnectedToAnotherNodeIsOnlineThroughRedis() {
+        PresenceService otherNode = node();
+        otherNode.handleConnected(connected("bob", "s1"));
+
+        PresenceView view = presence.getPresence(List.of("bob")).get(0);
+
+        assertTrue(view.online());
+        assertEquals(Set.of("presence:bob"), redis.sets.keySet());
+        verify(userRepository, never()).findByUsernameIn(anyCollection());
+    }
+
+    @Test
+    void presenceOfSeveralUsersComesBackInRequestOrder() {
+        presence.handleConnected(connected("bob", "s1"));
+        redis.lastSeen.put("dave", "1700000000000");
+        when(userRepository.findByUsernameIn(anyCollection()))
+                .thenReturn(List.of(user("carol", false, LocalDateTime.now().minusHours(2))));
+
+        List<PresenceView> views = presence.getPresence(List.of("carol", "bob", "dave", "nobody"));
+
+        assertEquals(List.of("carol", "bob", "dave", "nobody"), views.stream().map(PresenceView::username).toList());
+        assertFalse(views.get(0).online());
+        assertNotNull(views.get(0).lastSeen());
+        assertTrue(views.get(1).online());
+        assertEquals(new PresenceView("dave", false, 1_700_000_000_000L), views.get(2));
+        assertFalse(views.get(3).online());
+        assertNull(views.get(3).lastSeen());
+        // Solo se pregunta a la base de datos por quien Redis no conoce
+        verify(userRepository).findByUsernameIn(List.of("carol", "nobody"));
+    }
+
+    @Test
+    void presenceFallsBackToTheDatabaseWhenRedisIsDown() {
+        redis.down = true;
+        when(userRepository.findByUsernameIn(anyCollection()))
+                .thenReturn(List.of(user("carol", true, LocalDateTime.now())));
+
+        List<PresenceView> views = presence.getPresence(List.of("carol", "nobody"));
+
+        assertTrue(views.get(0).online());
+        assertFalse(views.get(1).online());
+        verify(userRepository).findByUsernameIn(List.of("carol", "nobody"));
+    }
+
+    @Test
+    void flushWritesActivityAndDisconnectionsInOneBatch() {
+        User dave = user("dave", false, null);
+        User erin = user("erin", true, null);
+        User frank = user("frank", true, null);
+        when(userRepository.findByUsernameIn(anyCollection())).thenReturn(List.of(dave, erin, frank));
+        presence.handleConnected(connected("dave", "s1"));
+        presence.handleConnected(connected("erin", "s2"));
+        presence.handleDisconnect(disconnected("erin", "s2"));
+        // frank sigue conectado a otro nodo
+        node().handleConnected(connected("frank", "s3"));
+        presence.handleConnected(connected("frank", "s4"));
+        presence.handleDisconnect(disconnected("frank", "s4"));
+
+        presence.flushToDatabase();
+
+        assertTrue(dave.isOnline());
+        assertNotNull(dave.getLastActive());
+        assertFalse(erin.isOnline());
+        assertNotNull(erin.getLastActive());
+        assertTrue(frank.isOnline());
+    }
+
+    private PresenceService node() {
+        return new PresenceService(redis.template(), userRepository, mock(PlatformTransactionManager.class),
+                new ChatMetricsService(new SimpleMeterRegistry()), 4, 60);
+    }
+
+    private static SessionConnectedEvent connected(String username, String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+        headers.setSessionId(sessionId);
+        return new SessionConnectedEvent(new Object(),
+                MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()), principal(username));
+    }
+
+    private static SessionDisconnectEvent disconnected(String username, String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        headers.setSessionId(sessionId);
+        return new SessionDisconnectEvent(new Object(),
+                MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()), sessionId,
+                CloseStatus.NORMAL, principal(username));
+    }
+
+    private static Principal principal(String username) {
+        return new UsernamePasswordAuthenticationToken(username, null, List.of());
+    }
+
+    private static User user(String username, boolean online, LocalDateTime lastActive) {
+        User user = new User();
+        user.setUsername(username);
+        user.setOnline(online);
+        user.setLastActive(lastActive);
+        return user;
+    }
+
+    /**
+     * Los comandos de Redis que usa la presencia sobre mapas en memoria. No
+     * caducan las claves; {@code down} hace que cada pipeline falle.
+     */
+    private static final class FakeRedis {
+
+        final Map<String, Set<String>> sets = new ConcurrentHashMap<>();
+        final Map<String, String> lastSeen = new ConcurrentHashMap<>();
+        volatile boolean down;
+
+        StringRedisTemplate template() {
+            StringRedisTemplate template = mock(StringRedisTemplate.class);
+            doAnswer(invocation -> {
+                if (down) {
+                    throw new RedisConnectionFailureException("Redis caído");
+                }
+                List<Object> replies = new ArrayList<>();
+                StringRedisConnection connection = mock(StringRedisConnection.class,
+                        command -> {
+                            replies.add(execute(command.getMethod().getName(), command.getRawArguments()));
+                            return null;
+                        });
+                invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection);
+                return replies;
+            }).when(template).executePipelined(any(RedisCallback.class));
+            return template;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object execute(String command, Object[] args) {
+            String key = (String) args[0];
+            return switch (command) {
+                case "sAdd" -> {
+                    Set<String> members = sets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
+                    yield (long) Arrays.stream((String[]) args[1]).filter(members::add).count();
+                }
+                case "sRem" -> {
+                    Set<String> members = sets.getOrDefault(key, new HashSet<>());
+                    long removed = Arrays.stream((String[]) args[1]).filter(members::remove).count();
+                    if (members.isEmpty()) {
+                        sets.remove(key);
+                    }
+                    yield removed;
+                }
+                case "sCard" -> (long) sets.getOrDefault(key, Set.of()).size();
+                case "expire" -> sets.containsKey(key);
+                case "hSet" -> lastSeen.put((String) args[1], (String) args[2]) == null;
+                case "hMSet" -> {
+                    lastSeen.putAll((Map<String, String>) args[1]);
+                    yield "OK";
+                }
+                case "hMGet" -> Arrays.stream((String[]) args[1]).map(lastSeen::get).toList();
+                default -> throw new UnsupportedOperationException(command);
+            };
+        }
+    }
+}
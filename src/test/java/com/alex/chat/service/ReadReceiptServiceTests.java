@@ -0,0 +1,138 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.ChatParticipant;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.ReadReceipt;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import com.alex.chat.websocket.ChatBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReadReceiptServiceTests {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final ChatReadStateRepository readStateRepository = mock(ChatReadStateRepository.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ChatSequenceService sequenceService = mock(ChatSequenceService.class);
+    private final UnreadCounterService unreadCounterService = mock(UnreadCounterService.class);
+    private final ChatBroadcaster broadcaster = mock(ChatBroadcaster.class);
+    private final ReadReceiptService receipts = new ReadReceiptService(userRepository, chatRepository,
+            readStateRepository, messageStore, sequenceService,
+            unreadCounterService, broadcaster, new ChatMetricsService(new SimpleMeterRegistry()),
+            mock(PlatformTransactionManager.class));
+
+    ReadReceiptServiceTests() {
+        when(userRepository.findByUsernameIn(anyCollection()))
+                .thenReturn(List.of(user(1L, "alice"), user(2L, "bob"), user(3L, "carol")));
+        when(chatRepository.findParticipants(anyCollection(), anyCollection())).thenReturn(List.of(
+                new ChatParticipant(42L, 1L), new ChatParticipant(42L, 2L), new ChatParticipant(7L, 3L)));
+        when(sequenceService.lastAllocated(anyCollection())).thenReturn(Map.of(42L, 20L, 7L, 5L));
+    }
+
+    @Test
+    void receiptsAreCoalescedAndSavedInOneBatch() {
+        ChatReadState alice = new ChatReadState(10L, 1L, 42L, 0L, 5L, null);
+        ChatReadState bob = new ChatReadState(11L, 2L, 42L, 0L, 9L, null);
+        when(readStateRepository.findByUserIdInAndChatIdIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(alice, bob));
+
+        receipts.submit("alice", 42L, null, 10L);
+        receipts.submit("alice", 42L, null, 12L);
+        receipts.submit("alice", 42L, null, 11L);
+        receipts.submit("bob", 42L, null, 7L);
+        receipts.submit("carol", 7L, null, 3L);
+        receipts.flush();
+
+        assertEquals(12L, alice.getLastReadSeq());
+        assertEquals(9L, bob.getLastReadSeq());
+        verify(readStateRepository).saveAll(List.of(new ChatReadState(null, 3L, 7L, 0L, 3L, null)));
+        verify(broadcaster).broadcast("chat.42.receipts", List.of(new ReadReceipt(42L, "alice", null, 12L)));
+        verify(broadcaster).broadcast("chat.7.receipts", List.of(new ReadReceipt(7L, "carol", null, 3L)));
+        verify(unreadCounterService).invalidate(Set.of(1L, 3L));
+        verify(userRepository, times(1)).findByUsernameIn(anyCollection());
+    }
+
+    @Test
+    void receiptsByIdUseTheSequenceOfTheMessageNotTheHighestId() {
+        ChatReadState alice = new ChatReadState(10L, 1L, 42L, 0L, 5L, null);
+        when(readStateRepository.findByUserIdInAndChatIdIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(alice));
+        // Con varios nodos el ID más alto no es el último mensaje
+        when(messageStore.findViewsByIdIn(anyCollection()))
+                .thenReturn(List.of(view(900L, 42L, 8L), view(300L, 42L, 11L), view(950L, 7L, 4L)));
+
+        receipts.submit("alice", 42L, 900L, null);
+        receipts.submit("alice", 42L, 300L, null);
+        receipts.submit("alice", 42L, 950L, null);
+        receipts.flush();
+
+        assertEquals(11L, alice.getLastReadSeq());
+        assertEquals(300L, alice.getLastReadMessageId());
+        verify(broadcaster).broadcast("chat.42.receipts", List.of(new ReadReceipt(42L, "alice", 300L, 11L)));
+    }
+
+    @Test
+    void outsidersAndReceiptsPastTheLastMessageAreNotApplied() {
+        when(readStateRepository.findByUserIdInAndChatIdIn(anyCollection(), anyCollection())).thenReturn(List.of());
+
+        receipts.submit("carol", 42L, null, 3L);
+        receipts.submit("nadie", 42L, null, 3L);
+        receipts.submit("alice", 42L, null, 1_000_000L);
+        receipts.submit("bob", 99L, null, 1L);
+        receipts.flush();
+
+        verify(readStateRepository).saveAll(List.of(new ChatReadState(null, 1L, 42L, 0L, 20L, null)));
+        verify(broadcaster).broadcast("chat.42.receipts", List.of(new ReadReceipt(42L, "alice", null, 20L)));
+        verify(broadcaster, times(1)).broadcast(anyString(), any());
+        verify(unreadCounterService).invalidate(Set.of(1L));
+    }
+
+    @Test
+    void failedFlushKeepsReceiptsForTheNextOne() {
+        when(userRepository.findByUsernameIn(anyCollection()))
+                .thenThrow(new QueryTimeoutException("timeout"))
+                .thenReturn(List.of(user(1L, "alice")));
+        when(readStateRepository.findByUserIdInAndChatIdIn(anyCollection(), anyCollection())).thenReturn(List.of());
+
+        receipts.submit("alice", 42L, null, 10L);
+        receipts.flush();
+        verify(broadcaster, never()).broadcast(anyString(), any());
+
+        receipts.flush();
+        verify(broadcaster).broadcast("chat.42.receipts", List.of(new ReadReceipt(42L, "alice", null, 10L)));
+    }
+
+    private static User user(Long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return user;
+    }
+
+    private static MessageView view(Long id, Long chatId, Long seq) {
+        return new MessageView(id, chatId, "bob", "hola", LocalDateTime.now(), seq);
+    }
+}
@@ -0,0 +1,88 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.store.MessageStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReadStateMigrationServiceTests {
+
+    private final DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:read-state-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+    private final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    private final ChatReadStateRepository readStateRepository = mock(ChatReadStateRepository.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final UnreadCounterService unreadCounterService = mock(UnreadCounterService.class);
+    private final ReadStateMigrationService migration = new ReadStateMigrationService(dataSource, readStateRepository,
+            messageStore, unreadCounterService,
+            new DataSourceTransactionManager(dataSource), true, 2);
+
+    ReadStateMigrationServiceTests() {
+        jdbc.execute("CREATE TABLE messages (id BIGINT PRIMARY KEY, chat_id BIGINT, seq BIGINT)");
+        jdbc.execute("CREATE TABLE chat_participants (chat_id BIGINT, user_id BIGINT)");
+        when(readStateRepository.findWithoutSeqAfter(anyLong(), any())).thenReturn(List.of());
+    }
+
+    @Test
+    void legacyReadStatusBecomesOneWatermarkPerUserAndChat() {
+        jdbc.execute("CREATE TABLE message_read_status (message_id BIGINT, user_id BIGINT)");
+        jdbc.update("INSERT INTO messages VALUES (1, 42, NULL), (2, 42, NULL), (3, 42, 1), (4, 42, 2), (5, 7, 1)");
+        jdbc.update("INSERT INTO chat_participants VALUES (42, 1), (42, 2), (7, 2)");
+        // Alice leyó hasta el 3; Bob, el 2 y el 5; Carol ya no está en el chat
+        jdbc.update("INSERT INTO message_read_status VALUES (1, 1), (2, 1), (3, 1), (2, 2), (5, 2), (4, 3)");
+        ChatReadState bobAhead = new ChatReadState(9L, 2L, 7L, 5L, 1L, null);
+        when(readStateRepository.findByUserIdInAndChatIdIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(bobAhead));
+
+        Set<Long> touched = migration.migrate();
+
+        verify(readStateRepository).save(new ChatReadState(null, 1L, 42L, 3L, 1L, null));
+        verify(readStateRepository).save(new ChatReadState(null, 2L, 42L, 2L, 0L, null));
+        assertEquals(Set.of(1L, 2L), touched);
+        verify(unreadCounterService).invalidate(Set.of(1L, 2L));
+        // Ya no se vuelve a leer
+        assertEquals(6, jdbc.queryForList("SELECT * FROM message_read_status_migrated").size());
+        assertEquals(Set.of(), migration.migrate());
+    }
+
+    @Test
+    void watermarksSavedByIdGetTheirSequence() {
+        ChatReadState first = new ChatReadState(1L, 1L, 42L, 300L, 0L, null);
+        ChatReadState second = new ChatReadState(2L, 2L, 42L, 301L, 0L, null);
+        ChatReadState legacy = new ChatReadState(3L, 3L, 42L, 10L, 0L, null);
+        when(readStateRepository.findWithoutSeqAfter(0L, Limit.of(2))).thenReturn(List.of(first, second));
+        when(readStateRepository.findWithoutSeqAfter(2L, Limit.of(2))).thenReturn(List.of(legacy));
+        when(messageStore.findViewsByIdIn(List.of(300L, 301L)))
+                .thenReturn(List.of(view(300L, 8L), view(301L, 5L)));
+        when(messageStore.findViewsByIdIn(List.of(10L))).thenReturn(List.of(view(10L, null)));
+
+        Set<Long> touched = migration.migrate();
+
+        assertEquals(8L, first.getLastReadSeq());
+        assertEquals(5L, second.getLastReadSeq());
+        assertEquals(0L, legacy.getLastReadSeq());
+        assertEquals(Set.of(1L, 2L), touched);
+    }
+
+    private static MessageView view(Long id, Long seq) {
+        return new MessageView(id, 42L, "bob", "hola", LocalDateTime.now(), seq);
+    }
+}
@@ -0,0 +1,195 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.Chat;
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.dto.MessagePage;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.message.entity.Message;
+import com.alex.chat.message.store.MessageStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class RecentHistoryBufferTests {
+
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void liveMessagesAreServedWithoutGoingBackToTheDatabase() {
+        RecentHistoryBuffer buffer = buffer(4, 1 << 20);
+        when(messageStore.findLatestPage(42L, 4))
+                .thenReturn(List.of(row(11L, 2L, "b"), row(10L, 1L, "a")));
+        buffer.roomJoined(42L);
+        buffer.firstPage(42L, 3);
+
+        buffer.onLiveMessage(live(4L, "d"));
+        buffer.onLiveMessage(live(3L, "c"));
+        buffer.onLiveMessage(live(3L, "c"));
+        MessagePage page = buffer.firstPage(42L, 3).orElseThrow();
+
+        assertEquals(List.of("d", "c", "b"), contents(page));
+        // Sin guardar todavía: sin ID, igual que llegaron por WebSocket
+        assertNull(page.items().get(0).id());
+        assertEquals(11L, page.nextCursor());
+        assertEquals(2L, page.nextSeqCursor());
+        verify(messageStore, times(1)).findLatestPage(any(), anyInt());
+        assertEquals(2.0, registry.counter("chat.history.recent.requests", "result", "hit").count());
+    }
+
+    @Test
+    void shortChatIsServedWhole() {
+        RecentHistoryBuffer buffer = buffer(4, 1 << 20);
+        when(messageStore.findLatestPage(42L, 4))
+                .thenReturn(List.of(row(10L, 1L, "a")));
+        buffer.roomJoined(42L);
+
+        MessagePage page = buffer.firstPage(42L, 3).orElseThrow();
+
+        assertEquals(List.of("a"), contents(page));
+        assertNull(page.nextCursor());
+        assertNull(page.nextSeqCursor());
+    }
+
+    @Test
+    void oldestLiveMessagesRollOffAndTheCursorFollowsTheSequence() {
+        RecentHistoryBuffer buffer = buffer(2, 1 << 20);
+        when(messageStore.findLatestPage(42L, 2)).thenReturn(List.of());
+        // Los guardó otro nodo: los IDs salen de una consulta por rango de secuencia
+        when(messageStore.findViewsBySeqRange(42L, 2L, 3L))
+                .thenReturn(List.of(row(70L, 2L, "b"), row(21L, 3L, "c")));
+        buffer.roomJoined(42L);
+        buffer.firstPage(42L, 2);
+
+        buffer.onLiveMessage(live(1L, "a"));
+        buffer.onLiveMessage(live(2L, "b"));
+        buffer.onLiveMessage(live(3L, "c"));
+        MessagePage page = buffer.firstPage(42L, 2).orElseThrow();
+        buffer.firstPage(42L, 2);
+
+        assertEquals(List.of("c", "b"), contents(page));
+        assertEquals(List.of(21L, 70L), page.items().stream().map(MessageView::id).toList());
+        assertEquals(70L, page.nextCursor());
+        assertEquals(2L, page.nextSeqCursor());
+        verify(messageStore, times(1)).findViewsBySeqRange(any(), any(), any());
+    }
+
+    @Test
+    void messagesSavedByThisNodeGetTheirIdsWithoutAQuery() {
+        RecentHistoryBuffer buffer = buffer(2, 1 << 20);
+        when(messageStore.findLatestPage(42L, 2)).thenReturn(List.of());
+        buffer.roomJoined(42L);
+        buffer.firstPage(42L, 2);
+
+        buffer.onLiveMessage(live(1L, "a"));
+        buffer.onLiveMessage(live(2L, "b"));
+        buffer.onLiveMessage(live(3L, "c"));
+        buffer.onMessagesPersisted(List.of(saved(70L, 2L), saved(21L, 3L)));
+        MessagePage page = buffer.firstPage(42L, 2).orElseThrow();
+
+        assertEquals(List.of(21L, 70L), page.items().stream().map(MessageView::id).toList());
+        assertEquals(70L, page.nextCursor());
+        verify(messageStore, never()).findViewsBySeqRange(any(), any(), any());
+    }
+
+    @Test
+    void pageWhoseOldestIsNotSavedYetGoesToTheDatabase() {
+        RecentHistoryBuffer buffer = buffer(2, 1 << 20);
+        when(messageStore.findLatestPage(42L, 2)).thenReturn(List.of());
+        buffer.roomJoined(42L);
+        buffer.firstPage(42L, 2);
+
+        buffer.onLiveMessage(live(1L, "a"));
+        buffer.onLiveMessage(live(2L, "b"));
+        buffer.onLiveMessage(live(3L, "c"));
+
+        assertTrue(buffer.firstPage(42L, 2).isEmpty());
+        assertEquals(1.0, registry.counter("chat.history.recent.requests", "result", "miss").count());
+    }
+
+    @Test
+    void missingSequenceFallsBackToTheDatabaseAndReloads() {
+        RecentHistoryBuffer buffer = buffer(4, 1 << 20);
+        when(messageStore.findLatestPage(42L, 4))
+                .thenReturn(List.of(row(10L, 1L, "a")))
+                .thenReturn(List.of(row(11L, 2L, "b"), row(10L, 1L, "a")));
+        buffer.roomJoined(42L);
+        buffer.firstPage(42L, 3);
+
+        buffer.onLiveMessage(live(3L, "c"));
+        assertTrue(buffer.firstPage(42L, 3).isEmpty());
+        MessagePage page = buffer.firstPage(42L, 3).orElseThrow();
+
+        assertEquals(List.of("c", "b", "a"), contents(page));
+        assertEquals(1.0, registry.counter("chat.history.recent.requests", "result", "miss").count());
+    }
+
+    @Test
+    void chatsWithoutLocalSubscribersAreNotKept() {
+        RecentHistoryBuffer buffer = buffer(4, 1 << 20);
+
+        assertTrue(buffer.firstPage(42L, 3).isEmpty());
+        buffer.onLiveMessage(live(1L, "a"));
+
+        verifyNoInteractions(messageStore);
+        assertEquals(1.0, registry.counter("chat.history.recent.requests", "result", "inactive").count());
+    }
+
+    @Test
+    void memoryBudgetEvictsWholeChats() {
+        RecentHistoryBuffer buffer = buffer(70, 4_000);
+        when(messageStore.findLatestPage(any(), anyInt())).thenReturn(List.of());
+        buffer.roomJoined(1L);
+        buffer.roomJoined(2L);
+        buffer.firstPage(1L, 10);
+        buffer.firstPage(2L, 10);
+
+        assertEquals(1.0, registry.get("chat.history.recent.chats").gauge().value());
+        assertTrue(registry.get("chat.history.recent.bytes").gauge().value() <= 4_000);
+    }
+
+    private RecentHistoryBuffer buffer(int messagesPerChat, long maxBytes) {
+        return new RecentHistoryBuffer(messageStore, new ChatMetricsService(registry),
+                true, messagesPerChat, maxBytes, 60);
+    }
+
+    private static ChatMessage live(Long seq, String content) {
+        ChatMessage message = new ChatMessage("bob", content, null);
+        message.setChatId(42L);
+        message.setSeq(seq);
+        message.setSentAt(System.currentTimeMillis());
+        return message;
+    }
+
+    private static Message saved(Long id, Long seq) {
+        Chat chat = new Chat();
+        chat.setId(42L);
+        Message message = new Message();
+        message.setId(id);
+        message.setChat(chat);
+        message.setSeq(seq);
+        return message;
+    }
+
+    private static MessageView row(Long id, Long seq, String content) {
+        return new MessageView(id, 42L, "bob", content, LocalDateTime.now(), seq);
+    }
+
+    private static List<String> contents(MessagePage page) {
+        return page.items().stream().map(MessageView::content).toList();
+    }
+}
@@ -0,0 +1,117 @@
+package com.alex.chat.service;
+
+import com.alex.chat.dto.TypingEvent;
+import com.alex.chat.websocket.ChatBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class TypingIndicatorServiceTests {
+
+    private static final String CHANNEL = "chat.42.typing";
+
+    private final ChatBroadcaster broadcaster = mock(ChatBroadcaster.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void onlyStateTransitionsAreBroadcast() {
+        TypingIndicatorService typing = service(5000, 100);
+
+        for (int i = 0; i < 20; i++) {
+            typing.onTyping("s1", "alice", 42L, true);
+        }
+        typing.onTyping("s1", "alice", 42L, false);
+        typing.onTyping("s1", "alice", 42L, false);
+
+        verify(broadcaster).broadcast(CHANNEL, new TypingEvent(42L, "alice", true));
+        verify(broadcaster).broadcast(CHANNEL, new TypingEvent(42L, "alice", false));
+        verify(broadcaster, times(2)).broadcast(anyString(), any());
+        assertEquals(20, counter("deduplicated"));
+    }
+
+    @Test
+    void repeatedTypingAboveTheSessionLimitIsDropped() {
+        TypingIndicatorService typing = service(5000, 3);
+
+        typing.onTyping("s1", "alice", 42L, true);
+        for (int i = 0; i < 5; i++) {
+            typing.onTyping("s1", "alice", 42L, true);
+        }
+        typing.onTyping("s2", "bob", 42L, true);
+
+        verify(broadcaster, times(2)).broadcast(anyString(), any());
+        assertEquals(2, counter("deduplicated"));
+        assertEquals(3, counter("rate_limited"));
+    }
+
+    @Test
+    void stopsGetThroughEvenAboveTheLimit() {
+        TypingIndicatorService typing = service(5000, 1);
+
+        typing.onTyping("s1", "alice", 42L, true);
+        typing.onTyping("s1", "alice", 42L, true);
+        typing.onTyping("s1", "alice", 42L, true);
+        typing.onTyping("s1", "alice", 42L, false);
+        typing.onTyping("s1", "alice", 42L, true);
+
+        verify(broadcaster).broadcast(CHANNEL, new TypingEvent(42L, "alice", true));
+        verify(broadcaster).broadcast(CHANNEL, new TypingEvent(42L, "alice", false));
+        assertEquals(3, counter("rate_limited"));
+    }
+
+    @Test
+    void alternatingStartAndStopIsLimitedToo() {
+        TypingIndicatorService typing = service(5000, 3);
+
+        for (int i = 0; i < 50; i++) {
+            typing.onTyping("s1", "alice", 42L, true);
+            typing.onTyping("s1", "alice", 42L, false);
+        }
+
+        // Tres inicios dentro del límite y sus tres finales; el resto de finales no tenía estado
+        verify(broadcaster, times(6)).broadcast(anyString(), any());
+        assertEquals(47, counter("rate_limited"));
+        assertEquals(47, counter("deduplicated"));
+    }
+
+    @Test
+    void silentAndDisconnectedUsersStopTyping() {
+        TypingIndicatorService typing = service(-1, 100);
+        typing.onTyping("s1", "alice", 42L, true);
+        TypingIndicatorService lasting = service(60_000, 100);
+        lasting.onTyping("s2", "bob", 42L, true);
+
+        typing.expireStale();
+        lasting.handleDisconnect(disconnected("s2"));
+
+        verify(broadcaster).broadcast(CHANNEL, new TypingEvent(42L, "alice", false));
+        verify(broadcaster).broadcast(CHANNEL, new TypingEvent(42L, "bob", false));
+    }
+
+    private TypingIndicatorService service(long timeoutMillis, int maxPerSecond) {
+        return new TypingIndicatorService(broadcaster, new ChatMetricsService(meterRegistry), timeoutMillis,
+                maxPerSecond);
+    }
+
+    private double counter(String outcome) {
+        return meterRegistry.get("chat.typing.events").tag("outcome", outcome).counter().count();
+    }
+
+    private static SessionDisconnectEvent disconnected(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        headers.setSessionId(sessionId);
+        return new SessionDisconnectEvent(new Object(),
+                MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()), sessionId, CloseStatus.NORMAL);
+    }
+}
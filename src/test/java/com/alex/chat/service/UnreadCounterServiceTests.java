@@ -0,0 +1,104 @@
+package com.alex.chat.service;
+
+import com.alex.chat.chat.entity.ChatReadState;
+import com.alex.chat.chat.repo.ChatReadStateRepository;
+import com.alex.chat.chat.repo.ChatRepository;
+import com.alex.chat.dto.MessageView;
+import com.alex.chat.dto.UnreadCount;
+import com.alex.chat.message.store.MessageStore;
+import com.alex.chat.user.entity.User;
+import com.alex.chat.user.repo.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UnreadCounterServiceTests {
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashes = mock(HashOperations.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final ChatReadStateRepository readStateRepository = mock(ChatReadStateRepository.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UnreadCounterService counters = new UnreadCounterService(redisTemplate, messageStore,
+            chatRepository, readStateRepository, userRepository, 500);
+
+    UnreadCounterServiceTests() {
+        when(redisTemplate.opsForHash()).thenReturn(hashes);
+        User alice = new User();
+        alice.setId(1L);
+        alice.setUsername("alice");
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(alice));
+        when(chatRepository.findParticipantIds(42L)).thenReturn(List.of(1L, 2L));
+        when(messageStore.findViewById(500L)).thenReturn(Optional.of(view(500L, 42L, 7L)));
+        when(messageStore.findViewById(900L)).thenReturn(Optional.of(view(900L, 43L, 99L)));
+    }
+
+    @Test
+    void markReadMovesTheWatermarkToTheMessageSequence() {
+        when(readStateRepository.findByUserIdAndChatId(1L, 42L)).thenReturn(Optional.empty());
+        when(messageStore.countUnreadMessages(42L, 1L, 7L)).thenReturn(3L);
+
+        assertEquals(Optional.of(3L), counters.markRead("alice", 42L, 500L));
+
+        verify(readStateRepository).save(new ChatReadState(null, 1L, 42L, 500L, 7L, null));
+        verify(hashes).put("unread:1", "42", "3");
+    }
+
+    @Test
+    void watermarkNeverMovesBack() {
+        ChatReadState state = new ChatReadState(5L, 1L, 42L, 600L, 9L, null);
+        when(readStateRepository.findByUserIdAndChatId(1L, 42L)).thenReturn(Optional.of(state));
+        when(messageStore.countUnreadMessages(42L, 1L, 9L)).thenReturn(0L);
+
+        assertEquals(Optional.of(0L), counters.markRead("alice", 42L, 500L));
+
+        assertEquals(9L, state.getLastReadSeq());
+        assertEquals(600L, state.getLastReadMessageId());
+        verify(readStateRepository, never()).save(any());
+    }
+
+    @Test
+    void outsidersAndMessagesOfOtherChatsDoNotMoveAnything() {
+        when(chatRepository.findParticipantIds(43L)).thenReturn(List.of(2L));
+
+        assertTrue(counters.markRead("alice", 43L, 900L).isEmpty());
+        assertTrue(counters.markRead("alice", 42L, 900L).isEmpty());
+        assertTrue(counters.markRead("alice", 42L, 12345L).isEmpty());
+        assertTrue(counters.markRead("nadie", 42L, 500L).isEmpty());
+
+        verify(readStateRepository, never()).save(any());
+        verify(hashes, never()).put(any(), any(), any());
+    }
+
+    @Test
+    void countsAreRebuiltFromTheDatabaseWhenRedisDoesNotHaveThemAll() {
+        when(hashes.entries("unread:1")).thenReturn(Map.of("42", "9"));
+        when(messageStore.countUnreadByChat(1L))
+                .thenReturn(List.of(new UnreadCount(42L, 2L), new UnreadCount(43L, 0L)));
+
+        assertEquals(Map.of(42L, 2L, 43L, 0L), counters.getUnreadCounts(1L));
+        verify(hashes).putAll("unread:1", Map.of("42", "2", "43", "0", "_loaded", "1"));
+
+        when(hashes.entries("unread:1")).thenReturn(Map.of("42", "5", "_loaded", "1"));
+        assertEquals(Map.of(42L, 5L), counters.getUnreadCounts(1L));
+    }
+
+    private static MessageView view(Long id, Long chatId, Long seq) {
+        return new MessageView(id, chatId, "bob", "hola", LocalDateTime.now(), seq);
+    }
+}
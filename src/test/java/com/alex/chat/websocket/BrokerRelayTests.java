@@ -0,0 +1,108 @@
+package com.alex.chat.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Modo relay contra {@link EmbeddedStompBroker}: dos nodos con la configuración
+ * de la aplicación ({@link RelayNode}) conectados al mismo broker, sin Redis de
+ * por medio.
+ */
+class BrokerRelayTests {
+
+    private EmbeddedStompBroker broker;
+    private RelayNode nodeA;
+    private RelayNode nodeB;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        broker = new EmbeddedStompBroker();
+        nodeA = new RelayNode(broker.getPort()).awaitBrokerAvailable();
+        nodeB = new RelayNode(broker.getPort()).awaitBrokerAvailable();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodeA.close();
+        nodeB.close();
+        broker.close();
+    }
+
+    @Test
+    void messageSentOnOneNodeReachesClientOnAnother() throws Exception {
+        String destination = ChatTopics.destination(42L);
+        nodeA.connectAndSubscribe("session-1", "sub-1", destination);
+
+        nodeB.send(destination, "hola desde B");
+
+        Message<?> delivered = nodeA.awaitFrame(StompCommand.MESSAGE);
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(delivered);
+        assertEquals(destination, headers.getDestination());
+        assertEquals("sub-1", headers.getSubscriptionId());
+        assertEquals("session-1", headers.getSessionId());
+        assertEquals("hola desde B", new String((byte[]) delivered.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void subscriptionsLiveInTheExternalBroker() throws Exception {
+        String destination = ChatTopics.destination(7L);
+        nodeA.connectAndSubscribe("session-1", "sub-1", destination);
+        nodeB.connectAndSubscribe("session-2", "sub-1", destination);
+
+        assertEquals(2, broker.subscriptionCount(destination));
+    }
+
+    @Test
+    void relayConnectsWithTheConfiguredLogin() throws Exception {
+        nodeA.connectAndSubscribe("session-1", "sub-1", ChatTopics.destination(42L));
+
+        // Sesión de sistema de cada nodo y la del cliente
+        assertEquals(List.of(RelayNode.LOGIN, RelayNode.LOGIN, RelayNode.LOGIN), broker.logins());
+        // Cada nodo escucha los destinos de difusión de usuarios en su sesión de sistema
+        assertEquals(2, broker.subscriptionCount(WebSocketConfig.USER_DESTINATION_BROADCAST));
+        assertEquals(2, broker.subscriptionCount(WebSocketConfig.USER_REGISTRY_BROADCAST));
+    }
+
+    @Test
+    void userDestinationReachesTheUserConnectedToAnotherNode() throws Exception {
+        nodeA.connectAndSubscribe("session-1", "alice", "sub-1", "/user/queue/notifications");
+
+        // El nodo B no sabe dónde está alice: lo difunde y lo resuelve el nodo A
+        assertNull(nodeB.userRegistry().getUser("alice"));
+        nodeB.sendToUser("alice", "/queue/notifications", "hola alice");
+
+        Message<?> delivered = nodeA.awaitFrame(StompCommand.MESSAGE);
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(delivered);
+        assertEquals("session-1", headers.getSessionId());
+        assertEquals("sub-1", headers.getSubscriptionId());
+        // El destino propio de la sesión; el handler de STOMP le devuelve al cliente el /user/... original
+        assertEquals("/queue/notifications-usersession-1", headers.getDestination());
+        assertEquals("hola alice", new String((byte[]) delivered.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void userRegistryIsSharedBetweenNodes() throws Exception {
+        nodeA.connectAndSubscribe("session-1", "alice", "sub-1", "/user/queue/notifications");
+
+        nodeA.broadcastUserRegistry();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (nodeB.userRegistry().getUser("alice") == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(nodeB.userRegistry().getUser("alice"));
+        assertEquals(1, nodeB.userRegistry().getUser("alice").getSessions().size());
+    }
+}
@@ -0,0 +1,218 @@
+package com.alex.chat.websocket;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.BufferingStompDecoder;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Broker STOMP mínimo en el propio proceso, para probar el modo relay sin
+ * RabbitMQ ni ActiveMQ. Entiende CONNECT, SUBSCRIBE, UNSUBSCRIBE, SEND y
+ * DISCONNECT sobre TCP, reparte cada SEND a las suscripciones con el mismo
+ * destino exacto y contesta los {@code receipt}. No comprueba credenciales
+ * (solo apunta con qué login se conectó cada sesión), ni hace heart-beats, ni
+ * transacciones, ni ACK.
+ */
+public class EmbeddedStompBroker implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong messageIds = new AtomicLong();
+    private final List<String> logins = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public EmbeddedStompBroker() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("stomp-broker-accept").start(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Suscripciones activas a un destino en todo el broker.
+     */
+    public int subscriptionCount(String destination) {
+        return connections.stream()
+                .mapToInt(connection -> (int) connection.subscriptions.values().stream()
+                        .filter(destination::equals)
+                        .count())
+                .sum();
+    }
+
+    /**
+     * Logins de los CONNECT recibidos, en orden.
+     */
+    public List<String> logins() {
+        return List.copyOf(logins);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.forEach(Connection::close);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Connection connection = new Connection(serverSocket.accept());
+                connections.add(connection);
+                Thread.ofVirtual().name("stomp-broker-connection").start(connection::readLoop);
+            } catch (IOException e) {
+                // Socket cerrado al parar el broker
+            }
+        }
+    }
+
+    private void dispatch(StompHeaderAccessor send, byte[] body) {
+        String destination = send.getDestination();
+        for (Connection connection : connections) {
+            connection.subscriptions.forEach((subscriptionId, subscribed) -> {
+                if (subscribed.equals(destination)) {
+                    StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+                    headers.setDestination(destination);
+                    headers.setSubscriptionId(subscriptionId);
+                    headers.setMessageId(String.valueOf(messageIds.incrementAndGet()));
+                    if (send.getContentType() != null) {
+                        headers.setContentType(send.getContentType());
+                    }
+                    copyCustomHeaders(send, headers);
+                    connection.send(headers, body);
+                }
+            });
+        }
+    }
+
+    /**
+     * Los brokers reales reenvían las cabeceras propias del SEND; el relay las usa
+     * para los destinos de usuario entre nodos.
+     */
+    private static void copyCustomHeaders(StompHeaderAccessor from, StompHeaderAccessor to) {
+        Map<String, List<String>> nativeHeaders = from.toNativeHeaderMap();
+        nativeHeaders.forEach((name, values) -> {
+            if (!name.equals("destination") && !name.equals("content-type") && !name.equals("content-length")
+                    && !name.equals("receipt") && to.getFirstNativeHeader(name) == null) {
+                values.forEach(value -> to.addNativeHeader(name, value));
+            }
+        });
+    }
+
+    private class Connection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final StompEncoder encoder = new StompEncoder();
+        /** subscriptionId -> destino */
+        private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.out = socket.getOutputStream();
+        }
+
+        void readLoop() {
+            BufferingStompDecoder decoder = new BufferingStompDecoder(new StompDecoder(), 1024 * 1024);
+            byte[] chunk = new byte[8192];
+            try (InputStream in = socket.getInputStream()) {
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    for (Message<byte[]> frame : decoder.decode(ByteBuffer.wrap(chunk, 0, read))) {
+                        if (!handle(frame)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Conexión cerrada por el cliente
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * @return false si la conexión debe cerrarse
+         */
+        private boolean handle(Message<byte[]> frame) {
+            StompHeaderAccessor headers = StompHeaderAccessor.wrap(frame);
+            StompCommand command = headers.getCommand();
+            if (command == null) {
+                // Heart-beat
+                return true;
+            }
+            switch (command) {
+                case CONNECT, STOMP -> {
+                    logins.add(String.valueOf(headers.getLogin()));
+                    StompHeaderAccessor connected = StompHeaderAccessor.create(StompCommand.CONNECTED);
+                    connected.setVersion("1.2");
+                    connected.setHeartbeat(0, 0);
+                    send(connected, new byte[0]);
+                }
+                case SUBSCRIBE -> subscriptions.put(headers.getSubscriptionId(), headers.getDestination());
+                case UNSUBSCRIBE -> subscriptions.remove(headers.getSubscriptionId());
+                case SEND -> dispatch(headers, frame.getPayload());
+                case DISCONNECT -> {
+                    sendReceipt(headers);
+                    return false;
+                }
+                default -> {
+                }
+            }
+            sendReceipt(headers);
+            return true;
+        }
+
+        private void sendReceipt(StompHeaderAccessor headers) {
+            String receipt = headers.getReceipt();
+            if (receipt != null) {
+                StompHeaderAccessor receiptHeaders = StompHeaderAccessor.create(StompCommand.RECEIPT);
+                receiptHeaders.setReceiptId(receipt);
+                send(receiptHeaders, new byte[0]);
+            }
+        }
+
+        void send(StompHeaderAccessor headers, byte[] body) {
+            byte[] bytes = encoder.encode(MessageBuilder.createMessage(body, headers.getMessageHeaders()));
+            writeLock.lock();
+            try {
+                out.write(bytes);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ya cerrado
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IndexedBrokerMessageHandlerTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChatMetricsService metricsService = new ChatMetricsService(meterRegistry);
+    private final BlockingQueue<Message<?>> toClients = new LinkedBlockingQueue<>();
+    private final String destination = ChatTopics.destination(42L);
+    private OutboundSessionRegistry registry;
+    private IndexedBrokerMessageHandler broker;
+
+    @BeforeEach
+    void setUp() {
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        clientOutbound.subscribe(toClients::add);
+        // Escritura en el mismo hilo para poder comprobar los envíos al momento
+        registry = new OutboundSessionRegistry(64 * 1024, Duration.ofSeconds(10), OutboundPolicy.DROP_OLDEST,
+                Runnable::run, metricsService);
+        broker = new IndexedBrokerMessageHandler(new ExecutorSubscribableChannel(), clientOutbound,
+                new ExecutorSubscribableChannel(), List.of("/topic", "/queue"), registry, metricsService);
+        broker.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.stop();
+    }
+
+    @Test
+    void sessionsWithTheSameSubscriptionIdShareOneEncodedFrame() throws Exception {
+        List<WebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sessions.add(openSession("session-" + i));
+            subscribe("session-" + i, "sub-0", destination);
+        }
+
+        broker.handleMessage(message(destination, "hola"));
+
+        WebSocketMessage<?> first = sentFrame(sessions.get(0));
+        assertSame(first, sentFrame(sessions.get(1)));
+        assertSame(first, sentFrame(sessions.get(2)));
+        String frame = ((TextMessage) first).getPayload();
+        assertTrue(frame.startsWith("MESSAGE\n"));
+        assertTrue(frame.contains("subscription:sub-0\n"));
+        assertTrue(frame.contains("destination:" + destination + "\n"));
+        assertTrue(frame.endsWith("hola\0"));
+        assertEquals(1.0, meterRegistry.counter("chat.broker.frames.encoded").count());
+        assertEquals(3.0, meterRegistry.counter("chat.broker.deliveries").count());
+    }
+
+    @Test
+    void unsubscribeAndDisconnectRemoveSessionsFromTheIndex() throws Exception {
+        WebSocketSession first = openSession("session-1");
+        openSession("session-2");
+        subscribe("session-1", "sub-0", destination);
+        subscribe("session-2", "sub-0", destination);
+        subscribe("session-2", "sub-1", ChatTopics.destination(7L));
+        assertEquals(2, broker.getSubscriberCount(destination));
+
+        SimpMessageHeaderAccessor unsubscribe = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        unsubscribe.setSessionId("session-1");
+        unsubscribe.setSubscriptionId("sub-0");
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], unsubscribe.getMessageHeaders()));
+        SimpMessageHeaderAccessor disconnect = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        disconnect.setSessionId("session-2");
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], disconnect.getMessageHeaders()));
+
+        assertEquals(0, broker.getSubscriberCount(destination));
+        assertEquals(0, broker.getSubscriberCount(ChatTopics.destination(7L)));
+        broker.handleMessage(message(destination, "nadie escucha"));
+        verify(first, never()).sendMessage(any());
+        assertEquals(SimpMessageType.DISCONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(toClients.take().getHeaders()));
+    }
+
+    @Test
+    void connectIsAcknowledgedAndUnknownSessionsGetTheOutboundChannel() throws Exception {
+        SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        connect.setSessionId("remote-session");
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        assertEquals(SimpMessageType.CONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(toClients.take().getHeaders()));
+
+        subscribe("remote-session", "sub-0", destination);
+        broker.handleMessage(message(destination, "hola"));
+
+        Message<?> delivered = toClients.take();
+        assertEquals("remote-session", SimpMessageHeaderAccessor.getSessionId(delivered.getHeaders()));
+        assertEquals("sub-0", SimpMessageHeaderAccessor.getSubscriptionId(delivered.getHeaders()));
+        assertEquals("hola", new String((byte[]) delivered.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    private WebSocketSession openSession(String sessionId) {
+        WebSocketSession session = mockSession(sessionId);
+        registry.register(session);
+        return session;
+    }
+
+    private static WebSocketSession mockSession(String sessionId) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private static WebSocketMessage<?> sentFrame(WebSocketSession session) throws Exception {
+        ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(session).sendMessage(captor.capture());
+        return captor.getValue();
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()));
+    }
+
+    private static Message<byte[]> message(String destination, String payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(payload.getBytes(StandardCharsets.UTF_8), headers.getMessageHeaders());
+    }
+}
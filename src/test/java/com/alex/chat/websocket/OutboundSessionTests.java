@@ -0,0 +1,151 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Políticas de la cola de salida con un cliente que no lee: el escritor no se
+ * ejecuta hasta que el test llama a {@link #runWriters()}.
+ */
+class OutboundSessionTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChatMetricsService metricsService = new ChatMetricsService(meterRegistry);
+    private final List<Runnable> pendingWrites = new ArrayList<>();
+    private final WebSocketSession delegate = mock(WebSocketSession.class);
+
+    OutboundSessionTests() {
+        when(delegate.getId()).thenReturn("slow");
+        when(delegate.isOpen()).thenReturn(true);
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestMessagesWithinTheByteLimit() throws Exception {
+        TextMessage first = frame("sub-0", "1");
+        OutboundSession session = session(2 * first.getPayloadLength(), OutboundPolicy.DROP_OLDEST);
+
+        session.sendMessage(first);
+        session.sendMessage(frame("sub-0", "2"));
+        session.sendMessage(frame("sub-0", "3"));
+
+        assertEquals(2, session.getQueuedCount());
+        assertTrue(session.isSlow());
+        assertEquals(1.0, droppedCount("buffer-limit"));
+        runWriters();
+        InOrder written = inOrder(delegate);
+        written.verify(delegate).sendMessage(frame("sub-0", "2"));
+        written.verify(delegate).sendMessage(frame("sub-0", "3"));
+        verify(delegate, never()).sendMessage(first);
+        assertFalse(session.isSlow());
+    }
+
+    @Test
+    void controlFramesAreNeverDropped() throws Exception {
+        TextMessage receipt = new TextMessage("RECEIPT\nreceipt-id:1\n\n\0");
+        OutboundSession session = session(frame("sub-0", "1").getPayloadLength(), OutboundPolicy.DROP_OLDEST);
+
+        session.sendMessage(receipt);
+        session.sendMessage(frame("sub-0", "1"));
+        session.sendMessage(frame("sub-0", "2"));
+
+        runWriters();
+        verify(delegate).sendMessage(receipt);
+        verify(delegate, never()).sendMessage(frame("sub-0", "1"));
+    }
+
+    @Test
+    void coalesceReplacesThePendingMessageOfTheSameSubscription() throws Exception {
+        OutboundSession session = session(2 * frame("sub-0", "a").getPayloadLength(), OutboundPolicy.COALESCE);
+
+        session.offer(frame("sub-0", "a"), "sub-0");
+        session.offer(frame("sub-1", "b"), "sub-1");
+        session.offer(frame("sub-0", "c"), "sub-0");
+
+        assertEquals(2, session.getQueuedCount());
+        assertEquals(1.0, droppedCount("coalesced"));
+        runWriters();
+        // El último de sub-0 ocupa el sitio del primero
+        InOrder written = inOrder(delegate);
+        written.verify(delegate).sendMessage(frame("sub-0", "c"));
+        written.verify(delegate).sendMessage(frame("sub-1", "b"));
+        verify(delegate, never()).sendMessage(frame("sub-0", "a"));
+    }
+
+    @Test
+    void disconnectClosesTheSlowSession() throws Exception {
+        OutboundSession session = session(frame("sub-0", "1").getPayloadLength(), OutboundPolicy.DISCONNECT);
+
+        assertTrue(session.offer(frame("sub-0", "1"), "sub-0"));
+        assertFalse(session.offer(frame("sub-0", "2"), "sub-0"));
+        assertFalse(session.offer(frame("sub-0", "3"), "sub-0"));
+
+        runWriters();
+        verify(delegate).close(CloseStatus.SESSION_NOT_RELIABLE);
+        verify(delegate, never()).sendMessage(any());
+        assertEquals(1.0, meterRegistry.counter("chat.websocket.outbound.slow.disconnects").count());
+    }
+
+    @Test
+    void messagesWaitingLongerThanTheTimeLimitAreDropped() throws Exception {
+        OutboundSession session = new OutboundSession(delegate, 64 * 1024, Duration.ofMillis(1),
+                OutboundPolicy.DROP_OLDEST, pendingWrites::add, metricsService);
+
+        session.offer(frame("sub-0", "old"), "sub-0");
+        Thread.sleep(5);
+        session.offer(frame("sub-0", "new"), "sub-0");
+
+        assertEquals(1, session.getQueuedCount());
+        assertEquals(1.0, droppedCount("time-limit"));
+    }
+
+    @Test
+    void subscriptionIsReadFromMessageFramesOnly() {
+        assertEquals("sub-7", OutboundSession.subscriptionOf(frame("sub-7", "hola")));
+        assertEquals("sub-7", OutboundSession.subscriptionOf(
+                new BinaryMessage(frame("sub-7", "hola").asBytes())));
+        assertEquals("", OutboundSession.subscriptionOf(new TextMessage("MESSAGE\ndestination:/topic/x\n\n\0")));
+        assertNull(OutboundSession.subscriptionOf(new TextMessage("CONNECTED\nversion:1.2\n\n\0")));
+    }
+
+    private OutboundSession session(int bufferSizeLimit, OutboundPolicy policy) {
+        return new OutboundSession(delegate, bufferSizeLimit, Duration.ofSeconds(10), policy,
+                pendingWrites::add, metricsService);
+    }
+
+    private void runWriters() {
+        while (!pendingWrites.isEmpty()) {
+            pendingWrites.remove(0).run();
+        }
+    }
+
+    private double droppedCount(String reason) {
+        return meterRegistry.counter("chat.websocket.outbound.dropped", "reason", reason).count();
+    }
+
+    private static TextMessage frame(String subscriptionId, String body) {
+        return new TextMessage(("MESSAGE\ndestination:/topic/chat.42\nsubscription:" + subscriptionId
+                + "\nmessage-id:1\n\n" + body + "\0").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,177 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.security.jwt.JwtUtil;
+import com.alex.chat.service.ChatMetricsService;
+import com.alex.chat.service.PresenceService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Un "nodo" de la aplicación con la mensajería STOMP tal como se arranca en
+ * {@code chat.broker.mode=relay}: {@link WebSocketConfig} y
+ * {@link WebSocketBrokerConfiguration} en un contexto propio, con sus canales,
+ * el relay, los destinos de usuario y el registro de usuarios compartido.
+ * Los frames de los clientes entran por el canal de entrada, como si vinieran
+ * de una sesión WebSocket, y los que el nodo manda a los clientes se guardan en
+ * una cola para poder esperarlos.
+ */
+public class RelayNode implements AutoCloseable {
+
+    static final String LOGIN = "chat-node";
+    static final String PASSCODE = "secreto";
+
+    private final AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+    private final StompBrokerRelayMessageHandler relay;
+    private final MessageChannel clientInbound;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final BlockingQueue<Message<?>> toClients = new LinkedBlockingQueue<>();
+
+    public RelayNode(int brokerPort) {
+        context.setServletContext(new MockServletContext());
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("relay", Map.of(
+                "chat.broker.mode", "relay",
+                "chat.broker.relay.host", "127.0.0.1",
+                "chat.broker.relay.port", brokerPort,
+                "chat.broker.relay.login", LOGIN,
+                "chat.broker.relay.passcode", PASSCODE)));
+        context.register(WebSocketConfig.class, WebSocketBrokerConfiguration.class);
+        context.addBeanFactoryPostProcessor(beanFactory -> {
+            beanFactory.registerSingleton("jwtUtil", mock(JwtUtil.class));
+            beanFactory.registerSingleton("presenceService", mock(PresenceService.class));
+            beanFactory.registerSingleton("chatMetricsService", new ChatMetricsService(new SimpleMeterRegistry()));
+        });
+        context.refresh();
+
+        relay = context.getBean(StompBrokerRelayMessageHandler.class);
+        clientInbound = context.getBean("clientInboundChannel", MessageChannel.class);
+        context.getBean("clientOutboundChannel", AbstractSubscribableChannel.class).subscribe(toClients::add);
+        messagingTemplate = context.getBean("brokerMessagingTemplate", SimpMessagingTemplate.class);
+    }
+
+    /**
+     * Espera a que la sesión de sistema del relay esté conectada al broker.
+     */
+    public RelayNode awaitBrokerAvailable() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!relay.isBrokerAvailable()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("El relay no llegó a conectar con el broker");
+            }
+            Thread.sleep(10);
+        }
+        return this;
+    }
+
+    /**
+     * Conecta un cliente y lo suscribe a un destino; vuelve cuando el broker
+     * confirma la suscripción.
+     */
+    public void connectAndSubscribe(String sessionId, String subscriptionId, String destination)
+            throws InterruptedException {
+        connectAndSubscribe(sessionId, null, subscriptionId, destination);
+    }
+
+    /**
+     * Igual, con un usuario autenticado en la sesión. Como haría el handler de
+     * STOMP al recibir el CONNECTED, la sesión queda en el registro de usuarios
+     * del nodo, así se le pueden mandar mensajes a {@code /user/...}.
+     */
+    public void connectAndSubscribe(String sessionId, String username, String subscriptionId, String destination)
+            throws InterruptedException {
+        Principal user = username != null ? new UsernamePasswordAuthenticationToken(username, null, List.of()) : null;
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setSessionId(sessionId);
+        connect.setUser(user);
+        connect.setAcceptVersion("1.2");
+        connect.setLeaveMutable(true);
+        Message<byte[]> connectMessage = MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders());
+        clientInbound.send(connectMessage);
+        awaitFrame(StompCommand.CONNECTED);
+        if (user != null) {
+            context.publishEvent(new SessionConnectedEvent(this, connectMessage, user));
+        }
+
+        StompHeaderAccessor subscribe = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        subscribe.setSessionId(sessionId);
+        subscribe.setUser(user);
+        subscribe.setSubscriptionId(subscriptionId);
+        subscribe.setDestination(destination);
+        subscribe.setReceipt("subscribed-" + subscriptionId);
+        clientInbound.send(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+        awaitFrame(StompCommand.RECEIPT);
+    }
+
+    /**
+     * Envía un mensaje a un destino desde este nodo, como haría {@link ChatBroadcaster}.
+     */
+    public void send(String destination, Object payload) {
+        messagingTemplate.convertAndSend(destination, payload);
+    }
+
+    /**
+     * Envía un mensaje a todas las sesiones de un usuario, esté en el nodo que esté.
+     */
+    public void sendToUser(String username, String destination, Object payload) {
+        messagingTemplate.convertAndSendToUser(username, destination, payload);
+    }
+
+    /**
+     * Registro de usuarios del nodo: los suyos y los que difunden los demás nodos.
+     */
+    public SimpUserRegistry userRegistry() {
+        return context.getBean(SimpUserRegistry.class);
+    }
+
+    /**
+     * Hace que el nodo difunda ya su registro de usuarios, sin esperar al
+     * siguiente envío periódico: al volver el broker se difunde en el momento.
+     */
+    public void broadcastUserRegistry() {
+        context.publishEvent(new BrokerAvailabilityEvent(false, this));
+        context.publishEvent(new BrokerAvailabilityEvent(true, this));
+    }
+
+    /**
+     * Espera el siguiente frame con ese comando que el nodo manda a un cliente.
+     */
+    public Message<?> awaitFrame(StompCommand command) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            Message<?> message = toClients.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (message == null) {
+                throw new IllegalStateException("No llegó ningún " + command);
+            }
+            if (StompHeaderAccessor.wrap(message).getCommand() == command) {
+                return message;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,156 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.dto.ChatMessage;
+import com.alex.chat.service.ChatMetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomMessageBatcherTests {
+
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final String destination = ChatTopics.destination(42L);
+    private RoomMessageBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        batcher.stop();
+    }
+
+    @Test
+    void messagesWithinTheWindowAreSentAsOneArrayFrame() throws Exception {
+        batcher = batcher(20, 100);
+
+        batcher.add(destination, message("alice", "uno"));
+        batcher.add(destination, message("bob", "dos"));
+        batcher.add(destination, message("alice", "tres"));
+
+        Message<?> frame = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(frame);
+        assertEquals(ChatTopics.batchDestination(destination),
+                SimpMessageHeaderAccessor.getDestination(frame.getHeaders()));
+        assertEquals("3", SimpMessageHeaderAccessor.wrap(frame).getFirstNativeHeader(RoomMessageBatcher.BATCH_SIZE_HEADER));
+        String json = new String((byte[]) frame.getPayload(), StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("[") && json.contains("\"uno\"") && json.indexOf("\"dos\"") < json.indexOf("\"tres\""));
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForTheWindow() {
+        batcher = batcher(60_000, 2);
+
+        batcher.add(destination, message("alice", "uno"));
+        assertTrue(sent.isEmpty());
+        batcher.add(destination, message("bob", "dos"));
+
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void noMessageIsLeftBehindWhileWindowsCloseConcurrently() throws Exception {
+        batcher = batcher(1, 7);
+        int threads = 8;
+        int perThread = 2_000;
+        CountDownLatch ready = new CountDownLatch(threads);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            producers.add(Thread.ofPlatform().start(() -> {
+                ready.countDown();
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < perThread; i++) {
+                    batcher.add(destination, message("alice", "m" + i));
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        batcher.stop();
+
+        int delivered = 0;
+        for (Message<?> frame : sent) {
+            delivered += Integer.parseInt(SimpMessageHeaderAccessor.wrap(frame)
+                    .getFirstNativeHeader(RoomMessageBatcher.BATCH_SIZE_HEADER));
+        }
+        assertEquals(threads * perThread, delivered);
+    }
+
+    @Test
+    void stopSendsWhatIsPending() {
+        batcher = batcher(60_000, 100);
+        batcher.add(destination, message("alice", "uno"));
+        batcher.add(ChatTopics.destination(7L), message("bob", "dos"));
+
+        batcher.stop();
+
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    void subscriptionsWithTheBatchHeaderMoveToTheBatchDestination() {
+        batcher = batcher(50, 100);
+        BatchSubscriptionInterceptor interceptor = new BatchSubscriptionInterceptor();
+
+        Message<?> batched = interceptor.preSend(subscribe(destination, true), null);
+        Message<?> single = subscribe(destination, false);
+
+        assertEquals(ChatTopics.batchDestination(destination), StompHeaderAccessor.wrap(batched).getDestination());
+        assertSame(single, interceptor.preSend(single, null));
+        assertEquals(42L, ChatTopics.chatIdFromDestination(ChatTopics.batchDestination(destination)));
+    }
+
+    private RoomMessageBatcher batcher(long windowMillis, int maxSize) {
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+        channel.subscribe(sent::add);
+        SimpMessagingTemplate template = new SimpMessagingTemplate(channel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        RoomMessageBatcher batcher = new RoomMessageBatcher(template,
+                new ChatMetricsService(new SimpleMeterRegistry()), true, windowMillis, maxSize);
+        batcher.start();
+        return batcher;
+    }
+
+    private static ChatMessage message(String sender, String content) {
+        ChatMessage message = new ChatMessage(sender, content, "12:00:00");
+        message.setChatId(42L);
+        return message;
+    }
+
+    private static Message<byte[]> subscribe(String destination, boolean batch) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        headers.setSessionId("session-1");
+        headers.setSubscriptionId("sub-0");
+        headers.setDestination(destination);
+        if (batch) {
+            headers.setNativeHeader(BatchSubscriptionInterceptor.BATCH_HEADER, "true");
+        }
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
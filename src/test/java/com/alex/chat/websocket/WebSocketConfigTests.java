@@ -0,0 +1,71 @@
+package com.alex.chat.websocket;
+
+import com.alex.chat.security.jwt.JwtUtil;
+import com.alex.chat.service.PresenceService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class WebSocketConfigTests {
+
+    @Test
+    void virtualThreadsKeepTheOrderOfEachSessionBothWays() {
+        WebSocketConfig config = config(true);
+        StompEndpointRegistry endpoints = mock(StompEndpointRegistry.class, RETURNS_DEEP_STUBS);
+        MessageBrokerRegistry broker = mock(MessageBrokerRegistry.class, RETURNS_DEEP_STUBS);
+
+        config.registerStompEndpoints(endpoints);
+        config.configureMessageBroker(broker);
+
+        verify(endpoints).setPreserveReceiveOrder(true);
+        verify(broker).setPreservePublishOrder(true);
+    }
+
+    @Test
+    void platformThreadsKeepTheDefaultPools() {
+        WebSocketConfig config = config(false);
+        StompEndpointRegistry endpoints = mock(StompEndpointRegistry.class, RETURNS_DEEP_STUBS);
+        MessageBrokerRegistry broker = mock(MessageBrokerRegistry.class, RETURNS_DEEP_STUBS);
+        ChannelRegistration inbound = mock(ChannelRegistration.class);
+
+        config.registerStompEndpoints(endpoints);
+        config.configureMessageBroker(broker);
+        config.configureClientInboundChannel(inbound);
+
+        verify(endpoints, never()).setPreserveReceiveOrder(anyBoolean());
+        verify(broker, never()).setPreservePublishOrder(anyBoolean());
+        verify(inbound, never()).executor(any());
+    }
+
+    @Test
+    void clientChannelsRunOnVirtualThreads() throws Exception {
+        ChannelRegistration inbound = mock(ChannelRegistration.class);
+        ChannelRegistration outbound = mock(ChannelRegistration.class);
+
+        config(true).configureClientInboundChannel(inbound);
+        config(true).configureClientOutboundChannel(outbound);
+
+        ArgumentCaptor<SimpleAsyncTaskExecutor> executors = ArgumentCaptor.forClass(SimpleAsyncTaskExecutor.class);
+        verify(inbound).executor(executors.capture());
+        verify(outbound).executor(executors.capture());
+        for (SimpleAsyncTaskExecutor executor : executors.getAllValues()) {
+            assertTrue(executor.submit(() -> Thread.currentThread().isVirtual()).get());
+        }
+    }
+
+    private static WebSocketConfig config(boolean virtualThreads) {
+        return new WebSocketConfig(mock(JwtUtil.class), mock(PresenceService.class), virtualThreads,
+                "simple", "localhost", 61613, "guest", "guest", false);
+    }
+}